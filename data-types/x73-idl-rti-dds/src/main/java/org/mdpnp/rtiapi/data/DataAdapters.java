@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.rtiapi.data;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.rti.dds.infrastructure.Copyable;
+import com.rti.dds.infrastructure.InstanceHandle_t;
+import com.rti.dds.publication.DataWriter;
+import com.rti.dds.subscription.DataReader;
+import com.rti.dds.subscription.ReadCondition;
+import com.rti.dds.subscription.SampleInfoSeq;
+import com.rti.dds.util.Sequence;
+
+/**
+ * Registry of {@link DataReaderAdapter}s and {@link DataWriterAdapter}s keyed
+ * by the generated reader/writer class. The high rate ice topics (Numeric and
+ * SampleArray) have adapters written by hand; any other type gets an adapter
+ * built from MethodHandles the first time it is requested which is then
+ * shared by every reader of that class.
+ */
+public final class DataAdapters {
+    private static final ConcurrentMap<Class<?>, DataReaderAdapter<?, ?>> readers = new ConcurrentHashMap<Class<?>, DataReaderAdapter<?, ?>>();
+    private static final ConcurrentMap<Class<?>, DataWriterAdapter<?, ?>> writers = new ConcurrentHashMap<Class<?>, DataWriterAdapter<?, ?>>();
+    private static final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+    private DataAdapters() {
+    }
+
+    static {
+        registerReader(ice.NumericDataReader.class, new DataReaderAdapter<ice.Numeric, ice.NumericDataReader>() {
+            @Override
+            public void read_w_condition(ice.NumericDataReader reader, Sequence dataSeq, SampleInfoSeq infoSeq, int maxSamples, ReadCondition condition) {
+                reader.read_w_condition((ice.NumericSeq) dataSeq, infoSeq, maxSamples, condition);
+            }
+
+            @Override
+            public void read_instance(ice.NumericDataReader reader, Sequence dataSeq, SampleInfoSeq infoSeq, int maxSamples, InstanceHandle_t handle,
+                    int sampleStates, int viewStates, int instanceStates) {
+                reader.read_instance((ice.NumericSeq) dataSeq, infoSeq, maxSamples, handle, sampleStates, viewStates, instanceStates);
+            }
+
+            @Override
+            public void return_loan(ice.NumericDataReader reader, Sequence dataSeq, SampleInfoSeq infoSeq) {
+                reader.return_loan((ice.NumericSeq) dataSeq, infoSeq);
+            }
+
+            @Override
+            public void get_key_value(ice.NumericDataReader reader, ice.Numeric keyHolder, InstanceHandle_t handle) {
+                reader.get_key_value(keyHolder, handle);
+            }
+        });
+        registerWriter(ice.NumericDataWriter.class, (ice.NumericDataWriter writer, ice.Numeric data, InstanceHandle_t handle) -> writer.write(data, handle));
+
+        registerReader(ice.SampleArrayDataReader.class, new DataReaderAdapter<ice.SampleArray, ice.SampleArrayDataReader>() {
+            @Override
+            public void read_w_condition(ice.SampleArrayDataReader reader, Sequence dataSeq, SampleInfoSeq infoSeq, int maxSamples, ReadCondition condition) {
+                reader.read_w_condition((ice.SampleArraySeq) dataSeq, infoSeq, maxSamples, condition);
+            }
+
+            @Override
+            public void read_instance(ice.SampleArrayDataReader reader, Sequence dataSeq, SampleInfoSeq infoSeq, int maxSamples, InstanceHandle_t handle,
+                    int sampleStates, int viewStates, int instanceStates) {
+                reader.read_instance((ice.SampleArraySeq) dataSeq, infoSeq, maxSamples, handle, sampleStates, viewStates, instanceStates);
+            }
+
+            @Override
+            public void return_loan(ice.SampleArrayDataReader reader, Sequence dataSeq, SampleInfoSeq infoSeq) {
+                reader.return_loan((ice.SampleArraySeq) dataSeq, infoSeq);
+            }
+
+            @Override
+            public void get_key_value(ice.SampleArrayDataReader reader, ice.SampleArray keyHolder, InstanceHandle_t handle) {
+                reader.get_key_value(keyHolder, handle);
+            }
+        });
+        registerWriter(ice.SampleArrayDataWriter.class, (ice.SampleArrayDataWriter writer, ice.SampleArray data, InstanceHandle_t handle) -> writer.write(data, handle));
+    }
+
+    public static <D extends Copyable, R extends DataReader> void registerReader(Class<R> readerClass, DataReaderAdapter<D, R> adapter) {
+        readers.put(readerClass, adapter);
+    }
+
+    public static <D extends Copyable, W extends DataWriter> void registerWriter(Class<W> writerClass, DataWriterAdapter<D, W> adapter) {
+        writers.put(writerClass, adapter);
+    }
+
+    /**
+     * @return the registered adapter for readerClass, or one built from
+     *         MethodHandles if none has been registered
+     */
+    @SuppressWarnings("unchecked")
+    public static <D extends Copyable, R extends DataReader> DataReaderAdapter<D, R> reader(Class<D> dataClass, Class<R> readerClass,
+            Class<? extends Sequence> sequenceClass) {
+        DataReaderAdapter<?, ?> adapter = readers.get(readerClass);
+        if (null == adapter) {
+            adapter = methodHandleReader(dataClass, readerClass, sequenceClass);
+            DataReaderAdapter<?, ?> existing = readers.putIfAbsent(readerClass, adapter);
+            if (null != existing) {
+                adapter = existing;
+            }
+        }
+        return (DataReaderAdapter<D, R>) adapter;
+    }
+
+    /**
+     * @return the registered adapter for writerClass, or one built from
+     *         MethodHandles if none has been registered
+     */
+    @SuppressWarnings("unchecked")
+    public static <D extends Copyable, W extends DataWriter> DataWriterAdapter<D, W> writer(Class<D> dataClass, Class<W> writerClass) {
+        DataWriterAdapter<?, ?> adapter = writers.get(writerClass);
+        if (null == adapter) {
+            adapter = new MethodHandleWriterAdapter<D, W>(dataClass, writerClass);
+            DataWriterAdapter<?, ?> existing = writers.putIfAbsent(writerClass, adapter);
+            if (null != existing) {
+                adapter = existing;
+            }
+        }
+        return (DataWriterAdapter<D, W>) adapter;
+    }
+
+    /**
+     * @return a new MethodHandle based adapter regardless of what is
+     *         registered; mostly useful for comparing against a typed adapter
+     */
+    public static <D extends Copyable, R extends DataReader> DataReaderAdapter<D, R> methodHandleReader(Class<D> dataClass, Class<R> readerClass,
+            Class<? extends Sequence> sequenceClass) {
+        return new MethodHandleReaderAdapter<D, R>(dataClass, readerClass, sequenceClass);
+    }
+
+    /**
+     * Resolves a public method and adapts it to an erased signature (dropping
+     * any return value) so it can be called with invokeExact.
+     */
+    private static MethodHandle bind(Class<?> clazz, String name, MethodType erased, Class<?>... parameterTypes) throws ReflectiveOperationException {
+        return lookup.unreflect(clazz.getMethod(name, parameterTypes)).asType(erased);
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            return new RuntimeException(t);
+        }
+    }
+
+    private static final class MethodHandleReaderAdapter<D extends Copyable, R extends DataReader> implements DataReaderAdapter<D, R> {
+        private final MethodHandle readWCondition, readInstance, returnLoan, getKeyValue;
+
+        MethodHandleReaderAdapter(Class<D> dataClass, Class<R> readerClass, Class<? extends Sequence> sequenceClass) {
+            try {
+                readWCondition = bind(readerClass, "read_w_condition",
+                        MethodType.methodType(void.class, DataReader.class, Sequence.class, SampleInfoSeq.class, int.class, ReadCondition.class),
+                        sequenceClass, SampleInfoSeq.class, int.class, ReadCondition.class);
+                readInstance = bind(readerClass, "read_instance",
+                        MethodType.methodType(void.class, DataReader.class, Sequence.class, SampleInfoSeq.class, int.class, InstanceHandle_t.class, int.class,
+                                int.class, int.class),
+                        sequenceClass, SampleInfoSeq.class, int.class, InstanceHandle_t.class, int.class, int.class, int.class);
+                returnLoan = bind(readerClass, "return_loan", MethodType.methodType(void.class, DataReader.class, Sequence.class, SampleInfoSeq.class),
+                        sequenceClass, SampleInfoSeq.class);
+                getKeyValue = bind(readerClass, "get_key_value", MethodType.methodType(void.class, DataReader.class, Copyable.class, InstanceHandle_t.class),
+                        dataClass, InstanceHandle_t.class);
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void read_w_condition(R reader, Sequence dataSeq, SampleInfoSeq infoSeq, int maxSamples, ReadCondition condition) {
+            try {
+                readWCondition.invokeExact((DataReader) reader, dataSeq, infoSeq, maxSamples, condition);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        public void read_instance(R reader, Sequence dataSeq, SampleInfoSeq infoSeq, int maxSamples, InstanceHandle_t handle, int sampleStates,
+                int viewStates, int instanceStates) {
+            try {
+                readInstance.invokeExact((DataReader) reader, dataSeq, infoSeq, maxSamples, handle, sampleStates, viewStates, instanceStates);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        public void return_loan(R reader, Sequence dataSeq, SampleInfoSeq infoSeq) {
+            try {
+                returnLoan.invokeExact((DataReader) reader, dataSeq, infoSeq);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        public void get_key_value(R reader, D keyHolder, InstanceHandle_t handle) {
+            try {
+                getKeyValue.invokeExact((DataReader) reader, (Copyable) keyHolder, handle);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+    }
+
+    private static final class MethodHandleWriterAdapter<D extends Copyable, W extends DataWriter> implements DataWriterAdapter<D, W> {
+        private final MethodHandle write;
+
+        MethodHandleWriterAdapter(Class<D> dataClass, Class<W> writerClass) {
+            try {
+                write = bind(writerClass, "write", MethodType.methodType(void.class, DataWriter.class, Copyable.class, InstanceHandle_t.class), dataClass,
+                        InstanceHandle_t.class);
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void write(W writer, D data, InstanceHandle_t handle) {
+            try {
+                write.invokeExact((DataWriter) writer, (Copyable) data, handle);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.rtiapi.data;
+
+import com.rti.dds.infrastructure.Copyable;
+import com.rti.dds.infrastructure.InstanceHandle_t;
+import com.rti.dds.subscription.DataReader;
+import com.rti.dds.subscription.ReadCondition;
+import com.rti.dds.subscription.SampleInfoSeq;
+import com.rti.dds.util.Sequence;
+
+/**
+ * Typed access to the generated read operations of a DataReader. The
+ * generated readers share no interface for these so each topic type supplies
+ * an adapter (see {@link DataAdapters}) rather than being driven through
+ * reflection. Errors surface as the RETCODE_ERROR subclasses thrown by the
+ * reader itself (notably RETCODE_NO_DATA).
+ */
+public interface DataReaderAdapter<D extends Copyable, R extends DataReader> {
+    void read_w_condition(R reader, Sequence dataSeq, SampleInfoSeq infoSeq, int maxSamples, ReadCondition condition);
+
+    void read_instance(R reader, Sequence dataSeq, SampleInfoSeq infoSeq, int maxSamples, InstanceHandle_t handle, int sampleStates,
+            int viewStates, int instanceStates);
+
+    void return_loan(R reader, Sequence dataSeq, SampleInfoSeq infoSeq);
+
+    void get_key_value(R reader, D keyHolder, InstanceHandle_t handle);
+}
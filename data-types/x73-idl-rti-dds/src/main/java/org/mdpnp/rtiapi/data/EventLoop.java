@@ -16,6 +16,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +30,29 @@ import com.rti.dds.infrastructure.WaitSet;
 import com.rti.dds.infrastructure.WaitSetProperty_t;
 
 /**
+ * Dispatches DDS conditions to their ConditionHandlers. By default a single
+ * WaitSet is serviced by whichever thread calls
+ * {@link #waitAndHandle(ConditionSeq, Duration_t)}. When constructed with more
+ * than one lane each lane has its own WaitSet (serviced through
+ * {@link #waitAndHandle(int, ConditionSeq, Duration_t)}).
+ * 
+ * The first lane is the control lane. Handlers added with
+ * {@link #addHandler(Condition, ConditionHandler)} and runnables passed to
+ * {@link #doLater(Runnable)} and {@link #doNow(Runnable)} all run there, one
+ * at a time on one thread, exactly as with a single lane; code that keeps its
+ * state in plain collections and checks {@link #isCurrentServiceThread()} can
+ * go on doing so. Only handlers added with
+ * {@link #addParallelHandler(Condition, ConditionHandler)}, which must not
+ * share unguarded state with anything else, are spread across the other
+ * lanes so that one slow reader does not stall the rest. A condition stays on
+ * one lane for its lifetime so its handler is never invoked concurrently or
+ * out of order.
+ * 
+ * A service thread that has to wait for another lane (to apply a handler
+ * change there or to run a runnable on the control lane) goes on applying the
+ * changes queued for its own lane while it waits, so two lanes changing each
+ * other's handlers cannot deadlock.
+ * 
  * @author Jeff Plourde
  *
  */
@@ -40,53 +64,205 @@ public class EventLoop {
         void conditionChanged(Condition condition);
     }
 
-    private final Map<Condition, ConditionHandler> conditionHandlers = new HashMap<Condition, ConditionHandler>();
-    private final List<Mutation> queuedMutations = new ArrayList<Mutation>();
+    private final Lane[] lanes;
+    private final Map<Condition, Lane> conditionLanes = new ConcurrentHashMap<Condition, Lane>();
     private final List<Runnable> queuedRunnables = new ArrayList<Runnable>();
-    private final WaitSet waitSet;
-    private final GuardCondition mutate = new GuardCondition();
+    // System.nanoTime() when queuedRunnables last became non-empty
+    private long queuedRunnablesSince;
     private final GuardCondition runnable = new GuardCondition();
+    private final EventLoopStatistics statistics = new EventLoopStatistics();
+
+    /**
+     * A handler along with the histogram its service times are recorded in;
+     * resolved once when the handler is added.
+     */
+    private static final class Registration {
+        private final ConditionHandler handler;
+        private final Histogram serviceTime;
+
+        Registration(ConditionHandler handler, Histogram serviceTime) {
+            this.handler = handler;
+            this.serviceTime = serviceTime;
+        }
+    }
 
-    protected void handleMutation(Mutation m) {
+    private Registration register(ConditionHandler handler) {
+        return new Registration(handler, statistics.serviceTime(EventLoopStatistics.nameOf(handler)));
+    }
+
+    /**
+     * One WaitSet along with the handlers attached to it and the thread (if
+     * any) currently servicing it.
+     */
+    private final class Lane {
+        private final int index;
+        private final Map<Condition, Registration> conditionHandlers = new HashMap<Condition, Registration>();
+        private final List<Mutation> queuedMutations = new ArrayList<Mutation>();
+        // System.nanoTime() when queuedMutations last became non-empty
+        private long queuedMutationsSince;
+        private final WaitSet waitSet;
+        private final GuardCondition mutate = new GuardCondition();
+        // Number of conditions attached here; guarded by EventLoop.this
+        private int assigned;
+        private Thread currentServiceThread;
+
+        private final ConditionHandler mutateHandler = new ConditionHandler() {
+            @Override
+            public void conditionChanged(Condition condition) {
+                Mutation[] mutations;
+                synchronized (queuedMutations) {
+                    mutations = drainMutations();
+                }
+                for (Mutation m : mutations) {
+                    handleMutation(Lane.this, m);
+                }
+            }
+            
+            @Override
+            public String toString() {
+                return "mutations for lane " + index;
+            }
+        };
+
+        Lane(int index, WaitSetProperty_t properties) {
+            this.index = index;
+            waitSet = null == properties ? new WaitSet() : new WaitSet(properties);
+            waitSet.attach_condition(mutate);
+            conditionHandlers.put(mutate, register(mutateHandler));
+        }
+
+        void enqueue(Mutation m) {
+            synchronized (queuedMutations) {
+                if (queuedMutations.isEmpty()) {
+                    queuedMutationsSince = System.nanoTime();
+                }
+                queuedMutations.add(m);
+                mutate.set_trigger_value(true);
+                // wakes the service thread if it is waiting on another lane
+                queuedMutations.notifyAll();
+            }
+        }
+
+        /**
+         * Takes everything queued; the caller holds queuedMutations
+         */
+        private Mutation[] drainMutations() {
+            if (!queuedMutations.isEmpty()) {
+                statistics.getMutationQueueTime().record(System.nanoTime() - queuedMutationsSince);
+            }
+            Mutation[] mutations = queuedMutations.toArray(new Mutation[queuedMutations.size()]);
+            queuedMutations.clear();
+            mutate.set_trigger_value(false);
+            return mutations;
+        }
+
+        /**
+         * Blocks the calling thread, which services this lane, until c is
+         * done, applying the mutations queued for this lane in the meantime
+         */
+        void await(Completion c) {
+            while (true) {
+                Mutation[] mutations;
+                synchronized (queuedMutations) {
+                    if (c.isDone()) {
+                        return;
+                    }
+                    if (queuedMutations.isEmpty()) {
+                        try {
+                            queuedMutations.wait();
+                        } catch (InterruptedException e) {
+                            log.error("Interrupted waiting for another lane", e);
+                        }
+                        continue;
+                    }
+                    mutations = drainMutations();
+                }
+                for (Mutation m : mutations) {
+                    handleMutation(this, m);
+                }
+            }
+        }
+    }
+
+    /**
+     * Something a caller waits for another lane to do. The service thread of
+     * the caller's own lane, if it is one, waits on that lane's queue instead
+     * of this so it can be woken to apply mutations.
+     */
+    private static abstract class Completion {
+        private final Lane waiter;
+        private boolean done = false;
+
+        Completion(Lane waiter) {
+            this.waiter = waiter;
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        void done() {
+            synchronized (this) {
+                done = true;
+                this.notifyAll();
+            }
+            if (null != waiter) {
+                synchronized (waiter.queuedMutations) {
+                    waiter.queuedMutations.notifyAll();
+                }
+            }
+        }
+
+        void await() {
+            if (null != waiter) {
+                waiter.await(this);
+                return;
+            }
+            synchronized (this) {
+                while (!done) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        log.error("Interrupted waiting for task completion", e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void handleMutation(Lane lane, Mutation m) {
         if (m.isAdd()) {
             // log.debug("Handling an add mutation for " + m.getCondition());
-            conditionHandlers.put(m.getCondition(), m.getConditionHandler());
-            waitSet.attach_condition(m.getCondition());
+            if (null == lane.conditionHandlers.put(m.getCondition(), register(m.getConditionHandler()))) {
+                lane.waitSet.attach_condition(m.getCondition());
+                synchronized (this) {
+                    lane.assigned++;
+                }
+            }
         } else {
             // log.debug("Handling a remove mutation for " + m.getCondition());
-            if (null == conditionHandlers.remove(m.getCondition())) {
+            if (null == lane.conditionHandlers.remove(m.getCondition())) {
                 log.warn("Attempt to detach unknown condition:" + m.getCondition());
                 for (int i = 0; i < m.getTrace().length; i++) {
                     log.warn("\tat " + m.getTrace()[i]);
                 }
             } else {
-                waitSet.detach_condition(m.getCondition());
+                lane.waitSet.detach_condition(m.getCondition());
+                synchronized (this) {
+                    lane.assigned--;
+                }
             }
         }
         m.done();
     }
 
-    private final ConditionHandler mutateHandler = new ConditionHandler() {
-        @Override
-        public void conditionChanged(Condition condition) {
-            Mutation[] mutations = new Mutation[0];
-            synchronized (queuedMutations) {
-                mutations = queuedMutations.toArray(mutations);
-                queuedMutations.clear();
-                ((GuardCondition) condition).set_trigger_value(false);
-            }
-            for (Mutation m : mutations) {
-                handleMutation(m);
-            }
-        }
-    };
-
-    private Thread currentServiceThread;
-
     private final ConditionHandler runnableHandler = new ConditionHandler() {
         public void conditionChanged(Condition condition) {
             Runnable[] runnables = new Runnable[0];
             synchronized (queuedRunnables) {
+                if (!queuedRunnables.isEmpty()) {
+                    statistics.getRunnableQueueTime().record(System.nanoTime() - queuedRunnablesSince);
+                }
                 runnables = queuedRunnables.toArray(runnables);
                 queuedRunnables.clear();
                 ((GuardCondition) condition).set_trigger_value(false);
@@ -95,17 +271,21 @@ public class EventLoop {
                 r.run();
             }
         }
+
+        @Override
+        public String toString() {
+            return "deferred runnables";
+        }
     };
 
-    private static class Mutation {
+    private static class Mutation extends Completion {
         private final boolean add;
         private final Condition condition;
         private final ConditionHandler conditionHandler;
         private final StackTraceElement[] trace;
 
-        private boolean done = false;
-
-        public Mutation(boolean add, Condition condition, ConditionHandler conditionHandler) {
+        public Mutation(Lane waiter, boolean add, Condition condition, ConditionHandler conditionHandler) {
+            super(waiter);
             this.add = add;
             this.condition = condition;
             this.conditionHandler = conditionHandler;
@@ -127,54 +307,131 @@ public class EventLoop {
         public StackTraceElement[] getTrace() {
             return trace;
         }
+    }
+
+    public EventLoop() {
+        this(null, 1);
+    }
+
+    public EventLoop(WaitSetProperty_t properties) {
+        this(properties, 1);
+    }
+
+    public EventLoop(int laneCount) {
+        this(null, laneCount);
+    }
+
+    public EventLoop(WaitSetProperty_t properties, int laneCount) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("An EventLoop requires at least one lane; laneCount=" + laneCount);
+        }
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, properties);
+        }
+        // Deferred runnables are always serviced by the control lane
+        lanes[0].waitSet.attach_condition(runnable);
+        lanes[0].conditionHandlers.put(runnable, register(runnableHandler));
+    }
 
-        public synchronized void done() {
-            this.done = true;
-            this.notifyAll();
+    /**
+     * @return dispatch statistics for this EventLoop
+     */
+    public EventLoopStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return number of runnables waiting for the first lane to run them
+     */
+    public int getQueuedRunnableCount() {
+        synchronized (queuedRunnables) {
+            return queuedRunnables.size();
         }
+    }
 
-        public synchronized void await() {
-            while (!done) {
-                try {
-                    this.wait();
-                } catch (InterruptedException e) {
+    /**
+     * @return nanoseconds the oldest queued runnable has been waiting or zero
+     *         if none are queued
+     */
+    public long getQueuedRunnableAge() {
+        synchronized (queuedRunnables) {
+            return queuedRunnables.isEmpty() ? 0L : System.nanoTime() - queuedRunnablesSince;
+        }
+    }
+
+    /**
+     * @return number of handler additions and removals waiting to be applied
+     *         across all lanes
+     */
+    public int getQueuedMutationCount() {
+        int count = 0;
+        for (Lane lane : lanes) {
+            synchronized (lane.queuedMutations) {
+                count += lane.queuedMutations.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return nanoseconds the oldest queued mutation on any lane has been
+     *         waiting or zero if none are queued
+     */
+    public long getQueuedMutationAge() {
+        long now = System.nanoTime();
+        long age = 0L;
+        for (Lane lane : lanes) {
+            synchronized (lane.queuedMutations) {
+                if (!lane.queuedMutations.isEmpty()) {
+                    age = Math.max(age, now - lane.queuedMutationsSince);
                 }
             }
         }
+        return age;
     }
 
-    public EventLoop() {
-        this(null);
+    /**
+     * @return the number of lanes; each must be serviced by its own thread
+     *         calling {@link #waitAndHandle(int, ConditionSeq, Duration_t)}
+     */
+    public int getLaneCount() {
+        return lanes.length;
     }
 
-    public EventLoop(WaitSetProperty_t properties) {
-        waitSet = null == properties ? new WaitSet() : new WaitSet(properties);
-        waitSet.attach_condition(mutate);
-        waitSet.attach_condition(runnable);
-        conditionHandlers.put(mutate, mutateHandler);
-        conditionHandlers.put(runnable, runnableHandler);
+    /**
+     * @return number of conditions attached to the lane, not counting the
+     *         EventLoop's own
+     */
+    public synchronized int getHandlerCount(int laneIndex) {
+        return lanes[laneIndex].assigned;
     }
     
     private static final long WARNING_ELAPSED_TIME_NANOSECONDS = 100000000L;
 
     public boolean waitAndHandle(ConditionSeq condSeq, Duration_t dur) {
-        // Only one thread at a time can currently service the event loop
+        return waitAndHandle(0, condSeq, dur);
+    }
+
+    public boolean waitAndHandle(int laneIndex, ConditionSeq condSeq, Duration_t dur) {
+        final Lane lane = lanes[laneIndex];
+        // Only one thread at a time can currently service each lane
         long giveup = dur.is_infinite() ? Long.MAX_VALUE : (System.currentTimeMillis() + dur.sec * 1000L + dur.nanosec / 1000000L);
 
         long now = System.currentTimeMillis();
-        synchronized (this) {
-            while (currentServiceThread != null && now < giveup) {
+        synchronized (lane) {
+            while (lane.currentServiceThread != null && now < giveup) {
                 if (dur.is_zero()) {
                     throw new RETCODE_TIMEOUT("Timed out waiting to become service thread");
                 }
                 try {
-                    this.wait(giveup - now);
+                    lane.wait(giveup - now);
                 } catch (InterruptedException e) {
                     log.error("Interrupted", e);
                 }
                 now = System.currentTimeMillis();
             }
-            currentServiceThread = Thread.currentThread();
+            lane.currentServiceThread = Thread.currentThread();
         }
 
         if (!dur.is_zero() && now >= giveup) {
@@ -183,16 +440,19 @@ public class EventLoop {
 
         condSeq.clear();
         try {
-            waitSet.wait(condSeq, dur);
-            for (int i = 0; i < condSeq.size(); i++) {
+            lane.waitSet.wait(condSeq, dur);
+            final int triggered = condSeq.size();
+            statistics.getConditionsPerWait().record(triggered);
+            for (int i = 0; i < triggered; i++) {
                 Condition c = (Condition) condSeq.get(i);
-                ConditionHandler ch = conditionHandlers.get(c);
-                if (null != ch) {
+                Registration r = lane.conditionHandlers.get(c);
+                if (null != r) {
                     long s = System.nanoTime();
-                    ch.conditionChanged(c);
+                    r.handler.conditionChanged(c);
                     long elapsed = System.nanoTime() - s;
+                    r.serviceTime.record(elapsed);
                     if(elapsed >= WARNING_ELAPSED_TIME_NANOSECONDS) {
-                        log.warn(elapsed + "ns to service " + ch);
+                        log.warn(elapsed + "ns to service " + r.handler + " on lane " + lane.index);
                     }
                 } else {
                     log.warn("No ConditionHandler for Condition " + c);
@@ -202,92 +462,147 @@ public class EventLoop {
         } catch (RETCODE_TIMEOUT timeout) {
             return false;
         } finally {
-            synchronized (this) {
-                currentServiceThread = null;
-                this.notifyAll();
+            synchronized (lane) {
+                lane.currentServiceThread = null;
+                lane.notifyAll();
             }
         }
     }
 
-    public synchronized boolean isCurrentServiceThread() {
-        return Thread.currentThread().equals(currentServiceThread);
+    private Lane currentServiceLane() {
+        Thread current = Thread.currentThread();
+        for (Lane lane : lanes) {
+            synchronized (lane) {
+                if (current.equals(lane.currentServiceThread)) {
+                    return lane;
+                }
+            }
+        }
+        return null;
     }
 
+    /**
+     * @return true if the calling thread is currently servicing the control
+     *         lane, where every handler added with
+     *         {@link #addHandler(Condition, ConditionHandler)} and every
+     *         runnable is run
+     */
+    public boolean isCurrentServiceThread() {
+        synchronized (lanes[0]) {
+            return Thread.currentThread().equals(lanes[0].currentServiceThread);
+        }
+    }
+
+    /**
+     * Adds a handler on the control lane
+     */
     public void addHandler(Condition condition, ConditionHandler conditionHandler) {
-        Mutation m = new Mutation(true, condition, conditionHandler);
-        if (isCurrentServiceThread()) {
-            handleMutation(m);
-        } else {
-            synchronized (queuedMutations) {
-                // log.debug("Queue add condition:"+condition);
-                queuedMutations.add(m);
-                mutate.set_trigger_value(true);
+        addHandler(lanes[0], condition, conditionHandler);
+    }
+
+    /**
+     * Adds a handler that may run on any lane, concurrently with the handlers
+     * of other lanes; the least loaded lane other than the control lane is
+     * chosen. Use it for readers that keep to their own state or hand what
+     * they read to another thread.
+     */
+    public void addParallelHandler(Condition condition, ConditionHandler conditionHandler) {
+        Lane lane = lanes[0];
+        synchronized (this) {
+            if (lanes.length > 1) {
+                lane = lanes[1];
+                for (int i = 2; i < lanes.length; i++) {
+                    if (lanes[i].assigned < lane.assigned) {
+                        lane = lanes[i];
+                    }
+                }
             }
-            m.await();
         }
+        addHandler(lane, condition, conditionHandler);
+    }
+
+    /**
+     * Adds a handler on a specific lane rather than letting the EventLoop
+     * choose one.
+     */
+    public void addHandler(int laneIndex, Condition condition, ConditionHandler conditionHandler) {
+        addHandler(lanes[laneIndex], condition, conditionHandler);
+    }
+
+    private void addHandler(Lane lane, Condition condition, ConditionHandler conditionHandler) {
+        // later removals are routed by the latest addition
+        conditionLanes.put(condition, lane);
+        apply(lane, true, condition, conditionHandler);
         // log.debug("addHandler complete for " + condition);
     }
 
     public void removeHandler(Condition condition) {
+        Lane lane = conditionLanes.remove(condition);
+        if (null == lane) {
+            // Unknown condition; let the control lane log the attempt
+            lane = lanes[0];
+        }
+        apply(lane, false, condition, null);
+        // log.debug("removeHandler complete for " + condition);
+    }
 
-        Mutation m = new Mutation(false, condition, null);
-        if (isCurrentServiceThread()) {
-            handleMutation(m);
+    /**
+     * Applies a mutation to lane right away from its own service thread,
+     * otherwise queues it there and waits until it has been applied
+     */
+    private void apply(Lane lane, boolean add, Condition condition, ConditionHandler conditionHandler) {
+        Lane current = currentServiceLane();
+        Mutation m = new Mutation(current, add, condition, conditionHandler);
+        if (lane == current) {
+            handleMutation(lane, m);
         } else {
-            synchronized (queuedMutations) {
-                // log.debug("Queue remove condition:"+condition);
-                queuedMutations.add(m);
-                mutate.set_trigger_value(true);
-            }
+            // log.debug("Queue mutation for condition:"+condition);
+            lane.enqueue(m);
             m.await();
         }
-        // log.debug("removeHandler complete for " + condition);
     }
 
     public void doLater(Runnable r) {
         synchronized (queuedRunnables) {
+            if (queuedRunnables.isEmpty()) {
+                queuedRunnablesSince = System.nanoTime();
+            }
             queuedRunnables.add(r);
             runnable.set_trigger_value(true);
         }
     }
-    
+
+    /**
+     * Runs r on the control lane and returns once it has run
+     */
     public void doNow(Runnable r) {
         if(isCurrentServiceThread()) {
             r.run();
         } else {
-            NestedRunnable nr = new NestedRunnable(r);
+            NestedRunnable nr = new NestedRunnable(currentServiceLane(), r);
             synchronized (queuedRunnables) {
+                if (queuedRunnables.isEmpty()) {
+                    queuedRunnablesSince = System.nanoTime();
+                }
                 queuedRunnables.add(nr);
                 runnable.set_trigger_value(true);
             }
-            nr.waitTillDone();
+            nr.await();
         }
     }
 
-    private static class NestedRunnable implements Runnable {
+    private static class NestedRunnable extends Completion implements Runnable {
         private final Runnable runnable;
-        private boolean done = false;
-        
-        public NestedRunnable(Runnable runnable) {
+
+        public NestedRunnable(Lane waiter, Runnable runnable) {
+            super(waiter);
             this.runnable = runnable;
         }
         public void run() {
             try {
                 runnable.run();
             } finally {
-                synchronized(this) {
-                    done = true;
-                    this.notifyAll();
-                }
-            }
-        }
-        public synchronized void waitTillDone() {
-            while(!done) {
-                try {
-                    this.wait();
-                } catch (InterruptedException e) {
-                    log.error("Interrupted waiting for task completion", e);
-                }
+                done();
             }
         }
     }
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.rtiapi.data;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dispatch statistics gathered by an {@link EventLoop}. Histograms are looked
+ * up by name when a handler is registered (or a reader is started) and then
+ * recorded into directly so nothing is allocated on the dispatch path.
+ */
+public class EventLoopStatistics {
+    private final ConcurrentMap<String, Histogram> serviceTimes = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, Histogram> samplesPerRead = new ConcurrentHashMap<String, Histogram>();
+    private final Histogram conditionsPerWait = new Histogram();
+    private final Histogram runnableQueueTime = new Histogram();
+    private final Histogram mutationQueueTime = new Histogram();
+
+    /**
+     * @return the histogram of nanoseconds spent in handlers with the given
+     *         name, created on first use
+     */
+    public Histogram serviceTime(String handlerName) {
+        return lookup(serviceTimes, handlerName);
+    }
+
+    /**
+     * @return the histogram of samples returned by each read_w_condition on
+     *         the given topic, created on first use
+     */
+    public Histogram samplesPerRead(String topicName) {
+        return lookup(samplesPerRead, topicName);
+    }
+
+    private static Histogram lookup(ConcurrentMap<String, Histogram> map, String name) {
+        Histogram h = map.get(name);
+        if (null == h) {
+            Histogram existing = map.putIfAbsent(name, h = new Histogram());
+            if (null != existing) {
+                h = existing;
+            }
+        }
+        return h;
+    }
+
+    public Map<String, Histogram> getServiceTimes() {
+        return Collections.unmodifiableMap(serviceTimes);
+    }
+
+    public Map<String, Histogram> getSamplesPerRead() {
+        return Collections.unmodifiableMap(samplesPerRead);
+    }
+
+    /**
+     * @return histogram of the number of conditions triggered per WaitSet wait
+     */
+    public Histogram getConditionsPerWait() {
+        return conditionsPerWait;
+    }
+
+    /**
+     * @return histogram of nanoseconds the oldest deferred runnable waited
+     *         before its batch was run
+     */
+    public Histogram getRunnableQueueTime() {
+        return runnableQueueTime;
+    }
+
+    /**
+     * @return histogram of nanoseconds the oldest queued handler mutation
+     *         waited before its batch was applied
+     */
+    public Histogram getMutationQueueTime() {
+        return mutationQueueTime;
+    }
+
+    public void reset() {
+        for (Histogram h : serviceTimes.values()) {
+            h.reset();
+        }
+        for (Histogram h : samplesPerRead.values()) {
+            h.reset();
+        }
+        conditionsPerWait.reset();
+        runnableQueueTime.reset();
+        mutationQueueTime.reset();
+    }
+
+    /**
+     * Handlers are usually anonymous classes so the default toString (which
+     * includes an identity hash) would give every instance its own histogram;
+     * fall back to the class name unless the handler describes itself.
+     */
+    static String nameOf(EventLoop.ConditionHandler handler) {
+        try {
+            if (!Object.class.equals(handler.getClass().getMethod("toString").getDeclaringClass())) {
+                return handler.toString();
+            }
+        } catch (NoSuchMethodException e) {
+            // cannot happen; every class has toString
+        }
+        return handler.getClass().getName();
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.rtiapi.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of non-negative long values with power of two
+ * buckets. Recording never allocates so it is safe to use from the event loop
+ * for every dispatch; percentiles are approximate (reported as the upper bound
+ * of the bucket they fall in, capped at the observed maximum).
+ */
+public final class Histogram {
+    private static final int BUCKETS = 64;
+
+    // bucket i counts values v where 64 - numberOfLeadingZeros(v) == i
+    // ie bucket 0 is v==0, bucket 1 is v==1, bucket 2 is [2,3], bucket 3 is [4,7] ...
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0L) {
+            value = 0L;
+        }
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return 0L == n ? 0L : total.get() / n;
+    }
+
+    /**
+     * @param percentile
+     *            in the range [0,100]
+     * @return approximate value at the given percentile or zero if nothing
+     *         has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += buckets.get(i);
+        }
+        if (0L == n) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * n);
+        if (rank < 1L) {
+            rank = 1L;
+        }
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                long upper = 0 == i ? 0L : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1L);
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0L);
+        }
+        count.set(0L);
+        total.set(0L);
+        max.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " p50=" + getPercentile(50.0) + " p99=" + getPercentile(99.0) + " max=" + getMax();
+    }
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.rtiapi.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.rti.dds.infrastructure.InstanceHandle_t;
+
+/**
+ * The live instances of an {@link InstanceModelImpl} in the order they were
+ * first seen. Looking up the slot of a handle (done for every sample) is a
+ * lock free hash lookup; adding appends to the ordered view and removing
+ * (which only happens when an instance dies) shifts the later slots down.
+ * Mutations are expected from the EventLoop thread only but the accessors
+ * are safe to call from any thread.
+ */
+final class InstanceIndex {
+    private final ConcurrentMap<InstanceHandle_t, Integer> slots = new ConcurrentHashMap<InstanceHandle_t, Integer>();
+    // guarded by this
+    private final List<InstanceHandle_t> ordered = new ArrayList<InstanceHandle_t>();
+
+    /**
+     * @return the slot of handle or -1 if it is not present
+     */
+    public int indexOf(InstanceHandle_t handle) {
+        Integer slot = slots.get(handle);
+        return null == slot ? -1 : slot;
+    }
+
+    /**
+     * Appends a copy of handle (sample handles are reused by the loaned
+     * SampleInfo) if not already present.
+     *
+     * @return the slot of handle
+     */
+    public synchronized int add(InstanceHandle_t handle) {
+        Integer slot = slots.get(handle);
+        if (null != slot) {
+            return slot;
+        }
+        InstanceHandle_t copy = new InstanceHandle_t(handle);
+        int idx = ordered.size();
+        ordered.add(copy);
+        slots.put(copy, idx);
+        return idx;
+    }
+
+    /**
+     * @return the slot handle occupied or -1 if it was not present
+     */
+    public synchronized int remove(InstanceHandle_t handle) {
+        Integer slot = slots.remove(handle);
+        if (null == slot) {
+            return -1;
+        }
+        int idx = slot;
+        ordered.remove(idx);
+        for (int i = idx; i < ordered.size(); i++) {
+            slots.put(ordered.get(i), i);
+        }
+        return idx;
+    }
+
+    /**
+     * @return the handle at index or null if index is out of range
+     */
+    public synchronized InstanceHandle_t get(int index) {
+        return index >= 0 && index < ordered.size() ? ordered.get(index) : null;
+    }
+
+    public synchronized int size() {
+        return ordered.size();
+    }
+
+    /**
+     * @return a snapshot of the handles in order
+     */
+    public synchronized InstanceHandle_t[] toArray() {
+        return ordered.toArray(new InstanceHandle_t[ordered.size()]);
+    }
+}
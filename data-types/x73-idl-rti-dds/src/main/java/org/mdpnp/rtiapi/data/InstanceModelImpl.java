@@ -1,10 +1,5 @@
 package org.mdpnp.rtiapi.data;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.Iterator;
-import java.util.List;
-
 import org.mdpnp.rtiapi.data.ListenerList.Dispatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,7 +35,7 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
     implements ReaderInstanceModel<D,R>,
                WriterInstanceModel<D,W> {
     private final ListenerList<InstanceModelListener<D, R>> listeners = new ListenerList<InstanceModelListener<D,R>>(InstanceModelListener.class);
-    private final List<InstanceHandle_t> instances = new java.util.concurrent.CopyOnWriteArrayList<InstanceHandle_t>();
+    private final InstanceIndex instances = new InstanceIndex();
     
     @Override
     public void addListener(InstanceModelListener<D, R> listener) {
@@ -70,11 +65,9 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
         }
         Sequence sa_seq = InstanceModelImpl.this.sa_seq.get();
         SampleInfoSeq info_seq = InstanceModelImpl.this.info_seq.get();
-        Iterator<InstanceHandle_t> itr = instances.iterator(); 
-        while(itr.hasNext()) {
-            InstanceHandle_t handle = itr.next();
+        for(InstanceHandle_t handle : instances.toArray()) {
             try {
-                readInstance.invoke(reader, sa_seq, info_seq, maxSamples, handle, SampleStateKind.ANY_SAMPLE_STATE, ViewStateKind.ANY_VIEW_STATE, InstanceStateKind.ALIVE_INSTANCE_STATE);
+                readerAdapter.read_instance(reader, sa_seq, info_seq, maxSamples, handle, SampleStateKind.ANY_SAMPLE_STATE, ViewStateKind.ANY_VIEW_STATE, InstanceStateKind.ALIVE_INSTANCE_STATE);
                 boolean reportedAlive = false;
                 for(int i = 0; i < info_seq.size(); i++) {
                     if(!reportedAlive) {
@@ -85,14 +78,13 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
                         listener.instanceSample(this, reader, (D)sa_seq.get(i), (SampleInfo) info_seq.get(i));
                     }
                 }
-            } catch (Exception e) {
-                if(!(e.getCause() instanceof RETCODE_NO_DATA)) {
-                    log.error("read_instance", e);
-                }
+            } catch (RETCODE_NO_DATA noData) {
                 
+            } catch (Exception e) {
+                log.error("read_instance", e);
             } finally {
                 try {
-                    returnLoan.invoke(reader, sa_seq, info_seq);
+                    readerAdapter.return_loan(reader, sa_seq, info_seq);
                 } catch (Exception e) {
                     log.error("return_loan", e);
                 }
@@ -136,9 +128,42 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
         }
     }
     
+    private abstract class ElementDispatcher implements Dispatcher<InstanceModelListener<D,R>> {
+        protected int index;
+        protected InstanceHandle_t handle;
+        
+        public ElementDispatcher set(int index, InstanceHandle_t handle) {
+            this.index = index;
+            this.handle = handle;
+            return this;
+        }
+    }
+    
+    private class ElementInsertedDispatcher extends ElementDispatcher {
+        @Override
+        public void dispatch(InstanceModelListener<D, R> l) {
+            l.elementInserted(InstanceModelImpl.this, index, handle);
+        }
+    }
+    private class ElementRemovedDispatcher extends ElementDispatcher {
+        @Override
+        public void dispatch(InstanceModelListener<D, R> l) {
+            l.elementRemoved(InstanceModelImpl.this, index, handle);
+        }
+    }
+    private class ElementUpdatedDispatcher extends ElementDispatcher {
+        @Override
+        public void dispatch(InstanceModelListener<D, R> l) {
+            l.elementUpdated(InstanceModelImpl.this, index, handle);
+        }
+    }
+    
     private final InstanceAliveDispatcher instanceAlive = new InstanceAliveDispatcher();
     private final InstanceNotAliveDispatcher instanceNotAlive = new InstanceNotAliveDispatcher();
     private final InstanceSampleDispatcher instanceSample = new InstanceSampleDispatcher();
+    private final ElementInsertedDispatcher elementInserted = new ElementInsertedDispatcher();
+    private final ElementRemovedDispatcher elementRemoved = new ElementRemovedDispatcher();
+    private final ElementUpdatedDispatcher elementUpdated = new ElementUpdatedDispatcher();
     
     
     private R reader;
@@ -149,6 +174,7 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
     private Publisher publisher;
     private EventLoop eventLoop;
     private ContentFilteredTopic filteredTopic;
+    private Histogram samplesPerRead;
     
     @Override
     public EventLoop getEventLoop() {
@@ -208,6 +234,18 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
         listeners.fire(instanceSample.set(data, sampleInfo));
     }
     
+    protected void fireElementInserted(int index, InstanceHandle_t handle) {
+        listeners.fire(elementInserted.set(index, handle));
+    }
+    
+    protected void fireElementRemoved(int index, InstanceHandle_t handle) {
+        listeners.fire(elementRemoved.set(index, handle));
+    }
+    
+    protected void fireElementUpdated(int index, InstanceHandle_t handle) {
+        listeners.fire(elementUpdated.set(index, handle));
+    }
+    
     private final EventLoop.ConditionHandler handler = new EventLoop.ConditionHandler() {
         @SuppressWarnings("unchecked")
         @Override
@@ -216,23 +254,23 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
             SampleInfoSeq info_seq = InstanceModelImpl.this.info_seq.get();
             R reader = InstanceModelImpl.this.reader;
             try {
-                readWCondition.invoke(reader, sa_seq, info_seq, ResourceLimitsQosPolicy.LENGTH_UNLIMITED, (ReadCondition) condition);
+                readerAdapter.read_w_condition(reader, sa_seq, info_seq, ResourceLimitsQosPolicy.LENGTH_UNLIMITED, (ReadCondition) condition);
                 InstanceHandle_t lastHandle = InstanceHandle_t.HANDLE_NIL;
                 
                 final int sz = info_seq.size();
+                samplesPerRead.record(sz);
                 
                 for (int i = 0; i < sz; i++) {
                     SampleInfo sampleInfo = (SampleInfo) info_seq.get(i);
                     D d = (D) sa_seq.get(i);
                     if (0 != (sampleInfo.instance_state & InstanceStateKind.NOT_ALIVE_INSTANCE_STATE)) {
                         if(!sampleInfo.valid_data) {
-                            getKeyValue.invoke(reader, d, sampleInfo.instance_handle);
+                            readerAdapter.get_key_value(reader, d, sampleInfo.instance_handle);
                         }
                         fireInstanceNotAlive(d, sampleInfo);
-                        int idx = instances.indexOf(sampleInfo.instance_handle);
+                        int idx = instances.remove(sampleInfo.instance_handle);
                         if(idx>=0) {
-                            instances.remove(idx);
-                            // TODO Fire removal of element at idx
+                            fireElementRemoved(idx, sampleInfo.instance_handle);
                         } else {
                             log.warn("Unable to find instance for removal:"+sampleInfo.instance_handle);
                         }
@@ -243,28 +281,31 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
                         fireInstanceSample(d, sampleInfo);
                         int idx = instances.indexOf(sampleInfo.instance_handle);
                         if(idx>=0) {
-                            // TODO fire element update of element at idx
+                            fireElementUpdated(idx, sampleInfo.instance_handle);
                         } else {
-                            instances.add(new InstanceHandle_t(sampleInfo.instance_handle));
-                            // TODO fire element inserted at instances.size()-1
+                            idx = instances.add(sampleInfo.instance_handle);
+                            fireElementInserted(idx, sampleInfo.instance_handle);
                         }
                     }
                     lastHandle = sampleInfo.instance_handle;
                 }
-            } catch (InvocationTargetException ite) {
-                if(!(ite.getCause() instanceof RETCODE_NO_DATA)) {
-                    log.error("reading", ite);
-                }
+            } catch (RETCODE_NO_DATA noData) {
+
             } catch (Exception e) {
                 log.error("reading ", e);
             } finally {
                 try {
-                    returnLoan.invoke(reader, sa_seq, info_seq);
+                    readerAdapter.return_loan(reader, sa_seq, info_seq);
                 } catch (Exception e) {
                     log.error("return_loan", e);
                 }
             }
         }
+        
+        @Override
+        public String toString() {
+            return "InstanceModel " + topicName;
+        }
     };
 
     protected final String topicName;
@@ -273,25 +314,24 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
     protected final Class<? extends TypeSupport> typeSupportClass;
     protected final Class<? extends Sequence> sequenceClass;
     
-    protected final Method getKeyValue, returnLoan, readWCondition, readInstance, write;
+    protected final DataReaderAdapter<D, R> readerAdapter;
+    protected final DataWriterAdapter<D, W> writerAdapter;
     
     private final LogEntityStatus logEntityStatus;
     
     public InstanceModelImpl(final String topicName, Class<D> dataClass, Class<R> readerClass, Class<W> writerClass, Class<? extends TypeSupport> typeSupportClass, Class<? extends Sequence> sequenceClass) {
+        this(topicName, dataClass, DataAdapters.reader(dataClass, readerClass, sequenceClass),
+             null == writerClass ? null : DataAdapters.writer(dataClass, writerClass), typeSupportClass, sequenceClass);
+    }
+    
+    public InstanceModelImpl(final String topicName, Class<D> dataClass, DataReaderAdapter<D, R> readerAdapter, DataWriterAdapter<D, W> writerAdapter, Class<? extends TypeSupport> typeSupportClass, Class<? extends Sequence> sequenceClass) {
         this.topicName = topicName;
         this.dataClass = dataClass;
         this.typeSupportClass = typeSupportClass;
         this.sequenceClass = sequenceClass;
         this.logEntityStatus = new LogEntityStatus(log, topicName);
-        try {
-            getKeyValue = readerClass.getMethod("get_key_value", dataClass, InstanceHandle_t.class);
-            returnLoan = readerClass.getMethod("return_loan", sequenceClass, SampleInfoSeq.class);
-            readWCondition = readerClass.getMethod("read_w_condition", sequenceClass, SampleInfoSeq.class, int.class, ReadCondition.class);
-            readInstance = readerClass.getMethod("read_instance", sequenceClass, SampleInfoSeq.class, int.class, InstanceHandle_t.class, int.class, int.class, int.class);
-            write = writerClass.getMethod("write", dataClass, InstanceHandle_t.class);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        this.readerAdapter = readerAdapter;
+        this.writerAdapter = writerAdapter;
     }
 
     @Override
@@ -309,6 +349,7 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
     public void startReader(Subscriber subscriber, EventLoop eventLoop, String expression, StringSeq params, String qosLibrary, String qosProfile) {
         this.subscriber = subscriber;
         this.eventLoop = eventLoop;
+        this.samplesPerRead = eventLoop.getStatistics().samplesPerRead(topicName);
 
         if(PublicationBuiltinTopicDataTypeSupport.PUBLICATION_TOPIC_NAME.equals(topicName)) {
             reader = (R) subscriber.lookup_datareader(topicName);
@@ -399,39 +440,36 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
         return instances.size();
     }
 
-    // TODO provide 'get' as part of a collection API
-//    public D getElementAt(int index) {
-//        InstanceHandle_t handle;
-//        // Doesn't seem likely but I've seen it happen
-//        synchronized(instances) {
-//            if(index < instances.size()) {
-//                handle = instances.get(index);
-//            } else {
-//                return null;
-//            }
-//        }
-//        
-//        Sequence sa_seq = InstanceModelImpl.this.sa_seq1.get();
-//        SampleInfoSeq info_seq = InstanceModelImpl.this.info_seq1.get();
-//        R reader = this.reader;
-//        try {
-//            readInstance.invoke(reader, sa_seq, info_seq, ResourceLimitsQosPolicy.LENGTH_UNLIMITED, handle, SampleStateKind.ANY_SAMPLE_STATE, ViewStateKind.ANY_VIEW_STATE, InstanceStateKind.ANY_INSTANCE_STATE);
-//            D d = dataClass.newInstance();
-//            d.copy_from(sa_seq.get(sa_seq.size()-1));
-//            return d;
-//        } catch (Exception e) {
-//            if(!(e.getCause() instanceof RETCODE_NO_DATA)) {
-//                log.error("read_instance", e);
-//            }
-//        } finally {
-//            try {
-//                returnLoan.invoke(reader, sa_seq, info_seq);
-//            } catch (Exception e) {
-//                log.error("return_loan", e);
-//            }
-//        }
-//        return null;
-//    }
+    @SuppressWarnings("unchecked")
+    @Override
+    public D getElementAt(int index) {
+        InstanceHandle_t handle = instances.get(index);
+        if(null == handle) {
+            return null;
+        }
+        
+        Sequence sa_seq = InstanceModelImpl.this.sa_seq1.get();
+        SampleInfoSeq info_seq = InstanceModelImpl.this.info_seq1.get();
+        R reader = this.reader;
+        try {
+            readerAdapter.read_instance(reader, sa_seq, info_seq, ResourceLimitsQosPolicy.LENGTH_UNLIMITED, handle, SampleStateKind.ANY_SAMPLE_STATE, ViewStateKind.ANY_VIEW_STATE, InstanceStateKind.ANY_INSTANCE_STATE);
+            D d = dataClass.newInstance();
+            d.copy_from(sa_seq.get(sa_seq.size()-1));
+            return d;
+        } catch (RETCODE_NO_DATA noData) {
+            
+        } catch (Exception e) {
+            log.error("read_instance", e);
+        } finally {
+            try {
+                readerAdapter.return_loan(reader, sa_seq, info_seq);
+            } catch (Exception e) {
+                log.error("return_loan", e);
+            }
+        }
+        return null;
+    }
+    
     @SuppressWarnings("unchecked")
     @Override
     public void startWriter(Publisher publisher, String qosLibrary, String qosProfile) {
@@ -471,8 +509,8 @@ public class InstanceModelImpl<D extends Copyable, R extends DataReader, W exten
     @Override
     public void write(D data) {
         try {
-            write.invoke(writer, data, InstanceHandle_t.HANDLE_NIL);
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+            writerAdapter.write(writer, data, InstanceHandle_t.HANDLE_NIL);
+        } catch (RuntimeException e) {
             log.error("write error", e);
         }
     }
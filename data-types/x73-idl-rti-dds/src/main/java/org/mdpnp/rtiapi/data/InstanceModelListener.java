@@ -1,6 +1,7 @@
 package org.mdpnp.rtiapi.data;
 
 import com.rti.dds.infrastructure.Copyable;
+import com.rti.dds.infrastructure.InstanceHandle_t;
 import com.rti.dds.subscription.DataReader;
 import com.rti.dds.subscription.SampleInfo;
 
@@ -8,4 +9,22 @@ public interface InstanceModelListener<D extends Copyable, R extends DataReader>
     void instanceAlive(ReaderInstanceModel<D,R> model, R reader, D data, SampleInfo sampleInfo);
     void instanceNotAlive(ReaderInstanceModel<D,R> model, R reader, D keyHolder, SampleInfo sampleInfo);
     void instanceSample(ReaderInstanceModel<D,R> model, R reader, D data, SampleInfo sampleInfo);
+
+    /**
+     * An instance was added to the model at the given index; fired after
+     * instanceSample for the first live sample of the instance.
+     */
+    default void elementInserted(ReaderInstanceModel<D,R> model, int index, InstanceHandle_t handle) {
+    }
+    /**
+     * The instance at the given index was removed; later elements have moved
+     * down by one.
+     */
+    default void elementRemoved(ReaderInstanceModel<D,R> model, int index, InstanceHandle_t handle) {
+    }
+    /**
+     * A new sample arrived for the instance at the given index.
+     */
+    default void elementUpdated(ReaderInstanceModel<D,R> model, int index, InstanceHandle_t handle) {
+    }
 }
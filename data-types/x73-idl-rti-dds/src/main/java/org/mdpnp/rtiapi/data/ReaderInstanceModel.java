@@ -22,4 +22,10 @@ public interface ReaderInstanceModel<D extends Copyable, R extends DataReader> {
     EventLoop getEventLoop();
     
     int size();
+
+    /**
+     * @return a copy of the latest sample of the instance at index (in the
+     *         order instances were first seen) or null if there is none
+     */
+    D getElementAt(int index);
 }
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Walks the records of a capture written by {@link CaptureWriter}, optionally
+ * pacing them to the timing with which they were recorded: at the original
+ * speed (1.0), some multiple of it or as fast as possible (0). The capture is
+ * mapped read only so any number of readers may replay the same file at once.
+ * A reader is used by one thread at a time.
+ */
+public class CaptureReader {
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final long startMillis;
+    private final double speed;
+
+    // the current record
+    private long nanos;
+    private int stream;
+    private boolean inbound;
+    private int length;
+    private int dataStart;
+    private int dataPosition;
+    private int nextRecord = CaptureWriter.HEADER_LENGTH;
+
+    // System.nanoTime() at which the first record was due, minus its stamp
+    private long origin;
+    private boolean started;
+    private long maxLatenessNanos;
+    private long records;
+
+    private volatile boolean closed;
+
+    private static final long MAX_PARK_NANOS = 100000000L;
+
+    /**
+     * @param speed
+     *            multiple of the recorded speed at which to replay or 0 (or
+     *            less) to replay as fast as possible
+     */
+    public CaptureReader(File file, double speed) throws IOException {
+        this.file = file;
+        this.speed = speed;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to replay");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+        } finally {
+            raf.close();
+        }
+        if (buffer.remaining() < CaptureWriter.HEADER_LENGTH || CaptureWriter.MAGIC != buffer.getLong()) {
+            throw new IOException(file + " is not a capture");
+        }
+        int version = buffer.getInt();
+        if (CaptureWriter.VERSION != version) {
+            throw new IOException(file + " is version " + version + " of the capture format");
+        }
+        buffer.getInt();
+        startMillis = buffer.getLong();
+    }
+
+    /**
+     * Advances to the next record without waiting for it to be due
+     *
+     * @return false at the end of the capture (or once closed)
+     */
+    public boolean next() {
+        if (closed) {
+            return false;
+        }
+        final int header = nextRecord;
+        if (header + CaptureWriter.RECORD_HEADER_LENGTH > buffer.limit()) {
+            return false;
+        }
+        final byte flags = buffer.get(header + CaptureWriter.FLAGS_OFFSET);
+        if (0 == (flags & CaptureWriter.FLAG_PRESENT)) {
+            // the rest of the file was never written
+            return false;
+        }
+        final int len = buffer.getInt(header + 8);
+        if (header + CaptureWriter.RECORD_HEADER_LENGTH + len > buffer.limit()) {
+            return false;
+        }
+        nanos = buffer.getLong(header);
+        length = len;
+        stream = buffer.getShort(header + 12);
+        inbound = 0 != (flags & CaptureWriter.FLAG_INBOUND);
+        dataStart = dataPosition = header + CaptureWriter.RECORD_HEADER_LENGTH;
+        nextRecord = dataStart + len;
+        records++;
+        return true;
+    }
+
+    /**
+     * @return nanoseconds until the current record is due (zero or less if it
+     *         is due); the first call starts the replay clock
+     */
+    public long delayNanos(long now) {
+        if (speed <= 0.0) {
+            return 0L;
+        }
+        long scaled = (long) (nanos / speed);
+        if (!started) {
+            started = true;
+            origin = now - scaled;
+        }
+        long delay = origin + scaled - now;
+        if (-delay > maxLatenessNanos) {
+            maxLatenessNanos = -delay;
+        }
+        return delay;
+    }
+
+    /**
+     * Blocks until the current record is due
+     *
+     * @return false if the reader was closed while waiting
+     */
+    public boolean awaitDue() {
+        long delay;
+        while (!closed && (delay = delayNanos(System.nanoTime())) > 0L) {
+            LockSupport.parkNanos(Math.min(delay, MAX_PARK_NANOS));
+        }
+        return !closed;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public int getStream() {
+        return stream;
+    }
+
+    public boolean isInbound() {
+        return inbound;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return bytes of the current record not yet read
+     */
+    public int remaining() {
+        return dataStart + length - dataPosition;
+    }
+
+    /**
+     * Reads from the bytes of the current record
+     *
+     * @return the number of bytes read
+     */
+    public int read(byte[] b, int off, int len) {
+        int n = Math.min(len, remaining());
+        buffer.position(dataPosition);
+        buffer.get(b, off, n);
+        dataPosition += n;
+        return n;
+    }
+
+    /**
+     * Puts as much of the rest of the current record as fits into dst
+     *
+     * @return the number of bytes put
+     */
+    public int read(ByteBuffer dst) {
+        int n = Math.min(dst.remaining(), remaining());
+        buffer.limit(dataPosition + n).position(dataPosition);
+        dst.put(buffer);
+        buffer.limit(buffer.capacity());
+        dataPosition += n;
+        return n;
+    }
+
+    /**
+     * Discards the rest of the current record
+     */
+    public void skip() {
+        dataPosition = dataStart + length;
+    }
+
+    /**
+     * @return the wall clock time (ms) at which the capture began
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the most nanoseconds a record was found due after its time
+     */
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Ends the replay; a thread blocked in {@link #awaitDue()} returns
+     */
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public String toString() {
+        return "[file=" + file + ",speed=" + speed + ",records=" + records + ",maxLatenessNanos=" + maxLatenessNanos + "]";
+    }
+}
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records chunks of bytes exchanged with a device into an append-only capture
+ * file for later replay with {@link CaptureReader}. Each chunk is stamped with
+ * the nanoseconds since the capture began, the stream it belongs to (the
+ * serial port index, for instance) and whether it was inbound (from the
+ * device) or outbound (to the device).
+ *
+ * The file is written through memory mapped regions so that recording a
+ * chunk is a copy rather than a system call. The file is extended a region at
+ * a time and truncated to the recorded length by {@link #close()}. A record
+ * only becomes visible to readers once its last byte is written, so a capture
+ * cut short (by a crash, say) is still readable up to the last whole record.
+ *
+ * Layout: an 8 byte magic number, int version, int reserved and the long
+ * wall clock time (ms) at which the capture began; then for each record the
+ * long nanoseconds, int length, short stream, a reserved byte, byte flags
+ * and the data.
+ */
+public class CaptureWriter {
+    static final long MAGIC = 0x4D44504E50434150L; // MDPNPCAP
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 24;
+    static final int RECORD_HEADER_LENGTH = 16;
+    // offset of the flags within a record header; written last
+    static final int FLAGS_OFFSET = 15;
+    static final byte FLAG_PRESENT = (byte) 0x80;
+    static final byte FLAG_INBOUND = 0x01;
+
+    private static final int DEFAULT_REGION = 16 * 1024 * 1024;
+
+    /**
+     * Directory into which {@link #open(String)} creates captures; when unset
+     * nothing is captured
+     */
+    public static final String DIRECTORY_PROPERTY = "org.mdpnp.devices.io.CaptureWriter.directory";
+
+    private static final Logger log = LoggerFactory.getLogger(CaptureWriter.class);
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int regionSize;
+    private final long startNanos;
+
+    // all guarded by this
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long position;
+    private boolean closed;
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public CaptureWriter(File file) throws IOException {
+        this(file, DEFAULT_REGION);
+    }
+
+    /**
+     * @param regionSize
+     *            bytes of the file mapped at a time
+     */
+    public CaptureWriter(File file, int regionSize) throws IOException {
+        this.file = file;
+        this.regionSize = Math.max(regionSize, HEADER_LENGTH + RECORD_HEADER_LENGTH);
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        channel.truncate(0L);
+        this.startNanos = System.nanoTime();
+        map(0L, this.regionSize);
+        region.putLong(MAGIC);
+        region.putInt(VERSION);
+        region.putInt(0);
+        region.putLong(System.currentTimeMillis());
+        position = HEADER_LENGTH;
+    }
+
+    /**
+     * Opens a capture named for a device in the directory named by the
+     * system property {@link #DIRECTORY_PROPERTY}.
+     *
+     * @return a new capture or null if capture is not enabled (or the file
+     *         cannot be created)
+     */
+    public static CaptureWriter open(String name) {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (null == directory || directory.isEmpty()) {
+            return null;
+        }
+        File file = new File(directory, name + "-" + System.currentTimeMillis() + ".capture");
+        try {
+            CaptureWriter capture = new CaptureWriter(file);
+            log.info("Capturing to " + file);
+            return capture;
+        } catch (IOException e) {
+            log.error("Unable to capture to " + file, e);
+            return null;
+        }
+    }
+
+    private void map(long start, int size) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        regionStart = start;
+    }
+
+    private void ensure(int length) throws IOException {
+        if (position + length > regionStart + region.capacity()) {
+            map(position, Math.max(regionSize, length));
+        }
+        region.position((int) (position - regionStart));
+    }
+
+    /**
+     * Records len bytes of b
+     *
+     * @param stream
+     *            identifies the stream, for instance the serial port index
+     * @param inbound
+     *            true for bytes from the device
+     */
+    public void record(int stream, boolean inbound, byte[] b, int off, int len) {
+        if (len <= 0) {
+            return;
+        }
+        final long nanos = System.nanoTime() - startNanos;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                ensure(RECORD_HEADER_LENGTH + len);
+                final int header = region.position();
+                region.putLong(nanos);
+                region.putInt(len);
+                region.putShort((short) stream);
+                region.position(header + RECORD_HEADER_LENGTH);
+                region.put(b, off, len);
+                // publishes the record
+                region.put(header + FLAGS_OFFSET, inbound ? (byte) (FLAG_PRESENT | FLAG_INBOUND) : FLAG_PRESENT);
+                position += RECORD_HEADER_LENGTH + len;
+            } catch (IOException e) {
+                log.error("Unable to record to " + file + "; capture ends", e);
+                close();
+                return;
+            }
+        }
+        records.incrementAndGet();
+        bytes.addAndGet(len);
+    }
+
+    /**
+     * Records the remaining bytes of buffer without changing its position
+     */
+    public void record(int stream, boolean inbound, ByteBuffer buffer) {
+        final int len = buffer.remaining();
+        if (len <= 0) {
+            return;
+        }
+        final long nanos = System.nanoTime() - startNanos;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                ensure(RECORD_HEADER_LENGTH + len);
+                final int header = region.position();
+                region.putLong(nanos);
+                region.putInt(len);
+                region.putShort((short) stream);
+                region.position(header + RECORD_HEADER_LENGTH);
+                region.put(buffer.duplicate());
+                region.put(header + FLAGS_OFFSET, inbound ? (byte) (FLAG_PRESENT | FLAG_INBOUND) : FLAG_PRESENT);
+                position += RECORD_HEADER_LENGTH + len;
+            } catch (IOException e) {
+                log.error("Unable to record to " + file + "; capture ends", e);
+                close();
+                return;
+            }
+        }
+        records.incrementAndGet();
+        bytes.addAndGet(len);
+    }
+
+    /**
+     * @return a stream recording each write as one chunk; suitable as the tee
+     *         of a {@link TeeInputStream} or {@link TeeOutputStream}
+     */
+    public OutputStream tee(final int stream, final boolean inbound) {
+        return new OutputStream() {
+            private final byte[] one = new byte[1];
+
+            @Override
+            public void write(int b) throws IOException {
+                one[0] = (byte) b;
+                record(stream, inbound, one, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                record(stream, inbound, b, off, len);
+            }
+        };
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getRecords() {
+        return records.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Truncates the file to the records written and closes it; further
+     * records are ignored
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            region.force();
+            region = null;
+            channel.truncate(position);
+        } catch (IOException e) {
+            log.error("Unable to truncate " + file, e);
+        } finally {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                log.error("Unable to close " + file, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[file=" + file + ",records=" + records.get() + ",bytes=" + bytes.get() + "]";
+    }
+}
@@ -18,12 +18,29 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Runs the {@link NetworkConnection}s registered with it and the tasks of its
+ * {@link TaskQueue} on a single thread around one {@link Selector}.
+ *
+ * Channels registered from other threads once the loop is running are handed
+ * to the loop through a lock free queue and registered by the loop itself
+ * before its next select; the caller waits for that to happen but the loop
+ * never stops for it. Unregistrations travel the same way so that a
+ * {@link NetworkConnection} is only ever called on the loop thread. Counters describing the load on the loop are available
+ * for monitoring; see {@link NetworkLoopGroup} to spread many connections
+ * over several loops.
+ *
  * @author Jeff Plourde
  *
  */
@@ -37,18 +54,6 @@ public class NetworkLoop implements Runnable {
          * Running state, processing continues
          */
         Resumed,
-        /**
-         * The interrupt has concluded, processing may continue
-         */
-        Resuming,
-        /**
-         * Processing has been successfully interrupted
-         */
-        Paused,
-        /**
-         * Interrupt of processing is requested
-         */
-        Pausing,
         /**
          * Termination of runLoop has been requested
          */
@@ -61,10 +66,20 @@ public class NetworkLoop implements Runnable {
 
     private final Selector select;
     private final TaskQueue taskQueue = new TaskQueue();
-    private LoopState loopState = LoopState.New;
+    private volatile LoopState loopState = LoopState.New;
 
     private Thread myThread;
 
+    private final Queue<Registration> registrations = new ConcurrentLinkedQueue<Registration>();
+    private final Queue<Unregistration> unregistrations = new ConcurrentLinkedQueue<Unregistration>();
+
+    // written by the loop thread only
+    private final AtomicLong selects = new AtomicLong();
+    private final AtomicLong readyKeys = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private volatile int connectionCount;
+    private volatile long startNanos;
+
     private static final Logger log = LoggerFactory.getLogger(NetworkLoop.class);
 
     public NetworkLoop() throws IOException {
@@ -75,78 +90,135 @@ public class NetworkLoop implements Runnable {
         this.select = select;
     }
 
-    private synchronized void pause(String action) {
-        long start = System.currentTimeMillis();
-        if (!Thread.currentThread().equals(myThread)) {
-            while (!LoopState.Paused.equals(loopState)) {
-                long now = System.currentTimeMillis();
-                switch (loopState) {
-                case New:
-                    if (now >= (start + 5000L)) {
-                        throw new IllegalStateException("RunLoop not started after five seconds, unable to register connection");
-                    }
-                    break;
-                case Terminating:
-                case Terminated:
-                    throw new IllegalStateException("Cannot " + action + "; runLoop is " + loopState);
-                case Resuming:
-                case Pausing:
-                case Paused:
-                    break;
-                case Resumed:
-                    loopState = LoopState.Pausing;
-                    select.wakeup();
-                    break;
-                }
+    /**
+     * A channel waiting for the loop thread to register it.
+     */
+    private static final class Registration {
+        private final NetworkConnection conn;
+        private final SelectableChannel channel;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile SelectionKey key;
+        private volatile Throwable failure;
 
-                try {
-                    this.wait(250L);
-                } catch (InterruptedException e) {
-                    log.error("Interrupted", e);
-                }
-            }
+        Registration(NetworkConnection conn, SelectableChannel channel) {
+            this.conn = conn;
+            this.channel = channel;
         }
     }
 
-    private synchronized void resume() {
-        loopState = LoopState.Resuming;
-        this.notifyAll();
+    /**
+     * A key waiting for the loop thread to cancel it.
+     */
+    private static final class Unregistration {
+        private final SelectionKey key;
+        private final NetworkConnection conn;
+
+        Unregistration(SelectionKey key, NetworkConnection conn) {
+            this.key = key;
+            this.conn = conn;
+        }
     }
 
     public SelectionKey register(NetworkConnection conn, SelectableChannel channel) throws ClosedChannelException {
         SelectionKey key = null;
         synchronized (this) {
-            if (LoopState.New.equals(loopState)) {
+            if (LoopState.New.equals(loopState) || Thread.currentThread().equals(myThread)) {
                 key = channel.register(select, SelectionKey.OP_READ, conn);
+            } else if (!LoopState.Resumed.equals(loopState)) {
+                throw new IllegalStateException("Cannot register a new connection; runLoop is " + loopState);
             }
         }
         if (null != key) {
+            connectionCount = select.keys().size();
             conn.registered(this, key);
             return key;
-        } else {
-            pause("register a new connection");
-            key = channel.register(select, SelectionKey.OP_READ, conn);
-            conn.registered(this, key);
-            resume();
-            return key;
         }
+
+        Registration registration = new Registration(conn, channel);
+        registrations.offer(registration);
+        select.wakeup();
+        try {
+            while (!registration.done.await(250L, TimeUnit.MILLISECONDS)) {
+                if (LoopState.Terminated.equals(loopState)) {
+                    // the loop may have ended between our check and our offer
+                    failRegistrations();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting to register a new connection", e);
+        }
+        if (registration.failure instanceof ClosedChannelException) {
+            throw (ClosedChannelException) registration.failure;
+        } else if (registration.failure instanceof RuntimeException) {
+            throw (RuntimeException) registration.failure;
+        } else if (null != registration.failure) {
+            throw new IllegalStateException(registration.failure);
+        }
+        return registration.key;
     }
 
+    /**
+     * Registers the channels queued by other threads; called on the loop
+     * thread.
+     */
+    private void drainRegistrations() {
+        Registration registration;
+        while (null != (registration = registrations.poll())) {
+            try {
+                SelectionKey key = registration.channel.register(select, SelectionKey.OP_READ, registration.conn);
+                registration.conn.registered(this, key);
+                registration.key = key;
+            } catch (Throwable t) {
+                registration.failure = t;
+            } finally {
+                // before releasing the caller so that it sees the new count
+                connectionCount = select.keys().size();
+                registration.done.countDown();
+            }
+        }
+    }
+
+    private void failRegistrations() {
+        Registration registration;
+        while (null != (registration = registrations.poll())) {
+            registration.failure = new IllegalStateException("Cannot register a new connection; runLoop is " + loopState);
+            registration.done.countDown();
+        }
+    }
+
+    /**
+     * Cancels key and tells conn. From any thread but the loop's own, once
+     * the loop is running, this only queues the request: the loop may be in
+     * the middle of calling conn, so the key is canceled and
+     * {@link NetworkConnection#unregistered(NetworkLoop, SelectionKey)}
+     * called on the loop thread before its next select. Unlike register the
+     * caller does not wait, since it may hold locks that conn needs.
+     */
     public void unregister(SelectionKey key, NetworkConnection conn) {
-        boolean canceled = false;
         synchronized (this) {
-            if (LoopState.New.equals(loopState)) {
-                key.cancel();
-                canceled = true;
+            if (!LoopState.New.equals(loopState) && !LoopState.Terminated.equals(loopState) && !Thread.currentThread().equals(myThread)) {
+                unregistrations.offer(new Unregistration(key, conn));
+                select.wakeup();
+                return;
             }
         }
-        if (canceled) {
-            conn.unregistered(this, key);
-        } else {
-            pause("unregister a connection");
-            key.cancel();
-            conn.unregistered(this, key);
-            resume();
+        key.cancel();
+        conn.unregistered(this, key);
+    }
+
+    /**
+     * Cancels the keys queued by other threads; called on the loop thread.
+     */
+    private void drainUnregistrations() {
+        Unregistration unregistration;
+        while (null != (unregistration = unregistrations.poll())) {
+            try {
+                unregistration.key.cancel();
+                unregistration.conn.unregistered(this, unregistration.key);
+            } catch (Throwable t) {
+                log.error("in NetworkConnection.unregistered", t);
+            }
         }
     }
 
@@ -160,6 +232,80 @@ public class NetworkLoop implements Runnable {
         }
     }
 
+    /**
+     * @return the number of times the loop has returned from select
+     */
+    public long getSelects() {
+        return selects.get();
+    }
+
+    /**
+     * @return the number of ready keys the loop has handled
+     */
+    public long getReadyKeys() {
+        return readyKeys.get();
+    }
+
+    /**
+     * @return nanoseconds the loop has spent running tasks and handling keys
+     *         rather than waiting in select
+     */
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    /**
+     * @return the fraction of the time since runLoop started that the loop
+     *         was busy
+     */
+    public double getUtilization() {
+        long start = startNanos;
+        if (0L == start) {
+            return 0.0;
+        }
+        long elapsed = System.nanoTime() - start;
+        return elapsed <= 0L ? 0.0 : (double) busyNanos.get() / elapsed;
+    }
+
+    /**
+     * @return the number of channels registered as of the last select
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * @return the number of registrations waiting for the loop thread
+     */
+    public int getPendingRegistrations() {
+        return registrations.size();
+    }
+
+    /**
+     * @return the number of unregistrations waiting for the loop thread
+     */
+    public int getPendingUnregistrations() {
+        return unregistrations.size();
+    }
+
+    public LoopState getLoopState() {
+        return loopState;
+    }
+
+    /**
+     * @return the timers of this loop, for their lateness metrics
+     */
+    public TaskQueue getTaskQueue() {
+        return taskQueue;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkLoop[state=" + loopState + ",connections=" + connectionCount + ",selects=" + selects.get() + ",readyKeys=" + readyKeys.get()
+                + ",utilization=" + String.format("%.3f", getUtilization()) + ",timers=" + taskQueue.size() + ",meanLateness="
+                + String.format("%.1f", taskQueue.getMeanLateness()) + ",maxLateness=" + taskQueue.getMaxLateness() + "]";
+    }
+
     private static final class ExceptionRate {
         private final long[] exceptionTimes = new long[20];
         private final double maxExceptionsPerSecond;
@@ -240,6 +386,7 @@ public class NetworkLoop implements Runnable {
                 throw new IllegalStateException("Do not invoke the runLoop from multiple threads");
             } else {
                 myThread = Thread.currentThread();
+                startNanos = System.nanoTime();
                 loopState = LoopState.Resumed;
                 this.notifyAll();
             }
@@ -247,43 +394,37 @@ public class NetworkLoop implements Runnable {
 
         try {
             while (true) {
-                synchronized (this) {
-                    while (!LoopState.Resumed.equals(loopState)) {
-                        switch (loopState) {
-                        case New:
-                        case Terminated:
-                            throw new IllegalStateException();
-                        case Terminating:
-                            log.info("runLoop in Terminating state; runLoop will end");
-                            return;
-                        case Pausing:
-                            loopState = LoopState.Paused;
-                            this.notifyAll();
-                            break;
-                        case Resuming:
-                            loopState = LoopState.Resumed;
-                            this.notifyAll();
-                            continue;
-                        case Paused:
-                        case Resumed:
-                        }
-                        try {
-                            this.wait();
-                        } catch (InterruptedException e) {
-                            log.error("Interrupted", e);
-                        }
-                    }
+                if (LoopState.Terminating.equals(loopState)) {
+                    log.info("runLoop in Terminating state; runLoop will end");
+                    return;
                 }
 
+                long busyStart = System.nanoTime();
+                // a channel unregistered and then registered again keeps that order
+                drainUnregistrations();
+                drainRegistrations();
+                long timeout = taskQueue.doExpiredTasks(System.currentTimeMillis());
+                busyNanos.addAndGet(System.nanoTime() - busyStart);
+
                 try {
-                    select(taskQueue.doExpiredTasks(System.currentTimeMillis()));
+                    select(timeout);
                 } catch (IOException e) {
                     log.error("in select", e);
                     break;
                 }
+                selects.incrementAndGet();
 
-                java.util.Set<SelectionKey> keys = select.selectedKeys();
-                for (SelectionKey sk : keys) {
+                busyStart = System.nanoTime();
+                // keys stay in the selected set until removed; anything left
+                // behind would be handled again after the next select
+                Iterator<SelectionKey> itr = select.selectedKeys().iterator();
+                while (itr.hasNext()) {
+                    SelectionKey sk = itr.next();
+                    itr.remove();
+                    if (!sk.isValid()) {
+                        continue;
+                    }
+                    readyKeys.incrementAndGet();
                     if (sk.isReadable()) {
                         NetworkConnection nc = (NetworkConnection) sk.attachment();
                         try {
@@ -330,52 +471,36 @@ public class NetworkLoop implements Runnable {
                             continue;
                         }
                     }
-                    // if(sk.isAcceptable()) {
-                    // NetworkConnection nc = (NetworkConnection)
-                    // sk.attachment();
-                    // try {
-                    // nc.accept(sk);
-                    // } catch (IOException e) {
-                    // e.printStackTrace();
-                    // sk.cancel();
-                    // }
-                    // }
                 }
+                connectionCount = select.keys().size();
+                busyNanos.addAndGet(System.nanoTime() - busyStart);
             }
         } catch(Throwable t) {
             log.error("NetworkLoop.runLoop exiting on uncaught Throwable; this should not happen", t);
         } finally {
             synchronized (this) {
+                // still the loop thread, and later unregistrations run on the caller's
+                drainUnregistrations();
                 myThread = null;
                 loopState = LoopState.Terminated;
                 this.notifyAll();
             }
+            failRegistrations();
         }
     }
 
     public synchronized void cancelThread() {
-        while (!LoopState.Resumed.equals(loopState)) {
-            switch (loopState) {
-            case New:
-                throw new IllegalStateException("runLoop has not been started");
-            case Paused:
-            case Pausing:
-            case Resuming:
-            case Resumed:
-                break;
-            case Terminating:
-            case Terminated:
-                return;
-            }
-
-            try {
-                this.wait();
-            } catch (InterruptedException e) {
-                log.error("Interrupted", e);
-            }
+        switch (loopState) {
+        case New:
+            throw new IllegalStateException("runLoop has not been started");
+        case Terminating:
+        case Terminated:
+            return;
+        case Resumed:
+            this.loopState = LoopState.Terminating;
+            select.wakeup();
+            break;
         }
-        this.loopState = LoopState.Terminating;
-        select.wakeup();
     }
 
     public void cancelThreadAndWait() {
@@ -396,6 +521,14 @@ public class NetworkLoop implements Runnable {
         select.wakeup();
     }
 
+    /**
+     * Removes a task added with {@link #add(TaskQueue.Task)}, for instance
+     * when its owner stops using a loop it shares with others.
+     */
+    public void remove(TaskQueue.Task<?> task) {
+        taskQueue.remove(task);
+    }
+
     public void clearTasks() {
         taskQueue.clear();
         select.wakeup();
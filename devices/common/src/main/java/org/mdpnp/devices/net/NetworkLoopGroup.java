@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.net;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed number of {@link NetworkLoop}s, each running on its own daemon
+ * thread, for hosts that aggregate many devices. Everything a device does on
+ * its loop (its connections and its tasks) must stay on the one loop
+ * {@link #next()} handed it since a {@link NetworkConnection} is not expected
+ * to be called from more than one thread; devices are therefore spread over
+ * the loops rather than individual channels.
+ *
+ * A group of zero loops is allowed and means every device should run a loop
+ * of its own, as it does when none is supplied.
+ */
+public class NetworkLoopGroup {
+    private static final Logger log = LoggerFactory.getLogger(NetworkLoopGroup.class);
+
+    private final NetworkLoop[] loops;
+    private final Thread[] threads;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public NetworkLoopGroup(int size) throws IOException {
+        this(size, null);
+    }
+
+    public NetworkLoopGroup(int size, ThreadGroup threadGroup) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + size);
+        }
+        loops = new NetworkLoop[size];
+        threads = new Thread[size];
+        for (int i = 0; i < size; i++) {
+            final NetworkLoop loop = new NetworkLoop();
+            loops[i] = loop;
+            threads[i] = new Thread(threadGroup, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loop.runLoop();
+                    } finally {
+                        log.info("NetworkLoop.runLoop ended");
+                    }
+                }
+            }, "Network Loop " + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    /**
+     * @return the loop a newly created device should use; loops are handed
+     *         out in turn
+     * @throws IllegalStateException
+     *             if the group has no loops
+     */
+    public NetworkLoop next() {
+        if (0 == loops.length) {
+            throw new IllegalStateException("NetworkLoopGroup has no loops");
+        }
+        return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    public NetworkLoop get(int index) {
+        return loops[index];
+    }
+
+    /**
+     * Stops every loop and waits for their threads to end.
+     */
+    public void shutdown() {
+        for (NetworkLoop loop : loops) {
+            loop.clearTasks();
+            loop.cancelThreadAndWait();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("NetworkLoopGroup[");
+        for (int i = 0; i < loops.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(loops[i]);
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mdpnp.devices.io.CaptureReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stands in for a networked device by replaying the inbound datagrams of a
+ * capture (see {@link org.mdpnp.devices.io.CaptureWriter}) from a local
+ * address. Each peer that sends a datagram to the endpoint, such as a driver
+ * requesting an association, gets its own replay of the capture from the
+ * start; the content of what peers send is otherwise ignored. A peer that
+ * writes again after its replay has finished starts a new one. Any number of
+ * drivers may be pointed at one endpoint.
+ *
+ * Replays are paced by tasks on the {@link NetworkLoop} the endpoint is
+ * registered with, so the timing resolution is that of the loop's
+ * {@link TaskQueue}; at full speed (0) a replay yields to the loop every
+ * {@link #BATCH} datagrams.
+ */
+public class ReplayDatagramEndpoint implements NetworkConnection {
+    private static final Logger log = LoggerFactory.getLogger(ReplayDatagramEndpoint.class);
+
+    static final int BATCH = 64;
+
+    private final File capture;
+    private final int stream;
+    private final double speed;
+
+    private final ByteBuffer inBuffer = ByteBuffer.allocate(65536);
+
+    private final Map<SocketAddress, Replay> replays = new ConcurrentHashMap<SocketAddress, Replay>();
+
+    private DatagramChannel channel;
+    private NetworkLoop networkLoop;
+    private SelectionKey key;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong datagramsSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong datagramsReceived = new AtomicLong();
+    private volatile long maxLatenessNanos;
+
+    /**
+     * @param capture
+     *            the capture to replay
+     * @param stream
+     *            the stream of the capture whose inbound records are replayed
+     * @param speed
+     *            multiple of the recorded speed or 0 for as fast as possible
+     */
+    public ReplayDatagramEndpoint(File capture, int stream, double speed) {
+        this.capture = capture;
+        this.stream = stream;
+        this.speed = speed;
+    }
+
+    /**
+     * Binds a channel to local and registers it with loop
+     */
+    public void bind(NetworkLoop loop, InetSocketAddress local) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setReuseAddress(true);
+        channel.bind(local);
+        loop.register(this, channel);
+    }
+
+    /**
+     * @return the address bound by {@link #bind(NetworkLoop, InetSocketAddress)}
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        DatagramChannel channel = this.channel;
+        return null == channel ? null : (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /**
+     * Ends all replays and closes the channel
+     */
+    public void close() throws IOException {
+        NetworkLoop networkLoop = this.networkLoop;
+        SelectionKey key = this.key;
+        DatagramChannel channel = this.channel;
+        if (null != networkLoop && null != key) {
+            networkLoop.unregister(key, this);
+        }
+        if (null != channel) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void registered(NetworkLoop networkLoop, SelectionKey sk) {
+        this.networkLoop = networkLoop;
+        this.key = sk;
+        this.channel = (DatagramChannel) sk.channel();
+    }
+
+    @Override
+    public void unregistered(NetworkLoop networkLoop, SelectionKey sk) {
+        for (Replay replay : replays.values()) {
+            replay.reader.close();
+            networkLoop.remove(replay);
+        }
+        replays.clear();
+        this.networkLoop = null;
+        this.key = null;
+    }
+
+    @Override
+    public void read(SelectionKey sk) throws IOException {
+        DatagramChannel channel = (DatagramChannel) sk.channel();
+        SocketAddress peer;
+        while (true) {
+            inBuffer.clear();
+            if (null == (peer = channel.receive(inBuffer))) {
+                return;
+            }
+            datagramsReceived.incrementAndGet();
+            Replay replay = replays.get(peer);
+            if (null == replay || replay.reader.isClosed()) {
+                replay = new Replay(peer, new CaptureReader(capture, speed));
+                replays.put(peer, replay);
+                started.incrementAndGet();
+                log.debug("Replaying " + capture + " to " + peer);
+                replay.setScheduledTime(System.currentTimeMillis());
+                networkLoop.getTaskQueue().add(replay);
+            }
+        }
+    }
+
+    @Override
+    public void write(SelectionKey sk) throws IOException {
+        // replays retry on their own schedule
+        sk.interestOps(sk.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    private final class Replay extends TaskQueue.TaskImpl<Boolean> {
+        private final SocketAddress peer;
+        private final CaptureReader reader;
+        private final ByteBuffer datagram = ByteBuffer.allocate(65536);
+        // datagram holds the current record, awaiting its time or room to send
+        private boolean loaded;
+
+        Replay(SocketAddress peer, CaptureReader reader) {
+            this.peer = peer;
+            this.reader = reader;
+        }
+
+        @Override
+        public Boolean doExecute(TaskQueue queue) {
+            try {
+                for (int i = 0; i < BATCH; i++) {
+                    if (!loaded) {
+                        if (!nextInbound()) {
+                            finish();
+                            return Boolean.FALSE;
+                        }
+                        datagram.clear();
+                        reader.read(datagram);
+                        datagram.flip();
+                        loaded = true;
+                    }
+                    long delay = reader.delayNanos(System.nanoTime());
+                    if (delay > 0L) {
+                        reschedule(queue, (delay + 999999L) / 1000000L);
+                        return Boolean.TRUE;
+                    }
+                    int n = channel.send(datagram, peer);
+                    if (0 == n) {
+                        // no room in the socket buffer
+                        reschedule(queue, 1L);
+                        return Boolean.TRUE;
+                    }
+                    loaded = false;
+                    datagramsSent.incrementAndGet();
+                    bytesSent.addAndGet(n);
+                }
+                reschedule(queue, 0L);
+            } catch (IOException e) {
+                log.warn("Replay to " + peer + " ends", e);
+                finish();
+            }
+            return Boolean.TRUE;
+        }
+
+        private boolean nextInbound() {
+            while (reader.next()) {
+                if (reader.isInbound() && reader.getStream() == stream && reader.getLength() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void reschedule(TaskQueue queue, long delayMillis) {
+            setScheduledTime(System.currentTimeMillis() + delayMillis);
+            queue.add(this);
+        }
+
+        private void finish() {
+            long lateness = reader.getMaxLatenessNanos();
+            if (lateness > maxLatenessNanos) {
+                maxLatenessNanos = lateness;
+            }
+            reader.close();
+            log.debug("Replay to " + peer + " finished " + reader);
+        }
+    }
+
+    /**
+     * @return the number of replays begun
+     */
+    public long getReplays() {
+        return started.get();
+    }
+
+    public long getDatagramsSent() {
+        return datagramsSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getDatagramsReceived() {
+        return datagramsReceived.get();
+    }
+
+    /**
+     * @return the most nanoseconds any finished replay sent a datagram after
+     *         it was due
+     */
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "[capture=" + capture + ",stream=" + stream + ",speed=" + speed + ",replays=" + started.get() + ",datagramsSent=" + datagramsSent.get()
+                + ",bytesSent=" + bytesSent.get() + ",maxLatenessNanos=" + maxLatenessNanos + "]";
+    }
+}
@@ -13,18 +13,66 @@
 package org.mdpnp.devices.net;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Timers for a {@link NetworkLoop}. Tasks are kept in a hashed timing wheel
+ * of one millisecond slots: adding and removing a task are constant time,
+ * and finding the expired tasks only visits the slots for the milliseconds
+ * that have passed since the previous call rather than every task. Tasks
+ * further out than one turn of the wheel wait in their slot until their turn
+ * comes around.
+ *
+ * The lateness of every task run (how long after its scheduled time it
+ * actually started) is tracked so that scheduling drift can be monitored.
+ *
  * @author Jeff Plourde
  *
  */
 public class TaskQueue {
+    private static final int WHEEL_BITS = 12;
+    private static final int SLOTS = 1 << WHEEL_BITS;
+    private static final int MASK = SLOTS - 1;
+    // lateness histogram buckets; bucket i counts lateness in [2^(i-1), 2^i) ms
+    private static final int LATENESS_BUCKETS = 16;
+
+    private static final class Node {
+        private final Task<?> task;
+        private final long time;
+        private Node prev, next;
+        // index of the slot holding this node or -1 for the due list
+        private int slot;
+
+        Node(Task<?> task, long time) {
+            this.task = task;
+            this.time = time;
+        }
+    }
+
+    // all guarded by this
+    private final Node[] wheel = new Node[SLOTS];
+    // tasks scheduled at or before processedUpTo, which the wheel has passed
+    private Node due;
+    private final Map<Task<?>, Node> nodes = new IdentityHashMap<Task<?>, Node>();
+    // every millisecond up to and including this one has been expired
+    private long processedUpTo = Long.MIN_VALUE;
+
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong totalLateness = new AtomicLong();
+    private final AtomicLong maxLateness = new AtomicLong();
+    private final AtomicLong[] latenessHistogram = new AtomicLong[LATENESS_BUCKETS];
+    {
+        for (int i = 0; i < LATENESS_BUCKETS; i++) {
+            latenessHistogram[i] = new AtomicLong();
+        }
+    }
+
     private final ThreadLocal<List<Task<?>>> tasksToDo = new ThreadLocal<List<Task<?>>>() {
         protected java.util.List<TaskQueue.Task<?>> initialValue() {
             return new ArrayList<Task<?>>();
@@ -37,28 +85,183 @@ public class TaskQueue {
         tasksToDo.clear();
 
         synchronized (this) {
-            for (Task<?> t : queue) {
-                if (t.getScheduledTime() <= now) {
-                    tasksToDo.add(t);
-                }
-            }
-            queue.removeAll(tasksToDo);
+            expire(now, tasksToDo);
             this.notifyAll();
         }
         if (!tasksToDo.isEmpty()) {
             for (Task<?> t : tasksToDo) {
+                recordLateness(System.currentTimeMillis() - t.getScheduledTime());
                 t.execute(this);
             }
         }
         return timeToNextTask(now);
     }
 
+    /**
+     * Moves the tasks scheduled at or before now into expired, oldest first.
+     */
+    private void expire(long now, List<Task<?>> expired) {
+        // anything added behind the wheel
+        Node n = due;
+        due = null;
+        while (null != n) {
+            Node next = n.next;
+            n.prev = n.next = null;
+            if (n.time <= now) {
+                nodes.remove(n.task);
+                expired.add(n.task);
+            } else {
+                insert(n);
+            }
+            n = next;
+        }
+        if (processedUpTo == Long.MIN_VALUE || now - processedUpTo >= SLOTS) {
+            // first call or a full turn has passed; every slot is due a look
+            long from = Math.max(processedUpTo, now - SLOTS);
+            processedUpTo = now;
+            for (long t = from + 1; t <= now; t++) {
+                expireSlot((int) (t & MASK), now, expired);
+            }
+        } else {
+            for (long t = processedUpTo + 1; t <= now; t++) {
+                expireSlot((int) (t & MASK), now, expired);
+            }
+            processedUpTo = Math.max(processedUpTo, now);
+        }
+    }
+
+    private void expireSlot(int slot, long now, List<Task<?>> expired) {
+        Node n = wheel[slot];
+        while (null != n) {
+            Node next = n.next;
+            if (n.time <= now) {
+                unlink(n);
+                nodes.remove(n.task);
+                expired.add(n.task);
+            }
+            n = next;
+        }
+    }
+
+    private void insert(Node n) {
+        if (n.time <= processedUpTo) {
+            n.slot = -1;
+            n.next = due;
+            if (null != due) {
+                due.prev = n;
+            }
+            due = n;
+        } else {
+            int slot = (int) (n.time & MASK);
+            n.slot = slot;
+            n.next = wheel[slot];
+            if (null != wheel[slot]) {
+                wheel[slot].prev = n;
+            }
+            wheel[slot] = n;
+        }
+    }
+
+    private void unlink(Node n) {
+        if (null != n.prev) {
+            n.prev.next = n.next;
+        } else if (n.slot < 0) {
+            due = n.next;
+        } else {
+            wheel[n.slot] = n.next;
+        }
+        if (null != n.next) {
+            n.next.prev = n.prev;
+        }
+        n.prev = n.next = null;
+    }
+
+    private void recordLateness(long lateness) {
+        if (lateness < 0L) {
+            lateness = 0L;
+        }
+        executed.incrementAndGet();
+        totalLateness.addAndGet(lateness);
+        long max;
+        while (lateness > (max = maxLateness.get()) && !maxLateness.compareAndSet(max, lateness)) {
+        }
+        int bucket = Math.min(LATENESS_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(lateness));
+        latenessHistogram[bucket].incrementAndGet();
+    }
+
+    /**
+     * @return milliseconds until the next task is due (never zero while
+     *         tasks remain, negative if one is already due) or 0 if there
+     *         are no tasks
+     */
     public final synchronized long timeToNextTask(long now) {
-        if (queue.isEmpty()) {
+        if (nodes.isEmpty()) {
             return 0L;
-        } else {
-            return queue.first().getScheduledTime() - now;
         }
+        long next = Long.MAX_VALUE;
+        for (Node n = due; null != n; n = n.next) {
+            next = Math.min(next, n.time);
+        }
+        if (Long.MAX_VALUE == next) {
+            // the first slot holding a task for its own millisecond in this
+            // turn of the wheel has the earliest task
+            long start = processedUpTo == Long.MIN_VALUE ? now : processedUpTo;
+            search: for (long t = start + 1; t <= start + SLOTS; t++) {
+                for (Node n = wheel[(int) (t & MASK)]; null != n; n = n.next) {
+                    if (n.time == t) {
+                        next = t;
+                        break search;
+                    }
+                }
+            }
+            if (Long.MAX_VALUE == next) {
+                // everything is more than a turn away
+                for (Node n : nodes.values()) {
+                    next = Math.min(next, n.time);
+                }
+            }
+        }
+        long delta = next - now;
+        return delta <= 0L ? -1L : delta;
+    }
+
+    /**
+     * @return the number of tasks run
+     */
+    public long getExecutedTasks() {
+        return executed.get();
+    }
+
+    /**
+     * @return the mean milliseconds tasks started after their scheduled time
+     */
+    public double getMeanLateness() {
+        long n = executed.get();
+        return 0L == n ? 0.0 : (double) totalLateness.get() / n;
+    }
+
+    /**
+     * @return the most milliseconds any task started after its scheduled time
+     */
+    public long getMaxLateness() {
+        return maxLateness.get();
+    }
+
+    /**
+     * @return counts of tasks by lateness; element 0 counts tasks on time,
+     *         element i those between 2^(i-1) and 2^i - 1 milliseconds late
+     *         and the last element everything later than that
+     */
+    public long[] getLatenessHistogram() {
+        long[] histogram = new long[LATENESS_BUCKETS];
+        for (int i = 0; i < LATENESS_BUCKETS; i++) {
+            histogram[i] = latenessHistogram[i].get();
+        }
+        return histogram;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
     }
 
     public interface Task<T> extends Comparable<Task<T>> {
@@ -169,13 +372,32 @@ public class TaskQueue {
 
     }
 
-    private final SortedSet<Task<?>> queue = new TreeSet<Task<?>>();
-
+    /**
+     * Schedules task for its scheduled time; a task already queued is
+     * rescheduled.
+     */
     public synchronized void add(Task<?> task) {
-        queue.add(task);
+        Node existing = nodes.remove(task);
+        if (null != existing) {
+            unlink(existing);
+        }
+        Node n = new Node(task, task.getScheduledTime());
+        nodes.put(task, n);
+        insert(n);
+    }
+
+    public synchronized void remove(Task<?> task) {
+        Node n = nodes.remove(task);
+        if (null != n) {
+            unlink(n);
+        }
     }
 
     public synchronized void clear() {
-        queue.clear();
+        for (int i = 0; i < SLOTS; i++) {
+            wheel[i] = null;
+        }
+        due = null;
+        nodes.clear();
     }
 }
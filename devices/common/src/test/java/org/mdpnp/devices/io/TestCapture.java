@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCapture {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("TestCapture", ".capture");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static final long TIMEOUT = 5000L;
+
+    @Test(timeout = TIMEOUT)
+    public void testRoundTrip() throws IOException {
+        // a small region forces the writer to remap several times
+        CaptureWriter writer = new CaptureWriter(file, 64);
+        for (int i = 0; i < 100; i++) {
+            byte[] b = new byte[i % 7 + 1];
+            for (int j = 0; j < b.length; j++) {
+                b[j] = (byte) (i + j);
+            }
+            writer.record(i % 3, 0 == (i & 1), b, 0, b.length);
+        }
+        writer.record(0, true, new byte[0], 0, 0);
+        assertEquals(100L, writer.getRecords());
+        writer.close();
+        // ignored once closed
+        writer.record(0, true, new byte[] { 1 }, 0, 1);
+
+        CaptureReader reader = new CaptureReader(file, 0.0);
+        long last = -1L;
+        for (int i = 0; i < 100; i++) {
+            assertTrue(reader.next());
+            assertEquals(i % 3, reader.getStream());
+            assertEquals(0 == (i & 1), reader.isInbound());
+            assertEquals(i % 7 + 1, reader.getLength());
+            assertTrue(reader.getNanos() >= last);
+            last = reader.getNanos();
+            byte[] b = new byte[reader.getLength()];
+            assertEquals(b.length, reader.read(b, 0, b.length));
+            assertEquals(0, reader.remaining());
+            assertEquals((byte) i, b[0]);
+            assertEquals((byte) (i + b.length - 1), b[b.length - 1]);
+        }
+        assertFalse(reader.next());
+        assertEquals(100L, reader.getRecords());
+        reader.close();
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testTruncatedOnClose() throws IOException {
+        CaptureWriter writer = new CaptureWriter(file);
+        writer.record(1, true, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        writer.close();
+        assertEquals(CaptureWriter.HEADER_LENGTH + CaptureWriter.RECORD_HEADER_LENGTH + 3, file.length());
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testUnclosedCapture() throws IOException {
+        // records are readable before the writer is closed; the unwritten
+        // remainder of the mapped region ends the replay
+        CaptureWriter writer = new CaptureWriter(file);
+        writer.record(0, true, new byte[] { 1, 2 }, 0, 2);
+        CaptureReader reader = new CaptureReader(file, 0.0);
+        assertTrue(reader.next());
+        assertEquals(2, reader.getLength());
+        assertFalse(reader.next());
+        reader.close();
+        writer.close();
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testTee() throws IOException {
+        CaptureWriter writer = new CaptureWriter(file);
+        InputStream in = new TeeInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 }), writer.tee(2, true));
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        TeeOutputStream out = new TeeOutputStream(sent, writer.tee(2, false));
+        byte[] b = new byte[3];
+        assertEquals(3, in.read(b));
+        out.write(5);
+        assertEquals(4, in.read());
+        in.close();
+        out.close();
+        writer.close();
+
+        CaptureReader reader = new CaptureReader(file, 0.0);
+        ByteBuffer inbound = ByteBuffer.allocate(16);
+        ByteBuffer outbound = ByteBuffer.allocate(16);
+        while (reader.next()) {
+            assertEquals(2, reader.getStream());
+            reader.read(reader.isInbound() ? inbound : outbound);
+        }
+        reader.close();
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, Arrays.copyOf(inbound.array(), inbound.position()));
+        assertArrayEquals(new byte[] { 5 }, Arrays.copyOf(outbound.array(), outbound.position()));
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testPacing() throws Exception {
+        CaptureWriter writer = new CaptureWriter(file);
+        writer.record(0, true, new byte[] { 1 }, 0, 1);
+        Thread.sleep(200L);
+        writer.record(0, true, new byte[] { 2 }, 0, 1);
+        writer.close();
+
+        CaptureReader reader = new CaptureReader(file, 1.0);
+        long start = System.nanoTime();
+        while (reader.next()) {
+            assertTrue(reader.awaitDue());
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        assertTrue("replayed in " + elapsed + "ms", elapsed >= 190L && elapsed < 1000L);
+        reader.close();
+
+        reader = new CaptureReader(file, 4.0);
+        start = System.nanoTime();
+        while (reader.next()) {
+            assertTrue(reader.awaitDue());
+        }
+        elapsed = (System.nanoTime() - start) / 1000000L;
+        assertTrue("replayed in " + elapsed + "ms", elapsed >= 45L && elapsed < 150L);
+        reader.close();
+
+        reader = new CaptureReader(file, 0.0);
+        start = System.nanoTime();
+        while (reader.next()) {
+            assertTrue(reader.awaitDue());
+        }
+        elapsed = (System.nanoTime() - start) / 1000000L;
+        assertTrue("replayed in " + elapsed + "ms", elapsed < 50L);
+        reader.close();
+    }
+}
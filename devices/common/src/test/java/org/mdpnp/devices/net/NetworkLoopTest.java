@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class NetworkLoopTest {
+
+    private static class CountingConnection implements NetworkConnection {
+        final AtomicInteger bytes = new AtomicInteger();
+        final AtomicInteger emptyReads = new AtomicInteger();
+        volatile NetworkLoop registeredLoop;
+        volatile Thread readThread;
+        volatile Thread unregisteredThread;
+        final CountDownLatch unregistered = new CountDownLatch(1);
+        private final ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        @Override
+        public void read(SelectionKey sk) throws IOException {
+            readThread = Thread.currentThread();
+            buffer.clear();
+            int n = ((Pipe.SourceChannel) sk.channel()).read(buffer);
+            if (n > 0) {
+                bytes.addAndGet(n);
+            } else {
+                emptyReads.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void write(SelectionKey sk) throws IOException {
+        }
+
+        @Override
+        public void registered(NetworkLoop networkLoop, SelectionKey sk) {
+            registeredLoop = networkLoop;
+        }
+
+        @Override
+        public void unregistered(NetworkLoop networkLoop, SelectionKey sk) {
+            registeredLoop = null;
+            unregisteredThread = Thread.currentThread();
+            unregistered.countDown();
+        }
+    }
+
+    private static Pipe pipe() throws IOException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        return pipe;
+    }
+
+    private static void awaitBytes(CountingConnection conn, int expected) throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + 5000L;
+        while (conn.bytes.get() < expected && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(5L);
+        }
+        assertEquals(expected, conn.bytes.get());
+    }
+
+    @Test
+    public void testRegisterWhileRunning() throws Exception {
+        final NetworkLoop loop = new NetworkLoop();
+        Thread thread = new Thread(loop, "NetworkLoopTest");
+        thread.setDaemon(true);
+        thread.start();
+        while (!NetworkLoop.LoopState.Resumed.equals(loop.getLoopState())) {
+            Thread.sleep(1L);
+        }
+
+        Pipe pipe = pipe();
+        CountingConnection conn = new CountingConnection();
+        SelectionKey key = loop.register(conn, pipe.source());
+        assertNotNull(key);
+        assertSame(loop, conn.registeredLoop);
+        assertEquals(1, loop.getConnectionCount());
+
+        ByteBuffer b = ByteBuffer.allocate(10);
+        for (int i = 0; i < 20; i++) {
+            b.clear();
+            pipe.sink().write(b);
+            awaitBytes(conn, 10 * (i + 1));
+            // other wakeups must not revisit the key that was already handled
+            loop.wakeup();
+        }
+        assertEquals(0, conn.emptyReads.get());
+        assertSame(thread, conn.readThread);
+        assertTrue(loop.getReadyKeys() >= 20);
+
+        // handed to the loop thread, which may be calling conn
+        loop.unregister(key, conn);
+        assertTrue(conn.unregistered.await(5000L, TimeUnit.MILLISECONDS));
+        assertEquals(null, conn.registeredLoop);
+        assertSame(thread, conn.unregisteredThread);
+        assertTrue(!key.isValid());
+        assertEquals(0, loop.getPendingUnregistrations());
+        loop.cancelThreadAndWait();
+        assertEquals(NetworkLoop.LoopState.Terminated, loop.getLoopState());
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+    @Test
+    public void testUnregisterAfterTermination() throws Exception {
+        final NetworkLoop loop = new NetworkLoop();
+        Thread thread = new Thread(loop, "NetworkLoopTest");
+        thread.setDaemon(true);
+        thread.start();
+        while (!NetworkLoop.LoopState.Resumed.equals(loop.getLoopState())) {
+            Thread.sleep(1L);
+        }
+
+        Pipe pipe = pipe();
+        CountingConnection conn = new CountingConnection();
+        SelectionKey key = loop.register(conn, pipe.source());
+        loop.cancelThreadAndWait();
+
+        // no loop thread left to hand it to
+        loop.unregister(key, conn);
+        assertEquals(0, conn.unregistered.getCount());
+        assertSame(Thread.currentThread(), conn.unregisteredThread);
+        assertTrue(!key.isValid());
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+    @Test
+    public void testGroup() throws Exception {
+        NetworkLoopGroup group = new NetworkLoopGroup(2);
+        try {
+            NetworkLoop first = group.next();
+            NetworkLoop second = group.next();
+            assertTrue(first != second);
+            assertSame(first, group.next());
+
+            CountingConnection[] conns = new CountingConnection[4];
+            Pipe[] pipes = new Pipe[4];
+            for (int i = 0; i < conns.length; i++) {
+                conns[i] = new CountingConnection();
+                pipes[i] = pipe();
+                NetworkLoop loop = group.get(i % 2);
+                // the loops may still be starting up
+                while (!NetworkLoop.LoopState.Resumed.equals(loop.getLoopState())) {
+                    Thread.sleep(1L);
+                }
+                loop.register(conns[i], pipes[i].source());
+            }
+            for (int i = 0; i < conns.length; i++) {
+                pipes[i].sink().write(ByteBuffer.allocate(i + 1));
+            }
+            for (int i = 0; i < conns.length; i++) {
+                awaitBytes(conns[i], i + 1);
+                assertSame(group.get(i % 2), conns[i].registeredLoop);
+            }
+            assertTrue(conns[0].readThread != conns[1].readThread);
+            assertSame(conns[0].readThread, conns[2].readThread);
+            assertEquals(2, group.get(0).getConnectionCount());
+            assertEquals(2, group.get(1).getConnectionCount());
+        } finally {
+            group.shutdown();
+        }
+        assertEquals(NetworkLoop.LoopState.Terminated, group.get(0).getLoopState());
+        assertEquals(NetworkLoop.LoopState.Terminated, group.get(1).getLoopState());
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import org.junit.Test;
+import org.mdpnp.devices.io.CaptureWriter;
+
+public class ReplayDatagramEndpointTest {
+
+    @Test(timeout = 10000L)
+    public void testReplay() throws Exception {
+        File file = File.createTempFile("ReplayDatagramEndpointTest", ".capture");
+        CaptureWriter writer = new CaptureWriter(file);
+        for (int i = 0; i < 200; i++) {
+            // requests from the driver and another stream are not replayed
+            writer.record(0, false, new byte[] { (byte) 0xFF }, 0, 1);
+            writer.record(1, true, new byte[] { (byte) 0xFE }, 0, 1);
+            writer.record(0, true, new byte[] { (byte) i, (byte) (i >> 8), 3 }, 0, 3);
+        }
+        writer.close();
+
+        NetworkLoop loop = new NetworkLoop();
+        Thread thread = new Thread(loop, "ReplayDatagramEndpointTest");
+        thread.setDaemon(true);
+        thread.start();
+        while (!NetworkLoop.LoopState.Resumed.equals(loop.getLoopState())) {
+            Thread.sleep(1L);
+        }
+        ReplayDatagramEndpoint endpoint = new ReplayDatagramEndpoint(file, 0, 0.0);
+        DatagramChannel driver = DatagramChannel.open();
+        try {
+            InetAddress localhost = InetAddress.getByName("127.0.0.1");
+            endpoint.bind(loop, new InetSocketAddress(localhost, 0));
+            driver.bind(new InetSocketAddress(localhost, 0));
+            driver.connect(new InetSocketAddress(localhost, endpoint.getLocalAddress().getPort()));
+            driver.write(ByteBuffer.wrap(new byte[] { 1 }));
+
+            ByteBuffer b = ByteBuffer.allocate(16);
+            for (int i = 0; i < 200; i++) {
+                b.clear();
+                driver.receive(b);
+                b.flip();
+                assertEquals(3, b.remaining());
+                assertEquals(i, (b.get(0) & 0xFF) | ((b.get(1) & 0xFF) << 8));
+            }
+            long giveUp = System.currentTimeMillis() + 5000L;
+            while (endpoint.getDatagramsSent() < 200L && System.currentTimeMillis() < giveUp) {
+                Thread.sleep(5L);
+            }
+            assertEquals(1L, endpoint.getReplays());
+            assertEquals(1L, endpoint.getDatagramsReceived());
+            assertEquals(200L, endpoint.getDatagramsSent());
+            assertEquals(600L, endpoint.getBytesSent());
+            assertTrue(endpoint.toString().contains("datagramsSent=200"));
+        } finally {
+            driver.close();
+            endpoint.close();
+            loop.cancelThreadAndWait();
+            file.delete();
+        }
+    }
+}
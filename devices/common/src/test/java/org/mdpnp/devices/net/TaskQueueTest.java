@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TaskQueueTest {
+
+    private static class RecordingTask extends TaskQueue.TaskImpl<Object> {
+        private final String name;
+        private final List<String> log;
+
+        RecordingTask(String name, long time, List<String> log) {
+            this.name = name;
+            this.log = log;
+            setScheduledTime(time);
+        }
+
+        @Override
+        public Object doExecute(TaskQueue queue) {
+            log.add(name);
+            return name;
+        }
+    }
+
+    @Test
+    public void testExpiresInOrder() {
+        List<String> log = new ArrayList<String>();
+        TaskQueue queue = new TaskQueue();
+        queue.add(new RecordingTask("c", 1030L, log));
+        queue.add(new RecordingTask("a", 1010L, log));
+        queue.add(new RecordingTask("b", 1020L, log));
+        assertEquals(10L, queue.doExpiredTasks(1000L));
+        assertEquals(0, log.size());
+        assertEquals(10L, queue.timeToNextTask(1000L));
+
+        assertEquals(10L, queue.doExpiredTasks(1020L));
+        assertEquals("[a, b]", log.toString());
+        assertEquals(1, queue.size());
+
+        assertEquals(0L, queue.doExpiredTasks(1030L));
+        assertEquals("[a, b, c]", log.toString());
+        assertEquals(0, queue.size());
+        assertEquals(3L, queue.getExecutedTasks());
+    }
+
+    @Test
+    public void testRemoveAndReschedule() {
+        List<String> log = new ArrayList<String>();
+        TaskQueue queue = new TaskQueue();
+        queue.doExpiredTasks(1000L);
+        RecordingTask a = new RecordingTask("a", 1010L, log);
+        RecordingTask b = new RecordingTask("b", 1010L, log);
+        queue.add(a);
+        queue.add(b);
+        queue.remove(a);
+        // adding again moves rather than duplicates
+        b.setScheduledTime(1005L);
+        queue.add(b);
+        assertEquals(1, queue.size());
+        queue.doExpiredTasks(1010L);
+        assertEquals("[b]", log.toString());
+    }
+
+    @Test
+    public void testBeyondOneTurn() {
+        List<String> log = new ArrayList<String>();
+        TaskQueue queue = new TaskQueue();
+        queue.doExpiredTasks(0L);
+        // shares a slot with a task due much sooner
+        queue.add(new RecordingTask("far", 3L * 4096L + 5L, log));
+        queue.add(new RecordingTask("near", 5L, log));
+        assertEquals(5L, queue.timeToNextTask(0L));
+        queue.doExpiredTasks(5L);
+        assertEquals("[near]", log.toString());
+        assertEquals(3L * 4096L, queue.timeToNextTask(5L));
+        queue.doExpiredTasks(2L * 4096L + 5L);
+        assertEquals("[near]", log.toString());
+        // a jump of more than a turn still finds it
+        queue.doExpiredTasks(10L * 4096L);
+        assertEquals("[near, far]", log.toString());
+    }
+
+    @Test
+    public void testAddedBehindTheWheel() {
+        List<String> log = new ArrayList<String>();
+        TaskQueue queue = new TaskQueue();
+        queue.doExpiredTasks(1000L);
+        queue.add(new RecordingTask("late", 990L, log));
+        assertEquals(-1L, queue.timeToNextTask(1000L));
+        queue.doExpiredTasks(1000L);
+        assertEquals("[late]", log.toString());
+    }
+
+    @Test
+    public void testRecurring() throws InterruptedException {
+        final List<String> log = new ArrayList<String>();
+        TaskQueue queue = new TaskQueue();
+        RecordingTask task = new RecordingTask("r", System.currentTimeMillis(), log);
+        task.setInterval(5L);
+        queue.add(task);
+        long giveUp = System.currentTimeMillis() + 5000L;
+        while (log.size() < 3 && System.currentTimeMillis() < giveUp) {
+            long next = queue.doExpiredTasks(System.currentTimeMillis());
+            if (next > 0L) {
+                Thread.sleep(next);
+            }
+        }
+        assertTrue(log.size() >= 3);
+        assertEquals(1, queue.size());
+        task.setInterval(0L);
+        queue.remove(task);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testLateness() {
+        List<String> log = new ArrayList<String>();
+        TaskQueue queue = new TaskQueue();
+        long now = System.currentTimeMillis();
+        queue.add(new RecordingTask("a", now - 100L, log));
+        queue.add(new RecordingTask("b", now + 1000000L, log));
+        queue.doExpiredTasks(now);
+        assertEquals(1L, queue.getExecutedTasks());
+        assertTrue(queue.getMaxLateness() >= 100L);
+        assertTrue(queue.getMeanLateness() >= 100.0);
+        long[] histogram = queue.getLatenessHistogram();
+        long total = 0L;
+        for (long h : histogram) {
+            total += h;
+        }
+        assertEquals(1L, total);
+        // 100ms late lands in [64, 128) unless the test thread stalled
+        assertTrue(histogram[7] + histogram[8] + histogram[9] == 1L);
+        queue.clear();
+        assertEquals(0, queue.size());
+        assertEquals(0L, queue.timeToNextTask(now));
+    }
+}
@@ -63,6 +63,7 @@ import org.slf4j.LoggerFactory;
  * Consumers of this API should designate a thread to repeatedly run the
  * receive() method as long as the receive() call returns true. When receive()
  * returns false processing has stopped and the connection is no longer viable.
+ * Realtime data are also handled on that thread, as they are read.
  * 
  * 
  * @author Jeff Plourde
@@ -74,7 +75,7 @@ public class Medibus {
     private int versionMajor = 3;
     private int versionMinor = 0;
 
-    protected final InputStream slowIn;
+    protected final InputStream in;
     protected final ChecksumOutputStream out;
 
     /**
@@ -90,52 +91,15 @@ public class Medibus {
      * @throws IOException 
      */
     public Medibus(InputStream in, OutputStream out) throws IOException {
-        // partition the slow and fast data
-        // fast data have the high order bit set and slow data do not
-        InputStreamPartition isp = new InputStreamPartition(new InputStreamPartition.Filter[] { 
-                new InputStreamPartition.Filter() {
-
-                    @Override
-                    public boolean passes(int b) {
-                        if(0 != (b & 0x80)) {
-                            fastByte(b);
-                            return true;
-                        } else {
-                            return false;
-                        }
-
-                    }
-                    // This is an optimization.  Data will be handled in the passes call and there is 
-                    // not need to enqueue data onto a pipe
-                    public boolean createPipe() { return false; }
-
-                }, new InputStreamPartition.Filter() {
-
-            @Override
-            public boolean passes(int b) {
-                switch(b) {
-                case ASCIIByte.DC1:
-                    log.warn("DC1 (0x11) ignored in stream");
-                    return false;
-                case ASCIIByte.DC3:
-                    log.warn("DC3 (0x13) ignored in stream");
-                    return false;
-                }
-                return 0 == (b & 0x80);
-            }
-            
-            @Override
-            public boolean createPipe() {
-                return true;
-            }
-
-        },  }, in);
-        isp.getProcessingThread().setName("Medibus I/O Multiplexor");
-        this.slowIn = isp.getInputStream(1);
+        this.in = in;
         this.out = new ChecksumOutputStream(out);
         log.trace("Initialized Medibus");
     }
 
+    /**
+     * Called from {@link #receive()} for each byte of realtime data, i.e. each
+     * byte with the high order bit set, in the order received.
+     */
     protected void fastByte(int b) {
         
     }
@@ -852,63 +816,88 @@ public class Medibus {
         }
     }
 
-    public boolean receive() throws IOException {
-        int leading = 0;
+    private static final int CHUNK_SIZE = 4096;
+    // received bytes, slow and fast data interleaved
+    private final byte[] chunk = new byte[CHUNK_SIZE];
 
+    /**
+     * Reads whatever has arrived in chunks and partitions it in one pass; fast
+     * data (with the high order bit set) go to {@link #fastByte(int)} as they
+     * are encountered and slow data are assembled into frames that are passed
+     * to {@link #receiveResponse(byte[], int)} and
+     * {@link #receiveCommand(byte[], int)} once complete.
+     *
+     * @return false at the end of the stream
+     */
+    public boolean receive() throws IOException {
         List<Buffer> buffers = new ArrayList<Buffer>();
         List<Buffer> freeBuffers = new ArrayList<Buffer>();
 
         Buffer topBuffer = null;
 
         while (true) {
-            leading = slowIn.read();
-            if (leading < 0) {
-                log.trace("receive got " + leading + " from slowIn.read");
+            final int n = in.read(chunk, 0, chunk.length);
+            if (n < 0) {
+                log.trace("receive got " + n + " from in.read");
                 // EOF
                 return false;
             }
 
-            switch (leading) {
-            case ASCIIByte.SOH:
-                buffers.add(0, topBuffer = aFreeBuffer(Buffer.Type.Response, freeBuffers));
-                break;
-            case ASCIIByte.ESC:
-                buffers.add(0, topBuffer = aFreeBuffer(Buffer.Type.Command, freeBuffers));
-                break;
-            case ASCIIByte.CR:
-                if (null != topBuffer) {
-                    if(log.isTraceEnabled()) {
-                        String msg = topBuffer.getType() + ":"+HexUtil.dump(ByteBuffer.wrap(topBuffer.receiveBuffer, 0, topBuffer.getCount()), 80);
-                        log.trace(msg);
-                    }
-                    try {
-                        switch (topBuffer.getType()) {
-                        case Command:
-                            receiveCommand(topBuffer.getReceiveBuffer(), topBuffer.getCount());
-                            break;
-                        case Response:
-                            receiveResponse(topBuffer.getReceiveBuffer(), topBuffer.getCount());
-                            break;
+            for (int i = 0; i < n; i++) {
+                final int b = 0xFF & chunk[i];
+                if (0 != (b & 0x80)) {
+                    fastByte(b);
+                    continue;
+                }
+
+                switch (b) {
+                case ASCIIByte.DC1:
+                    log.warn("DC1 (0x11) ignored in stream");
+                    break;
+                case ASCIIByte.DC3:
+                    log.warn("DC3 (0x13) ignored in stream");
+                    break;
+                case ASCIIByte.SOH:
+                    buffers.add(0, topBuffer = aFreeBuffer(Buffer.Type.Response, freeBuffers));
+                    break;
+                case ASCIIByte.ESC:
+                    buffers.add(0, topBuffer = aFreeBuffer(Buffer.Type.Command, freeBuffers));
+                    break;
+                case ASCIIByte.CR:
+                    if (null != topBuffer) {
+                        if(log.isTraceEnabled()) {
+                            String msg = topBuffer.getType() + ":"+HexUtil.dump(ByteBuffer.wrap(topBuffer.receiveBuffer, 0, topBuffer.getCount()), 80);
+                            log.trace(msg);
+                        }
+                        try {
+                            switch (topBuffer.getType()) {
+                            case Command:
+                                receiveCommand(topBuffer.getReceiveBuffer(), topBuffer.getCount());
+                                break;
+                            case Response:
+                                receiveResponse(topBuffer.getReceiveBuffer(), topBuffer.getCount());
+                                break;
+                            }
+                        } catch (CorruptMedibusException cme) {
+                            // The contents of this frame were invalid, but we will continue onto the next frame
+                            // depending on intended use this might not be a desired behaviour; or perhaps more likely
+                            // better reporting of this type of error is required.
+                            String msg = topBuffer.getType() + ":"+HexUtil.dump(ByteBuffer.wrap(topBuffer.receiveBuffer, 0, topBuffer.getCount()), 80);
+                            log.error(msg);
                         }
-                    } catch (CorruptMedibusException cme) {
-                        // The contents of this frame were invalid, but we will continue onto the next frame
-                        // depending on intended use this might not be a desired behaviour; or perhaps more likely
-                        // better reporting of this type of error is required.
-                        String msg = topBuffer.getType() + ":"+HexUtil.dump(ByteBuffer.wrap(topBuffer.receiveBuffer, 0, topBuffer.getCount()), 80);
-                        log.error(msg);
+                        freeBuffers.add(topBuffer);
+                        buffers.remove(0);
+                        topBuffer = buffers.isEmpty() ? null : buffers.get(0);
+                    } else {
+                        log.warn("Received a CR with no matching SOH or ESC");
+                    }
+                    break;
+                default:
+                    if (topBuffer != null) {
+                        topBuffer.addByte((byte) b);
+                    } else {
+                        log.error("Unknown byte: 0x" + Integer.toHexString(b));
                     }
-                    freeBuffers.add(topBuffer);
-                    buffers.remove(0);
-                    topBuffer = buffers.isEmpty() ? null : buffers.get(0);
-                } else {
-                    log.warn("Received a CR with no matching SOH or ESC");
-                }
-                break;
-            default:
-                if (topBuffer != null) {
-                    topBuffer.addByte((byte) leading);
-                } else {
-                    log.error("Unknown byte: 0x" + Integer.toHexString(leading));
                 }
             }
         }
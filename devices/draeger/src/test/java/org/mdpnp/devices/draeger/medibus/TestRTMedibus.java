@@ -1,7 +1,16 @@
 package org.mdpnp.devices.draeger.medibus;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class TestRTMedibus {
     @Test
@@ -14,4 +23,58 @@ public class TestRTMedibus {
         
         assertEquals(-80, RTMedibus.parseInt(new byte[] {'1','0','-',' ',' ','-',' ',' ','8','0','.','5'}, 3, 9));
     }
+
+    private static class RecordingRTMedibus extends RTMedibus {
+        final List<String> events = new ArrayList<String>();
+
+        RecordingRTMedibus(InputStream in) throws IOException {
+            super(in, new ByteArrayOutputStream());
+        }
+
+        @Override
+        protected void receiveResponse(byte[] response, int len) {
+            events.add("response " + new String(response, 0, len));
+        }
+
+        @Override
+        public void receiveSyncByte(int syncByte) {
+            events.add("sync " + Integer.toHexString(syncByte));
+        }
+
+        @Override
+        public void receiveSyncCommand(int command, int argument) {
+            events.add("cmd " + Integer.toHexString(command) + " " + Integer.toHexString(argument));
+        }
+
+        @Override
+        public void receiveData(int first, int second) {
+            events.add("data " + Integer.toHexString(first) + " " + Integer.toHexString(second));
+        }
+    }
+
+    // realtime data interleaved with a slow response frame
+    private static final byte[] MIXED = new byte[] { 0x01, 'A', (byte) 0xD0, 'B', 0x11, (byte) 0x81, 'C', (byte) 0x82, 0x0D, (byte) 0xC6,
+            (byte) 0xC1 };
+
+    private static final String EXPECTED = "[sync d0, data 81 82, response ABC, cmd c6 c1]";
+
+    @Test
+    public void testReceiveMixed() throws Exception {
+        RecordingRTMedibus medibus = new RecordingRTMedibus(new ByteArrayInputStream(MIXED));
+        assertFalse(medibus.receive());
+        assertEquals(EXPECTED, medibus.events.toString());
+    }
+
+    @Test
+    public void testReceiveMixedByteAtATime() throws Exception {
+        InputStream trickle = new FilterInputStream(new ByteArrayInputStream(MIXED)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(1, len));
+            }
+        };
+        RecordingRTMedibus medibus = new RecordingRTMedibus(trickle);
+        assertFalse(medibus.receive());
+        assertEquals(EXPECTED, medibus.events.toString());
+    }
 }
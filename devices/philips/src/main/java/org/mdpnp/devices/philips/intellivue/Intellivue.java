@@ -25,6 +25,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
+import org.mdpnp.devices.io.CaptureWriter;
 import org.mdpnp.devices.io.util.HexUtil;
 import org.mdpnp.devices.net.NetworkConnection;
 import org.mdpnp.devices.net.NetworkLoop;
@@ -89,12 +90,33 @@ public class Intellivue implements NetworkConnection {
     private final ByteBuffer outBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
     private final Protocol protocol = new CompoundProtocol();
 
+    /**
+     * Capture stream of datagrams exchanged on a connected (association)
+     * channel and of those received on an unconnected (broadcast) channel
+     */
+    public static final int CAPTURE_UNICAST = 0, CAPTURE_BROADCAST = 1;
+
+    private volatile CaptureWriter capture;
+
     public Intellivue() {
         inBuffer.order(ByteOrder.BIG_ENDIAN);
         outBuffer.order(ByteOrder.BIG_ENDIAN);
 
     }
 
+    /**
+     * @param capture
+     *            records every datagram received and sent, or null to stop
+     *            recording
+     */
+    public void setCapture(CaptureWriter capture) {
+        this.capture = capture;
+    }
+
+    public CaptureWriter getCapture() {
+        return capture;
+    }
+
     private static final Logger log = LoggerFactory.getLogger(Intellivue.class);
 
     protected static final String lineWrap(String str) {
@@ -552,6 +574,12 @@ public class Intellivue implements NetworkConnection {
 
         int cnt = channel.write(outBuffer);
 
+        CaptureWriter capture = this.capture;
+        if (cnt > 0 && null != capture) {
+            outBuffer.reset();
+            capture.record(CAPTURE_UNICAST, false, outBuffer);
+        }
+
         if (cnt > 0 && log.isTraceEnabled()) {
             outBuffer.reset();
             time.setTime(System.currentTimeMillis());
@@ -652,6 +680,10 @@ public class Intellivue implements NetworkConnection {
             inBuffer.clear();
             SocketAddress sockaddr = channel.receive(inBuffer);
             inBuffer.flip();
+            CaptureWriter capture = this.capture;
+            if (null != capture) {
+                capture.record(channel.isConnected() ? CAPTURE_UNICAST : CAPTURE_BROADCAST, true, inBuffer);
+            }
             if (inBuffer.hasRemaining()) {
                 if (log.isTraceEnabled()) {
                     time.setTime(System.currentTimeMillis());
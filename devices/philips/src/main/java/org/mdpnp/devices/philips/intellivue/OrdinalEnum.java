@@ -12,14 +12,34 @@
  ******************************************************************************/
 package org.mdpnp.devices.philips.intellivue;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
+ * Maps from the codes of the nomenclature enums to their constants. The
+ * build methods produce ordinary Maps; the lookup methods produce read only
+ * tables keyed by the primitive code so that resolving a code in the parse
+ * path neither boxes it nor chases hash buckets. Codes that span a small
+ * range are resolved by indexing a dense array, anything else through an
+ * open addressing table whose hash multiplier is chosen at build time to
+ * avoid collisions where possible.
+ *
+ * Label codes are partition &lt;&lt; 16 | code and take the table: within
+ * each of its three partitions the codes cover under 1% of the 16 bit range,
+ * so an array per partition would hold some 190 thousand slots for fewer
+ * than 700 labels, against about 1.02 probes on average in the table.
+ *
  * @author Jeff Plourde
  *
  */
 public class OrdinalEnum {
+    // a dense array is used when the codes cover at least 1/DENSITY of their range
+    private static final int DENSITY = 4;
+    private static final int MIN_DENSE = 64;
+    // odd multiples of GOLDEN tried in search of one that places every code in its own slot
+    private static final int MULTIPLIERS = 64;
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
     public interface ShortType {
         short asShort();
     }
@@ -64,4 +84,196 @@ public class OrdinalEnum {
         }
         return map;
     }
+
+    /**
+     * @return a lookup from the asInt() of every constant of cls to the
+     *         constant
+     */
+    public static final <T extends IntType> IntLookup<T> lookupInt(Class<T> cls) {
+        T[] constants = cls.getEnumConstants();
+        long[] codes = new long[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            codes[i] = constants[i].asInt();
+        }
+        return new IntLookup<T>(new Table(codes, constants));
+    }
+
+    /**
+     * @return a lookup from the asLong() of every constant of cls to the
+     *         constant
+     */
+    public static final <T extends LongType> LongLookup<T> lookupLong(Class<T> cls) {
+        T[] constants = cls.getEnumConstants();
+        long[] codes = new long[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            codes[i] = constants[i].asLong();
+        }
+        return new LongLookup<T>(new Table(codes, constants));
+    }
+
+    public static final class IntLookup<T> {
+        private final Table table;
+
+        private IntLookup(Table table) {
+            this.table = table;
+        }
+
+        /**
+         * @return the constant for code or null if there is none
+         */
+        @SuppressWarnings("unchecked")
+        public T get(int code) {
+            return (T) table.get(code);
+        }
+
+        public boolean isDense() {
+            return table.dense != null;
+        }
+
+        /**
+         * @return the most slots looked at to find a constant
+         */
+        int getMaxProbes() {
+            return table.maxProbes;
+        }
+    }
+
+    public static final class LongLookup<T> {
+        private final Table table;
+
+        private LongLookup(Table table) {
+            this.table = table;
+        }
+
+        /**
+         * @return the constant for code or null if there is none
+         */
+        @SuppressWarnings("unchecked")
+        public T get(long code) {
+            return (T) table.get(code);
+        }
+
+        public boolean isDense() {
+            return table.dense != null;
+        }
+
+        /**
+         * @return the most slots looked at to find a constant
+         */
+        int getMaxProbes() {
+            return table.maxProbes;
+        }
+    }
+
+    private static final class Table {
+        private final long min;
+        private final Object[] dense;
+
+        private final long[] keys;
+        private final Object[] values;
+        private final long multiplier;
+        private final int shift;
+        private final int mask;
+        private final int maxProbes;
+
+        Table(long[] codes, Object[] constants) {
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            for (long code : codes) {
+                min = Math.min(min, code);
+                max = Math.max(max, code);
+            }
+            this.min = min;
+            final int n = codes.length;
+
+            if (n > 0 && max - min >= 0 && max - min < Math.max(MIN_DENSE, (long) DENSITY * n)) {
+                dense = new Object[(int) (max - min + 1)];
+                for (int i = 0; i < n; i++) {
+                    int idx = (int) (codes[i] - min);
+                    if (null != dense[idx]) {
+                        throw new IllegalStateException("" + codes[i] + " is ordinal for " + constants[i] + " and " + dense[idx]);
+                    }
+                    dense[idx] = constants[i];
+                }
+                keys = null;
+                values = null;
+                multiplier = 0L;
+                shift = 0;
+                mask = 0;
+                maxProbes = 1;
+                return;
+            }
+            dense = null;
+
+            // at most half full; then look for a multiplier that spreads the
+            // codes without collision in this or twice the space, or failing
+            // that with the fewest
+            int bits = Math.max(1, 64 - Long.numberOfLeadingZeros(2L * Math.max(1, n) - 1));
+            long best = GOLDEN;
+            int bestBits = bits;
+            int fewest = Integer.MAX_VALUE;
+            search: for (int b = bits; b <= bits + 1; b++) {
+                boolean[] used = new boolean[1 << b];
+                for (int m = 0; m < MULTIPLIERS; m++) {
+                    // multiples rather than GOLDEN + 2m, which would differ only
+                    // in low bits that small codes never carry into the slot
+                    long candidate = GOLDEN * (2L * m + 1L);
+                    Arrays.fill(used, false);
+                    int collisions = 0;
+                    for (long code : codes) {
+                        int slot = (int) ((code * candidate) >>> (64 - b));
+                        if (used[slot]) {
+                            collisions++;
+                        }
+                        used[slot] = true;
+                    }
+                    if (collisions < fewest) {
+                        fewest = collisions;
+                        best = candidate;
+                        bestBits = b;
+                        if (0 == collisions) {
+                            break search;
+                        }
+                    }
+                }
+            }
+            multiplier = best;
+            shift = 64 - bestBits;
+            mask = (1 << bestBits) - 1;
+            keys = new long[1 << bestBits];
+            values = new Object[1 << bestBits];
+            int probes = 1;
+            for (int i = 0; i < n; i++) {
+                int slot = slot(codes[i]);
+                int p = 1;
+                while (null != values[slot]) {
+                    if (keys[slot] == codes[i]) {
+                        throw new IllegalStateException("" + codes[i] + " is ordinal for " + constants[i] + " and " + values[slot]);
+                    }
+                    slot = (slot + 1) & mask;
+                    p++;
+                }
+                keys[slot] = codes[i];
+                values[slot] = constants[i];
+                probes = Math.max(probes, p);
+            }
+            maxProbes = probes;
+        }
+
+        private int slot(long code) {
+            return (int) ((code * multiplier) >>> shift);
+        }
+
+        Object get(long code) {
+            if (null != dense) {
+                long idx = code - min;
+                return idx >= 0 && idx < dense.length ? dense[(int) idx] : null;
+            }
+            for (int slot = slot(code);; slot = (slot + 1) & mask) {
+                Object value = values[slot];
+                if (null == value || keys[slot] == code) {
+                    return value;
+                }
+            }
+        }
+    }
 }
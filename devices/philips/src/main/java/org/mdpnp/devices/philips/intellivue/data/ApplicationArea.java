@@ -13,7 +13,6 @@
 package org.mdpnp.devices.philips.intellivue.data;
 
 import java.nio.ByteBuffer;
-import java.util.Map;
 
 import org.mdpnp.devices.io.util.Bits;
 import org.mdpnp.devices.philips.intellivue.OrdinalEnum;
@@ -26,7 +25,7 @@ public enum ApplicationArea implements EnumMessage<ApplicationArea>, OrdinalEnum
     AREA_UNSPEC(0), AREA_OPERATING_ROOM(1), AREA_INTENSIVE_CARE(2), AREA_NEONATAL_INTENSIVE_CARE(3), AREA_CARDIOLOGY_CARE(4);
 
     private final int x;
-    private final static Map<Integer, ApplicationArea> map = OrdinalEnum.buildInt(ApplicationArea.class);
+    private final static OrdinalEnum.IntLookup<ApplicationArea> map = OrdinalEnum.lookupInt(ApplicationArea.class);
 
     private ApplicationArea(int x) {
         this.x = x;
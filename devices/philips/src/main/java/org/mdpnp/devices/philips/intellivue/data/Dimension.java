@@ -12,7 +12,6 @@
  ******************************************************************************/
 package org.mdpnp.devices.philips.intellivue.data;
 
-import java.util.Map;
 
 import org.mdpnp.devices.philips.intellivue.OrdinalEnum;
 
@@ -34,7 +33,7 @@ public enum Dimension implements OrdinalEnum.IntType {
         this.x = x;
     }
 
-    private static final Map<Integer, Dimension> map = OrdinalEnum.buildInt(Dimension.class);
+    private static final OrdinalEnum.IntLookup<Dimension> map = OrdinalEnum.lookupInt(Dimension.class);
 
     public static final Dimension valueOf(int x) {
         return map.get(x);
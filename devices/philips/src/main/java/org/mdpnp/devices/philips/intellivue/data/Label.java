@@ -12,7 +12,6 @@
  ******************************************************************************/
 package org.mdpnp.devices.philips.intellivue.data;
 
-import java.util.Map;
 
 import org.mdpnp.devices.philips.intellivue.OrdinalEnum;
 
@@ -2800,7 +2799,7 @@ public enum Label implements OrdinalEnum.LongType {
         this.x = x;
     }
 
-    private final static Map<Long, Label> map = OrdinalEnum.buildLong(Label.class);
+    private final static OrdinalEnum.LongLookup<Label> map = OrdinalEnum.lookupLong(Label.class);
 
     public final long asLong() {
         return x;
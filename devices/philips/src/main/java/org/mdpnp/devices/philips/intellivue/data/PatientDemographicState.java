@@ -13,7 +13,6 @@
 package org.mdpnp.devices.philips.intellivue.data;
 
 import java.nio.ByteBuffer;
-import java.util.Map;
 
 import org.mdpnp.devices.io.util.Bits;
 import org.mdpnp.devices.philips.intellivue.OrdinalEnum;
@@ -41,7 +40,7 @@ public enum PatientDemographicState implements EnumMessage<PatientDemographicSta
         this.x = x;
     }
 
-    private static final Map<Integer, PatientDemographicState> map = OrdinalEnum.buildInt(PatientDemographicState.class);
+    private static final OrdinalEnum.IntLookup<PatientDemographicState> map = OrdinalEnum.lookupInt(PatientDemographicState.class);
 
     public static PatientDemographicState valueOf(int x) {
         return map.get(x);
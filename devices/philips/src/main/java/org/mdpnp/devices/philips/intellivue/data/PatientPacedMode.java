@@ -13,7 +13,6 @@
 package org.mdpnp.devices.philips.intellivue.data;
 
 import java.nio.ByteBuffer;
-import java.util.Map;
 
 import org.mdpnp.devices.io.util.Bits;
 import org.mdpnp.devices.philips.intellivue.OrdinalEnum;
@@ -41,7 +40,7 @@ public enum PatientPacedMode implements EnumMessage<PatientPacedMode>, OrdinalEn
         this.x = x;
     }
 
-    private static final Map<Integer, PatientPacedMode> map = OrdinalEnum.buildInt(PatientPacedMode.class);
+    private static final OrdinalEnum.IntLookup<PatientPacedMode> map = OrdinalEnum.lookupInt(PatientPacedMode.class);
 
     public static PatientPacedMode valueOf(int x) {
         return map.get(x);
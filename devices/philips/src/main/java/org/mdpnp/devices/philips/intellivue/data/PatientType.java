@@ -13,7 +13,6 @@
 package org.mdpnp.devices.philips.intellivue.data;
 
 import java.nio.ByteBuffer;
-import java.util.Map;
 
 import org.mdpnp.devices.io.util.Bits;
 import org.mdpnp.devices.philips.intellivue.OrdinalEnum;
@@ -40,7 +39,7 @@ public enum PatientType implements EnumMessage<PatientType>, OrdinalEnum.IntType
         this.x = x;
     }
 
-    private static final Map<Integer, PatientType> map = OrdinalEnum.buildInt(PatientType.class);
+    private static final OrdinalEnum.IntLookup<PatientType> map = OrdinalEnum.lookupInt(PatientType.class);
 
     public static PatientType valueOf(int x) {
         return map.get(x);
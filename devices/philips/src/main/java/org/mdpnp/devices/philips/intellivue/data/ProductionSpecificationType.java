@@ -12,7 +12,6 @@
  ******************************************************************************/
 package org.mdpnp.devices.philips.intellivue.data;
 
-import java.util.Map;
 
 import org.mdpnp.devices.philips.intellivue.OrdinalEnum;
 
@@ -29,7 +28,7 @@ public enum ProductionSpecificationType implements OrdinalEnum.IntType {
         this.x = x;
     }
 
-    private static final Map<Integer, ProductionSpecificationType> map = OrdinalEnum.buildInt(ProductionSpecificationType.class);
+    private static final OrdinalEnum.IntLookup<ProductionSpecificationType> map = OrdinalEnum.lookupInt(ProductionSpecificationType.class);
 
     public static ProductionSpecificationType valueOf(int x) {
         return map.get(x);
@@ -25,6 +25,8 @@ import org.mdpnp.devices.io.util.Bits;
 public class SampleArrayCompoundObservedValue implements Value {
 
     private final List<SampleArrayObservedValue> list = new ArrayList<SampleArrayObservedValue>();
+    // entries are reused from one parse to the next
+    private final List<SampleArrayObservedValue> pool = new ArrayList<SampleArrayObservedValue>();
 
     @Override
     public void parse(ByteBuffer bb) {
@@ -33,7 +35,13 @@ public class SampleArrayCompoundObservedValue implements Value {
         int length = Bits.getUnsignedShort(bb);
         list.clear();
         for (int i = 0; i < count; i++) {
-            SampleArrayObservedValue ov = new SampleArrayObservedValue();
+            SampleArrayObservedValue ov;
+            if (i < pool.size()) {
+                ov = pool.get(i);
+            } else {
+                ov = new SampleArrayObservedValue();
+                pool.add(ov);
+            }
             ov.parse(bb);
             list.add(ov);
         }
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.philips.intellivue.data;
+
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns the packed samples of a {@link SampleArrayObservedValue} into scaled
+ * floats. Keep one per object handle; the masks and the scaling derived from
+ * the {@link SampleArraySpecification} and {@link ScaleAndRangeSpecification}
+ * are only recomputed when those change, samples are read directly out of
+ * the message buffer and decoded into an array that is reused from one
+ * observation to the next.
+ *
+ * Samples are big endian unsigned integers of sampleSize bits of which the
+ * low order significantBits are used. When the ScaleAndRangeSpecification has
+ * absolute values the scaled range [lowerScaledValue, upperScaledValue] is
+ * mapped linearly onto [lowerAbsoluteValue, upperAbsoluteValue], otherwise
+ * the raw value is used.
+ *
+ * Not thread safe.
+ */
+public class SampleArrayDecoder {
+    private static final Logger log = LoggerFactory.getLogger(SampleArrayDecoder.class);
+
+    private int arraySize;
+    // bytes per sample and the significant bits as a mask over the whole sample
+    private int sampleBytes;
+    private int mask;
+    private short sampleSize = -1, significantBits = -1;
+
+    private boolean scaled, degenerate;
+    private double lowerAbsoluteValue, upperAbsoluteValue;
+    private int lowerScaledValue, upperScaledValue;
+    private double absoluteRange;
+    private int scaledRange;
+
+    private float[] samples = new float[0];
+
+    public void setSampleArraySpecification(SampleArraySpecification sas) {
+        arraySize = sas.getArraySize();
+        if (sampleSize != sas.getSampleSize() || significantBits != sas.getSignificantBits()) {
+            sampleSize = sas.getSampleSize();
+            significantBits = sas.getSignificantBits();
+            sampleBytes = sampleSize / Byte.SIZE;
+            mask = significantBits >= Integer.SIZE ? -1 : significantBits <= 0 ? 0 : (1 << significantBits) - 1;
+            log.debug("Mask:" + Integer.toHexString(mask) + " sampleSize=" + sampleSize + " sigBits=" + significantBits);
+        }
+    }
+
+    public void setScaleAndRangeSpecification(ScaleAndRangeSpecification sar) {
+        lowerAbsoluteValue = sar.getLowerAbsoluteValue().doubleValue();
+        upperAbsoluteValue = sar.getUpperAbsoluteValue().doubleValue();
+        lowerScaledValue = sar.getLowerScaledValue();
+        upperScaledValue = sar.getUpperScaledValue();
+        scaled = !Double.isNaN(lowerAbsoluteValue) && !Double.isNaN(upperAbsoluteValue);
+        scaledRange = upperScaledValue - lowerScaledValue;
+        absoluteRange = upperAbsoluteValue - lowerAbsoluteValue;
+        degenerate = scaled && (0 == scaledRange || lowerAbsoluteValue == upperAbsoluteValue);
+        if (degenerate) {
+            log.error("Not scaling between scaled " + lowerScaledValue + " and " + upperScaledValue + " or absolute " + lowerAbsoluteValue + " and "
+                    + upperAbsoluteValue + "; samples will be zero");
+        }
+    }
+
+    /**
+     * @return the number of samples the specification promises per observation
+     */
+    public int getArraySize() {
+        return arraySize;
+    }
+
+    /**
+     * @return the number of whole samples in v
+     */
+    public int count(SampleArrayObservedValue v) {
+        return sampleBytes <= 0 ? 0 : v.getLength() / sampleBytes;
+    }
+
+    /**
+     * @return the array the most recent {@link #decode(SampleArrayObservedValue)}
+     *         wrote into; it is overwritten by the next call
+     */
+    public float[] getSamples() {
+        return samples;
+    }
+
+    /**
+     * Decodes every whole sample in v into {@link #getSamples()}.
+     *
+     * @return the number of samples decoded
+     */
+    public int decode(SampleArrayObservedValue v) {
+        final int n = count(v);
+        if (samples.length < n) {
+            samples = new float[n];
+        }
+        if (degenerate) {
+            for (int i = 0; i < n; i++) {
+                samples[i] = 0f;
+            }
+            return n;
+        }
+        final ByteBuffer window = v.getWindow();
+        if (null != window) {
+            decode(window, v.getOffset(), n);
+        } else {
+            for (int i = 0, idx = 0; i < n; i++) {
+                int value = 0;
+                for (int j = 0; j < sampleBytes; j++) {
+                    value = value << Byte.SIZE | v.getUnsignedByte(idx++);
+                }
+                samples[i] = scale(value & mask);
+            }
+        }
+        return n;
+    }
+
+    private void decode(ByteBuffer bb, int offset, int n) {
+        switch (sampleBytes) {
+        case 1:
+            for (int i = 0; i < n; i++) {
+                samples[i] = scale(0xFF & bb.get(offset + i) & mask);
+            }
+            break;
+        case 2:
+            // Data Export messages are big endian
+            for (int i = 0; i < n; i++) {
+                int idx = offset + 2 * i;
+                samples[i] = scale(((0xFF & bb.get(idx)) << Byte.SIZE | (0xFF & bb.get(idx + 1))) & mask);
+            }
+            break;
+        default:
+            for (int i = 0, idx = offset; i < n; i++) {
+                int value = 0;
+                for (int j = 0; j < sampleBytes; j++) {
+                    value = value << Byte.SIZE | (0xFF & bb.get(idx++));
+                }
+                samples[i] = scale(value & mask);
+            }
+            break;
+        }
+    }
+
+    private float scale(int value) {
+        if (!scaled) {
+            return value;
+        }
+        double prop = 1.0 * (value - lowerScaledValue) / scaledRange;
+        return (float) (lowerAbsoluteValue + prop * absoluteRange);
+    }
+}
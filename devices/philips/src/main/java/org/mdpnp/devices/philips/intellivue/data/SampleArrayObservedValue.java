@@ -26,6 +26,10 @@ public class SampleArrayObservedValue implements Value {
     private final MeasurementState state = new MeasurementState();
     private short[] value = new short[8];
     private int length;
+    // When parsed the sample bytes are left where they are; value is only
+    // filled in from this window if someone asks for it.
+    private ByteBuffer window;
+    private int offset;
 
     public OIDType getPhysioId() {
         return physioId;
@@ -36,9 +40,39 @@ public class SampleArrayObservedValue implements Value {
     }
 
     public short[] getValue() {
+        if (null != window) {
+            if (value.length < length) {
+                value = new short[length];
+            }
+            for (int i = 0; i < length; i++) {
+                value[i] = (short) (0xFF & window.get(offset + i));
+            }
+            window = null;
+        }
         return value;
     }
 
+    /**
+     * @return the buffer holding the parsed sample bytes (or null if the value
+     *         was set rather than parsed); the bytes start at
+     *         {@link #getOffset()} and remain valid only until the buffer is
+     *         reused for the next message
+     */
+    public ByteBuffer getWindow() {
+        return window;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the unsigned byte at index of the sample data
+     */
+    public int getUnsignedByte(int index) {
+        return null == window ? value[index] : 0xFF & window.get(offset + index);
+    }
+
     public void setPhysioId(OIDType physioId) {
         this.physioId = physioId;
     }
@@ -53,13 +87,14 @@ public class SampleArrayObservedValue implements Value {
 
     public void setValue(short[] value) {
         this.value = value;
+        this.window = null;
     }
 
     @Override
     public java.lang.String toString() {
         java.lang.String pi = ObservedValue.valueOf(physioId.getType()) == null ? physioId.toString() : ObservedValue.valueOf(physioId.getType())
                 .toString();
-        return "[physioId=" + pi + ",state=" + state + ",length=" + length + ",value=" + Arrays.toString(value) + "]";
+        return "[physioId=" + pi + ",state=" + state + ",length=" + length + ",value=" + Arrays.toString(getValue()) + "]";
     }
 
     @Override
@@ -68,7 +103,7 @@ public class SampleArrayObservedValue implements Value {
         state.format(bb);
         Bits.putUnsignedShort(bb, length);
         for (int i = 0; i < length; i++) {
-            Bits.putUnsignedByte(bb, value[i]);
+            Bits.putUnsignedByte(bb, (short) getUnsignedByte(i));
         }
     }
 
@@ -77,11 +112,8 @@ public class SampleArrayObservedValue implements Value {
         physioId = OIDType.parse(bb);
         state.parse(bb);
         length = Bits.getUnsignedShort(bb);
-        if (value.length < length) {
-            value = new short[length];
-        }
-        for (int i = 0; i < length; i++) {
-            value[i] = Bits.getUnsignedByte(bb);
-        }
+        window = bb;
+        offset = bb.position();
+        bb.position(offset + length);
     }
 }
@@ -12,7 +12,6 @@
  ******************************************************************************/
 package org.mdpnp.devices.philips.intellivue.dataexport;
 
-import java.util.Map;
 
 import org.mdpnp.devices.philips.intellivue.OrdinalEnum;
 
@@ -29,7 +28,7 @@ public enum CommandType implements OrdinalEnum.IntType {
         this.x = x;
     }
 
-    private static final Map<Integer, CommandType> map = OrdinalEnum.buildInt(CommandType.class);
+    private static final OrdinalEnum.IntLookup<CommandType> map = OrdinalEnum.lookupInt(CommandType.class);
 
     public static final CommandType valueOf(int x) {
         return map.get(x);
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.philips.intellivue;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.mdpnp.devices.philips.intellivue.data.Label;
+import org.mdpnp.devices.philips.intellivue.data.ObservedValue;
+
+/**
+ * Resolves a shuffled mix of every Label and ObservedValue code (plus some
+ * codes that have no constant) through the boxed HashMaps of
+ * {@link OrdinalEnum#buildInt(Class)}/{@link OrdinalEnum#buildLong(Class)}
+ * and through the primitive lookups that replaced them.
+ *
+ * Usage: OrdinalEnumBenchmark [lookups per round]
+ */
+public class OrdinalEnumBenchmark {
+    public static void main(String[] args) {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 20000000;
+
+        Map<Integer, ObservedValue> observedValueMap = OrdinalEnum.buildInt(ObservedValue.class);
+        Map<Long, Label> labelMap = OrdinalEnum.buildLong(Label.class);
+        OrdinalEnum.IntLookup<ObservedValue> observedValueLookup = OrdinalEnum.lookupInt(ObservedValue.class);
+        OrdinalEnum.LongLookup<Label> labelLookup = OrdinalEnum.lookupLong(Label.class);
+
+        Random random = new Random(0L);
+        int[] observedValueCodes = codes(ObservedValue.values().length, random);
+        for (int i = 0; i < observedValueCodes.length; i++) {
+            int idx = observedValueCodes[i];
+            observedValueCodes[i] = idx < ObservedValue.values().length ? ObservedValue.values()[idx].asInt() : random.nextInt(0x10000);
+        }
+        int[] labelIdx = codes(Label.values().length, random);
+        long[] labelCodes = new long[labelIdx.length];
+        for (int i = 0; i < labelIdx.length; i++) {
+            labelCodes[i] = labelIdx[i] < Label.values().length ? Label.values()[labelIdx[i]].asLong() : 0x20000L | random.nextInt(0x10000);
+        }
+        System.out.println(ObservedValue.values().length + " ObservedValues " + (observedValueLookup.isDense() ? "dense" : "hashed") + ", "
+                + Label.values().length + " Labels " + (labelLookup.isDense() ? "dense" : "hashed"));
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            int hits = 0;
+            for (int i = 0; i < lookups; i++) {
+                if (null != observedValueMap.get(observedValueCodes[i & (observedValueCodes.length - 1)])) {
+                    hits++;
+                }
+                if (null != labelMap.get(labelCodes[i & (labelCodes.length - 1)])) {
+                    hits++;
+                }
+            }
+            report("HashMap", start, lookups, hits);
+
+            start = System.nanoTime();
+            hits = 0;
+            for (int i = 0; i < lookups; i++) {
+                if (null != observedValueLookup.get(observedValueCodes[i & (observedValueCodes.length - 1)])) {
+                    hits++;
+                }
+                if (null != labelLookup.get(labelCodes[i & (labelCodes.length - 1)])) {
+                    hits++;
+                }
+            }
+            report("lookup ", start, lookups, hits);
+        }
+    }
+
+    /**
+     * @return a power of two sized shuffle of the indices of n constants
+     *         with about one in eight indices beyond n standing for a miss
+     */
+    private static int[] codes(int n, Random random) {
+        int size = Integer.highestOneBit(n + n / 8) << 1;
+        int[] codes = new int[size];
+        for (int i = 0; i < size; i++) {
+            codes[i] = i % (n + n / 8);
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = codes[i];
+            codes[i] = codes[j];
+            codes[j] = t;
+        }
+        return codes;
+    }
+
+    private static void report(String name, long start, int lookups, int hits) {
+        long elapsed = System.nanoTime() - start;
+        System.out.println(name + ": " + (elapsed / (2L * lookups / 1000L) / 1000.0) + "ns/lookup (" + hits + " hits)");
+    }
+}
@@ -13,9 +13,12 @@
 package org.mdpnp.devices.philips.intellivue;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Map;
 
 import org.junit.Test;
 import org.mdpnp.devices.philips.intellivue.association.AssociationMessageType;
@@ -68,6 +71,44 @@ public class OrdinalEnumTest {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testLookupMisses() {
+        // every 16 bit code resolves exactly as the HashMap would
+        for (Class<?> cls : intTypes) {
+            Class<? extends OrdinalEnum.IntType> intType = (Class<? extends OrdinalEnum.IntType>) cls;
+            Map<Integer, ? extends OrdinalEnum.IntType> map = OrdinalEnum.buildInt(intType);
+            OrdinalEnum.IntLookup<? extends OrdinalEnum.IntType> lookup = OrdinalEnum.lookupInt(intType);
+            for (int code = -1; code <= 0x10000; code++) {
+                assertEquals(map.get(code), lookup.get(code));
+            }
+            assertEquals(null, lookup.get(Integer.MIN_VALUE));
+            assertEquals(null, lookup.get(Integer.MAX_VALUE));
+        }
+        Map<Long, Label> map = OrdinalEnum.buildLong(Label.class);
+        OrdinalEnum.LongLookup<Label> lookup = OrdinalEnum.lookupLong(Label.class);
+        for (Label label : Label.values()) {
+            for (long code = label.asLong() - 2L; code <= label.asLong() + 2L; code++) {
+                assertEquals(map.get(code), lookup.get(code));
+            }
+            // the same code in other partitions
+            for (long partition = 0L; partition < 0x10000L; partition += 0x101L) {
+                long code = partition << 16 | (0xFFFFL & label.asLong());
+                assertEquals(map.get(code), lookup.get(code));
+            }
+        }
+        assertEquals(null, lookup.get(Long.MIN_VALUE));
+        assertEquals(null, lookup.get(-1L));
+    }
+
+    @Test
+    public void testLabelLookup() {
+        // labels are sparse within their partitions and so hashed
+        OrdinalEnum.LongLookup<Label> lookup = OrdinalEnum.lookupLong(Label.class);
+        assertFalse(lookup.isDense());
+        assertTrue("" + lookup.getMaxProbes(), lookup.getMaxProbes() <= 3);
+    }
+
     @SuppressWarnings("rawtypes")
     private static final Class[] intTypes = new Class[] { MetricCategory.class, ApplicationArea.class, AttributeId.class, ComponentId.class,
             Dimension.class, LineFrequency.class, MDSStatus.class, MetricModality.class, ObjectClass.class, PatientBSAFormula.class,
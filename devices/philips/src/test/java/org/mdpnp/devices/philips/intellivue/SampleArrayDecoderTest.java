@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.philips.intellivue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mdpnp.devices.philips.intellivue.data.SampleArrayDecoder;
+import org.mdpnp.devices.philips.intellivue.data.SampleArrayObservedValue;
+import org.mdpnp.devices.philips.intellivue.data.SampleArraySpecification;
+import org.mdpnp.devices.philips.intellivue.data.ScaleAndRangeSpecification;
+
+public class SampleArrayDecoderTest {
+
+    private static SampleArraySpecification spec(int arraySize, int sampleSize, int significantBits) {
+        SampleArraySpecification sas = new SampleArraySpecification();
+        sas.setArraySize(arraySize);
+        sas.setSampleSize((short) sampleSize);
+        sas.setSignificantBits((short) significantBits);
+        return sas;
+    }
+
+    private static ScaleAndRangeSpecification scaleAndRange(int lowerAbsolute, int upperAbsolute, int lowerScaled, int upperScaled) {
+        ByteBuffer bb = ByteBuffer.allocate(12).order(ByteOrder.BIG_ENDIAN);
+        // FLOATType with a zero exponent is just the 24 bit mantissa
+        bb.putInt(0x00FFFFFF & lowerAbsolute);
+        bb.putInt(0x00FFFFFF & upperAbsolute);
+        bb.putShort((short) lowerScaled);
+        bb.putShort((short) upperScaled);
+        bb.flip();
+        ScaleAndRangeSpecification sar = new ScaleAndRangeSpecification();
+        sar.parse(bb);
+        return sar;
+    }
+
+    private static SampleArrayObservedValue observation(byte... samples) {
+        ByteBuffer bb = ByteBuffer.allocate(6 + samples.length + 2).order(ByteOrder.BIG_ENDIAN);
+        bb.putShort((short) 0x4BB4);
+        // MeasurementState
+        bb.putShort((short) 0);
+        bb.putShort((short) samples.length);
+        bb.put(samples);
+        // something that follows in the message
+        bb.putShort((short) 0xFFFF);
+        bb.flip();
+        SampleArrayObservedValue v = new SampleArrayObservedValue();
+        v.parse(bb);
+        assertEquals(samples.length + 6, bb.position());
+        return v;
+    }
+
+    @Test
+    public void testScaledSixteenBit() {
+        SampleArrayDecoder decoder = new SampleArrayDecoder();
+        decoder.setSampleArraySpecification(spec(3, 16, 12));
+        decoder.setScaleAndRangeSpecification(scaleAndRange(-40, 40, 0, 4000));
+        // the high nibble is not significant
+        SampleArrayObservedValue v = observation((byte) 0xF0, (byte) 0xFA, (byte) 0x0F, (byte) 0xA0, (byte) 0x07, (byte) 0xD0);
+        assertEquals(3, decoder.count(v));
+        assertEquals(3, decoder.decode(v));
+        float[] samples = decoder.getSamples();
+        assertEquals(-35f, samples[0], 1e-5f);
+        assertEquals(40f, samples[1], 1e-5f);
+        assertEquals(0f, samples[2], 1e-5f);
+
+        // the same once the bytes have been copied out
+        assertArrayEquals(new short[] { 0xF0, 0xFA, 0x0F, 0xA0, 0x07, 0xD0 }, Arrays.copyOf(v.getValue(), 6));
+        assertEquals(3, decoder.decode(v));
+        assertEquals(-35f, samples[0], 1e-5f);
+        assertEquals(40f, samples[1], 1e-5f);
+        assertEquals(0f, samples[2], 1e-5f);
+    }
+
+    @Test
+    public void testUnscaledEightBit() {
+        SampleArrayDecoder decoder = new SampleArrayDecoder();
+        decoder.setSampleArraySpecification(spec(4, 8, 8));
+        // NaN absolute values leave the samples unscaled
+        decoder.setScaleAndRangeSpecification(scaleAndRange(0x7FFFFF, 0x7FFFFF, 0, 255));
+        SampleArrayObservedValue v = observation((byte) 0x00, (byte) 0x7F, (byte) 0x80, (byte) 0xFF);
+        assertEquals(4, decoder.decode(v));
+        assertArrayEquals(new float[] { 0f, 127f, 128f, 255f }, Arrays.copyOf(decoder.getSamples(), 4), 0f);
+    }
+
+    @Test
+    public void testDegenerateScale() {
+        SampleArrayDecoder decoder = new SampleArrayDecoder();
+        decoder.setSampleArraySpecification(spec(2, 16, 16));
+        decoder.setScaleAndRangeSpecification(scaleAndRange(0, 100, 10, 10));
+        SampleArrayObservedValue v = observation((byte) 0x01, (byte) 0x02, (byte) 0x03, (byte) 0x04);
+        assertEquals(2, decoder.decode(v));
+        assertArrayEquals(new float[] { 0f, 0f }, Arrays.copyOf(decoder.getSamples(), 2), 0f);
+    }
+}
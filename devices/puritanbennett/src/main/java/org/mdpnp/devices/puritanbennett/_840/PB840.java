@@ -1,9 +1,7 @@
 package org.mdpnp.devices.puritanbennett._840;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 
@@ -39,12 +37,143 @@ public abstract class PB840 {
       }
     }
     
-    protected final BufferedReader in;
+    protected static final Charset ASCII = Charset.forName("ASCII");
+
+    // what a byte means to the line structure of the stream; see scan(byte)
+    protected static final int TEXT = 0, LINE_END = 1, SKIP = 2;
+
+    protected final InputStream in;
     protected final OutputStream out;
-    
+
+    // raw bytes as read from in; subclasses walk each chunk a byte at a time
+    protected final byte[] buffer = new byte[4096];
+
+    // the bytes of the current line excluding the line terminator
+    protected byte[] line = new byte[256];
+    protected int lineLength;
+
+    private boolean carriageReturn;
+
     public PB840(InputStream in, OutputStream out) {
-        this.in = new BufferedReader(new InputStreamReader(in, Charset.forName("ASCII")));
+        this.in = in;
         this.out = out;
     }
+
+    /**
+     * Receives from the PB840 until the end of the stream
+     * @return true at the end of the stream
+     * @throws IOException
+     */
     public abstract boolean receive() throws IOException;
+
+    /**
+     * Lines are terminated by CR, LF or CR LF (as with BufferedReader.readLine)
+     * @param b the next byte from the stream
+     * @return LINE_END if b terminates a line, SKIP if b is the LF of a CR LF
+     *         pair and TEXT otherwise
+     */
+    protected final int scan(byte b) {
+        if ('\n' == b && carriageReturn) {
+            carriageReturn = false;
+            return SKIP;
+        }
+        carriageReturn = '\r' == b;
+        return carriageReturn || '\n' == b ? LINE_END : TEXT;
+    }
+
+    protected final void append(byte b) {
+        if (lineLength == line.length) {
+            byte[] grown = new byte[line.length << 1];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        line[lineLength++] = b;
+    }
+
+    /**
+     * @return the current line for logging
+     */
+    protected final String lineString() {
+        return new String(line, 0, lineLength, ASCII);
+    }
+
+    /**
+     * @return whether b is trimmed by String.trim()
+     */
+    protected static final boolean isWhitespace(byte b) {
+        return (b & 0xFF) <= ' ';
+    }
+
+    /**
+     * Parses a decimal number such as -12.5 without creating a String
+     * @param b holds the number
+     * @param from index of the first character
+     * @param to index past the last character
+     * @throws NumberFormatException if the characters are not a decimal number
+     */
+    protected static final float parseFloat(byte[] b, int from, int to) throws NumberFormatException {
+        int i = from;
+        boolean negative = false;
+        if (i < to && ('-' == b[i] || '+' == b[i])) {
+            negative = '-' == b[i];
+            i++;
+        }
+        long mantissa = 0L;
+        int digits = 0, scale = -1;
+        for (; i < to; i++) {
+            int d = b[i] - '0';
+            if (d >= 0 && d <= 9) {
+                mantissa = 10L * mantissa + d;
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if ('.' == b[i] && scale < 0) {
+                scale = 0;
+            } else {
+                throw new NumberFormatException("For input string: \"" + new String(b, from, to - from, ASCII) + "\"");
+            }
+        }
+        if (0 == digits) {
+            throw new NumberFormatException("For input string: \"" + new String(b, from, to - from, ASCII) + "\"");
+        } else if (digits >= POWERS_OF_TEN.length) {
+            // more digits than a long holds; never sent by the ventilator
+            return Float.parseFloat(new String(b, from, to - from, ASCII));
+        }
+        double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        return (float) (negative ? -value : value);
+    }
+
+    /**
+     * Parses a decimal integer such as 1225 without creating a String
+     * @throws NumberFormatException if the characters are not an integer
+     */
+    protected static final int parseInt(byte[] b, int from, int to) throws NumberFormatException {
+        int i = from;
+        boolean negative = false;
+        if (i < to && ('-' == b[i] || '+' == b[i])) {
+            negative = '-' == b[i];
+            i++;
+        }
+        if (i == to || to - i > 9) {
+            throw new NumberFormatException("For input string: \"" + new String(b, from, to - from, ASCII) + "\"");
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException("For input string: \"" + new String(b, from, to - from, ASCII) + "\"");
+            }
+            value = 10 * value + d;
+        }
+        return negative ? -value : value;
+    }
+
+    private static final double[] POWERS_OF_TEN = new double[19];
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = 10.0 * POWERS_OF_TEN[i - 1];
+        }
+    }
 }
@@ -10,8 +10,6 @@ import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,118 +38,227 @@ public class PB840Parameters extends PB840 {
         out.flush();
     }
     
-    private static final Pattern dataField = Pattern.compile("([^,\\03]*)[,\\03]{1,2}");
-    
+    private static final byte ETX = 0x03;
+
     private static final Logger log = LoggerFactory.getLogger(PB840Parameters.class);
-    
-    protected final List<String> fieldValues = new ArrayList<String>(173);
-    
-    
+
+    // Tokens of the current line as offsets into line of each trimmed value.
+    // Token 0 is the response type, 1 the byte count, 2 the field count and
+    // 3 onward the data fields (the first of which follows the STX).
+    private int[] tokenStart = new int[180], tokenEnd = new int[180];
+    private int tokens;
+    // offset into line of the token being scanned
+    private int tokenFrom;
+    // a second delimiter directly after another is part of the same separator
+    private boolean afterDelimiter;
+    // the field count declared by the response being handled
+    private int fieldCount;
+    // reused while the ventilator keeps sending the same type of response
+    private String responseType = "";
+
     /**
-     * Receives and parses a MISCA or MISCF response from the PB840
-     * @return
+     * Receives and parses MISCA and MISCF responses from the PB840 until the
+     * end of the stream. Each chunk read is walked a byte at a time; values
+     * are split and trimmed in place and numbers are parsed straight from
+     * the bytes.
+     * @return true at the end of the stream
      * @throws IOException
      */
     public boolean receive() throws IOException {
-        for(;;) {
-            String line = in.readLine();
-            if(null == line) {
-                return true;
-            }
-            
-            log.trace("READ A PARAMETER LINE:"+line);
-            
-            Matcher dataFieldMatch = dataField.matcher(line);
-            
-            fieldValues.clear();
-            fieldValues.add("ZERO");
-            if(dataFieldMatch.find()) {
-                final String responseType = dataFieldMatch.group(1).trim();
-                try {
-                    // I want to generate the receiveStartResponse/receiveEndResponse sequence on EVERY LINE
-                    // In this way consumers of this class can safely chain new requests to prior responses
-                    // even where the response is not understood
-                    receiveStartResponse(responseType);
-                    fieldValues.add(responseType);
-                    if(dataFieldMatch.find()) {
-                        fieldValues.add(dataFieldMatch.group(1).trim());
-                        @SuppressWarnings("unused")
-                        int bytes = 0;
-                        try {
-                            bytes = Integer.parseInt(dataFieldMatch.group(1).trim());
-                        } catch(NumberFormatException nfe) {
-                            log.warn(line);
-                            log.warn("Received an invalid byte count ", nfe);
-                            continue;
-                        }
-                        //#bytes between <STX> and <CR>
-                        if(dataFieldMatch.find()) {
-                            String s = dataFieldMatch.group(1).trim();
-                            fieldValues.add(s);
-                            int fieldCount = 0; 
-                            try {
-                                fieldCount = Integer.parseInt(s);//#fields between <STX> and <CR>
-                            } catch(NumberFormatException nfe) {
-                                log.warn(line);
-                                log.warn("Received an invalid field count ", nfe);
-                                continue;
-                            }
-                            fieldValues.add("<STX"); // This will keep field numbers consistent
-                            Field field = null;
-                            try {
-                                for(int i = 0; i < fieldCount; i++) {
-                                    if(dataFieldMatch.find()) {
-                                        fieldValues.add(dataFieldMatch.group(1).trim());
-                                    } else {
-                                        log.warn(line);
-                                        log.warn("Missing expected field " + (i+1) +", aborting this line...");
-                                        continue;
-                                    }
-                                }
-                                if(fieldValues.size() < (fieldCount + 5)) {
-                                    log.warn(line);
-                                    log.warn("Received " + fieldValues.size() + " fields where " + (fieldCount+5) + " expected");
-                                    continue;
-                                }
-                                fieldValues.add("<ETX>"); // for consistency
-                                fieldValues.add("<CR>");
-                                final Field[] fields = this.fields.get(responseType);
-                                if(fields != null) {
-                                    for (int i = 0; i < fields.length; i++) {
-                                        field = fields[i];
-                                        field.handle(fieldValues);
-                                    }
-                                } else {
-                                    log.warn(line);
-                                    log.warn("Unknown response type " + responseType);
-                                }
-                            } catch(NumberFormatException nfe) {
-                                log.error("Error in field " + field);
-                            }
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            for (int i = 0; i < n; i++) {
+                final byte b = buffer[i];
+                switch (scan(b)) {
+                case LINE_END:
+                    receiveLine();
+                    break;
+                case TEXT:
+                    append(b);
+                    if (',' == b || ETX == b) {
+                        if (afterDelimiter) {
+                            afterDelimiter = false;
                         } else {
-                            log.warn(line);
-                            log.warn("Not a valid response, no field count:"+line);
+                            addToken(tokenFrom, lineLength - 1);
+                            afterDelimiter = true;
                         }
+                        tokenFrom = lineLength;
                     } else {
-                        log.warn(line);
-                        log.warn("Not a valid response, no bytes:"+line);
+                        afterDelimiter = false;
                     }
-                } finally {
-                    receiveEndResponse();
+                    break;
+                default:
+                    break;
                 }
-            } else {
+            }
+        }
+        if (lineLength > 0) {
+            receiveLine();
+        }
+        return true;
+    }
+
+    private void addToken(int from, int to) {
+        while (from < to && isWhitespace(line[from])) {
+            from++;
+        }
+        while (to > from && isWhitespace(line[to - 1])) {
+            to--;
+        }
+        if (tokens == tokenStart.length) {
+            int[] start = new int[tokens << 1], end = new int[tokens << 1];
+            System.arraycopy(tokenStart, 0, start, 0, tokens);
+            System.arraycopy(tokenEnd, 0, end, 0, tokens);
+            tokenStart = start;
+            tokenEnd = end;
+        }
+        tokenStart[tokens] = from;
+        tokenEnd[tokens] = to;
+        tokens++;
+    }
+
+    private void receiveLine() {
+        try {
+            handleLine();
+        } finally {
+            lineLength = 0;
+            tokens = 0;
+            tokenFrom = 0;
+            afterDelimiter = false;
+            fieldCount = 0;
+        }
+    }
+
+    private void handleLine() {
+        if (log.isTraceEnabled()) {
+            log.trace("READ A PARAMETER LINE:" + lineString());
+        }
+        if (0 == tokens) {
+            try {
+                // Generate this sequence for every CR terminated line!
+                receiveStartResponse("");
+            } finally {
+                receiveEndResponse();
+            }
+            log.warn(lineString());
+            log.warn("Not a valid response:" + lineString());
+            return;
+        }
+        if (!tokenEquals(0, responseType)) {
+            responseType = new String(line, tokenStart[0], tokenEnd[0] - tokenStart[0], ASCII);
+        }
+        final String responseType = this.responseType;
+        try {
+            // I want to generate the receiveStartResponse/receiveEndResponse sequence on EVERY LINE
+            // In this way consumers of this class can safely chain new requests to prior responses
+            // even where the response is not understood
+            receiveStartResponse(responseType);
+            if (tokens < 2) {
+                log.warn(lineString());
+                log.warn("Not a valid response, no bytes:" + lineString());
+                return;
+            }
+            try {
+                //#bytes between <STX> and <CR>
+                parseInt(line, tokenStart[1], tokenEnd[1]);
+            } catch (NumberFormatException nfe) {
+                log.warn(lineString());
+                log.warn("Received an invalid byte count ", nfe);
+                return;
+            }
+            if (tokens < 3) {
+                log.warn(lineString());
+                log.warn("Not a valid response, no field count:" + lineString());
+                return;
+            }
+            try {
+                //#fields between <STX> and <CR>
+                fieldCount = parseInt(line, tokenStart[2], tokenEnd[2]);
+            } catch (NumberFormatException nfe) {
+                log.warn(lineString());
+                log.warn("Received an invalid field count ", nfe);
+                return;
+            }
+            if (tokens - 3 < fieldCount) {
+                log.warn(lineString());
+                log.warn("Received " + (tokens + 2) + " fields where " + (fieldCount + 5) + " expected");
+                return;
+            }
+            final Field[] fields = this.fields.get(responseType);
+            if (fields != null) {
+                Field field = null;
                 try {
-                    // Generate this sequence for every CR terminated line!
-                    receiveStartResponse("");
-                } finally {
-                    receiveEndResponse();
+                    for (int i = 0; i < fields.length; i++) {
+                        field = fields[i];
+                        field.handle();
+                    }
+                } catch (NumberFormatException nfe) {
+                    log.error("Error in field " + field, nfe);
                 }
-                log.warn(line);
-                log.warn("Not a valid response:"+line);
+            } else {
+                log.warn(lineString());
+                log.warn("Unknown response type " + responseType);
             }
+        } finally {
+            receiveEndResponse();
+        }
+    }
+
+    /**
+     * Field numbers (as in pb840.fields) count from 1 at the response type
+     * and include a place for the STX; anything not sent reads as blank.
+     * @return the token holding the field or -1
+     */
+    private int token(int fieldNumber) {
+        if (fieldNumber >= 1 && fieldNumber <= 3) {
+            return fieldNumber - 1;
+        } else if (fieldNumber >= 5 && fieldNumber < 5 + fieldCount) {
+            return fieldNumber - 2;
+        } else {
+            return -1;
+        }
+    }
+
+    private boolean tokenEquals(int token, String s) {
+        final int from = tokenStart[token], length = tokenEnd[token] - from;
+        if (length != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (line[from + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param previous the last value of the field, returned again if unchanged
+     * @return the trimmed text of the field
+     */
+    protected final String text(int fieldNumber, String previous) {
+        final int t = token(fieldNumber);
+        if (t < 0) {
+            return "";
+        } else if (null != previous && tokenEquals(t, previous)) {
+            return previous;
+        } else {
+            return new String(line, tokenStart[t], tokenEnd[t] - tokenStart[t], ASCII);
+        }
+    }
+
+    /**
+     * @return the value of the field or NaN where it is blank or OFF
+     * @throws NumberFormatException if the field holds anything else
+     */
+    protected final float number(int fieldNumber) throws NumberFormatException {
+        final int t = token(fieldNumber);
+        if (t < 0 || tokenStart[t] == tokenEnd[t] || tokenEquals(t, "OFF")) {
+            return Float.NaN;
+        } else {
+            return parseFloat(line, tokenStart[t], tokenEnd[t]);
         }
     }
-    
 
     /**
      * Receives the response for a command type
@@ -169,19 +276,24 @@ public class PB840Parameters extends PB840 {
         
     }
     
-    public void receiveSetting(String name, Units units, String value) {
+    /**
+     * @param value NaN where the ventilator sent a blank or OFF
+     */
+    public void receiveSetting(String name, Units units, float value) {
         
     }
     
-    public void receiveNumeric(String name, Units units, String value) {
+    /**
+     * @param value NaN where the ventilator sent a blank or OFF
+     */
+    public void receiveNumeric(String name, Units units, float value) {
         
     }
     
-//    public void receiveAlarmSetting(String name, String lower, String upper) {
-//        
-//    }
-    
-    public void receiveAlarmLimit(String metricName, PB840.Units unitID, String value, String limitType){
+    /**
+     * @param value NaN where the limit is OFF
+     */
+    public void receiveAlarmLimit(String metricName, PB840.Units unitID, float value, String limitType){
     	
     }
     
@@ -213,7 +325,10 @@ public class PB840Parameters extends PB840 {
             this.description = description;
         }
 
-        abstract void handle(List<String> fieldValues);
+        /**
+         * Reports this field of the current response
+         */
+        abstract void handle();
         
     }
 
@@ -229,8 +344,8 @@ public class PB840Parameters extends PB840 {
         }
 
         @Override
-        void handle(List<String> fieldValues) {
-            receiveNumeric(name, units, fieldValues.get(fieldNumber));
+        void handle() {
+            receiveNumeric(name, units, number(fieldNumber));
         }
         
         @Override
@@ -250,8 +365,8 @@ public class PB840Parameters extends PB840 {
         }
 
         @Override
-        void handle(List<String> fieldValues) {
-            receiveSetting(name, units, fieldValues.get(fieldNumber));
+        void handle() {
+            receiveSetting(name, units, number(fieldNumber));
         }
         
         @Override
@@ -275,12 +390,9 @@ public class PB840Parameters extends PB840 {
 
 		
 	     @Override
-	        void handle(List<String> fieldValues) {
+	        void handle() {
 	    	 if (value > -1)//inexistent limits are fields -1 in the PB840.fields
-	    		 receiveAlarmLimit(name, units, fieldValues.get(value), limitType);
-//	    		 receiveAlarmLimit(name, units, value < 0 ? null:fieldValues.get(value), limitType);
-//	                    lowFieldNumber < 0 ? null : fieldValues.get(lowFieldNumber), 
-//	                    highFieldNumber < 0 ? null : fieldValues.get(highFieldNumber));
+	    		 receiveAlarmLimit(name, units, number(value), limitType);
 	        }
 		
 		
@@ -293,6 +405,7 @@ public class PB840Parameters extends PB840 {
     
     class PatientAlert extends Field {
         final int fieldNumber;
+        private String value;
 
         public PatientAlert(final String name, final String description, final int fieldNumber) {
             super(name, description);
@@ -300,8 +413,8 @@ public class PB840Parameters extends PB840 {
         }
 
         @Override
-        void handle(List<String> fieldValues) {
-            receivePatientAlert(name, fieldValues.get(fieldNumber));
+        void handle() {
+            receivePatientAlert(name, value = text(fieldNumber, value));
         }
         @Override
         public String toString() {
@@ -311,6 +424,7 @@ public class PB840Parameters extends PB840 {
     
     class TechnicalAlert extends Field {
         final int fieldNumber;
+        private String value;
 
         public TechnicalAlert(final String name, final String description, final int fieldNumber) {
             super(name, description);
@@ -318,8 +432,8 @@ public class PB840Parameters extends PB840 {
         }
 
         @Override
-        void handle(List<String> fieldValues) {
-            receiveTechnicalAlert(name, fieldValues.get(fieldNumber));
+        void handle() {
+            receiveTechnicalAlert(name, value = text(fieldNumber, value));
         }
         
         @Override
@@ -330,6 +444,7 @@ public class PB840Parameters extends PB840 {
     
     class VentilatorId extends Field {
         final int fieldNumber;
+        private String model = "840", id;
 
         public VentilatorId(final int fieldNumber) {
             super(null, null);
@@ -337,9 +452,30 @@ public class PB840Parameters extends PB840 {
         }
 
         @Override
-        void handle(List<String> fieldValues) {
-            String[] modelSerial = fieldValues.get(fieldNumber).split(" ");
-            receiveVentilatorId(modelSerial.length > 1 ? modelSerial[0] : "840", modelSerial.length > 1 ? modelSerial[1] : modelSerial[0]);
+        void handle() {
+            // "MODEL SERIAL" or just the serial number of an 840
+            final int t = token(fieldNumber);
+            if (t < 0) {
+                receiveVentilatorId(model, id = "");
+                return;
+            }
+            final int from = tokenStart[t], to = tokenEnd[t];
+            int space = from;
+            while (space < to && ' ' != line[space]) {
+                space++;
+            }
+            if (space < to) {
+                int end = space + 1;
+                while (end < to && ' ' != line[end]) {
+                    end++;
+                }
+                model = same(model, from, space) ? model : new String(line, from, space - from, ASCII);
+                id = same(id, space + 1, end) ? id : new String(line, space + 1, end - space - 1, ASCII);
+            } else {
+                model = "840";
+                id = same(id, from, to) ? id : new String(line, from, to - from, ASCII);
+            }
+            receiveVentilatorId(model, id);
         }
         
         @Override
@@ -347,7 +483,29 @@ public class PB840Parameters extends PB840 {
             return "VentilatorId["+name+","+description+","+fieldNumber+"]";
         }
     }
-    
+
+    private boolean same(String s, int from, int to) {
+        if (null == s || s.length() != to - from) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (line[i] != s.charAt(i - from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the first c in the field or the end of the field
+     */
+    private int indexOf(byte c, int from, int to) {
+        while (from < to && c != line[from]) {
+            from++;
+        }
+        return from;
+    }
+
     class Time extends Field {
         final int fieldNumber;
 
@@ -357,9 +515,13 @@ public class PB840Parameters extends PB840 {
         }
         
         @Override
-        void handle(List<String> fieldValues) {
-            String[] hour_minute = fieldValues.get(fieldNumber).split(":");
-            receiveTime(Integer.parseInt(hour_minute[0]), Integer.parseInt(hour_minute[1]));
+        void handle() {
+            // HH:MM
+            final int t = token(fieldNumber);
+            final int from = t < 0 ? 0 : tokenStart[t], to = t < 0 ? 0 : tokenEnd[t];
+            final int colon = indexOf((byte) ':', from, to);
+            final int end = indexOf((byte) ':', Math.min(colon + 1, to), to);
+            receiveTime(parseInt(line, from, colon), parseInt(line, Math.min(colon + 1, to), end));
         }
         
         @Override
@@ -367,20 +529,23 @@ public class PB840Parameters extends PB840 {
             return "Time["+fieldNumber+"]";
         }
     }
-    protected static final Map<String, Integer> months = new HashMap<String, Integer>();
-    static {
-        months.put("JAN", Calendar.JANUARY);
-        months.put("FEB", Calendar.FEBRUARY);
-        months.put("MAR", Calendar.MARCH);
-        months.put("APR", Calendar.APRIL);
-        months.put("MAY", Calendar.MAY);
-        months.put("JUN", Calendar.JUNE);
-        months.put("JUL", Calendar.JULY);
-        months.put("AUG", Calendar.AUGUST);
-        months.put("SEP", Calendar.SEPTEMBER);
-        months.put("OCT", Calendar.OCTOBER);
-        months.put("NOV", Calendar.NOVEMBER);
-        months.put("DEC", Calendar.DECEMBER);
+    private static final byte[][] MONTHS = new byte[][] {
+        "JAN".getBytes(ASCII), "FEB".getBytes(ASCII), "MAR".getBytes(ASCII), "APR".getBytes(ASCII),
+        "MAY".getBytes(ASCII), "JUN".getBytes(ASCII), "JUL".getBytes(ASCII), "AUG".getBytes(ASCII),
+        "SEP".getBytes(ASCII), "OCT".getBytes(ASCII), "NOV".getBytes(ASCII), "DEC".getBytes(ASCII)
+    };
+    /**
+     * @return the Calendar month (Calendar.JANUARY is 0) abbreviated in the field
+     */
+    private int month(int from, int to) throws NumberFormatException {
+        if (3 == to - from) {
+            for (int m = 0; m < MONTHS.length; m++) {
+                if (MONTHS[m][0] == line[from] && MONTHS[m][1] == line[from + 1] && MONTHS[m][2] == line[from + 2]) {
+                    return Calendar.JANUARY + m;
+                }
+            }
+        }
+        throw new NumberFormatException("Unknown month " + new String(line, from, to - from, ASCII));
     }
     class Date extends Field {
         final int fieldNumber;
@@ -390,9 +555,14 @@ public class PB840Parameters extends PB840 {
             this.fieldNumber = fieldNumber;
         }
         @Override
-        void handle(List<String> fieldValues) {
-            String[] month_day_year = fieldValues.get(fieldNumber).split(" ");
-            receiveDate(months.get(month_day_year[0]), Integer.parseInt(month_day_year[1]), Integer.parseInt(month_day_year[2]));
+        void handle() {
+            // MMM DD YYYY
+            final int t = token(fieldNumber);
+            final int from = t < 0 ? 0 : tokenStart[t], to = t < 0 ? 0 : tokenEnd[t];
+            final int first = indexOf((byte) ' ', from, to);
+            final int second = indexOf((byte) ' ', Math.min(first + 1, to), to);
+            final int third = indexOf((byte) ' ', Math.min(second + 1, to), to);
+            receiveDate(month(from, first), parseInt(line, Math.min(first + 1, to), second), parseInt(line, Math.min(second + 1, to), third));
         }
         
         @Override
@@ -3,11 +3,6 @@ package org.mdpnp.devices.puritanbennett._840;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,63 +14,164 @@ public class PB840Waveforms extends PB840 {
         super(input, output);
     }
     
-    private final static Pattern breathStart = Pattern.compile("^BS\\,\\s*S\\:(\\d+)\\,$");
-    private final static Pattern breathEnd = Pattern.compile("^BE");
-    private final static Pattern samples = Pattern.compile("^([0-9.-]+)\\,\\s*([0-9.-]+)$");
     private boolean breathActive;
-    private final List<Number> flow = new ArrayList<Number>(), pressure = new ArrayList<Number>();
-    
-    
-    
-    public boolean receive() {
-        for(;;) {
-            try {
-                String s = in.readLine();
-                if(s == null) {
-                    return true;
+    // samples of the breath in progress
+    private float[] flow = new float[512], pressure = new float[512];
+    private int count;
+
+    /**
+     * Receives breaths from the PB840 until the end of the stream. A breath
+     * is a "BS, S:nnn," line, one "flow, pressure" line per sample and a "BE"
+     * line. Each chunk read is walked a byte at a time and samples are
+     * parsed straight from the bytes.
+     * @return true at the end of the stream
+     * @throws IOException
+     */
+    public boolean receive() throws IOException {
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            for (int i = 0; i < n; i++) {
+                final byte b = buffer[i];
+                switch (scan(b)) {
+                case LINE_END:
+                    receiveLine();
+                    break;
+                case TEXT:
+                    append(b);
+                    break;
+                default:
+                    break;
                 }
-                s = s.trim();
-                if(breathActive) {
-                    Matcher m = samples.matcher(s);
-                    if(m.matches()) {
-                        flow.add(Double.parseDouble(m.group(1)));
-                        pressure.add(Double.parseDouble(m.group(2)));
-                    } else {
-                        m = breathEnd.matcher(s);
-                        if(m.matches()) {
-                            receiveBreath(flow, pressure);
-                            flow.clear();
-                            pressure.clear();
-                            breathActive = false;
-                        } else {
-                            
-                            m = breathStart.matcher(s);
-                            if(!m.matches()) {
-                                log.warn("Unexpected during breath " + s);
-                                breathActive = false;
-                            } else {
-                                log.warn("Duplicate breath start (previously started) "+s);
-                            }
-                        }
-                    }
+            }
+        }
+        if (lineLength > 0) {
+            receiveLine();
+        }
+        return true;
+    }
+
+    private void receiveLine() {
+        int from = 0, to = lineLength;
+        while (from < to && isWhitespace(line[from])) {
+            from++;
+        }
+        while (to > from && isWhitespace(line[to - 1])) {
+            to--;
+        }
+        try {
+            if (breathActive) {
+                if (isSamples(from, to)) {
+                    return;
+                } else if (isBreathEnd(from, to)) {
+                    receiveBreath(flow, pressure, count);
+                    count = 0;
+                    breathActive = false;
+                } else if (!isBreathStart(from, to)) {
+                    log.warn("Unexpected during breath " + lineString().trim());
+                    count = 0;
+                    breathActive = false;
+                } else {
+                    log.warn("Duplicate breath start (previously started) " + lineString().trim());
+                }
+            } else {
+                if (isBreathStart(from, to)) {
+                    breathActive = true;
                 } else {
-                    Matcher m = breathStart.matcher(s);
-                    if(m.matches()) {
-                        breathActive = true;
-                    } else {
-                        log.warn("Unexpected outside of breath " + s);
-                    }
+                    log.warn("Unexpected outside of breath " + lineString().trim());
                 }
+            }
+        } finally {
+            lineLength = 0;
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * @return true for a line BS, S:nnn,
+     */
+    private boolean isBreathStart(int from, int to) {
+        if (to - from < 7 || 'B' != line[from] || 'S' != line[from + 1] || ',' != line[from + 2] || ',' != line[to - 1]) {
+            return false;
+        }
+        int i = from + 3;
+        while (i < to && isWhitespace(line[i])) {
+            i++;
+        }
+        if (i + 2 >= to - 1 || 'S' != line[i] || ':' != line[i + 1]) {
+            return false;
+        }
+        for (i += 2; i < to - 1; i++) {
+            if (!isDigit(line[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isBreathEnd(int from, int to) {
+        return 2 == to - from && 'B' == line[from] && 'E' == line[from + 1];
+    }
 
-                
-                
-            } catch (IOException e) {
-                log.error("Error reading from the PB840", e);
+    /**
+     * Adds the sample to the breath where the line is flow, pressure
+     */
+    private boolean isSamples(int from, int to) {
+        int comma = from;
+        while (comma < to && ',' != line[comma]) {
+            if (!isNumeric(line[comma])) {
+                return false;
             }
+            comma++;
+        }
+        if (comma == from || comma == to) {
+            return false;
+        }
+        int second = comma + 1;
+        while (second < to && isWhitespace(line[second])) {
+            second++;
         }
+        if (second == to) {
+            return false;
+        }
+        for (int i = second; i < to; i++) {
+            if (!isNumeric(line[i])) {
+                return false;
+            }
+        }
+        float f, p;
+        try {
+            f = parseFloat(line, from, comma);
+            p = parseFloat(line, second, to);
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+        if (count == flow.length) {
+            float[] grown = new float[count << 1];
+            System.arraycopy(flow, 0, grown, 0, count);
+            flow = grown;
+            grown = new float[count << 1];
+            System.arraycopy(pressure, 0, grown, 0, count);
+            pressure = grown;
+        }
+        flow[count] = f;
+        pressure[count] = p;
+        count++;
+        return true;
     }
-    
-    public void receiveBreath(Collection<Number> flow, Collection<Number> pressure) {
+
+    private static boolean isNumeric(byte b) {
+        return isDigit(b) || '.' == b || '-' == b;
+    }
+
+    /**
+     * @param flow samples of flow; reused for the next breath
+     * @param pressure samples of pressure; reused for the next breath
+     * @param count the number of samples in the breath
+     */
+    public void receiveBreath(float[] flow, float[] pressure, int count) {
         
     }
     
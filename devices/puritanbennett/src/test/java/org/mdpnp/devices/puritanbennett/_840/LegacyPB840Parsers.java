@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.puritanbennett._840;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The parsing of PB840Parameters.receive() and PB840Waveforms.receive()
+ * before they worked on bytes (readLine, Pattern, String.split and
+ * Float.parseFloat). It reports to the callbacks of the current parsers so
+ * that the two can be compared; values that used to be passed as Strings are
+ * converted the way DemoPB840 converted them, with blank and OFF as NaN.
+ */
+final class LegacyPB840Parsers {
+    private static final Pattern dataField = Pattern.compile("([^,\\03]*)[,\\03]{1,2}");
+    private static final Pattern breathStart = Pattern.compile("^BS\\,\\s*S\\:(\\d+)\\,$");
+    private static final Pattern breathEnd = Pattern.compile("^BE");
+    private static final Pattern samples = Pattern.compile("^([0-9.-]+)\\,\\s*([0-9.-]+)$");
+    private static final Map<String, Integer> months = new HashMap<String, Integer>();
+    static {
+        String[] names = new String[] { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC" };
+        for (int i = 0; i < names.length; i++) {
+            months.put(names[i], Calendar.JANUARY + i);
+        }
+    }
+
+    private LegacyPB840Parsers() {
+    }
+
+    private static float parseFloat(String s) {
+        return null == s || s.isEmpty() || "OFF".equals(s) ? Float.NaN : Float.parseFloat(s);
+    }
+
+    /**
+     * Parses capture with the field table of to and reports to its callbacks
+     */
+    static void parameters(byte[] capture, PB840Parameters to) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(capture), "ASCII"));
+        List<String> fieldValues = new ArrayList<String>(173);
+        String line;
+        while (null != (line = in.readLine())) {
+            Matcher m = dataField.matcher(line);
+            fieldValues.clear();
+            fieldValues.add("ZERO");
+            if (!m.find()) {
+                try {
+                    to.receiveStartResponse("");
+                } finally {
+                    to.receiveEndResponse();
+                }
+                continue;
+            }
+            String responseType = m.group(1).trim();
+            try {
+                to.receiveStartResponse(responseType);
+                fieldValues.add(responseType);
+                if (!m.find()) {
+                    continue;
+                }
+                fieldValues.add(m.group(1).trim());
+                try {
+                    Integer.parseInt(m.group(1).trim());
+                } catch (NumberFormatException nfe) {
+                    continue;
+                }
+                if (!m.find()) {
+                    continue;
+                }
+                String s = m.group(1).trim();
+                fieldValues.add(s);
+                int fieldCount;
+                try {
+                    fieldCount = Integer.parseInt(s);
+                } catch (NumberFormatException nfe) {
+                    continue;
+                }
+                fieldValues.add("<STX");
+                for (int i = 0; i < fieldCount && m.find(); i++) {
+                    fieldValues.add(m.group(1).trim());
+                }
+                if (fieldValues.size() < fieldCount + 5) {
+                    continue;
+                }
+                fieldValues.add("<ETX>");
+                fieldValues.add("<CR>");
+                PB840Parameters.Field[] fields = to.fields.get(responseType);
+                if (null == fields) {
+                    continue;
+                }
+                try {
+                    for (PB840Parameters.Field field : fields) {
+                        handle(field, fieldValues, to);
+                    }
+                } catch (NumberFormatException nfe) {
+                    // the rest of the line is abandoned
+                }
+            } finally {
+                to.receiveEndResponse();
+            }
+        }
+    }
+
+    private static void handle(PB840Parameters.Field field, List<String> fieldValues, PB840Parameters to) {
+        if (field instanceof PB840Parameters.Numeric) {
+            PB840Parameters.Numeric numeric = (PB840Parameters.Numeric) field;
+            to.receiveNumeric(numeric.name, numeric.units, parseFloat(fieldValues.get(numeric.fieldNumber)));
+        } else if (field instanceof PB840Parameters.Setting) {
+            PB840Parameters.Setting setting = (PB840Parameters.Setting) field;
+            to.receiveSetting(setting.name, setting.units, parseFloat(fieldValues.get(setting.fieldNumber)));
+        } else if (field instanceof PB840Parameters.AlarmLimit) {
+            PB840Parameters.AlarmLimit limit = (PB840Parameters.AlarmLimit) field;
+            if (limit.value > -1) {
+                to.receiveAlarmLimit(limit.name, limit.units, parseFloat(fieldValues.get(limit.value)), limit.limitType);
+            }
+        } else if (field instanceof PB840Parameters.PatientAlert) {
+            PB840Parameters.PatientAlert alert = (PB840Parameters.PatientAlert) field;
+            to.receivePatientAlert(alert.name, fieldValues.get(alert.fieldNumber));
+        } else if (field instanceof PB840Parameters.TechnicalAlert) {
+            PB840Parameters.TechnicalAlert alert = (PB840Parameters.TechnicalAlert) field;
+            to.receiveTechnicalAlert(alert.name, fieldValues.get(alert.fieldNumber));
+        } else if (field instanceof PB840Parameters.VentilatorId) {
+            String[] modelSerial = fieldValues.get(((PB840Parameters.VentilatorId) field).fieldNumber).split(" ");
+            to.receiveVentilatorId(modelSerial.length > 1 ? modelSerial[0] : "840", modelSerial.length > 1 ? modelSerial[1] : modelSerial[0]);
+        } else if (field instanceof PB840Parameters.Time) {
+            String[] hour_minute = fieldValues.get(((PB840Parameters.Time) field).fieldNumber).split(":");
+            to.receiveTime(Integer.parseInt(hour_minute[0]), Integer.parseInt(hour_minute[1]));
+        } else if (field instanceof PB840Parameters.Date) {
+            String[] month_day_year = fieldValues.get(((PB840Parameters.Date) field).fieldNumber).split(" ");
+            to.receiveDate(months.get(month_day_year[0]), Integer.parseInt(month_day_year[1]), Integer.parseInt(month_day_year[2]));
+        }
+    }
+
+    /**
+     * Parses capture and reports each breath to to
+     */
+    static void waveforms(byte[] capture, PB840Waveforms to) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(capture), "ASCII"));
+        List<Number> flow = new ArrayList<Number>(), pressure = new ArrayList<Number>();
+        boolean breathActive = false;
+        String s;
+        while (null != (s = in.readLine())) {
+            s = s.trim();
+            if (breathActive) {
+                Matcher m = samples.matcher(s);
+                if (m.matches()) {
+                    flow.add(Double.parseDouble(m.group(1)));
+                    pressure.add(Double.parseDouble(m.group(2)));
+                } else if (breathEnd.matcher(s).matches()) {
+                    float[] f = new float[flow.size()], p = new float[pressure.size()];
+                    for (int i = 0; i < f.length; i++) {
+                        f[i] = flow.get(i).floatValue();
+                        p[i] = pressure.get(i).floatValue();
+                    }
+                    to.receiveBreath(f, p, f.length);
+                    flow.clear();
+                    pressure.clear();
+                    breathActive = false;
+                } else if (!breathStart.matcher(s).matches()) {
+                    // the samples so far were kept for the next breath
+                    breathActive = false;
+                }
+            } else {
+                breathActive = breathStart.matcher(s).matches();
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.puritanbennett._840;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays the captures used by {@link TestPB840Capture} many times over
+ * through the byte level parsers and through the regular expression parsing
+ * of {@link LegacyPB840Parsers} that they replaced.
+ *
+ * Usage: PB840ParserBenchmark [repetitions of each capture]
+ */
+public class PB840ParserBenchmark {
+    // sink for parsed values so that none of the work can be skipped
+    private static double sum;
+
+    public static void main(String[] args) throws IOException {
+        int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        byte[] parameters = repeat(TestPB840Capture.class.getResourceAsStream("miscf.capture"), repetitions);
+        byte[] waveforms = repeat(TestPB840Capture.class.getResourceAsStream("waveforms.capture"), repetitions);
+
+        PB840Parameters numerics = new PB840Parameters(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream()) {
+            @Override
+            public void receiveNumeric(String name, PB840.Units units, float value) {
+                if (!Float.isNaN(value)) {
+                    sum += value;
+                }
+            }
+        };
+        PB840Waveforms breaths = new PB840Waveforms(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream()) {
+            @Override
+            public void receiveBreath(float[] flow, float[] pressure, int count) {
+                for (int i = 0; i < count; i++) {
+                    sum += flow[i] + pressure[i];
+                }
+            }
+        };
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            LegacyPB840Parsers.parameters(parameters, numerics);
+            report("regex parameters", start, parameters.length);
+
+            start = System.nanoTime();
+            new PB840Parameters(new ByteArrayInputStream(parameters), new ByteArrayOutputStream()) {
+                @Override
+                public void receiveNumeric(String name, PB840.Units units, float value) {
+                    if (!Float.isNaN(value)) {
+                        sum += value;
+                    }
+                }
+            }.receive();
+            report("bytes parameters", start, parameters.length);
+
+            start = System.nanoTime();
+            LegacyPB840Parsers.waveforms(waveforms, breaths);
+            report("regex waveforms ", start, waveforms.length);
+
+            start = System.nanoTime();
+            new PB840Waveforms(new ByteArrayInputStream(waveforms), new ByteArrayOutputStream()) {
+                @Override
+                public void receiveBreath(float[] flow, float[] pressure, int count) {
+                    for (int i = 0; i < count; i++) {
+                        sum += flow[i] + pressure[i];
+                    }
+                }
+            }.receive();
+            report("bytes waveforms ", start, waveforms.length);
+        }
+        System.out.println(sum);
+    }
+
+    private static byte[] repeat(InputStream is, int repetitions) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = is.read(buf)) >= 0) {
+            baos.write(buf, 0, n);
+        }
+        is.close();
+        byte[] once = baos.toByteArray();
+        baos.reset();
+        for (int i = 0; i < repetitions; i++) {
+            baos.write(once, 0, once.length);
+        }
+        return baos.toByteArray();
+    }
+
+    private static void report(String name, long start, int bytes) {
+        long elapsed = System.nanoTime() - start;
+        System.out.println(name + ": " + (1000.0 * bytes / elapsed) + "MB/s");
+    }
+}
@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.puritanbennett._840;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Replays captures of the ventilator output through the parsers; once as
+ * read in large chunks and once a byte at a time so that every value spans
+ * a chunk boundary somewhere.
+ */
+public class TestPB840Capture {
+
+    private static byte[] capture(String name) throws IOException {
+        InputStream is = TestPB840Capture.class.getResourceAsStream(name);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = is.read(buf)) >= 0) {
+            baos.write(buf, 0, n);
+        }
+        is.close();
+        return baos.toByteArray();
+    }
+
+    private static InputStream replay(byte[] capture, final boolean byteAtATime) {
+        return new FilterInputStream(new ByteArrayInputStream(capture)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, byteAtATime ? Math.min(1, len) : len);
+            }
+        };
+    }
+
+    private static class RecordingParameters extends PB840Parameters {
+        final List<String> responses = new ArrayList<String>();
+        final Map<String, Float> numerics = new HashMap<String, Float>();
+        final Map<String, Float> limits = new HashMap<String, Float>();
+        final Map<String, String> patientAlerts = new HashMap<String, String>();
+        final Map<String, String> technicalAlerts = new HashMap<String, String>();
+        final List<String> alertValues = new ArrayList<String>();
+        int numericCount, limitCount, ends;
+        String model, id;
+        int hour, minute, month, day, year;
+
+        RecordingParameters(InputStream in) {
+            super(in, new ByteArrayOutputStream());
+        }
+
+        @Override
+        public void receiveStartResponse(String type) {
+            responses.add(type);
+        }
+
+        @Override
+        public void receiveEndResponse() {
+            ends++;
+        }
+
+        @Override
+        public void receiveNumeric(String name, PB840.Units units, float value) {
+            numerics.put(name, value);
+            numericCount++;
+        }
+
+        @Override
+        public void receiveAlarmLimit(String metricName, PB840.Units unitID, float value, String limitType) {
+            limits.put(metricName + "_" + limitType, value);
+            limitCount++;
+        }
+
+        @Override
+        public void receivePatientAlert(String name, String value) {
+            patientAlerts.put(name, value);
+            alertValues.add(value);
+        }
+
+        @Override
+        public void receiveTechnicalAlert(String name, String value) {
+            technicalAlerts.put(name, value);
+            alertValues.add(value);
+        }
+
+        @Override
+        public void receiveVentilatorId(String model, String id) {
+            this.model = model;
+            this.id = id;
+        }
+
+        @Override
+        public void receiveTime(int hour, int minute) {
+            this.hour = hour;
+            this.minute = minute;
+        }
+
+        @Override
+        public void receiveDate(int month, int day, int year) {
+            this.month = month;
+            this.day = day;
+            this.year = year;
+        }
+    }
+
+    private static class RecordingWaveforms extends PB840Waveforms {
+        final List<float[]> flows = new ArrayList<float[]>(), pressures = new ArrayList<float[]>();
+
+        RecordingWaveforms(InputStream in) {
+            super(in, new ByteArrayOutputStream());
+        }
+
+        @Override
+        public void receiveBreath(float[] flow, float[] pressure, int count) {
+            float[] f = new float[count], p = new float[count];
+            System.arraycopy(flow, 0, f, 0, count);
+            System.arraycopy(pressure, 0, p, 0, count);
+            flows.add(f);
+            pressures.add(p);
+        }
+    }
+
+    private static void assertMiscf(boolean byteAtATime) throws IOException {
+        RecordingParameters pb840 = new RecordingParameters(replay(capture("miscf.capture"), byteAtATime));
+        assertTrue(pb840.receive());
+
+        // two responses around a line of noise, each bracketed by start and end
+        assertEquals("[MISCF, , MISCF]", pb840.responses.toString());
+        assertEquals(3, pb840.ends);
+        assertSame(pb840.responses.get(0), pb840.responses.get(2));
+
+        assertEquals(15, pb840.hour);
+        assertEquals(27, pb840.minute);
+        assertEquals(Calendar.MARCH, pb840.month);
+        assertEquals(14, pb840.day);
+        assertEquals(2014, pb840.year);
+        assertEquals("840", pb840.model);
+        assertEquals("3510083646", pb840.id);
+
+        // every N of the MISCF table for both responses
+        assertEquals(2 * 72, pb840.numericCount);
+        assertEquals(13.5f, pb840.numerics.get("PB_SETTING_RESPIRATORY_RATE"), 0.0f);
+        assertEquals(70.5f, pb840.numerics.get("PB_TOTAL_RESPIRATORY_RATE"), 0.0f);
+        assertEquals(155.5f, pb840.numerics.get("PB_TOTAL_WORK_BREATHING_INDEX"), 0.0f);
+        assertEquals(-102.5f, pb840.numerics.get("PB_NEGATIVE_INSPIRATORY_FORCE"), 0.0f);
+        // OFF and blank
+        assertTrue(Float.isNaN(pb840.numerics.get("PB_SETTING_DISCONNECT_SENSITIVITY")));
+        assertTrue(Float.isNaN(pb840.numerics.get("PB_DYNAMIC_COMPLIANCE")));
+
+        // the two limits at -1 are not reported
+        assertEquals(2 * 10, pb840.limitCount);
+        assertEquals(34.5f, pb840.limits.get("PB_LIMIT_PEAK_CIRCUIT_PRESSURE_high_limit"), 0.0f);
+        assertTrue(Float.isNaN(pb840.limits.get("PB_LIMIT_PEAK_CIRCUIT_PRESSURE_low_limit")));
+        assertEquals(42.5f, pb840.limits.get("PB_LIMIT_TOTAL_RESPIRATORY_RATE_high_limit"), 0.0f);
+
+        assertEquals(2 * (21 + 47), pb840.alertValues.size());
+        assertEquals("OFF", pb840.patientAlerts.get("PB_ALARM_SILENCE"));
+        assertEquals("ALARM", pb840.patientAlerts.get("PB_APNEA_VENTILATION"));
+        assertEquals("NORMAL", pb840.patientAlerts.get("PB_HIGH_OXYGEN_PERCENT"));
+        assertEquals("INVASIVE", pb840.technicalAlerts.get("PB_SETTING_VENT_TYPE"));
+        assertEquals("A/C", pb840.technicalAlerts.get("PB_SETTING_MODE"));
+        // unchanged values of the second response are not copied again
+        for (int i = 0; i < 68; i++) {
+            assertSame(pb840.alertValues.get(i), pb840.alertValues.get(68 + i));
+        }
+    }
+
+    @Test
+    public void testParameters() throws IOException {
+        assertMiscf(false);
+    }
+
+    @Test
+    public void testParametersByteAtATime() throws IOException {
+        assertMiscf(true);
+    }
+
+    private static void assertWaveforms(boolean byteAtATime) throws IOException {
+        RecordingWaveforms pb840 = new RecordingWaveforms(replay(capture("waveforms.capture"), byteAtATime));
+        assertTrue(pb840.receive());
+
+        assertEquals(2, pb840.flows.size());
+        float[] flow = pb840.flows.get(0), pressure = pb840.pressures.get(0);
+        assertEquals(50, flow.length);
+        for (int i = 0; i < flow.length; i++) {
+            assertEquals(i * 0.25f - 5f, flow[i], 0.0f);
+            assertEquals(i * 0.5f, pressure[i], 0.0f);
+        }
+        flow = pb840.flows.get(1);
+        pressure = pb840.pressures.get(1);
+        assertEquals(3, flow.length);
+        for (int i = 0; i < flow.length; i++) {
+            assertEquals(-i - 0.75f, flow[i], 0.0f);
+            assertEquals(20f + i, pressure[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void testWaveforms() throws IOException {
+        assertWaveforms(false);
+    }
+
+    @Test
+    public void testWaveformsByteAtATime() throws IOException {
+        assertWaveforms(true);
+    }
+
+    /**
+     * Every callback in the order made
+     */
+    private static class LoggingParameters extends PB840Parameters {
+        final List<String> calls = new ArrayList<String>();
+
+        LoggingParameters(InputStream in) {
+            super(in, new ByteArrayOutputStream());
+        }
+
+        @Override
+        public void receiveStartResponse(String type) {
+            calls.add("start " + type);
+        }
+
+        @Override
+        public void receiveEndResponse() {
+            calls.add("end");
+        }
+
+        @Override
+        public void receiveSetting(String name, PB840.Units units, float value) {
+            calls.add("setting " + name + " " + units + " " + value);
+        }
+
+        @Override
+        public void receiveNumeric(String name, PB840.Units units, float value) {
+            calls.add("numeric " + name + " " + units + " " + value);
+        }
+
+        @Override
+        public void receiveAlarmLimit(String metricName, PB840.Units unitID, float value, String limitType) {
+            calls.add("limit " + metricName + " " + unitID + " " + value + " " + limitType);
+        }
+
+        @Override
+        public void receivePatientAlert(String name, String value) {
+            calls.add("patient " + name + " " + value);
+        }
+
+        @Override
+        public void receiveTechnicalAlert(String name, String value) {
+            calls.add("technical " + name + " " + value);
+        }
+
+        @Override
+        public void receiveVentilatorId(String model, String id) {
+            calls.add("id " + model + " " + id);
+        }
+
+        @Override
+        public void receiveTime(int hour, int minute) {
+            calls.add("time " + hour + " " + minute);
+        }
+
+        @Override
+        public void receiveDate(int month, int day, int year) {
+            calls.add("date " + month + " " + day + " " + year);
+        }
+    }
+
+    @Test
+    public void testParametersMatchRegex() throws IOException {
+        byte[] capture = capture("miscf.capture");
+        LoggingParameters bytes = new LoggingParameters(replay(capture, true));
+        bytes.receive();
+        LoggingParameters regex = new LoggingParameters(new ByteArrayInputStream(new byte[0]));
+        LegacyPB840Parsers.parameters(capture, regex);
+
+        assertEquals(regex.calls.size(), bytes.calls.size());
+        for (int i = 0; i < regex.calls.size(); i++) {
+            assertEquals("call " + i, regex.calls.get(i), bytes.calls.get(i));
+        }
+        // both responses in full
+        assertTrue(bytes.calls.size() > 2 * (72 + 10 + 21 + 47));
+    }
+
+    @Test
+    public void testWaveformsMatchRegex() throws IOException {
+        byte[] capture = capture("waveforms.capture");
+        RecordingWaveforms bytes = new RecordingWaveforms(replay(capture, true));
+        bytes.receive();
+        RecordingWaveforms regex = new RecordingWaveforms(new ByteArrayInputStream(new byte[0]));
+        LegacyPB840Parsers.waveforms(capture, regex);
+
+        assertEquals(regex.flows.size(), bytes.flows.size());
+        for (int i = 0; i < regex.flows.size(); i++) {
+            assertTrue("flow of breath " + i, Arrays.equals(regex.flows.get(i), bytes.flows.get(i)));
+            assertTrue("pressure of breath " + i, Arrays.equals(regex.pressures.get(i), bytes.pressures.get(i)));
+        }
+    }
+}
@@ -40,7 +40,7 @@ public class SimulatedCapnometer {
     }
 
     private final class DataPublisher implements Runnable {
-        private final Number[] values = new Number[SAMPLES_PER_UPDATE];
+        private final float[] values = new float[SAMPLES_PER_UPDATE];
 
         public DataPublisher() {
         }
@@ -49,7 +49,7 @@ public class SimulatedCapnometer {
         public void run() {
 
             for (int i = 0; i < values.length; i++) {
-                values[i] = SimulatedCapnometer.this.co2[postIncrCount()];
+                values[i] = (float) SimulatedCapnometer.this.co2[postIncrCount()];
             }
 
             DeviceClock.Reading  t = deviceClock.instant();
@@ -62,7 +62,7 @@ public class SimulatedCapnometer {
 
     };
 
-    protected void receiveCO2(DeviceClock.Reading time, Number[] co2, int respiratoryRate, int etCO2, int frequency) {
+    protected void receiveCO2(DeviceClock.Reading time, float[] co2, int respiratoryRate, int etCO2, int frequency) {
 
     }
 
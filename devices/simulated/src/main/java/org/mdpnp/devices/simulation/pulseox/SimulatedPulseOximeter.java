@@ -38,7 +38,7 @@ public class SimulatedPulseOximeter {
     }
 
     private final class DataPublisher implements Runnable {
-        private final Number[] plethValues = new Number[SAMPLES_PER_UPDATE];
+        private final float[] plethValues = new float[SAMPLES_PER_UPDATE];
 
         public DataPublisher(){}
         
@@ -47,7 +47,7 @@ public class SimulatedPulseOximeter {
         public void run() {
             try {
                 for (int i = 0; i < plethValues.length; i++) {
-                    plethValues[i] = pleth[postIncrCount()];
+                    plethValues[i] = (float) pleth[postIncrCount()];
                 }
 
                 int val[] = nextDraw();
@@ -63,7 +63,7 @@ public class SimulatedPulseOximeter {
 
     };
 
-    protected void receivePulseOx(DeviceClock.Reading timestamp, int heartRate, int SpO2, Number[] plethValues, int frequency) {
+    protected void receivePulseOx(DeviceClock.Reading timestamp, int heartRate, int SpO2, float[] plethValues, int frequency) {
 
     }
 
@@ -18,7 +18,7 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.paint.Color;
 
 import org.mdpnp.apps.fxbeans.SampleArrayFx;
-import org.mdpnp.guis.waveform.SampleArrayWaveformSource;
+import org.mdpnp.guis.waveform.SampleArrayWaveformCache;
 import org.mdpnp.guis.waveform.WaveformPanel;
 import org.mdpnp.guis.waveform.WaveformPanelFactory;
 import org.mdpnp.guis.waveform.javafx.JavaFXWaveformPane;
@@ -31,7 +31,7 @@ import org.slf4j.LoggerFactory;
  */
 public class MultiPulseOximeterPanel extends DevicePanel {
     private WaveformPanel[] plethPanel;
-    private final SampleArrayWaveformSource[] plethWave;
+    private final SampleArrayWaveformCache[] plethWave;
     private final GridPane gridPane = new GridPane();
 
     private static final int N = 12;
@@ -49,7 +49,7 @@ public class MultiPulseOximeterPanel extends DevicePanel {
     public MultiPulseOximeterPanel() {
         getStyleClass().add("multi-pulse-oximeter-panel");
         buildComponents();
-        plethWave = new SampleArrayWaveformSource[N];
+        plethWave = new SampleArrayWaveformCache[N];
         for (int i = 0; i < N; i++) {
             plethPanel[i].start();
         }
@@ -81,7 +81,7 @@ public class MultiPulseOximeterPanel extends DevicePanel {
     
     protected void sampleArrayAdd(SampleArrayFx data) {
         if (data.getInstance_id() >= 0 && data.getInstance_id() < N) {
-            plethPanel[data.getInstance_id()].setSource(new SampleArrayWaveformSource(deviceMonitor.getSampleArrayList().getReader(), data.getHandle()));
+            plethPanel[data.getInstance_id()].setSource(SampleArrayWaveformCache.get(deviceMonitor.getSampleArrayList().getReader(), data.getHandle()));
         }
     }
     
@@ -1,16 +1,18 @@
 package org.mdpnp.apps.fxbeans;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javafx.application.Platform;
 import javafx.collections.ModifiableObservableListBase;
 import javafx.collections.ObservableList;
 
+import org.mdpnp.rtiapi.data.DataAdapters;
+import org.mdpnp.rtiapi.data.DataReaderAdapter;
 import org.mdpnp.rtiapi.data.EventLoop;
+import org.mdpnp.rtiapi.data.Histogram;
 import org.mdpnp.rtiapi.data.LogEntityStatus;
 import org.mdpnp.rtiapi.data.TopicUtil;
 import org.slf4j.Logger;
@@ -58,7 +60,7 @@ public class AbstractFxList<D extends Copyable, R extends DataReader, F extends
     protected final Sequence dataSequence;
     protected final SampleInfoSeq sampleInfoSequence = new SampleInfoSeq();
 
-    protected final Method getKeyValue, returnLoan, readWCondition, readInstance;
+    protected final DataReaderAdapter<D, R> readerAdapter;
 
     private final LogEntityStatus logEntityStatus;
 
@@ -72,13 +74,9 @@ public class AbstractFxList<D extends Copyable, R extends DataReader, F extends
         this.fxClass = fxClass;
         
         this.logEntityStatus = new LogEntityStatus(log, topicName);
+        this.readerAdapter = DataAdapters.reader(dataClass, readerClass, sequenceClass);
         try {
             this.dataSequence = sequenceClass.newInstance();
-            getKeyValue = readerClass.getMethod("get_key_value", dataClass, InstanceHandle_t.class);
-            returnLoan = readerClass.getMethod("return_loan", sequenceClass, SampleInfoSeq.class);
-            readWCondition = readerClass.getMethod("read_w_condition", sequenceClass, SampleInfoSeq.class, int.class, ReadCondition.class);
-            readInstance = readerClass.getMethod("read_instance", sequenceClass, SampleInfoSeq.class, int.class, InstanceHandle_t.class, int.class,
-                    int.class, int.class);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -92,75 +90,48 @@ public class AbstractFxList<D extends Copyable, R extends DataReader, F extends
 
     private Topic readerTopic;
     private ContentFilteredTopic filteredTopic;
+    private Histogram samplesPerRead;
 
     private final EventLoop.ConditionHandler handler = new EventLoop.ConditionHandler() {
         @SuppressWarnings("unchecked")
         @Override
         public void conditionChanged(Condition condition) {
             try {
-                readWCondition.invoke(reader, dataSequence, sampleInfoSequence, ResourceLimitsQosPolicy.LENGTH_UNLIMITED, (ReadCondition) condition);
+                readerAdapter.read_w_condition(reader, dataSequence, sampleInfoSequence, ResourceLimitsQosPolicy.LENGTH_UNLIMITED, (ReadCondition) condition);
 
                 final int sz = sampleInfoSequence.size();
+                samplesPerRead.record(sz);
 
                 for (int i = 0; i < sz; i++) {
                     SampleInfo sampleInfo = (SampleInfo) sampleInfoSequence.get(i);
-                    D d = (D) dataSequence.get(i);
                     if (0 != (sampleInfo.instance_state & InstanceStateKind.NOT_ALIVE_INSTANCE_STATE)) {
                         // Keeping a history of samples makes the death of an instance immaterial
                         if(!keepHistory) {
-                            InstanceHandle_t removeHandle = new InstanceHandle_t(sampleInfo.instance_handle);
-                            Platform.runLater(() -> {
-                                Iterator<F> itr = iterator();
-                                while (itr.hasNext()) {
-                                    if (itr.next().getHandle().equals(removeHandle)) {
-                                        itr.remove();
-                                    }
-                                }
-                            });
+                            enqueue(null, sampleInfo);
                         }
                     } else {
-                        final InstanceHandle_t addUpdateHandle = new InstanceHandle_t(sampleInfo.instance_handle);
-                        final SampleInfo si = new SampleInfo();
-                        si.copy_from(sampleInfo);
-                        final D sample = dataClass.newInstance();
-                        sample.copy_from(d);
-
-                        Platform.runLater(() -> {
-                            // Keeping a history means never updating any existing row; only add new rows
-                            if(!keepHistory) {
-                                Iterator<F> itr = iterator();
-                                while (itr.hasNext()) {
-                                    Updatable<D> x = itr.next();
-                                    if (x.getHandle().equals(addUpdateHandle)) {
-                                        x.update(d, si);
-                                        return;
-                                    }
-                                }
-                            }
-                            try {
-                                F x = fxClass.newInstance();
-                                x.update(d, si);
-                                add(0, x);
-                            } catch (Exception e) {
-                                log.error("Unable to create a new instance of fx object", e);
-                            }
-                        });
+                        D data = (D) dataSequence.get(i);
+                        sampleRead(data, sampleInfo);
+                        enqueue(data, sampleInfo);
                     }
                 }
-            } catch (InvocationTargetException ite) {
-                if (!(ite.getCause() instanceof RETCODE_NO_DATA)) {
-                    log.error("reading", ite);
-                }
+            } catch (RETCODE_NO_DATA noData) {
+
             } catch (Exception e) {
                 log.error("reading for " + topicName, e);
             } finally {
                 try {
-                    returnLoan.invoke(reader, dataSequence, sampleInfoSequence);
+                    readerAdapter.return_loan(reader, dataSequence, sampleInfoSequence);
                 } catch (Exception e) {
                     log.error("return_loan for " + topicName, e);
                 }
             }
         }
+
+        @Override
+        public String toString() {
+            return "FxList " + topicName;
+        }
     };
 
     protected boolean keepHistory = false;
@@ -172,12 +143,166 @@ public class AbstractFxList<D extends Copyable, R extends DataReader, F extends
     public boolean isKeepHistory() {
         return keepHistory;
     }
+
+    public static final int DEFAULT_MAX_PENDING = 5000;
+
+    protected boolean coalesce = false;
+    protected int maxPending = DEFAULT_MAX_PENDING;
+
+    /**
+     * When coalescing only the latest sample of each instance received since
+     * the last FX pulse is applied. Not meaningful along with keepHistory,
+     * where every sample is a row.
+     */
+    public void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    /**
+     * Upper bound on updates (or, when coalescing, instances) waiting for the
+     * FX thread. New samples beyond it are dropped rather than blocking or
+     * growing without limit when the FX thread falls behind; removals are
+     * always kept.
+     */
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * A sample (or, with a null sample, an instance removal) waiting to be
+     * applied on the FX thread.
+     */
+    private final class Pending {
+        private final InstanceHandle_t handle;
+        private final SampleInfo sampleInfo = new SampleInfo();
+        private D sample;
+
+        Pending(InstanceHandle_t handle) {
+            this.handle = new InstanceHandle_t(handle);
+        }
+
+        void set(D data, SampleInfo sampleInfo) throws ReflectiveOperationException {
+            if (null == data) {
+                sample = null;
+            } else {
+                if (null == sample) {
+                    sample = dataClass.newInstance();
+                }
+                sample.copy_from(data);
+                this.sampleInfo.copy_from(sampleInfo);
+            }
+        }
+    }
+
+    // pendingList, pendingLatest, drainScheduled and dropped are guarded by pendingList
+    private final List<Pending> pendingList = new ArrayList<>();
+    private final Map<InstanceHandle_t, Pending> pendingLatest = new HashMap<>();
+    private boolean drainScheduled;
+    private long dropped;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            List<Pending> batch;
+            long dropped;
+            synchronized (pendingList) {
+                batch = new ArrayList<>(pendingList);
+                pendingList.clear();
+                pendingLatest.clear();
+                drainScheduled = false;
+                dropped = AbstractFxList.this.dropped;
+                AbstractFxList.this.dropped = 0L;
+            }
+            if (dropped > 0L) {
+                log.warn("Dropped " + dropped + " updates for " + topicName + "; the FX thread is not keeping up");
+            }
+            for (Pending p : batch) {
+                apply(p);
+            }
+        }
+    };
+
+    /**
+     * Called on the EventLoop thread for every live sample as it is read,
+     * before it is copied for the FX thread. The sample is on loan and must
+     * not be kept beyond the call.
+     */
+    protected void sampleRead(D data, SampleInfo sampleInfo) {
+    }
+
+    /**
+     * Called on the EventLoop thread; copies the sample and schedules at most
+     * one drain on the FX thread at a time. Never waits on the FX thread.
+     */
+    private void enqueue(D data, SampleInfo sampleInfo) throws ReflectiveOperationException {
+        boolean schedule = false;
+        synchronized (pendingList) {
+            Pending p = coalesce ? pendingLatest.get(sampleInfo.instance_handle) : null;
+            if (null == p) {
+                if (null != data && pendingList.size() >= maxPending) {
+                    dropped++;
+                    return;
+                }
+                p = new Pending(sampleInfo.instance_handle);
+                pendingList.add(p);
+                if (coalesce) {
+                    pendingLatest.put(p.handle, p);
+                }
+            }
+            p.set(data, sampleInfo);
+            if (!drainScheduled) {
+                drainScheduled = true;
+                schedule = true;
+            }
+        }
+        if (schedule) {
+            Platform.runLater(drain);
+        }
+    }
+
+    // handle to row; only touched on the FX thread and only
+    // meaningful when not keeping history
+    private final Map<InstanceHandle_t, F> rows = new HashMap<>();
+
+    private void apply(Pending p) {
+        if (null == p.sample) {
+            F row = rows.get(p.handle);
+            if (null != row) {
+                remove(row);
+            }
+            return;
+        }
+        // Keeping a history means never updating any existing row; only add new rows
+        if (!keepHistory) {
+            F row = rows.get(p.handle);
+            if (null != row) {
+                row.update(p.sample, p.sampleInfo);
+                return;
+            }
+        }
+        try {
+            F x = fxClass.newInstance();
+            x.update(p.sample, p.sampleInfo);
+            add(0, x);
+        } catch (Exception e) {
+            log.error("Unable to create a new instance of fx object", e);
+        }
+    }
     
     @SuppressWarnings("unchecked")
     public void start(final Subscriber subscriber, final EventLoop eventLoop, final String expression, final StringSeq params,
             final String qosLibrary, final String qosProfile) {
         this.subscriber = subscriber;
         this.eventLoop = eventLoop;
+        this.samplesPerRead = eventLoop.getStatistics().samplesPerRead(topicName);
 
         if (null == this.readerTopic) {
             this.readerTopic = TopicUtil.findOrCreateTopic(subscriber.get_participant(), topicName, typeSupportClass);
@@ -211,7 +336,8 @@ public class AbstractFxList<D extends Copyable, R extends DataReader, F extends
         condition = reader.create_readcondition(SampleStateKind.NOT_READ_SAMPLE_STATE, ViewStateKind.ANY_VIEW_STATE,
                 InstanceStateKind.ANY_INSTANCE_STATE);
 
-        eventLoop.addHandler(condition, handler);
+        // the handler only hands what it reads to the FX thread
+        eventLoop.addParallelHandler(condition, handler);
 
         reader.enable();
     }
@@ -240,6 +366,10 @@ public class AbstractFxList<D extends Copyable, R extends DataReader, F extends
             }
             subscriber = null;
         }
+        synchronized (pendingList) {
+            pendingList.clear();
+            pendingLatest.clear();
+        }
         Platform.runLater(() -> clear());
     }
 
@@ -256,18 +386,34 @@ public class AbstractFxList<D extends Copyable, R extends DataReader, F extends
     @Override
     protected void doAdd(int index, F element) {
         data.add(index, element);
+        index(element);
     }
 
     @Override
     protected F doSet(int index, F element) {
         F f = data.set(index, element);
+        unindex(f);
+        index(element);
         return f;
     }
 
     @Override
     protected F doRemove(int index) {
         F f = data.remove(index);
+        unindex(f);
         return f;
     }
 
+    private void index(F element) {
+        if (null != element.getHandle() && !element.getHandle().is_nil()) {
+            rows.put(element.getHandle(), element);
+        }
+    }
+
+    private void unindex(F element) {
+        if (null != element && null != element.getHandle()) {
+            rows.remove(element.getHandle(), element);
+        }
+    }
+
 }
@@ -12,6 +12,8 @@ public class AbstractFxListFactory {
     protected String expression;
     protected StringSeq params;
     protected String qosLibrary, qosProfile;
+    protected boolean coalesce = false;
+    protected int maxPending = AbstractFxList.DEFAULT_MAX_PENDING;
     
     public AbstractFxListFactory() {
     }
@@ -58,5 +60,22 @@ public class AbstractFxListFactory {
     public String getQosProfile() {
         return qosProfile;
     }
+    public void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+    public int getMaxPending() {
+        return maxPending;
+    }
+    
+    protected void configure(AbstractFxList<?, ?, ?> list) {
+        list.setCoalesce(coalesce);
+        list.setMaxPending(maxPending);
+    }
     
 }
@@ -21,6 +21,7 @@ public class InfusionStatusFxListFactory extends AbstractFxListFactory implement
     public InfusionStatusFxList getObject() throws Exception {
         if(null == instance) {
             instance = new InfusionStatusFxList(topicName);
+            configure(instance);
             instance.start(subscriber, eventLoop, expression, params, qosLibrary, qosProfile);
         }
         return instance;
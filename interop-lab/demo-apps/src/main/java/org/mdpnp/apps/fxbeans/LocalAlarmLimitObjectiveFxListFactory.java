@@ -17,6 +17,7 @@ public class LocalAlarmLimitObjectiveFxListFactory extends AbstractFxListFactory
     public LocalAlarmLimitObjectiveFxList getObject() throws Exception {
         if(null == instance) {
             instance = new LocalAlarmLimitObjectiveFxList(topicName);
+            configure(instance);
             instance.start(subscriber, eventLoop, expression, params, qosLibrary, qosProfile);
         }
         return instance;
@@ -1,6 +1,11 @@
 package org.mdpnp.apps.fxbeans;
 
+import org.mdpnp.guis.waveform.SampleArrayWaveformCache;
+import org.mdpnp.rtiapi.data.EventLoop;
 
+import com.rti.dds.infrastructure.StringSeq;
+import com.rti.dds.subscription.SampleInfo;
+import com.rti.dds.subscription.Subscriber;
 
 public class SampleArrayFxList extends AbstractFxList<ice.SampleArray, ice.SampleArrayDataReader, SampleArrayFx> {
 
@@ -9,4 +14,23 @@ public class SampleArrayFxList extends AbstractFxList<ice.SampleArray, ice.Sampl
               ice.SampleArrayTypeSupport.class, ice.SampleArraySeq.class, SampleArrayFx.class);
     }
 
+    @Override
+    public void start(Subscriber subscriber, EventLoop eventLoop, String expression, StringSeq params, String qosLibrary, String qosProfile) {
+        super.start(subscriber, eventLoop, expression, params, qosLibrary, qosProfile);
+        // waveform panels on this reader are kept current from sampleRead
+        SampleArrayWaveformCache.feed(reader);
+    }
+
+    @Override
+    public void stop() {
+        if (null != reader) {
+            SampleArrayWaveformCache.unfeed(reader);
+        }
+        super.stop();
+    }
+
+    @Override
+    protected void sampleRead(ice.SampleArray data, SampleInfo sampleInfo) {
+        SampleArrayWaveformCache.offer(reader, data, sampleInfo);
+    }
 }
@@ -29,6 +29,7 @@ import javafx.util.Callback;
 import org.mdpnp.apps.device.DeviceDataMonitor;
 import org.mdpnp.apps.fxbeans.*;
 import org.mdpnp.apps.testapp.device.DeviceView;
+import org.mdpnp.apps.testapp.export.HeadlessDataRecorder;
 import org.mdpnp.devices.AbstractDevice;
 import org.mdpnp.devices.DeviceDriverProvider;
 import org.mdpnp.devices.DeviceDriverProvider.DeviceType;
@@ -55,6 +56,12 @@ public class DeviceAdapterCommand implements Configuration.HeadlessCommand, Conf
 
     private static final Logger log = LoggerFactory.getLogger(org.mdpnp.apps.testapp.DeviceAdapterCommand.class);
 
+    /**
+     * When true the headless adapter also records what is published on its
+     * partitions; see {@link HeadlessDataRecorder} for choosing the persisters.
+     */
+    public static final String RECORD_PROPERTY = "DeviceAdapterCommand.record";
+
     @Override
     public int execute(final Configuration config) throws Exception
     {
@@ -79,6 +86,10 @@ public class DeviceAdapterCommand implements Configuration.HeadlessCommand, Conf
 
         da.init();
 
+        if(Boolean.getBoolean(RECORD_PROPERTY)) {
+            da.startRecorder();
+        }
+
         // this will block until stops kills everything from another thread or a
         // VM's shutdown hook
         da.run();
@@ -150,6 +161,22 @@ public class DeviceAdapterCommand implements Configuration.HeadlessCommand, Conf
                 deviceHandle.setAddress(address);
         }
 
+        /**
+         * Records from the device's own subscriber, so that the recording
+         * follows the device's partition; stopped along with the adapter.
+         * Each device records to a directory named for its UDI so that
+         * adapters started from the same directory do not share files.
+         */
+        public synchronized void startRecorder() throws Exception {
+            String udi = deviceHandle.getDevice().getUniqueDeviceIdentifier();
+            HeadlessDataRecorder r = new HeadlessDataRecorder(getComponent("eventLoop", EventLoop.class),
+                                                              getComponent("subscriber", Subscriber.class),
+                                                              HeadlessDataRecorder.getDirectory(null == udi ? deviceType.getAlias() : udi));
+            r.addPersisters();
+            r.start();
+            recorder = r;
+        }
+
         /**
          * blocking call to start adapter's listening loop. It is expected that stop API will be called on another thread
          */
@@ -173,6 +200,15 @@ public class DeviceAdapterCommand implements Configuration.HeadlessCommand, Conf
         public synchronized void stop() {
 
             Metrics metrics = new Metrics();
+            if(null != recorder) {
+                update("Stop recording", 25);
+                try {
+                    recorder.stop();
+                } catch (Exception ex) {
+                    log.error("Failed to stop recording", ex);
+                }
+                recorder = null;
+            }
             try {
                 update("Ask the device to disconnect from the ICE", 50);
                 long tm = metrics.start();
@@ -194,6 +230,7 @@ public class DeviceAdapterCommand implements Configuration.HeadlessCommand, Conf
         }
         protected String[]       initialPartition;
         private   String         address=null;
+        private   HeadlessDataRecorder recorder;
 
         private final CountDownLatch stopOk = new CountDownLatch(1);
 
@@ -22,6 +22,7 @@ import org.mdpnp.devices.ge.serial.DemoGESerial;
 import org.mdpnp.devices.hospira.symbiq.DemoSymbiq;
 import org.mdpnp.devices.ivy._450c.DemoIvy450C;
 import org.mdpnp.devices.masimo.radical.DemoRadical7;
+import org.mdpnp.devices.net.NetworkLoopGroup;
 import org.mdpnp.devices.nellcor.pulseox.DemoN595;
 import org.mdpnp.devices.nonin.pulseox.DemoNoninPulseOx;
 import org.mdpnp.devices.oridion.capnostream.DemoCapnostream20;
@@ -266,6 +267,12 @@ public class DeviceFactory {
             EventLoop eventLoop = context.getBean("eventLoop", EventLoop.class);
             Subscriber subscriber = context.getBean("subscriber", Subscriber.class);
             Publisher publisher = context.getBean("publisher", Publisher.class);
+            if (context.containsBean("networkLoopGroup")) {
+                NetworkLoopGroup networkLoopGroup = context.getBean("networkLoopGroup", NetworkLoopGroup.class);
+                if (networkLoopGroup.size() > 0) {
+                    return new DemoEthernetIntellivue(subscriber, publisher, eventLoop, networkLoopGroup.next());
+                }
+            }
             return new DemoEthernetIntellivue(subscriber, publisher, eventLoop);
         }
     }
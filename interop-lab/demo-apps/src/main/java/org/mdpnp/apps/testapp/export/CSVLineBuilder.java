@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.TimeZone;
+
+/**
+ * Reusable byte buffer for assembling one CSV line without going through
+ * java.text. Timestamps are written as yyyyMMddHHmmssZ in the default time
+ * zone, numerics with two fixed decimals and waveform values in 0.000E0
+ * scientific notation, matching what {@link CSVPersister} produced with
+ * SimpleDateFormat, NumberFormat and DecimalFormat (less the grouping
+ * separators NumberFormat put into values of 1000 and more).
+ * {@link VerilogVCDPersister} uses it for its value changes as well.
+ *
+ * Not thread safe; {@link CSVPersister} keeps one per thread.
+ */
+class CSVLineBuilder {
+
+    private static final long[] POW10 = new long[19];
+    static {
+        POW10[0] = 1L;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10L;
+        }
+    }
+
+    private final TimeZone timeZone;
+    private byte[] buf = new byte[256];
+    private int len;
+
+    // the formatted second of the most recent timestamp; consecutive
+    // samples mostly fall within the same second
+    private final byte[] lastTimestamp = new byte[19];
+    private int lastTimestampLength;
+    private long lastSecond = Long.MIN_VALUE;
+
+    CSVLineBuilder() {
+        this(TimeZone.getDefault());
+    }
+
+    CSVLineBuilder(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    CSVLineBuilder reset() {
+        len = 0;
+        return this;
+    }
+
+    int length() {
+        return len;
+    }
+
+    /**
+     * Copies the line into dst which must have at least length() remaining.
+     */
+    void copyTo(ByteBuffer dst) {
+        dst.put(buf, 0, len);
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        os.write(buf, 0, len);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private void ensure(int n) {
+        if (len + n > buf.length) {
+            byte[] b = new byte[Math.max(buf.length * 2, len + n)];
+            System.arraycopy(buf, 0, b, 0, len);
+            buf = b;
+        }
+    }
+
+    CSVLineBuilder append(char c) {
+        ensure(1);
+        buf[len++] = (byte) c;
+        return this;
+    }
+
+    CSVLineBuilder append(String s) {
+        if (s == null) {
+            return append("null");
+        }
+        final int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // rare; let the charset deal with anything beyond ASCII
+                len -= i;
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                ensure(b.length);
+                System.arraycopy(b, 0, buf, len, b.length);
+                len += b.length;
+                return this;
+            }
+            buf[len++] = (byte) c;
+        }
+        return this;
+    }
+
+    CSVLineBuilder append(long v) {
+        if (v == Long.MIN_VALUE) {
+            return append(Long.toString(v));
+        }
+        if (v < 0) {
+            append('-');
+            v = -v;
+        }
+        int digits = 1;
+        while (digits < 19 && v >= POW10[digits]) {
+            digits++;
+        }
+        ensure(digits);
+        for (int i = len + digits - 1; i >= len; i--) {
+            buf[i] = (byte) ('0' + v % 10L);
+            v /= 10L;
+        }
+        len += digits;
+        return this;
+    }
+
+    private void appendDigits(long v, int width) {
+        ensure(width);
+        for (int i = len + width - 1; i >= len; i--) {
+            buf[i] = (byte) ('0' + v % 10L);
+            v /= 10L;
+        }
+        len += width;
+    }
+
+    /**
+     * Appends ms as yyyyMMddHHmmssZ in this builder's time zone.
+     */
+    CSVLineBuilder appendTimestamp(long ms) {
+        long second = Math.floorDiv(ms, 1000L);
+        if (second != lastSecond) {
+            int offset = timeZone.getOffset(ms);
+            int start = len;
+            formatTimestamp(second, offset);
+            lastTimestampLength = len - start;
+            System.arraycopy(buf, start, lastTimestamp, 0, lastTimestampLength);
+            lastSecond = second;
+            return this;
+        }
+        ensure(lastTimestampLength);
+        System.arraycopy(lastTimestamp, 0, buf, len, lastTimestampLength);
+        len += lastTimestampLength;
+        return this;
+    }
+
+    private void formatTimestamp(long second, int offsetMs) {
+        long local = second + offsetMs / 1000;
+        long days = Math.floorDiv(local, 86400L);
+        int secondOfDay = (int) Math.floorMod(local, 86400L);
+
+        // civil date from days since 1970-01-01 (proleptic Gregorian)
+        long z = days + 719468L;
+        long era = Math.floorDiv(z, 146097L);
+        long doe = z - era * 146097L;
+        long yoe = (doe - doe / 1460L + doe / 36524L - doe / 146096L) / 365L;
+        long doy = doe - (365L * yoe + yoe / 4L - yoe / 100L);
+        long mp = (5L * doy + 2L) / 153L;
+        long day = doy - (153L * mp + 2L) / 5L + 1L;
+        long month = mp < 10L ? mp + 3L : mp - 9L;
+        long year = yoe + era * 400L + (month <= 2L ? 1L : 0L);
+
+        appendDigits(year, 4);
+        appendDigits(month, 2);
+        appendDigits(day, 2);
+        appendDigits(secondOfDay / 3600, 2);
+        appendDigits(secondOfDay / 60 % 60, 2);
+        appendDigits(secondOfDay % 60, 2);
+
+        int offsetMinutes = offsetMs / 60000;
+        append(offsetMinutes < 0 ? '-' : '+');
+        offsetMinutes = Math.abs(offsetMinutes);
+        appendDigits(offsetMinutes / 60, 2);
+        appendDigits(offsetMinutes % 60, 2);
+    }
+
+    /**
+     * Appends v with exactly two decimals.
+     */
+    CSVLineBuilder appendFixed2(double v) {
+        return appendFixed(v, 2);
+    }
+
+    /**
+     * Appends v with exactly the given number of decimals, rounded half even
+     * like DecimalFormat; like DecimalFormat, it keeps the sign of -0.0 and
+     * rounds values too large for a long from their shortest decimal digits.
+     */
+    CSVLineBuilder appendFixed(double v, int decimals) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            return append(Double.toString(v));
+        }
+        if (Math.abs(v) * POW10[decimals] >= 1e15) {
+            return append(new BigDecimal(Double.toString(v)).setScale(decimals, RoundingMode.HALF_EVEN).toPlainString());
+        }
+        long units = round(Math.abs(v), decimals, RoundingMode.HALF_EVEN);
+        if (Double.doubleToRawLongBits(v) < 0L) {
+            append('-');
+        }
+        append(units / POW10[decimals]);
+        append('.');
+        appendDigits(units % POW10[decimals], decimals);
+        return this;
+    }
+
+    /**
+     * Appends v as 0.000E0, i.e. one integer digit, three decimals and an
+     * unpadded exponent, rounded half even like DecimalFormat.
+     */
+    CSVLineBuilder appendScientific(double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            return append(Double.toString(v));
+        }
+        if (v == 0.0) {
+            return append("0.000E0");
+        }
+        if (v < 0) {
+            append('-');
+            v = -v;
+        }
+        int exponent = (int) Math.floor(Math.log10(v));
+        long mantissa = round(v, 3 - exponent, RoundingMode.HALF_EVEN);
+        // log10 may be off by one near powers of ten and rounding may carry
+        if (mantissa >= 10000L) {
+            exponent++;
+            mantissa = round(v, 3 - exponent, RoundingMode.HALF_EVEN);
+        } else if (mantissa < 1000L) {
+            exponent--;
+            mantissa = round(v, 3 - exponent, RoundingMode.HALF_EVEN);
+        }
+        if (mantissa >= 10000L) {
+            mantissa /= 10L;
+            exponent++;
+        }
+        append(mantissa / 1000L);
+        append('.');
+        appendDigits(mantissa % 1000L, 3);
+        append('E');
+        append(exponent);
+        return this;
+    }
+
+    /**
+     * @return non negative v times 10^power rounded the way java.text does
+     *         it, i.e. on the exact binary value of v
+     */
+    private static long round(double v, int power, RoundingMode mode) {
+        double scaled = scale(v, power);
+        double fraction = scaled - Math.floor(scaled);
+        if (Math.abs(fraction - 0.5) < Math.max(1e-6, Math.ulp(scaled))) {
+            // too close to call in floating point
+            return new BigDecimal(v).scaleByPowerOfTen(power).setScale(0, mode).longValue();
+        }
+        return Math.round(scaled);
+    }
+
+    private static double scale(double v, int power) {
+        if (power > 300) {
+            // subnormal values; 10^power itself would overflow
+            return v * 1e300 * Math.pow(10.0, power - 300);
+        } else if (power >= 0) {
+            return power < POW10.length ? v * POW10[power] : v * Math.pow(10.0, power);
+        } else {
+            return -power < POW10.length ? v / POW10[-power] : v / Math.pow(10.0, -power);
+        }
+    }
+}
@@ -3,13 +3,8 @@ package org.mdpnp.apps.testapp.export;
 
 import java.io.File;
 import java.net.URL;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.ResourceBundle;
 
-import com.google.common.eventbus.Subscribe;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
@@ -17,17 +12,15 @@ import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.stage.FileChooser;
 
-import org.apache.log4j.Level;
-
 public class CSVPersister extends DataCollectorAppFactory.PersisterUIController implements Initializable {
 
-    static ThreadLocal<SimpleDateFormat> dateFormats = new ThreadLocal<SimpleDateFormat>()
-    {
-        protected SimpleDateFormat initialValue() {
-            return new SimpleDateFormat("yyyyMMddHHmmssZ");
+    // one reusable line buffer per collector thread
+    private static final ThreadLocal<CSVLineBuilder> lines = new ThreadLocal<CSVLineBuilder>() {
+        protected CSVLineBuilder initialValue() {
+            return new CSVLineBuilder();
         }
     };
-    
+
     @FXML Label filePathLabel;
     @FXML ComboBox<String> backupIndex, fSize;
 
@@ -38,132 +31,126 @@ public class CSVPersister extends DataCollectorAppFactory.PersisterUIController
 
     @Override
     public boolean start() throws Exception {
-        appender.activateOptions();
-        final File f = new File(appender.getFile());
-        if(f.exists() && f.length() != 0)
-            appender.rollOver();
+        writer = new CSVWriter(file, CSVWriter.parseFileSize(maxFileSize), maxBackupIndex);
+        writer.start();
         return true;
     }
 
     @Override
     public void stop() throws Exception {
-        final File f = new File(appender.getFile());
+        final CSVWriter writer = this.writer;
+        this.writer = null;
+        if(writer != null)
+            writer.stop();
+        final File f = file;
         // test for canWrite just to be safe in case delete fails for whatever reason
         if(f.exists() && f.length()==0 && f.canWrite())
             f.delete();
     }
-    
-    private static NumberFormat valueFormat = NumberFormat.getNumberInstance();
-    static {
-        valueFormat.setMaximumFractionDigits(2);
-        valueFormat.setMinimumFractionDigits(2);
+
+    static void toCSVLine(PatientAssessmentDataCollector.PatientAssessmentEvent value, CSVLineBuilder sb) {
+        sb.append('3').append(',').append(value.getUniqueDeviceIdentifier()).append(',')
+                .appendTimestamp(value.getDevTime()).append(',').append(value.getPatientId()).append(',').append('1').append(',')
+                .append(value.getValue().getKey()).append(',')
+                .append(value.getValue().getValue());
     }
 
-    // scientific notation, three decimal places, one exponent digit
-    private static DecimalFormat scientificFormat = new DecimalFormat("0.000E0");
+    static void toCSVLine(SampleArrayDataCollector.SampleArrayEvent value, CSVLineBuilder sb) {
+        float v[] = value.getSamples();
+        int n = value.getSampleCount();
 
-    static String toCSVLine(PatientAssessmentDataCollector.PatientAssessmentEvent value) {
-        StringBuilder sb = new StringBuilder();
+        sb.append('2').append(',').append(value.getUniqueDeviceIdentifier()).append(',')
+                .append(value.getMetricId()).append(',')
+                .append(value.getInstanceId()).append(',')
+                .appendTimestamp(value.getDevTime()).append(',').append(value.getPatientId()).append(',').append(n);
 
-        long ms = value.getDevTime();
-        String devTime = dateFormats.get().format(new Date(ms));
-        String mrn = value.getPatientId();
+        for(int i = 0; i < n; i++) {
+            sb.append(',').appendScientific(v[i]);
+        }
+    }
 
-        sb.append(3).append(",").append(value.getUniqueDeviceIdentifier()).append(",")
-                .append(devTime).append(",").append(mrn).append(",").append(1).append(",")
-                .append(value.getValue().getKey()).append(",")
-                .append(value.getValue().getValue());
+    static void toCSVLine(NumericsDataCollector.NumericSampleEvent value, CSVLineBuilder sb) {
+        sb.append('1').append(',').append(value.getUniqueDeviceIdentifier()).append(',')
+            .append(value.getMetricId()).append(',')
+            .append(value.getInstanceId()).append(',')
+            .appendTimestamp(value.getDevTime()).append(',').append(value.getPatientId()).append(',').append('1').append(',')
+            .appendFixed2(value.getValue());
+    }
 
+    static String toCSVLine(PatientAssessmentDataCollector.PatientAssessmentEvent value) {
+        CSVLineBuilder sb = new CSVLineBuilder();
+        toCSVLine(value, sb);
         return sb.toString();
     }
 
     static String toCSVLine(SampleArrayDataCollector.SampleArrayEvent value) {
-        StringBuilder sb = new StringBuilder();
-
-        long ms = value.getDevTime();
-        String devTime = dateFormats.get().format(new Date(ms));
-        Number v[] = value.getValues();
-        String mrn = value.getPatientId();
-
-        sb.append(2).append(",").append(value.getUniqueDeviceIdentifier()).append(",")
-                .append(value.getMetricId()).append(",")
-                .append(value.getInstanceId()).append(",")
-                .append(devTime).append(",").append(mrn).append(",").append(v.length);
-
-        for(Number n : v) {
-            sb.append(",").append(scientificFormat.format(n.doubleValue()));
-        }
-
+        CSVLineBuilder sb = new CSVLineBuilder();
+        toCSVLine(value, sb);
         return sb.toString();
     }
 
     static String toCSVLine(NumericsDataCollector.NumericSampleEvent value) {
-        StringBuilder sb = new StringBuilder();
-
-        long ms = value.getDevTime();
-        String devTime = dateFormats.get().format(new Date(ms));
-        String mrn = value.getPatientId();
-
-        sb.append(1).append(",").append(value.getUniqueDeviceIdentifier()).append(",")
-            .append(value.getMetricId()).append(",")
-            .append(value.getInstanceId()).append(",")
-            .append(devTime).append(",").append(mrn).append(",").append(1).append(",")
-            .append(valueFormat.format(value.getValue()));
-
+        CSVLineBuilder sb = new CSVLineBuilder();
+        toCSVLine(value, sb);
         return sb.toString();
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
-        String s = toCSVLine(evt);
-        cat.info(s);
+        final CSVWriter writer = this.writer;
+        if(writer != null) {
+            CSVLineBuilder sb = lines.get().reset();
+            toCSVLine(evt, sb);
+            writer.write(sb);
+        }
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
-        String s = toCSVLine(evt);
-        cat.info(s);
+        final CSVWriter writer = this.writer;
+        if(writer != null) {
+            CSVLineBuilder sb = lines.get().reset();
+            toCSVLine(evt, sb);
+            writer.write(sb);
+        }
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(PatientAssessmentDataCollector.PatientAssessmentEvent evt) throws Exception {
-        String s = toCSVLine(evt);
-        cat.info(s);
+        final CSVWriter writer = this.writer;
+        if(writer != null) {
+            CSVLineBuilder sb = lines.get().reset();
+            toCSVLine(evt, sb);
+            writer.write(sb);
+        }
     }
 
     public CSVPersister() {
         super();
     }
-    
+
+    // file settings take effect the next time the persister is started
     @FXML public void clickBackupIndex(ActionEvent evt) {
         String s = backupIndex.getSelectionModel().getSelectedItem();
-        if(appender != null) {
-            appender.setMaxBackupIndex(Integer.parseInt(s));
-            appender.activateOptions();
-        }
+        maxBackupIndex = Integer.parseInt(s);
     }
-    
+
     @FXML public void clickFSize(ActionEvent evt) {
-        String s = fSize.getSelectionModel().getSelectedItem();
-        if(appender != null) {
-            appender.setMaxFileSize(s);
-            appender.activateOptions();
-        }
+        maxFileSize = fSize.getSelectionModel().getSelectedItem();
     }
-    
+
     @FXML public void clickChange(ActionEvent evt) {
         FileChooser fc = new FileChooser();
         fc.setTitle("Choose a file");
-        fc.setInitialDirectory(defaultLogFileName.getParentFile());
-        
+        fc.setInitialDirectory(defaultLogFileName.getAbsoluteFile().getParentFile());
+
         File f = fc.showSaveDialog(null);
         if(null != f) {
             filePathLabel.setText(f.getAbsolutePath());
-            appender.setFile(f.getAbsolutePath());
-            appender.activateOptions();
+            file = f.getAbsoluteFile();
         }
     }
-    
+
     private File defaultLogFileName = new File("openicedataexport.csv");
 
     @Override
@@ -180,56 +167,24 @@ public class CSVPersister extends DataCollectorAppFactory.PersisterUIController
     }
 
     void setup(int maxBackupIndex, String maxFileSize) {
+        this.file = defaultLogFileName.getAbsoluteFile();
+        this.maxBackupIndex = maxBackupIndex;
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Writes to f instead of the default file, from the next start
+     */
+    void setFile(File f) {
+        this.file = f.getAbsoluteFile();
+    }
 
+    File getFile() {
+        return file;
+    }
 
-        // Help me here. How do I get JFileChooser have  'new file name' text box on mac os?
-        // And FileDialog's file filter does no work.
-        //
-            /*
-            final JFileChooser fc = new JFileChooser();
-            JButton fileSelector = new JButton("Change File");
-            fileSelector.addActionListener(new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    int returnVal = fc.showOpenDialog(CSVPersister.this);
-
-                    if (returnVal == JFileChooser.APPROVE_OPTION) {
-                        File file = fc.getSelectedFile();
-                        filePathLabel.setText(file.getAbsolutePath());
-                        appender.setFile(file.getAbsolutePath());
-                        appender.activateOptions();
-                    }
-                }
-            });
-            fc.setDialogType(JFileChooser.SAVE_DIALOG);
-            fc.addChoosableFileFilter(new FileFilter() {
-                @Override
-                public boolean accept(File f) {
-                    return f != null && f.getName().endsWith(".csv");
-                }
-
-                @Override
-                public String getDescription() {
-                    return "CSV Files";
-                }
-            });
-            */
-
-
-        // add file size controls.
-        appender = new org.apache.log4j.RollingFileAppender();
-        appender.setFile(defaultLogFileName.getAbsolutePath());
-        appender.setMaxBackupIndex(maxBackupIndex);
-        appender.setMaxFileSize(maxFileSize);
-        appender.setAppend(true);
-        appender.setLayout(new org.apache.log4j.PatternLayout("%m%n"));
-        appender.setThreshold(Level.ALL);
-        cat.setAdditivity(false);
-        cat.setLevel(Level.ALL);
-        cat.addAppender(appender);
-
-    }
-
-    private org.apache.log4j.RollingFileAppender appender = null;
-    private org.apache.log4j.Category cat = org.apache.log4j.Logger.getLogger("OpenICEDataExport.CVS");
+    private File file;
+    private int maxBackupIndex;
+    private String maxFileSize;
+    private volatile CSVWriter writer;
 }
@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends lines to a file from a dedicated thread. Callers copy finished
+ * {@link CSVLineBuilder}s into the current chunk of a fixed pool of direct
+ * buffers; full chunks travel through a bounded queue to the writer thread
+ * which hands them to a FileChannel and returns them to the pool. The file is
+ * rolled over by size the way log4j's RollingFileAppender does it (file.1 is
+ * the newest backup, at most maxBackupIndex are kept), always on a chunk and
+ * therefore a line boundary.
+ *
+ * When every chunk is in flight callers wait up to offerTimeout for one to be
+ * returned and otherwise drop the line.
+ */
+class CSVWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(CSVWriter.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    public static final int DEFAULT_CHUNKS = 16;
+    public static final long DEFAULT_MAX_LATENCY = 1000L;
+    public static final long DEFAULT_OFFER_TIMEOUT = 100L;
+
+    private final File file;
+    private final long maxFileSize;
+    private final int maxBackupIndex;
+    private final long maxLatency = DEFAULT_MAX_LATENCY;
+    private final long offerTimeout = DEFAULT_OFFER_TIMEOUT;
+
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> full;
+    private final Object lock = new Object();
+    // guarded by lock
+    private ByteBuffer current;
+
+    private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+
+    private final AtomicLong writtenLines = new AtomicLong();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private final AtomicLong backPressure = new AtomicLong();
+
+    // owned by the writer thread
+    private FileChannel channel;
+    private long size;
+    private Thread thread;
+
+    CSVWriter(File file, long maxFileSize, int maxBackupIndex) {
+        this(file, maxFileSize, maxBackupIndex, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNKS);
+    }
+
+    CSVWriter(File file, long maxFileSize, int maxBackupIndex, int chunkSize, int chunks) {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxBackupIndex = maxBackupIndex;
+        this.free = new ArrayBlockingQueue<ByteBuffer>(chunks);
+        // room for every pooled chunk plus STOP
+        this.full = new ArrayBlockingQueue<ByteBuffer>(chunks + 1);
+        for (int i = 0; i < chunks; i++) {
+            free.add(ByteBuffer.allocateDirect(chunkSize));
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getWrittenLines() {
+        return writtenLines.get();
+    }
+
+    long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    long getBackPressure() {
+        return backPressure.get();
+    }
+
+    /**
+     * Opens the file, rolling over any previous non-empty content, and starts
+     * the writer thread.
+     */
+    void start() throws IOException {
+        if (file.exists() && file.length() != 0) {
+            rollOver();
+        }
+        open();
+        current = free.poll();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CSVWriter.this.run();
+            }
+        }, "CSVWriter " + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writes out everything accepted so far and closes the file.
+     */
+    void stop() throws InterruptedException {
+        synchronized (lock) {
+            if (current != null && current.position() > 0) {
+                full.put(current);
+                current = null;
+            }
+        }
+        full.put(STOP);
+        thread.join();
+        log.info("Wrote " + writtenLines.get() + " lines to " + file + "; " + backPressure.get() + " lines waited for buffer space and "
+                + droppedLines.get() + " were dropped");
+    }
+
+    /**
+     * Appends line followed by a newline.
+     *
+     * @return false if the line was dropped
+     */
+    boolean write(CSVLineBuilder line) throws InterruptedException {
+        line.append('\n');
+        final int n = line.length();
+        synchronized (lock) {
+            if (current != null && current.remaining() < n && current.position() > 0) {
+                full.put(current);
+                current = null;
+            }
+            if (current == null) {
+                current = free.poll();
+                if (current == null) {
+                    backPressure.incrementAndGet();
+                    current = free.poll(offerTimeout, TimeUnit.MILLISECONDS);
+                    if (current == null) {
+                        long dropped = droppedLines.incrementAndGet();
+                        // log at 1, 2, 4, 8... to avoid flooding the log
+                        if (Long.bitCount(dropped) == 1) {
+                            log.warn("CSV writer is not keeping up, " + dropped + " lines dropped so far");
+                        }
+                        return false;
+                    }
+                }
+            }
+            if (current.remaining() < n) {
+                // longer than a whole chunk; give this line a buffer of its own
+                ByteBuffer big = ByteBuffer.allocate(n);
+                line.copyTo(big);
+                full.put(big);
+            } else {
+                line.copyTo(current);
+            }
+            writtenLines.incrementAndGet();
+        }
+        return true;
+    }
+
+    private void run() {
+        try {
+            for (;;) {
+                ByteBuffer chunk = full.poll(maxLatency, TimeUnit.MILLISECONDS);
+                if (chunk == null) {
+                    // nothing filled a chunk for a while; write out the partial one
+                    synchronized (lock) {
+                        if (current != null && current.position() > 0) {
+                            chunk = current;
+                            current = free.poll();
+                        }
+                    }
+                    if (chunk == null) {
+                        continue;
+                    }
+                } else if (chunk == STOP) {
+                    break;
+                }
+                write(chunk);
+            }
+        } catch (InterruptedException e) {
+            log.warn("CSV writer interrupted", e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Failed to close " + file, e);
+            }
+        }
+    }
+
+    private void write(ByteBuffer chunk) {
+        chunk.flip();
+        try {
+            if (size > 0 && size + chunk.remaining() > maxFileSize) {
+                channel.close();
+                rollOver();
+                open();
+            }
+            while (chunk.hasRemaining()) {
+                size += channel.write(chunk);
+            }
+        } catch (IOException e) {
+            log.error("Failed to write to " + file, e);
+        } finally {
+            chunk.clear();
+            if (chunk.isDirect()) {
+                free.offer(chunk);
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    private void rollOver() {
+        if (maxBackupIndex > 0) {
+            File oldest = new File(file.getPath() + "." + maxBackupIndex);
+            if (oldest.exists() && !oldest.delete()) {
+                log.warn("Failed to delete " + oldest);
+            }
+            for (int i = maxBackupIndex - 1; i >= 1; i--) {
+                File f = new File(file.getPath() + "." + i);
+                if (f.exists()) {
+                    f.renameTo(new File(file.getPath() + "." + (i + 1)));
+                }
+            }
+            if (!file.renameTo(new File(file.getPath() + ".1"))) {
+                log.warn("Failed to roll over " + file);
+            }
+        } else if (!file.delete()) {
+            log.warn("Failed to truncate " + file);
+        }
+    }
+
+    /**
+     * Parses sizes such as 500KB, 5MB or 1GB the way the log4j option did.
+     */
+    static long parseFileSize(String s) {
+        String t = s.trim().toUpperCase();
+        long multiplier = 1L;
+        if (t.endsWith("KB")) {
+            multiplier = 1024L;
+        } else if (t.endsWith("MB")) {
+            multiplier = 1024L * 1024L;
+        } else if (t.endsWith("GB")) {
+            multiplier = 1024L * 1024L * 1024L;
+        }
+        if (multiplier > 1L) {
+            t = t.substring(0, t.length() - 2).trim();
+        }
+        return Long.parseLong(t) * multiplier;
+    }
+}
@@ -2,8 +2,8 @@ package org.mdpnp.apps.testapp.export;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import com.google.common.eventbus.EventBus;
 import ice.MDSConnectivity;
 import ice.Patient;
 
@@ -36,6 +36,18 @@ abstract class DataCollector<T> implements MDSHandler.Connectivity.MDSListener {
             super(p);
         }
 
+        /**
+         * Reassigns the patient of an event being reused
+         */
+        void setPatient(Patient p) {
+            source = p;
+        }
+
+        /**
+         * Calls the method of l for this kind of event
+         */
+        abstract void dispatch(DataSampleListener l) throws Exception;
+
         public String getPatientId() {
             return ((Patient)getSource()).mrn;
         }
@@ -54,18 +66,28 @@ abstract class DataCollector<T> implements MDSHandler.Connectivity.MDSListener {
 
     private final Map<String, Patient> deviceUdiToPatientMRN = Collections.synchronizedMap(new HashMap<String, Patient>());
 
-    private final EventBus eventBus = new EventBus();
+    private final List<DataSampleListener> listeners = new CopyOnWriteArrayList<>();
 
-    void addDataSampleListener(Object l) {
-        eventBus.register(l);
+    void addDataSampleListener(DataSampleListener l) {
+        listeners.add(l);
     }
 
-    public void removeDataSampleListener(Object l) {
-        eventBus.unregister(l);
+    public void removeDataSampleListener(DataSampleListener l) {
+        listeners.remove(l);
     }
 
+    /**
+     * Hands evt to every listener on the calling thread. A listener that
+     * throws does not keep the event from the others.
+     */
     void fireDataSampleEvent(DataSampleEvent evt) throws Exception {
-        eventBus.post(evt);
+        for(DataSampleListener l : listeners) {
+            try {
+                evt.dispatch(l);
+            } catch (Exception e) {
+                log.error("Listener " + l + " failed to handle " + evt.getMetricId(), e);
+            }
+        }
     }
 
 
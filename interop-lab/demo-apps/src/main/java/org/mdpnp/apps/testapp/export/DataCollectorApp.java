@@ -5,7 +5,6 @@ import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.*;
 
-import com.google.common.eventbus.Subscribe;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -30,7 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.ReflectionUtils;
 
-public class DataCollectorApp implements Initializable {
+public class DataCollectorApp implements Initializable, DataSampleListener {
 
     private static final Logger log = LoggerFactory.getLogger(DataCollectorApp.class);
 
@@ -82,6 +81,8 @@ public class DataCollectorApp implements Initializable {
 
     private List<PersisterUIController> supportedPersisters = new ArrayList<>();
     protected PersisterUIController currentPersister;
+    // stops a persister off the FX thread; see clickStart
+    private volatile Thread stopping;
     
     public DataCollectorApp() {
         
@@ -194,7 +195,7 @@ public class DataCollectorApp implements Initializable {
             try {
                 v = currentPersister.start();
                 if (v) {
-                    dataFilter.addDataSampleListener(currentPersister);
+                    dataFilter.addPersister(currentPersister);
                     startControl.setText("Stop");
                 }
             } catch (Exception e) {
@@ -203,14 +204,28 @@ public class DataCollectorApp implements Initializable {
             }
 
         } else if("Stop".equals(startControl.getText()) && currentPersister != null) {
-            dataFilter.removeDataSampleListener(currentPersister);
-            try {
-                currentPersister.stop();
-            } catch (Exception e) {
-                log.warn("Exception displayed to user", e);
-                DialogUtils.ExceptionDialog(e);
-            }
-            startControl.setText("Start");
+            // draining the persister's queue and closing it can take a while
+            final PersisterUIController persister = currentPersister;
+            startControl.setText("Stopping");
+            startControl.setDisable(true);
+            Thread t = new Thread(() -> {
+                try {
+                    // hands the persister what is already queued for it
+                    dataFilter.removePersister(persister);
+                    persister.stop();
+                } catch (Exception e) {
+                    log.warn("Exception displayed to user", e);
+                    Platform.runLater(() -> DialogUtils.ExceptionDialog(e));
+                } finally {
+                    Platform.runLater(() -> {
+                        startControl.setText("Start");
+                        startControl.setDisable(false);
+                    });
+                }
+            }, "Stop " + persister.getName());
+            t.setDaemon(true);
+            stopping = t;
+            t.start();
         }
 
     }
@@ -262,6 +277,13 @@ public class DataCollectorApp implements Initializable {
         return v;
     }
 
+    /**
+     * @return the queues between the data filter and the persisters
+     */
+    public DataSamplePipeline getPipeline() {
+        return dataFilter.getPipeline();
+    }
+
     public void stop() throws Exception {
         for(DataCollector dc : dataCollectors) {
             dc.removeDataSampleListener(dataFilter);
@@ -269,11 +291,16 @@ public class DataCollectorApp implements Initializable {
 
         deviceListModel.getContents().removeListener(deviceTreeModel);
 
+        Thread stopping = this.stopping;
+        if(stopping != null) {
+            stopping.join();
+        }
+
         // if current persister is running, stop it now.
         //
         if("Stop".equals(startControl.getText()) && currentPersister != null) {
-            dataFilter.removeDataSampleListener(currentPersister);
             try {
+                dataFilter.removePersister(currentPersister);
                 currentPersister.stop();
             } catch (Exception e) {
                 log.error("Failed to stop active persister " +  currentPersister.getName());
@@ -281,7 +308,7 @@ public class DataCollectorApp implements Initializable {
         }
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
         // Add to the screen for visual.
         long ms = evt.getDevTime();
@@ -5,6 +5,9 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
 import com.rti.dds.subscription.Subscriber;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -16,12 +19,18 @@ import org.mdpnp.apps.testapp.DeviceListModel;
 import org.mdpnp.apps.testapp.IceApplicationProvider;
 import org.mdpnp.devices.MDSHandler;
 import org.mdpnp.rtiapi.data.EventLoop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
+import org.springframework.jmx.export.MBeanExportException;
+import org.springframework.jmx.export.MBeanExporter;
 
 /**
  *
  */
 public class DataCollectorAppFactory implements IceApplicationProvider {
+    private static final Logger log = LoggerFactory.getLogger(DataCollectorAppFactory.class);
+
 
     private final IceApplicationProvider.AppType FileAdapter =
             new IceApplicationProvider.AppType("Data Recorder", "NOCSV",  DataCollectorAppFactory.class.getResource("database-server.png"), 0.75, false);
@@ -53,6 +62,7 @@ public class DataCollectorAppFactory implements IceApplicationProvider {
                 CSVPersister.class.getResource("CSVPersister.fxml"),
                 JdbcPersister.class.getResource("JdbcPersister.fxml"),
                 VerilogVCDPersister.class.getResource("VerilogVCDPersister.fxml"),
+                TimeSeriesPersister.class.getResource("TimeSeriesPersister.fxml"),
                 MongoPersister.class.getResource("MongoPersister.fxml")
         };
 
@@ -69,6 +79,21 @@ public class DataCollectorAppFactory implements IceApplicationProvider {
 
         controller.set(deviceListModel, dataCollectors, persisters);
 
+        // the persister queues alongside the EventLoop statistics
+        final MBeanExporter exporter = parentContext.containsBean("annotations.exporter") ?
+                parentContext.getBean("annotations.exporter", MBeanExporter.class) : null;
+        ObjectName monitorName = null;
+        if(exporter != null) {
+            try {
+                monitorName = new ObjectName("mdpnp.supervisor:service=dataRecorderPipeline");
+                exporter.registerManagedResource(new DataSamplePipelineMonitor(controller.getPipeline()), monitorName);
+            } catch (MalformedObjectNameException | MBeanExportException e) {
+                log.warn("Unable to export the Data Recorder pipeline statistics", e);
+                monitorName = null;
+            }
+        }
+        final ObjectName exportedName = monitorName;
+
         return new IceApplicationProvider.IceApp() {
 
             @Override
@@ -91,6 +116,9 @@ public class DataCollectorAppFactory implements IceApplicationProvider {
 
             @Override
             public void destroy() throws Exception {
+                if(exportedName != null) {
+                    exporter.unregisterManagedResource(exportedName);
+                }
                 controller.stop();
                 for(DataCollector dc : dataCollectors) {
                     mdsHandler.removeConnectivityListener(dc);
@@ -101,7 +129,11 @@ public class DataCollectorAppFactory implements IceApplicationProvider {
         };
     }
 
-    public static abstract class PersisterUIController {
+    /**
+     * A persister is handed events on a thread of its own; see
+     * {@link DataFilter#addPersister(PersisterUIController)}.
+     */
+    public static abstract class PersisterUIController implements DataSampleListener {
 
         public abstract String getName();
         
@@ -1,30 +1,37 @@
 package org.mdpnp.apps.testapp.export;
 
-import com.google.common.eventbus.EventBus;
-import com.google.common.eventbus.Subscribe;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-public class DataFilter {
+import org.mdpnp.apps.testapp.export.DataCollectorAppFactory.PersisterUIController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DataFilter implements DataSampleListener {
+
+    private static final Logger log = LoggerFactory.getLogger(DataFilter.class);
 
     private final DeviceTreeModel controller;
     private boolean enabled = true;
 
     public DataFilter(DeviceTreeModel dtm) {
         controller = dtm;
+        listeners.add(pipeline);
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
         if(isEnabledFor(evt))
             fireDataSampleEvent(evt);
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
         if(isEnabledFor(evt))
             fireDataSampleEvent(evt);
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(PatientAssessmentDataCollector.PatientAssessmentEvent evt) throws Exception {
         if(isEnabledFor(evt))
             fireDataSampleEvent(evt);
@@ -42,17 +49,50 @@ public class DataFilter {
         this.enabled = enabled;
     }
 
-    private final EventBus eventBus = new EventBus();
+    // persisters each get a thread of their own
+    private final DataSamplePipeline pipeline = new DataSamplePipeline();
+
+    private final List<DataSampleListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * l is called on the collector's thread and must be quick about it
+     */
+    public void addDataSampleListener(DataSampleListener l) {
+        listeners.add(l);
+    }
+
+    public void removeDataSampleListener(DataSampleListener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * p is called on a thread of its own
+     */
+    public void addPersister(PersisterUIController p) {
+        pipeline.subscribe(p.getName(), p);
+    }
 
-    public void addDataSampleListener(Object l) {
-        eventBus.register(l);
+    /**
+     * Blocks until p has been handed every event already filtered for it
+     */
+    public void removePersister(PersisterUIController p) throws InterruptedException {
+        DataSamplePipeline.Consumer c = pipeline.unsubscribe(p);
+        if(c != null) {
+            log.info("Persister " + c);
+        }
     }
 
-    public void removeDataSampleListener(Object l) {
-        eventBus.unregister(l);
+    public DataSamplePipeline getPipeline() {
+        return pipeline;
     }
 
-    public void fireDataSampleEvent(DataCollector.DataSampleEvent data) throws Exception{
-        eventBus.post(data);
+    public void fireDataSampleEvent(DataCollector.DataSampleEvent data) throws Exception {
+        for(DataSampleListener l : listeners) {
+            try {
+                data.dispatch(l);
+            } catch (Exception e) {
+                log.error("Listener " + l + " failed to handle " + data.getMetricId(), e);
+            }
+        }
     }
 }
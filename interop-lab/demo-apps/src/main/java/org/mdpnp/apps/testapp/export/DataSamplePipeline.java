@@ -0,0 +1,415 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands data sample events to listeners that each run on a thread of their
+ * own, so that a slow listener (a database, a remote server) holds up neither
+ * collection nor the other listeners.
+ *
+ * Every subscribed listener has its own ring of pre-allocated events.
+ * Publishing copies the event into the next slot of each ring, so nothing is
+ * allocated per event once the rings are warm, and the listener's thread
+ * hands the slot to the listener. When a listener falls so far behind that
+ * its ring fills up its {@link OverflowPolicy} decides what happens to new
+ * events.
+ *
+ * The pipeline is itself a {@link DataSampleListener}; register it with a
+ * {@link DataCollector} or {@link DataFilter} to feed it.
+ */
+public class DataSamplePipeline implements DataSampleListener {
+
+    private static final Logger log = LoggerFactory.getLogger(DataSamplePipeline.class);
+
+    /**
+     * How a listener's thread waits for events when its ring is empty
+     */
+    public enum WaitStrategy {
+        /** parks until the producer signals; least CPU when idle */
+        BLOCKING,
+        /** polls the ring every {@link #SLEEP_NANOS}; the producer never signals */
+        SLEEPING,
+        /** polls the ring between calls to Thread.yield; lowest latency but keeps a core busy */
+        YIELDING
+    }
+
+    /**
+     * What happens to an event that finds a listener's ring full
+     */
+    public enum OverflowPolicy {
+        /** the producer waits for room; nothing is lost but collection stalls behind the listener */
+        BLOCK,
+        /** the event is dropped for this listener */
+        DROP,
+        /**
+         * sample arrays are dropped once the ring is more than
+         * {@link #SHED_FRACTION} full, keeping the rest of the ring for
+         * numerics and assessments which are dropped only when it is full
+         */
+        SHED_WAVEFORMS
+    }
+
+    public static final String CAPACITY_PROPERTY = "DataSamplePipeline.capacity";
+    public static final String WAIT_STRATEGY_PROPERTY = "DataSamplePipeline.waitStrategy";
+    public static final String OVERFLOW_POLICY_PROPERTY = "DataSamplePipeline.overflowPolicy";
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long SLEEP_NANOS = 100000L;
+    public static final double SHED_FRACTION = 0.75;
+
+    // longest a blocked listener parks before it looks at the ring again
+    private static final long MAX_PARK_NANOS = 100000000L;
+
+    private static final byte NUMERIC = 1, SAMPLE_ARRAY = 2, PATIENT_ASSESSMENT = 3;
+
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+    private final int capacity;
+    private final WaitStrategy waitStrategy;
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Listeners are subscribed with the capacity, wait strategy and overflow
+     * policy named by the system properties {@link #CAPACITY_PROPERTY},
+     * {@link #WAIT_STRATEGY_PROPERTY} and {@link #OVERFLOW_POLICY_PROPERTY}
+     * (by default {@link #DEFAULT_CAPACITY} events, BLOCKING and DROP).
+     */
+    public DataSamplePipeline() {
+        this(Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY),
+             WaitStrategy.valueOf(System.getProperty(WAIT_STRATEGY_PROPERTY, WaitStrategy.BLOCKING.name())),
+             OverflowPolicy.valueOf(System.getProperty(OVERFLOW_POLICY_PROPERTY, OverflowPolicy.DROP.name())));
+    }
+
+    public DataSamplePipeline(int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) {
+        this.capacity = capacity;
+        this.waitStrategy = waitStrategy;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Starts a thread handing events to l with the pipeline's defaults
+     */
+    public Consumer subscribe(String name, DataSampleListener l) {
+        return subscribe(name, l, capacity, waitStrategy, overflowPolicy);
+    }
+
+    public Consumer subscribe(String name, DataSampleListener l, int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) {
+        Consumer c = new Consumer(name, l, capacity, waitStrategy, overflowPolicy);
+        c.thread.start();
+        consumers.add(c);
+        return c;
+    }
+
+    /**
+     * Stops handing events to l once it has been handed those already
+     * published; blocks until then.
+     *
+     * @return the stopped consumer, or null if l was not subscribed
+     */
+    public Consumer unsubscribe(DataSampleListener l) throws InterruptedException {
+        for (Consumer c : consumers) {
+            if (c.listener == l) {
+                consumers.remove(c);
+                c.close();
+                return c;
+            }
+        }
+        return null;
+    }
+
+    public List<Consumer> getConsumers() {
+        return new ArrayList<Consumer>(consumers);
+    }
+
+    @Override
+    public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) {
+        for (Consumer c : consumers) {
+            c.offer(evt);
+        }
+    }
+
+    @Override
+    public void handleDataSampleEvent(SampleArrayDataCollector.SampleArrayEvent evt) {
+        for (Consumer c : consumers) {
+            c.offer(evt);
+        }
+    }
+
+    @Override
+    public void handleDataSampleEvent(PatientAssessmentDataCollector.PatientAssessmentEvent evt) {
+        for (Consumer c : consumers) {
+            c.offer(evt);
+        }
+    }
+
+    private static final class Slot {
+        byte kind;
+        final NumericsDataCollector.NumericSampleEvent numeric = new NumericsDataCollector.NumericSampleEvent();
+        final SampleArrayDataCollector.SampleArrayEvent sampleArray = new SampleArrayDataCollector.SampleArrayEvent();
+        final PatientAssessmentDataCollector.PatientAssessmentEvent patientAssessment = new PatientAssessmentDataCollector.PatientAssessmentEvent();
+    }
+
+    /**
+     * One listener, its ring and the thread draining it. Offers may come
+     * from any number of threads; they are serialized on the consumer.
+     */
+    public static final class Consumer implements Runnable {
+        private final String name;
+        private final DataSampleListener listener;
+        private final WaitStrategy waitStrategy;
+        private final OverflowPolicy overflowPolicy;
+        private final Thread thread;
+
+        private final Slot[] slots;
+        private final int mask;
+        private final int shedLimit;
+
+        // events ever published by producers and handled by the thread
+        private volatile long tail, head;
+        // guarded by this
+        private volatile boolean closed;
+        // the thread is parked (or about to park) waiting for the producer
+        private volatile boolean parked;
+        // written only by the thread
+        private volatile long maxLag;
+
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong backPressure = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        Consumer(String name, DataSampleListener listener, int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) {
+            this.name = name;
+            this.listener = listener;
+            this.waitStrategy = waitStrategy;
+            this.overflowPolicy = overflowPolicy;
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            slots = new Slot[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Slot();
+            }
+            mask = size - 1;
+            shedLimit = OverflowPolicy.SHED_WAVEFORMS == overflowPolicy ? Math.max(1, (int) (size * SHED_FRACTION)) : size;
+            thread = new Thread(this, "DataSamplePipeline " + name);
+            thread.setDaemon(true);
+        }
+
+        synchronized void offer(NumericsDataCollector.NumericSampleEvent evt) {
+            final long t = claim(slots.length);
+            if (t >= 0L) {
+                Slot s = slots[(int) (t & mask)];
+                s.kind = NUMERIC;
+                s.numeric.copyFrom(evt);
+                publish(t);
+            }
+        }
+
+        synchronized void offer(SampleArrayDataCollector.SampleArrayEvent evt) {
+            final long t = claim(shedLimit);
+            if (t >= 0L) {
+                Slot s = slots[(int) (t & mask)];
+                s.kind = SAMPLE_ARRAY;
+                s.sampleArray.copyFrom(evt);
+                publish(t);
+            }
+        }
+
+        synchronized void offer(PatientAssessmentDataCollector.PatientAssessmentEvent evt) {
+            final long t = claim(slots.length);
+            if (t >= 0L) {
+                Slot s = slots[(int) (t & mask)];
+                s.kind = PATIENT_ASSESSMENT;
+                s.patientAssessment.copyFrom(evt);
+                publish(t);
+            }
+        }
+
+        /**
+         * @return the sequence of the slot to fill or -1 if the event is
+         *         dropped
+         */
+        private long claim(int limit) {
+            final long t = tail;
+            if (!closed && t - head >= limit) {
+                if (OverflowPolicy.BLOCK == overflowPolicy) {
+                    backPressure.incrementAndGet();
+                    while (!closed && t - head >= limit) {
+                        LockSupport.parkNanos(SLEEP_NANOS);
+                    }
+                } else {
+                    drop();
+                    return -1L;
+                }
+            }
+            if (closed) {
+                drop();
+                return -1L;
+            }
+            return t;
+        }
+
+        private void publish(long t) {
+            tail = t + 1L;
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void drop() {
+            long n = dropped.incrementAndGet();
+            // log at 1, 2, 4, 8... to avoid flooding the log
+            if (Long.bitCount(n) == 1) {
+                log.warn(name + " is not keeping up, " + n + " events dropped so far");
+            }
+        }
+
+        @Override
+        public void run() {
+            long h = head;
+            for (;;) {
+                final long t = tail;
+                if (h == t) {
+                    if (closed && h == tail) {
+                        return;
+                    }
+                    await(h);
+                    continue;
+                }
+                if (t - h > maxLag) {
+                    maxLag = t - h;
+                }
+                for (; h < t; h++) {
+                    dispatch(slots[(int) (h & mask)]);
+                    // hands the slot back to the producer
+                    head = h + 1L;
+                }
+            }
+        }
+
+        private void await(long h) {
+            switch (waitStrategy) {
+            case BLOCKING:
+                parked = true;
+                if (h == tail && !closed) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                parked = false;
+                break;
+            case SLEEPING:
+                LockSupport.parkNanos(SLEEP_NANOS);
+                break;
+            case YIELDING:
+                Thread.yield();
+                break;
+            }
+        }
+
+        private void dispatch(Slot s) {
+            try {
+                switch (s.kind) {
+                case NUMERIC:
+                    listener.handleDataSampleEvent(s.numeric);
+                    break;
+                case SAMPLE_ARRAY:
+                    listener.handleDataSampleEvent(s.sampleArray);
+                    break;
+                case PATIENT_ASSESSMENT:
+                    listener.handleDataSampleEvent(s.patientAssessment);
+                    break;
+                }
+                delivered.incrementAndGet();
+            } catch (Exception e) {
+                long n = failures.incrementAndGet();
+                if (Long.bitCount(n) == 1) {
+                    log.error(name + " failed to handle an event, " + n + " failures so far", e);
+                }
+            }
+        }
+
+        /**
+         * Lets the thread finish the events already published and waits for
+         * it; later offers are dropped.
+         */
+        void close() throws InterruptedException {
+            synchronized (this) {
+                // no offer is in progress once we hold the lock
+                closed = true;
+            }
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public DataSampleListener getListener() {
+            return listener;
+        }
+
+        public int getCapacity() {
+            return slots.length;
+        }
+
+        /**
+         * @return events published but not yet handled
+         */
+        public long getLag() {
+            return tail - head;
+        }
+
+        /**
+         * @return the most events that were ever waiting
+         */
+        public long getMaxLag() {
+            return maxLag;
+        }
+
+        public long getDelivered() {
+            return delivered.get();
+        }
+
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        /**
+         * @return number of times a producer had to wait for room
+         */
+        public long getBackPressure() {
+            return backPressure.get();
+        }
+
+        /**
+         * @return number of events the listener threw on
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        @Override
+        public String toString() {
+            return "[name=" + name + ",capacity=" + slots.length + ",waitStrategy=" + waitStrategy + ",overflowPolicy=" + overflowPolicy + ",lag=" + getLag()
+                    + ",maxLag=" + maxLag + ",delivered=" + delivered.get() + ",dropped=" + dropped.get() + ",backPressure=" + backPressure.get()
+                    + ",failures=" + failures.get() + "]";
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.util.List;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Publishes how far behind each persister of a {@link DataSamplePipeline} is
+ * and what it has dropped over JMX.
+ */
+@ManagedResource(description="Data Recorder persister queues")
+public class DataSamplePipelineMonitor {
+    private final DataSamplePipeline pipeline;
+
+    public DataSamplePipelineMonitor(DataSamplePipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    @ManagedAttribute(description="Number of running persisters.")
+    public int getConsumerCount() {
+        return pipeline.getConsumers().size();
+    }
+
+    @ManagedAttribute(description="Lag, maximum lag, delivered, dropped, back pressure and failure counts per persister.")
+    public String[] getConsumers() {
+        List<DataSamplePipeline.Consumer> consumers = pipeline.getConsumers();
+        String[] lines = new String[consumers.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = consumers.get(i).toString();
+        }
+        return lines;
+    }
+
+    @ManagedAttribute(description="Events waiting for the slowest persister.")
+    public long getMaxLag() {
+        long lag = 0L;
+        for (DataSamplePipeline.Consumer c : pipeline.getConsumers()) {
+            lag = Math.max(lag, c.getLag());
+        }
+        return lag;
+    }
+
+    @ManagedAttribute(description="Events dropped by the running persisters.")
+    public long getDropped() {
+        long dropped = 0L;
+        for (DataSamplePipeline.Consumer c : pipeline.getConsumers()) {
+            dropped += c.getDropped();
+        }
+        return dropped;
+    }
+}
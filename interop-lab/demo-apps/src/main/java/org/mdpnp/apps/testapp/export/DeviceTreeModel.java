@@ -3,7 +3,6 @@ package org.mdpnp.apps.testapp.export;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
 
-import com.google.common.eventbus.Subscribe;
 import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
@@ -14,7 +13,7 @@ import org.mdpnp.apps.testapp.Device;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class DeviceTreeModel extends SelectableNode implements ListChangeListener<Device> {
+public class DeviceTreeModel extends SelectableNode implements ListChangeListener<Device>, DataSampleListener {
 
     private static final Logger log = LoggerFactory.getLogger(DeviceTreeModel.class);
 
@@ -53,7 +52,7 @@ public class DeviceTreeModel extends SelectableNode implements ListChangeListene
         }
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
 
         // This call back is going to happen A LOT. need fast lookup of the nodes.
@@ -63,15 +62,19 @@ public class DeviceTreeModel extends SelectableNode implements ListChangeListene
         final String key = toKey(evt);
 
         if (nodeLookup.get(key) == null) {
+            // the event is reused once this returns
+            final String udi = evt.getUniqueDeviceIdentifier();
+            final String metricId = evt.getMetricId();
+            final int instanceId = evt.getInstanceId();
             Platform.runLater(() ->
             {
                 Iterator<TreeItem<Object>> iter = getChildren().iterator();
                 while (iter.hasNext()) {
                     TreeItem<Object> deviceNode = (TreeItem<Object>) iter.next();
                     Device d = (Device) deviceNode.getValue();
-                    if (d.getUDI().equals(evt.getUniqueDeviceIdentifier())) {
-                        final TreeItem<Object> metricNode = ensureNode(deviceNode, evt.getMetricId());
-                        final TreeItem<Object> instanceNode = ensureNode(metricNode, evt.getInstanceId());
+                    if (d.getUDI().equals(udi)) {
+                        final TreeItem<Object> metricNode = ensureNode(deviceNode, metricId);
+                        final TreeItem<Object> instanceNode = ensureNode(metricNode, instanceId);
 
                         nodeLookup.put(key, instanceNode);
 
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mdpnp.apps.testapp.export.DataCollectorAppFactory.PersisterUIController;
+import org.mdpnp.devices.MDSHandler;
+import org.mdpnp.rtiapi.data.EventLoop;
+import org.mdpnp.rtiapi.data.InstanceModelImpl;
+import org.mdpnp.rtiapi.data.NumericInstanceModelImpl;
+import org.mdpnp.rtiapi.data.QosProfiles;
+import org.mdpnp.rtiapi.data.SampleArrayInstanceModelImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rti.dds.publication.DataWriter;
+import com.rti.dds.subscription.Subscriber;
+
+/**
+ * Records numerics, sample arrays and patient assessments without a display.
+ * The collectors read the topics through instance models on the event loop
+ * and the persisters are fed through a {@link DataSamplePipeline}; there is
+ * no JavaFX list or device tree in between, so everything on the subscriber's
+ * partitions is recorded.
+ *
+ * The persisters are named, comma separated, by the system property
+ * HeadlessDataRecorder.persisters; see {@link #createPersister(String, File)}.
+ * Each recorder writes under a directory of its own so that several of them,
+ * e.g. one per device adapter, can run side by side.
+ */
+public class HeadlessDataRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(HeadlessDataRecorder.class);
+
+    public static final String PERSISTERS_PROPERTY = "HeadlessDataRecorder.persisters";
+    public static final String DEFAULT_PERSISTERS = "csv";
+    /**
+     * Parent of the recorders' directories; the working directory unless set
+     */
+    public static final String DIRECTORY_PROPERTY = "HeadlessDataRecorder.directory";
+
+    private final EventLoop eventLoop;
+    private final Subscriber subscriber;
+    private final File directory;
+
+    private final NumericInstanceModelImpl numericModel = new NumericInstanceModelImpl(ice.NumericTopic.VALUE);
+    private final SampleArrayInstanceModelImpl sampleArrayModel = new SampleArrayInstanceModelImpl(ice.SampleArrayTopic.VALUE);
+    private final InstanceModelImpl<himss.PatientAssessment, himss.PatientAssessmentDataReader, DataWriter> paModel =
+            new InstanceModelImpl<>(himss.PatientAssessmentTopic.VALUE, himss.PatientAssessment.class,
+                                    himss.PatientAssessmentDataReader.class, null,
+                                    himss.PatientAssessmentTypeSupport.class, himss.PatientAssessmentSeq.class);
+
+    private final DataSamplePipeline pipeline = new DataSamplePipeline();
+    private final List<PersisterUIController> persisters = new ArrayList<>();
+
+    private DataCollector<?>[] dataCollectors;
+    private MDSHandler mdsHandler;
+
+    public HeadlessDataRecorder(EventLoop eventLoop, Subscriber subscriber) {
+        this(eventLoop, subscriber, new File("."));
+    }
+
+    /**
+     * @param directory where the persisters added by {@link #addPersisters()}
+     *                  write; created if need be
+     */
+    public HeadlessDataRecorder(EventLoop eventLoop, Subscriber subscriber, File directory) {
+        this.eventLoop = eventLoop;
+        this.subscriber = subscriber;
+        this.directory = directory.getAbsoluteFile();
+    }
+
+    /**
+     * @param name e.g. a device's unique identifier
+     * @return the directory for the recorder called name under
+     *         {@link #DIRECTORY_PROPERTY}
+     */
+    public static File getDirectory(String name) {
+        return new File(System.getProperty(DIRECTORY_PROPERTY, "."), name.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return an unstarted persister set up with its defaults to write under
+     *         directory, or null if there is none by that name
+     */
+    static PersisterUIController createPersister(String name, File directory) {
+        switch(name.trim().toLowerCase()) {
+        case "csv":
+            CSVPersister csv = new CSVPersister();
+            csv.setup(1, "500MB");
+            csv.setFile(new File(directory, csv.getFile().getName()));
+            return csv;
+        case "timeseries":
+            TimeSeriesPersister ts = new TimeSeriesPersister();
+            ts.setBaseDir(directory);
+            return ts;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Adds the persisters named by {@link #PERSISTERS_PROPERTY}, writing
+     * under this recorder's directory
+     */
+    public void addPersisters() {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + directory);
+        }
+        for(String name : System.getProperty(PERSISTERS_PROPERTY, DEFAULT_PERSISTERS).split(",")) {
+            if(name.trim().isEmpty()) {
+                continue;
+            }
+            PersisterUIController p = createPersister(name, directory);
+            if(null == p) {
+                log.warn("Unknown persister " + name);
+            } else {
+                addPersister(p);
+            }
+        }
+    }
+
+    /**
+     * p is started by {@link #start()}
+     */
+    public void addPersister(PersisterUIController p) {
+        persisters.add(p);
+    }
+
+    public List<PersisterUIController> getPersisters() {
+        return persisters;
+    }
+
+    public DataSamplePipeline getPipeline() {
+        return pipeline;
+    }
+
+    public synchronized void start() throws Exception {
+        if(null != dataCollectors) {
+            throw new IllegalStateException("Recorder is already started");
+        }
+        for(PersisterUIController p : persisters) {
+            if(p.start()) {
+                pipeline.subscribe(p.getName(), p);
+            } else {
+                log.warn("Persister " + p.getName() + " failed to start");
+            }
+        }
+
+        dataCollectors = new DataCollector<?>[] {
+                new SampleArrayDataCollector(sampleArrayModel),
+                new NumericsDataCollector(numericModel),
+                new PatientAssessmentDataCollector(paModel)
+        };
+
+        mdsHandler = new MDSHandler(eventLoop, subscriber.get_participant());
+        for(DataCollector<?> dc : dataCollectors) {
+            dc.addDataSampleListener(pipeline);
+            mdsHandler.addConnectivityListener(dc);
+        }
+        mdsHandler.start();
+
+        numericModel.startReader(subscriber, eventLoop, QosProfiles.ice_library, QosProfiles.numeric_data);
+        sampleArrayModel.startReader(subscriber, eventLoop, QosProfiles.ice_library, QosProfiles.waveform_data);
+        paModel.startReader(subscriber, eventLoop, QosProfiles.ice_library, QosProfiles.state);
+        log.info("Recording to " + persisters.size() + " persister(s) under " + directory);
+    }
+
+    /**
+     * Stops reading and blocks until every persister has been handed what was
+     * already collected for it
+     */
+    public synchronized void stop() throws Exception {
+        if(null == dataCollectors) {
+            return;
+        }
+        numericModel.stopReader();
+        sampleArrayModel.stopReader();
+        paModel.stopReader();
+
+        for(DataCollector<?> dc : dataCollectors) {
+            mdsHandler.removeConnectivityListener(dc);
+            dc.removeDataSampleListener(pipeline);
+            dc.destroy();
+        }
+        mdsHandler.shutdown();
+        dataCollectors = null;
+        mdsHandler = null;
+
+        for(PersisterUIController p : persisters) {
+            DataSamplePipeline.Consumer c = pipeline.unsubscribe(p);
+            if(null != c) {
+                log.info("Persister " + c);
+            }
+            try {
+                p.stop();
+            } catch (Exception e) {
+                log.error("Failed to stop persister " + p.getName(), e);
+            }
+        }
+    }
+}
@@ -4,9 +4,14 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.common.eventbus.Subscribe;
 import javafx.fxml.FXML;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.TextField;
 import org.slf4j.Logger;
@@ -22,16 +27,64 @@ public class JdbcPersister extends DataCollectorAppFactory.PersisterUIController
 
     @FXML TextField fDriver, fURL, fUser;
     @FXML PasswordField fPassword;
+    @FXML CheckBox fBatch;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 50000;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final long DEFAULT_MAX_BATCH_LATENCY = 1000L;
+    public static final long DEFAULT_OFFER_TIMEOUT = 100L;
+    public static final long DEFAULT_STOP_TIMEOUT = 5000L;
+
+    private boolean batched = false;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long maxBatchLatency = DEFAULT_MAX_BATCH_LATENCY;
+    private long offerTimeout = DEFAULT_OFFER_TIMEOUT;
+
+    private BlockingQueue<Row> queue;
+    private Thread writerThread;
+    private volatile boolean failed;
+
+    private final AtomicLong backPressure = new AtomicLong();
+    private final AtomicLong droppedRows = new AtomicLong();
+    private final AtomicLong writtenRows = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+
+    /**
+     * A vital or observation waiting for the writer thread. Stop and flush
+     * requests travel through the same queue so that they are seen only
+     * after every row queued ahead of them.
+     */
+    private static final class Row {
+        // copied out of the event, which is reused once the handler returns
+        final String uniqueDeviceIdentifier, metricId, patientId;
+        final int instanceId;
+        final long ms;
+        final double vital;
+        final String observation;
+        final CountDownLatch flushed;
+
+        Row(DataCollector.DataSampleEvent value, long ms, double vital, String observation, CountDownLatch flushed) {
+            this.uniqueDeviceIdentifier = null == value ? null : value.getUniqueDeviceIdentifier();
+            this.metricId = null == value ? null : value.getMetricId();
+            this.instanceId = null == value ? 0 : value.getInstanceId();
+            this.patientId = null == value ? null : value.getPatientId();
+            this.ms = ms;
+            this.vital = vital;
+            this.observation = observation;
+            this.flushed = flushed;
+        }
+    }
+
+    private static final Row STOP = new Row(null, 0L, 0.0, null, null);
 
     void persistVital(DataCollector.DataSampleEvent value, long ms, double v) throws Exception {
 
-        if(insertVital != null) {
-            insertVital.setString   (1, value.getUniqueDeviceIdentifier());
-            insertVital.setString   (2, value.getMetricId());
-            insertVital.setInt      (3, value.getInstanceId());
-            insertVital.setTimestamp(4, new java.sql.Timestamp(ms));
-            insertVital.setString   (5, value.getPatientId());
-            insertVital.setDouble   (6, v);
+        if(queue != null) {
+            enqueue(new Row(value, ms, v, null, null));
+        }
+        else if(insertVital != null) {
+            bindVital(value.getUniqueDeviceIdentifier(), value.getMetricId(), value.getInstanceId(), value.getPatientId(), ms, v);
 
             insertVital.execute();
 
@@ -41,11 +94,11 @@ public class JdbcPersister extends DataCollectorAppFactory.PersisterUIController
 
     void persistObservation(DataCollector.DataSampleEvent value, long ms, String v) throws Exception {
 
-        if(insertObservation != null) {
-            insertObservation.setString   (1, value.getUniqueDeviceIdentifier());
-            insertObservation.setTimestamp(2, new java.sql.Timestamp(ms));
-            insertObservation.setString   (3, value.getPatientId());
-            insertObservation.setString   (4, v);
+        if(queue != null) {
+            enqueue(new Row(value, ms, 0.0, v, null));
+        }
+        else if(insertObservation != null) {
+            bindObservation(value.getUniqueDeviceIdentifier(), value.getPatientId(), ms, v);
 
             insertObservation.execute();
 
@@ -53,12 +106,252 @@ public class JdbcPersister extends DataCollectorAppFactory.PersisterUIController
         }
     }
 
-    @Subscribe
+    private void bindVital(String udi, String metricId, int instanceId, String patientId, long ms, double v) throws SQLException {
+        insertVital.setString   (1, udi);
+        insertVital.setString   (2, metricId);
+        insertVital.setInt      (3, instanceId);
+        insertVital.setTimestamp(4, new java.sql.Timestamp(ms));
+        insertVital.setString   (5, patientId);
+        insertVital.setDouble   (6, v);
+    }
+
+    private void bindObservation(String udi, String patientId, long ms, String v) throws SQLException {
+        insertObservation.setString   (1, udi);
+        insertObservation.setTimestamp(2, new java.sql.Timestamp(ms));
+        insertObservation.setString   (3, patientId);
+        insertObservation.setString   (4, v);
+    }
+
+    /**
+     * Hands a row to the writer thread. When the queue is full the caller
+     * (the data collector's event thread) waits up to offerTimeout for room
+     * before the row is dropped.
+     */
+    private void enqueue(Row row) throws InterruptedException {
+        if(failed) {
+            droppedRows.incrementAndGet();
+        } else if(!queue.offer(row)) {
+            backPressure.incrementAndGet();
+            if(!queue.offer(row, offerTimeout, TimeUnit.MILLISECONDS)) {
+                long dropped = droppedRows.incrementAndGet();
+                // log at 1, 2, 4, 8... to avoid flooding the log
+                if(Long.bitCount(dropped) == 1) {
+                    log.warn("Database writer is not keeping up, " + dropped + " rows dropped so far");
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks until every row queued before this call has been committed.
+     * Does nothing when not running in batched mode.
+     */
+    void flush() throws InterruptedException {
+        BlockingQueue<Row> queue = this.queue;
+        if(queue != null) {
+            CountDownLatch flushed = new CountDownLatch(1);
+            queue.put(new Row(null, 0L, 0.0, null, flushed));
+            flushed.await();
+        }
+    }
+
+    private final class BatchWriter implements Runnable {
+        private final BlockingQueue<Row> queue;
+        private int vitals, observations;
+        private long firstPending;
+
+        BatchWriter(BlockingQueue<Row> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for(;;) {
+                    Row row;
+                    if(vitals + observations == 0) {
+                        row = queue.take();
+                    } else {
+                        long wait = firstPending + maxBatchLatency - System.currentTimeMillis();
+                        row = wait > 0L ? queue.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    }
+
+                    try {
+                        if(row == STOP) {
+                            commit();
+                            return;
+                        } else if(row == null) {
+                            // the oldest pending row has waited long enough
+                            commit();
+                        } else if(row.flushed != null) {
+                            commit();
+                        } else {
+                            add(row);
+                            if(vitals + observations >= batchSize) {
+                                commit();
+                            }
+                        }
+                    } catch(RuntimeException e) {
+                        fail(e);
+                        if(row == STOP) {
+                            return;
+                        }
+                    } finally {
+                        if(row != null && row.flushed != null) {
+                            row.flushed.countDown();
+                        }
+                    }
+                }
+            } catch(InterruptedException e) {
+                log.warn("Database writer interrupted, " + queue.size() + " queued rows discarded");
+                droppedRows.addAndGet(queue.size() + vitals + observations);
+            }
+        }
+
+        /**
+         * Something other than the database went wrong. The writer keeps
+         * draining the queue so that flush and stop still return, but no
+         * further rows are accepted.
+         */
+        private void fail(RuntimeException e) {
+            int pending = vitals + observations;
+            log.error("Database writer failed, " + pending + " pending rows discarded and no further rows will be written", e);
+            failed = true;
+            droppedRows.addAndGet(pending);
+            vitals = 0;
+            observations = 0;
+            try {
+                insertVital.clearBatch();
+                insertObservation.clearBatch();
+                conn.rollback();
+            } catch(SQLException | RuntimeException e1) {
+                log.error("Failed to roll back", e1);
+            }
+        }
+
+        private void add(Row row) {
+            try {
+                if(row.observation != null) {
+                    bindObservation(row.uniqueDeviceIdentifier, row.patientId, row.ms, row.observation);
+                    insertObservation.addBatch();
+                    observations++;
+                } else {
+                    bindVital(row.uniqueDeviceIdentifier, row.metricId, row.instanceId, row.patientId, row.ms, row.vital);
+                    insertVital.addBatch();
+                    vitals++;
+                }
+                if(vitals + observations == 1) {
+                    firstPending = System.currentTimeMillis();
+                }
+            } catch(SQLException e) {
+                log.error("Failed to add row to batch", e);
+                droppedRows.incrementAndGet();
+            }
+        }
+
+        private void commit() {
+            int pending = vitals + observations;
+            if(pending == 0) {
+                return;
+            }
+            try {
+                if(vitals > 0) {
+                    insertVital.executeBatch();
+                }
+                if(observations > 0) {
+                    insertObservation.executeBatch();
+                }
+                conn.commit();
+                writtenRows.addAndGet(pending);
+                commits.incrementAndGet();
+            } catch(SQLException e) {
+                log.error("Failed to write batch of " + pending + " rows", e);
+                droppedRows.addAndGet(pending);
+                try {
+                    insertVital.clearBatch();
+                    insertObservation.clearBatch();
+                    conn.rollback();
+                } catch(SQLException e1) {
+                    log.error("Failed to roll back", e1);
+                }
+            }
+            // left in place when something else is thrown so that fail() can count them
+            vitals = 0;
+            observations = 0;
+        }
+    }
+
+    public boolean isBatched() {
+        return batched;
+    }
+
+    /**
+     * In batched mode rows are handed to a writer thread through a bounded
+     * queue and committed in groups of up to batchSize rows, or after
+     * maxBatchLatency has passed since the oldest uncommitted row. Takes
+     * effect at the next start.
+     */
+    public void setBatched(boolean batched) {
+        this.batched = batched;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMaxBatchLatency(long maxBatchLatency) {
+        this.maxBatchLatency = maxBatchLatency;
+    }
+
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    /**
+     * @return rows waiting for the writer thread
+     */
+    public int getQueuedRows() {
+        BlockingQueue<Row> queue = this.queue;
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * @return number of times a row found the queue full and had to wait
+     */
+    public long getBackPressure() {
+        return backPressure.get();
+    }
+
+    public long getDroppedRows() {
+        return droppedRows.get();
+    }
+
+    public long getWrittenRows() {
+        return writtenRows.get();
+    }
+
+    public long getCommits() {
+        return commits.get();
+    }
+
+    /**
+     * @return true once the writer thread has hit an unexpected error; rows
+     * are dropped from then until the next start
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
     public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
         persistVital(evt, evt.getDevTime(), evt.getValue());
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
         SampleArrayDataCollector.ArrayToNumeric.convert(evt, (DataCollector.DataSampleEvent meta, long ms, double v)->{
             persistVital(meta, ms, v);
@@ -66,7 +359,7 @@ public class JdbcPersister extends DataCollectorAppFactory.PersisterUIController
     }
 
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(PatientAssessmentDataCollector.PatientAssessmentEvent evt) throws Exception {
         persistObservation(evt, evt.getDevTime(), evt.getValue().getKey());
     }
@@ -102,15 +395,50 @@ public class JdbcPersister extends DataCollectorAppFactory.PersisterUIController
         if(conn != null) {
             insertVital = conn.prepareStatement("INSERT INTO VITAL_VALUES (DEVICE_ID, METRIC_ID, INSTANCE_ID, TIME_TICK, PATIENT_ID, VITAL_VALUE) VALUES(?,?,?,?,?,?)");
             insertObservation = conn.prepareStatement("INSERT INTO OBSERVATION_VALUES (MD_ID, TIME_TICK, PATIENT_ID, OBSERVATION) VALUES(?,?,?,?)");
+
+            if(fBatch != null) {
+                batched = fBatch.isSelected();
+            }
+            if(batched) {
+                backPressure.set(0L);
+                droppedRows.set(0L);
+                writtenRows.set(0L);
+                commits.set(0L);
+                failed = false;
+                conn.setAutoCommit(false);
+                queue = new ArrayBlockingQueue<Row>(queueCapacity);
+                writerThread = new Thread(new BatchWriter(queue), "JdbcPersister writer");
+                writerThread.setDaemon(true);
+                writerThread.start();
+            }
         }
         return conn != null;
     }
 
     @Override
     public void stop() throws Exception {
+        if(writerThread != null) {
+            // the writer commits everything queued ahead of STOP
+            if(!queue.offer(STOP, DEFAULT_STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("Database writer did not make room to stop, interrupting it");
+                writerThread.interrupt();
+            }
+            writerThread.join(DEFAULT_STOP_TIMEOUT);
+            if(writerThread.isAlive()) {
+                log.warn("Database writer did not stop, interrupting it");
+                writerThread.interrupt();
+                writerThread.join(DEFAULT_STOP_TIMEOUT);
+            }
+            log.info("Wrote " + writtenRows.get() + " rows in " + commits.get() + " commits; " + backPressure.get() +
+                     " rows waited for queue space and " + droppedRows.get() + " were dropped");
+            writerThread = null;
+            queue = null;
+        }
         if(insertVital != null) insertVital.close();
+        if(insertObservation != null) insertObservation.close();
         if(conn != null) conn.close();
         insertVital = null;
+        insertObservation = null;
         conn = null;
     }
 
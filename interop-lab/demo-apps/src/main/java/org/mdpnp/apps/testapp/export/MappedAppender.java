@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends to a file through a window of it mapped into memory, so that an
+ * append is a copy and the operating system decides when the pages go to disk.
+ * The file is only opened to map the next window; there is no descriptor held
+ * in between, which matters when there is a pair of these for every series.
+ *
+ * The file grows a window at a time and is cut back to what was appended on
+ * {@link #close()}, which first unmaps the last window; Windows refuses to cut
+ * a file with a mapping open. Should either fail the zeroes are left in place,
+ * so a reader of a file must know where the data ends.
+ */
+class MappedAppender implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedAppender.class);
+
+    private final File file;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long position;
+
+    MappedAppender(File file, int windowSize) {
+        this(file, windowSize, file.length());
+    }
+
+    /**
+     * Appends from position on, over whatever the file holds beyond it
+     */
+    MappedAppender(File file, int windowSize, long position) {
+        this.file = file;
+        this.windowSize = windowSize;
+        this.position = position;
+    }
+
+    /**
+     * @return the offset in the file at which the next append will land
+     */
+    long position() {
+        return position;
+    }
+
+    /**
+     * Appends what remains of src
+     *
+     * @return the offset in the file at which it landed
+     */
+    long append(ByteBuffer src) throws IOException {
+        long offset = position;
+        while (src.hasRemaining()) {
+            if (null == window || !window.hasRemaining()) {
+                map();
+            }
+            int n = Math.min(src.remaining(), window.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + n);
+            window.put(src);
+            src.limit(limit);
+            position += n;
+        }
+        return offset;
+    }
+
+    private void map() throws IOException {
+        if (null != window) {
+            window.force();
+            unmap(window);
+            window = null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            window = channel.map(FileChannel.MapMode.READ_WRITE, position, windowSize);
+        }
+    }
+
+    /**
+     * Schedules what was appended so far to be written out
+     */
+    void force() {
+        if (null != window) {
+            window.force();
+        }
+    }
+
+    /**
+     * Releases the mapping now rather than whenever the buffer is collected.
+     * There is no public API for it: Java 9 and later have
+     * sun.misc.Unsafe.invokeCleaner and Java 8 the buffer's own cleaner. The
+     * buffer must not be touched afterwards.
+     */
+    private void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                invokeCleaner = null;
+            }
+            if (null != invokeCleaner) {
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } else {
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(buffer);
+                if (null != c) {
+                    c.getClass().getMethod("clean").invoke(c);
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Unable to unmap " + file + "; left to the garbage collector", e);
+        }
+    }
+
+    /**
+     * Cuts the file back to what was appended. Failing that the file keeps its
+     * trailing zeroes, which is logged rather than thrown; what was appended is
+     * all there.
+     */
+    @Override
+    public void close() throws IOException {
+        final MappedByteBuffer window = this.window;
+        this.window = null;
+        if (null != window) {
+            window.force();
+            unmap(window);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() > position) {
+                raf.setLength(position);
+            }
+        } catch (IOException e) {
+            log.error("Unable to truncate " + file + " to " + position, e);
+        }
+    }
+}
@@ -1,14 +1,18 @@
 package org.mdpnp.apps.testapp.export;
 
-import com.google.common.eventbus.Subscribe;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
-import ice.Patient;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
 import javafx.fxml.FXML;
 import javafx.scene.control.TextField;
 import jdk.nashorn.api.scripting.ScriptObjectMirror;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,30 +27,104 @@ import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Persister to route data to the mongo database. The actual saving of the value is delegated to the javascript
- * handler which is required to implement a function 'persist' that with the following signature:
+ * Persister to route data to the mongo database. Numerics and sample arrays are turned into documents,
+ * one per numeric and one per array with all of its values, and collected per collection. A collection's
+ * documents are written together, with insertMany or bulkWrite, once there are batchSize of them (system
+ * property MongoPersister.batchSize). There is no timer: batchMillis (MongoPersister.batchMillis) is only
+ * looked at as documents arrive, and the first document to come batchMillis or more after the previous
+ * write has every collection written. A persister that has gone quiet keeps what it holds until the next
+ * document or until it stops, when whatever is left is written.
  *
- * var persist = function(mongoDatabase, patient, value)
+ * Setting MongoPersister.numericCollection or MongoPersister.sampleArrayCollection to an empty string
+ * turns that kind of data off; nothing is built for it.
+ *
+ * The javascript handler may reshape every batch before it is written by implementing a function
+ * 'transformBatch' with the following signature:
+ *
+ * var transformBatch = function(mongoDatabase, collectionName, documents)
  * 1. com.mongodb.client.MongoDatabase mongoDatabase
- * 2. ice.Patient patient
- * 3. org.mdpnp.apps.testapp.export.Value value
+ * 2. String collectionName, see {@link #NUMERIC_COLLECTION_PROPERTY} and {@link #SAMPLE_ARRAY_COLLECTION_PROPERTY}
+ * 3. java.util.List of org.bson.Document documents
+ *
+ * The function should return { "status" : "OK" } as an indication of success or a description of a failure
+ * otherwise, in which case the batch is dropped. The documents can be changed in place or replaced by returning
+ * { "status" : "OK", "documents" : list } where the list holds documents to insert and/or
+ * com.mongodb.client.model.WriteModel's such as UpdateOneModel; { "collection" : name } writes them to another
+ * collection. A script without the function has the documents written as they are.
+ *
+ * A script that only wants some of the collections can list them in a variable 'collections', e.g.
+ *
+ * var collections = [ "numerics" ];
  *
- * The function should return { "status" : "OK" } as an indication of success or a description of a failure otherwise.
+ * Data for any other collection is dropped before a document is made for it.
  *
  */
 public class MongoPersister extends DataCollectorAppFactory.PersisterUIController  {
 
     private static final Logger log = LoggerFactory.getLogger(MongoPersister.class);
 
+    public static final String BATCH_SIZE_PROPERTY = "MongoPersister.batchSize";
+    public static final String BATCH_MILLIS_PROPERTY = "MongoPersister.batchMillis";
+    public static final String NUMERIC_COLLECTION_PROPERTY = "MongoPersister.numericCollection";
+    public static final String SAMPLE_ARRAY_COLLECTION_PROPERTY = "MongoPersister.sampleArrayCollection";
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final long DEFAULT_BATCH_MILLIS = 1000L;
+    public static final String DEFAULT_NUMERIC_COLLECTION = "numerics";
+    public static final String DEFAULT_SAMPLE_ARRAY_COLLECTION = "sample_arrays";
+
+    static final String TRANSFORM_FUNCTION = "transformBatch";
+    static final String COLLECTIONS_VARIABLE = "collections";
+
     private Invocable invocable;
+    private boolean hasTransform;
+    private Set<String> collections;
     private MongoClient mongoClient;
     private MongoDatabase mongoDatabase;
 
+    private final int batchSize;
+    private final long batchMillis;
+    private final String numericCollection = System.getProperty(NUMERIC_COLLECTION_PROPERTY, DEFAULT_NUMERIC_COLLECTION);
+    private final String sampleArrayCollection = System.getProperty(SAMPLE_ARRAY_COLLECTION_PROPERTY, DEFAULT_SAMPLE_ARRAY_COLLECTION);
+
+    private final Map<String, Batch> batches = new LinkedHashMap<>();
+    private long lastWrite = System.currentTimeMillis();
+    private long batchesWritten, documentsWritten, documentsFailed;
+
+    /**
+     * Documents waiting to be written to one collection
+     */
+    private static class Batch {
+        final String collection;
+        List<Document> documents = new ArrayList<>();
+
+        Batch(String collection) {
+            this.collection = collection;
+        }
+    }
+
     @FXML
     TextField fHost, fPortNumber, fDbName, fScriptName;
 
+    public MongoPersister() {
+        this(Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE), Long.getLong(BATCH_MILLIS_PROPERTY, DEFAULT_BATCH_MILLIS));
+    }
+
+    MongoPersister(int batchSize, long batchMillis) {
+        if(batchSize < 1)
+            throw new IllegalArgumentException("Invalid batch size " + batchSize);
+        this.batchSize = batchSize;
+        this.batchMillis = batchMillis;
+    }
+
     @Override
     public String getName() {
         return "mongo";
@@ -71,8 +149,14 @@ public class MongoPersister extends DataCollectorAppFactory.PersisterUIControlle
 
     @Override
     public void stop() throws Exception {
-        if(mongoClient != null)
-            mongoClient.close();
+        try {
+            flush();
+        } finally {
+            log.info(batchesWritten + " batches, " + documentsWritten + " documents written, " + documentsFailed + " failed");
+            if(mongoClient != null)
+                mongoClient.close();
+            mongoClient = null;
+        }
     }
 
     @Override
@@ -85,29 +169,197 @@ public class MongoPersister extends DataCollectorAppFactory.PersisterUIControlle
             return false;
         if(!makeMongoClient())
             return false;
+        lastWrite = System.currentTimeMillis();
         return true;
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(final NumericsDataCollector.NumericSampleEvent evt) throws Exception {
         persist(evt);
     }
 
+    @Override
+    public void handleDataSampleEvent(final SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
+        persist(evt);
+    }
+
     void persist(final NumericsDataCollector.NumericSampleEvent evt) throws Exception {
+        if(mongoDatabase == null || evt==null)
+            throw new IllegalArgumentException("Mongo or value are null");
 
-        try {
-            if(mongoDatabase == null || evt==null)
-                throw new IllegalArgumentException("Mongo or value are null");
+        if(wants(numericCollection))
+            add(numericCollection, toDocument(evt));
+    }
+
+    void persist(final SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
+        if(mongoDatabase == null || evt==null)
+            throw new IllegalArgumentException("Mongo or value are null");
+
+        if(wants(sampleArrayCollection))
+            add(sampleArrayCollection, toDocument(evt));
+    }
 
-            ScriptObjectMirror result = (ScriptObjectMirror) invocable.invokeFunction("persistNumeric", mongoDatabase, evt);
-            String status = (String) result.get("status");
-            if(!"OK".equals(status)) {
-                log.error("Failed to save:" + status);
+    /**
+     * @return false if the collection is turned off or the script does not list it in 'collections'
+     */
+    boolean wants(String collection) {
+        if(collection.isEmpty())
+            return false;
+        return collections == null || collections.contains(collection);
+    }
+
+    static Document toDocument(NumericsDataCollector.NumericSampleEvent evt) {
+        Document document = newDocument(evt);
+        document.put("numeric", evt.getValue());
+        return document;
+    }
+
+    /**
+     * The whole array goes into one document, its values as a list of doubles
+     * in the order they were sampled; timeStamp is the time of the array.
+     */
+    static Document toDocument(SampleArrayDataCollector.SampleArrayEvent evt) {
+        Document document = newDocument(evt);
+        document.put("frequency", evt.getFrequency());
+        final int sz = evt.getSampleCount();
+        final float[] samples = evt.getSamples();
+        List<Double> values = new ArrayList<>(sz);
+        for(int i = 0; i < sz; i++) {
+            values.add((double) samples[i]);
+        }
+        document.put("values", values);
+        return document;
+    }
+
+    private static Document newDocument(DataCollector.DataSampleEvent evt) {
+        Document document = new Document();
+        String patient = evt.getPatientId();
+        if(patient != null)
+            document.put("patientId", patient);
+        document.put("deviceId",   evt.getUniqueDeviceIdentifier());
+        document.put("metricId",   evt.getMetricId());
+        document.put("instanceId", evt.getInstanceId());
+        document.put("timeStamp",  evt.getDevTime());
+        return document;
+    }
+
+    private void add(String collection, Document document) {
+        Batch batch = batches.get(collection);
+        if(batch == null) {
+            batch = new Batch(collection);
+            batches.put(collection, batch);
+        }
+        batch.documents.add(document);
+
+        if(batch.documents.size() >= batchSize) {
+            write(batch);
+        }
+        long now = System.currentTimeMillis();
+        if(now - lastWrite >= batchMillis) {
+            lastWrite = now;
+            for(Batch b : batches.values()) {
+                write(b);
             }
         }
+    }
+
+    /**
+     * Writes every batch with documents waiting
+     */
+    void flush() {
+        for(Batch b : batches.values()) {
+            write(b);
+        }
+    }
+
+    private void write(Batch batch) {
+        if(batch.documents.isEmpty()) {
+            return;
+        }
+        List<Document> documents = batch.documents;
+        batch.documents = new ArrayList<>(batchSize);
+
+        try {
+            String collection = batch.collection;
+            List<?> models = documents;
+            if(hasTransform) {
+                ScriptObjectMirror result = (ScriptObjectMirror) invocable.invokeFunction(TRANSFORM_FUNCTION, mongoDatabase, collection, documents);
+                String status = (String) result.get("status");
+                if(!"OK".equals(status)) {
+                    log.error("Failed to save " + documents.size() + " documents to " + collection + ":" + status);
+                    documentsFailed += documents.size();
+                    return;
+                }
+                if(result.get("collection") != null) {
+                    collection = (String) result.get("collection");
+                }
+                Object transformed = result.get("documents");
+                if(transformed instanceof ScriptObjectMirror) {
+                    models = new ArrayList<>(((ScriptObjectMirror) transformed).values());
+                } else if(transformed instanceof List) {
+                    models = (List<?>) transformed;
+                }
+            }
+            write(mongoDatabase.getCollection(collection), models);
+            batchesWritten++;
+            documentsWritten += models.size();
+        }
         catch(Exception ex) {
-            log.error("Failed to save", ex);
+            log.error("Failed to save " + documents.size() + " documents to " + batch.collection, ex);
+            documentsFailed += documents.size();
+        }
+    }
+
+    /**
+     * Plain documents are inserted with insertMany; as soon as there is a
+     * WriteModel among them the lot goes through bulkWrite.
+     */
+    @SuppressWarnings("unchecked")
+    private static void write(MongoCollection<Document> collection, List<?> models) {
+        if(models.isEmpty()) {
+            return;
+        }
+        boolean documentsOnly = true;
+        for(Object o : models) {
+            if(!(o instanceof Document)) {
+                documentsOnly = false;
+                break;
+            }
+        }
+        if(documentsOnly) {
+            collection.insertMany((List<Document>) models, new InsertManyOptions().ordered(false));
+            return;
+        }
+        List<WriteModel<Document>> requests = new ArrayList<>(models.size());
+        for(Object o : models) {
+            if(o instanceof Document) {
+                requests.add(new InsertOneModel<>((Document) o));
+            } else if(o instanceof WriteModel) {
+                requests.add((WriteModel<Document>) o);
+            } else {
+                throw new IllegalArgumentException("Not a document or a write model: " + o);
+            }
         }
+        collection.bulkWrite(requests, new BulkWriteOptions().ordered(false));
+    }
+
+    long getBatchesWritten() {
+        return batchesWritten;
+    }
+
+    long getDocumentsWritten() {
+        return documentsWritten;
+    }
+
+    long getDocumentsFailed() {
+        return documentsFailed;
+    }
+
+    /**
+     * Writes to db, for use in place of {@link #makeMongoClient(String, int, String)}
+     */
+    void setDatabase(MongoDatabase db) {
+        mongoDatabase = db;
     }
 
     boolean initJSRuntime(String jsFile) throws ScriptException {
@@ -145,6 +397,22 @@ public class MongoPersister extends DataCollectorAppFactory.PersisterUIControlle
             engine.eval(new InputStreamReader(is));
             invocable = (Invocable) engine;
 
+            Object transform = engine.get(TRANSFORM_FUNCTION);
+            hasTransform = transform instanceof ScriptObjectMirror && ((ScriptObjectMirror) transform).isFunction();
+            if(!hasTransform && engine.get("persistNumeric") != null) {
+                log.warn(jsFile + " has persistNumeric, which is no longer called; define " + TRANSFORM_FUNCTION + " instead");
+            }
+
+            collections = null;
+            Object wanted = engine.get(COLLECTIONS_VARIABLE);
+            if(wanted instanceof ScriptObjectMirror && ((ScriptObjectMirror) wanted).isArray()) {
+                collections = new HashSet<>();
+                for(Object name : ((ScriptObjectMirror) wanted).values()) {
+                    collections.add(String.valueOf(name));
+                }
+                log.info(jsFile + " keeps " + collections);
+            }
+
             try {
                 is.close();
             } catch (IOException toobad) {}
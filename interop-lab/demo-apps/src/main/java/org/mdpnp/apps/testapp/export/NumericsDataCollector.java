@@ -8,11 +8,16 @@ import javafx.util.Callback;
 import org.mdpnp.apps.fxbeans.ElementObserver;
 import org.mdpnp.apps.fxbeans.NumericFx;
 import org.mdpnp.apps.fxbeans.NumericFxList;
+import org.mdpnp.rtiapi.data.NumericInstanceModel;
+import org.mdpnp.rtiapi.data.NumericInstanceModelListener;
+import org.mdpnp.rtiapi.data.ReaderInstanceModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Date;
 
+import com.rti.dds.subscription.SampleInfo;
+
 /**
  *
  */
@@ -22,6 +27,10 @@ public class NumericsDataCollector extends DataCollector<NumericFx> {
 
     private final NumericFxList numericList;
     private ElementObserver<NumericFx> numericObserver;
+    private final NumericInstanceModel numericModel;
+
+    // reused for every update; listeners copy what they keep
+    private final NumericSampleEvent event = new NumericSampleEvent();
 
     @Override
     public void add(NumericFx fx) {
@@ -30,8 +39,22 @@ public class NumericsDataCollector extends DataCollector<NumericFx> {
                 log.trace(dateFormats.get().format(fx.getPresentation_time()) + " " + fx.getMetric_id() + "=" + fx.getValue());
 
             Patient patient = resolvePatient(fx.getUnique_device_identifier());
-            NumericSampleEvent ev = new NumericSampleEvent(patient, fx);
-            fireDataSampleEvent(ev);
+            event.set(patient, fx);
+            fireDataSampleEvent(event);
+        } catch (Exception e) {
+            log.error("firing data sample event", e);
+        }
+    }
+
+    /**
+     * Fills the event straight from the DDS sample, on the event loop thread
+     */
+    void add(ice.Numeric v) {
+        try {
+            Patient patient = resolvePatient(v.unique_device_identifier);
+            event.set(patient, v.unique_device_identifier, v.metric_id, v.instance_id,
+                      v.device_time.sec * 1000L + v.device_time.nanosec / 1000000L, v.value);
+            fireDataSampleEvent(event);
         } catch (Exception e) {
             log.error("firing data sample event", e);
         }
@@ -40,18 +63,54 @@ public class NumericsDataCollector extends DataCollector<NumericFx> {
     public NumericsDataCollector(NumericFxList numericList) {
 
         this.numericList = numericList;
+        this.numericModel = null;
         this.numericObserver = new ElementObserver<>(numericExtractor, numericListenerGenerator, numericList);
         this.numericList.addListener(numericListener);
         this.numericList.forEach((fx)->numericObserver.attachListener(fx));
     }
 
+    /**
+     * Collects from the reader of numericModel directly, without a JavaFX list
+     * in between, so that it can run without a display.
+     */
+    public NumericsDataCollector(NumericInstanceModel numericModel) {
+
+        this.numericList = null;
+        this.numericModel = numericModel;
+        this.numericModel.addListener(numericModelListener);
+    }
+
     @Override
     public void destroy() {
 
+        if(null != numericModel) {
+            numericModel.removeListener(numericModelListener);
+            return;
+        }
         numericList.removeListener(numericListener);
         numericList.forEach((fx)->numericObserver.detachListener(fx));
     }
 
+    private final NumericInstanceModelListener numericModelListener = new NumericInstanceModelListener() {
+        @Override
+        public void instanceAlive(ReaderInstanceModel<ice.Numeric, ice.NumericDataReader> model,
+                                  ice.NumericDataReader reader, ice.Numeric data, SampleInfo sampleInfo) {
+        }
+
+        @Override
+        public void instanceNotAlive(ReaderInstanceModel<ice.Numeric, ice.NumericDataReader> model,
+                                     ice.NumericDataReader reader, ice.Numeric keyHolder, SampleInfo sampleInfo) {
+        }
+
+        @Override
+        public void instanceSample(ReaderInstanceModel<ice.Numeric, ice.NumericDataReader> model,
+                                   ice.NumericDataReader reader, ice.Numeric data, SampleInfo sampleInfo) {
+            if(sampleInfo.valid_data) {
+                add(data);
+            }
+        }
+    };
+
     private final ListChangeListener<NumericFx> numericListener = new ListChangeListener<NumericFx>() {
         @Override
         public void onChanged(javafx.collections.ListChangeListener.Change<? extends NumericFx> c) {
@@ -91,9 +150,15 @@ public class NumericsDataCollector extends DataCollector<NumericFx> {
     @SuppressWarnings("serial")
     public static class NumericSampleEvent extends DataCollector.DataSampleEvent {
 
-        private final long      time;
-        private final double    value;
-        private final NumericFx data;
+        private String    uniqueDeviceIdentifier;
+        private String    metricId;
+        private int       instanceId;
+        private long      time;
+        private double    value;
+
+        NumericSampleEvent() {
+            super(UNDEFINED);
+        }
 
         public NumericSampleEvent(NumericFx data) {
             this(UNDEFINED, data);
@@ -101,22 +166,42 @@ public class NumericsDataCollector extends DataCollector<NumericFx> {
 
         public NumericSampleEvent(Patient p, NumericFx v) {
             super(p);
-            data = v;
-            value = data.getValue();
-            time = data.getDevice_time().getTime();
+            set(p, v);
+        }
+
+        void set(Patient p, NumericFx v) {
+            set(p, v.getUnique_device_identifier(), v.getMetric_id(), v.getInstance_id(), v.getDevice_time().getTime(), v.getValue());
+        }
+
+        void set(Patient p, String uniqueDeviceIdentifier, String metricId, int instanceId, long time, double value) {
+            setPatient(p);
+            this.uniqueDeviceIdentifier = uniqueDeviceIdentifier;
+            this.metricId = metricId;
+            this.instanceId = instanceId;
+            this.time = time;
+            this.value = value;
+        }
+
+        void copyFrom(NumericSampleEvent evt) {
+            set((Patient) evt.getSource(), evt.uniqueDeviceIdentifier, evt.metricId, evt.instanceId, evt.time, evt.value);
+        }
+
+        @Override
+        void dispatch(DataSampleListener l) throws Exception {
+            l.handleDataSampleEvent(this);
         }
 
         public String getUniqueDeviceIdentifier() {
-            return data.getUnique_device_identifier();
+            return uniqueDeviceIdentifier;
         }
         public String getMetricId() {
-            return data.getMetric_id();
+            return metricId;
         }
         public long getDevTime() {
             return time;
         }
         public int getInstanceId() {
-            return data.getInstance_id();
+            return instanceId;
         }
         public double getValue() {
             return value;
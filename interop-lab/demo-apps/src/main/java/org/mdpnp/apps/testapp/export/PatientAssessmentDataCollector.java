@@ -6,14 +6,19 @@ import javafx.beans.Observable;
 import javafx.collections.ListChangeListener;
 import javafx.util.Callback;
 import org.mdpnp.apps.fxbeans.*;
+import org.mdpnp.rtiapi.data.InstanceModelListener;
+import org.mdpnp.rtiapi.data.ReaderInstanceModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
+import com.rti.dds.subscription.SampleInfo;
+
 /**
  *
  */
@@ -23,16 +28,50 @@ public class PatientAssessmentDataCollector extends DataCollector<PatientAssessm
 
     private final PatientAssessmentFxList paList;
     private ElementObserver<PatientAssessmentFx> paObserver;
+    private final ReaderInstanceModel<himss.PatientAssessment, himss.PatientAssessmentDataReader> paModel;
+
+    // reused for every update; listeners copy what they keep
+    private final PatientAssessmentEvent event = new PatientAssessmentEvent();
 
+    /**
+     * Fires an event for each of the assessments, as
+     * {@link #add(himss.PatientAssessment)} does for the DDS sample
+     */
     @Override
     public void add(PatientAssessmentFx fx) {
         try {
             if (log.isInfoEnabled())
                 log.info(dateFormats.get().format(fx.getDate_and_time()) + " " + fx.getOperator_id() + "=" + fx.getAssessments());
 
+            List<Map.Entry<String,String>> assessments = fx.getAssessments();
+            if (null == assessments) {
+                return;
+            }
             Patient patient = resolvePatient(fx.getOperator_id());
-            PatientAssessmentEvent ev = new PatientAssessmentEvent(patient, fx);
-            fireDataSampleEvent(ev);
+            long time = fx.getDate_and_time().getTime();
+            for (Map.Entry<String,String> e : assessments) {
+                event.set(patient, fx.getOperator_id(), time, e);
+                fireDataSampleEvent(event);
+            }
+        } catch (Exception e) {
+            log.error("firing data sample event", e);
+        }
+    }
+
+    /**
+     * Fires an event for each of the assessments in the DDS sample, on the
+     * event loop thread
+     */
+    void add(himss.PatientAssessment v) {
+        try {
+            Patient patient = resolvePatient(v.operator_id);
+            long time = v.date_and_time.seconds * 1000L + v.date_and_time.nanoseconds / 1000000L;
+            for (int i = 0; i < v.assessments.userData.size(); i++) {
+                himss.AssessmentEntry ae = (himss.AssessmentEntry) v.assessments.userData.get(i);
+                // assessments are few and far between; the entry is handed over as is
+                event.set(patient, v.operator_id, time, new AbstractMap.SimpleImmutableEntry<String,String>(ae.name, ae.value));
+                fireDataSampleEvent(event);
+            }
         } catch (Exception e) {
             log.error("firing data sample event", e);
         }
@@ -41,18 +80,55 @@ public class PatientAssessmentDataCollector extends DataCollector<PatientAssessm
     public PatientAssessmentDataCollector(PatientAssessmentFxList paList) {
 
         this.paList = paList;
+        this.paModel = null;
         this.paObserver = new ElementObserver<>(paExtractor, paListenerGenerator, paList);
         this.paList.addListener(paListener);
         this.paList.forEach((fx)-> paObserver.attachListener(fx));
     }
 
+    /**
+     * Collects from the reader of paModel directly, without a JavaFX list in
+     * between, so that it can run without a display.
+     */
+    public PatientAssessmentDataCollector(ReaderInstanceModel<himss.PatientAssessment, himss.PatientAssessmentDataReader> paModel) {
+
+        this.paList = null;
+        this.paModel = paModel;
+        this.paModel.addListener(paModelListener);
+    }
+
     @Override
     public void destroy() {
 
+        if(null != paModel) {
+            paModel.removeListener(paModelListener);
+            return;
+        }
         paList.removeListener(paListener);
         paList.forEach((fx)-> paObserver.detachListener(fx));
     }
 
+    private final InstanceModelListener<himss.PatientAssessment, himss.PatientAssessmentDataReader> paModelListener =
+            new InstanceModelListener<himss.PatientAssessment, himss.PatientAssessmentDataReader>() {
+        @Override
+        public void instanceAlive(ReaderInstanceModel<himss.PatientAssessment, himss.PatientAssessmentDataReader> model,
+                                  himss.PatientAssessmentDataReader reader, himss.PatientAssessment data, SampleInfo sampleInfo) {
+        }
+
+        @Override
+        public void instanceNotAlive(ReaderInstanceModel<himss.PatientAssessment, himss.PatientAssessmentDataReader> model,
+                                     himss.PatientAssessmentDataReader reader, himss.PatientAssessment keyHolder, SampleInfo sampleInfo) {
+        }
+
+        @Override
+        public void instanceSample(ReaderInstanceModel<himss.PatientAssessment, himss.PatientAssessmentDataReader> model,
+                                   himss.PatientAssessmentDataReader reader, himss.PatientAssessment data, SampleInfo sampleInfo) {
+            if(sampleInfo.valid_data) {
+                add(data);
+            }
+        }
+    };
+
     private final ListChangeListener<PatientAssessmentFx> paListener = new ListChangeListener<PatientAssessmentFx>() {
         @Override
         public void onChanged(Change<? extends PatientAssessmentFx> c) {
@@ -67,8 +143,9 @@ public class PatientAssessmentDataCollector extends DataCollector<PatientAssessm
 
         @Override
         public Observable[] call(PatientAssessmentFx param) {
+            // PatientAssessmentFx.update sets the assessments after the time
             return new Observable[] {
-                    param.date_and_timeProperty()
+                    param.assessmentsProperty()
             };
         }
     };
@@ -91,9 +168,13 @@ public class PatientAssessmentDataCollector extends DataCollector<PatientAssessm
     @SuppressWarnings("serial")
     public static class PatientAssessmentEvent extends DataCollector.DataSampleEvent {
 
-        private final long      time;
-        private final Map.Entry<String,String> value;
-        private final PatientAssessmentFx   data;
+        private String    operatorId;
+        private long      time;
+        private Map.Entry<String,String> value;
+
+        PatientAssessmentEvent() {
+            super(UNDEFINED);
+        }
 
         public PatientAssessmentEvent(PatientAssessmentFx data) {
             this(UNDEFINED, data);
@@ -101,13 +182,31 @@ public class PatientAssessmentDataCollector extends DataCollector<PatientAssessm
 
         public PatientAssessmentEvent(Patient p, PatientAssessmentFx v) {
             super(p);
-            data = v;
-            value = data.getAssessments().get(0);
-            time = data.getDate_and_time().getTime();
+            set(p, v);
+        }
+
+        void set(Patient p, PatientAssessmentFx v) {
+            set(p, v.getOperator_id(), v.getDate_and_time().getTime(), v.getAssessments().get(0));
+        }
+
+        void set(Patient p, String operatorId, long time, Map.Entry<String,String> value) {
+            setPatient(p);
+            this.operatorId = operatorId;
+            this.time = time;
+            this.value = value;
+        }
+
+        void copyFrom(PatientAssessmentEvent evt) {
+            set((Patient) evt.getSource(), evt.operatorId, evt.time, evt.value);
+        }
+
+        @Override
+        void dispatch(DataSampleListener l) throws Exception {
+            l.handleDataSampleEvent(this);
         }
 
         public String getUniqueDeviceIdentifier() {
-            return data.getOperator_id();
+            return operatorId;
         }
         public String getMetricId() {
             return "";
@@ -9,11 +9,17 @@ import javafx.util.Callback;
 import org.mdpnp.apps.fxbeans.ElementObserver;
 import org.mdpnp.apps.fxbeans.SampleArrayFx;
 import org.mdpnp.apps.fxbeans.SampleArrayFxList;
+import org.mdpnp.rtiapi.data.ReaderInstanceModel;
+import org.mdpnp.rtiapi.data.SampleArrayInstanceModel;
+import org.mdpnp.rtiapi.data.SampleArrayInstanceModelListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Date;
 
+import com.rti.dds.infrastructure.FloatSeq;
+import com.rti.dds.subscription.SampleInfo;
+
 /**
  *
  */
@@ -23,6 +29,10 @@ public class SampleArrayDataCollector extends DataCollector<SampleArrayFx> {
 
     private final SampleArrayFxList sampleArrayList;
     private ElementObserver<SampleArrayFx> sampleArrayObserver;
+    private final SampleArrayInstanceModel sampleArrayModel;
+
+    // reused for every update; listeners copy what they keep
+    private final SampleArrayEvent event = new SampleArrayEvent();
 
     @Override
     public void add(SampleArrayFx fx) {
@@ -32,29 +42,88 @@ public class SampleArrayDataCollector extends DataCollector<SampleArrayFx> {
                 log.trace(dateFormats.get().format(fx.getPresentation_time()) + " " + fx.getMetric_id());
 
             Patient patient = resolvePatient(fx.getUnique_device_identifier());
-            SampleArrayEvent ev = new SampleArrayEvent(patient, fx);
-            fireDataSampleEvent(ev);
+            event.set(patient, fx);
+            fireDataSampleEvent(event);
         } catch (Exception e) {
             log.error("firing data sample event", e);
         }
 
     }
 
+    /**
+     * Copies the samples straight out of the DDS sequence into the event, on
+     * the event loop thread; nothing is boxed on the way.
+     */
+    void add(ice.SampleArray v) {
+
+        try {
+            Patient patient = resolvePatient(v.unique_device_identifier);
+            event.set(patient, v.unique_device_identifier, v.metric_id, v.instance_id,
+                      v.device_time.sec * 1000L + v.device_time.nanosec / 1000000L, v.frequency);
+            FloatSeq values = v.values.userData;
+            final int sz = values.size();
+            event.setSampleCount(sz);
+            float[] samples = event.getSamples();
+            for (int i = 0; i < sz; i++) {
+                samples[i] = values.getFloat(i);
+            }
+            fireDataSampleEvent(event);
+        } catch (Exception e) {
+            log.error("firing data sample event", e);
+        }
+    }
+
     public SampleArrayDataCollector(SampleArrayFxList sampleArrayList) {
 
         this.sampleArrayList = sampleArrayList;
+        this.sampleArrayModel = null;
         this.sampleArrayObserver = new ElementObserver<>(sampleArrayExtractor, sampleArrayListenerGenerator, sampleArrayList);
         this.sampleArrayList.addListener(sampleArrayListener);
         this.sampleArrayList.forEach((fx)->sampleArrayObserver.attachListener(fx));
     }
 
+    /**
+     * Collects from the reader of sampleArrayModel directly, without a JavaFX
+     * list in between, so that it can run without a display.
+     */
+    public SampleArrayDataCollector(SampleArrayInstanceModel sampleArrayModel) {
+
+        this.sampleArrayList = null;
+        this.sampleArrayModel = sampleArrayModel;
+        this.sampleArrayModel.addListener(sampleArrayModelListener);
+    }
+
     @Override
     public void destroy() {
 
+        if(null != sampleArrayModel) {
+            sampleArrayModel.removeListener(sampleArrayModelListener);
+            return;
+        }
         sampleArrayList.removeListener(sampleArrayListener);
         sampleArrayList.forEach((fx)->sampleArrayObserver.detachListener(fx));
     }
 
+    private final SampleArrayInstanceModelListener sampleArrayModelListener = new SampleArrayInstanceModelListener() {
+        @Override
+        public void instanceAlive(ReaderInstanceModel<ice.SampleArray, ice.SampleArrayDataReader> model,
+                                  ice.SampleArrayDataReader reader, ice.SampleArray data, SampleInfo sampleInfo) {
+        }
+
+        @Override
+        public void instanceNotAlive(ReaderInstanceModel<ice.SampleArray, ice.SampleArrayDataReader> model,
+                                     ice.SampleArrayDataReader reader, ice.SampleArray keyHolder, SampleInfo sampleInfo) {
+        }
+
+        @Override
+        public void instanceSample(ReaderInstanceModel<ice.SampleArray, ice.SampleArrayDataReader> model,
+                                   ice.SampleArrayDataReader reader, ice.SampleArray data, SampleInfo sampleInfo) {
+            if(sampleInfo.valid_data) {
+                add(data);
+            }
+        }
+    };
+
     private final ListChangeListener<SampleArrayFx> sampleArrayListener = new ListChangeListener<SampleArrayFx>() {
         @Override
         public void onChanged(javafx.collections.ListChangeListener.Change<? extends SampleArrayFx> c) {
@@ -97,15 +166,15 @@ public class SampleArrayDataCollector extends DataCollector<SampleArrayFx> {
 
         public static void convert(SampleArrayDataCollector.SampleArrayEvent evt, Handler h) throws Exception {
 
-            Number[] values = evt.getValues();
+            float[] values = evt.getSamples();
             long baseTime = evt.getDevTime();
 
-            final int sz = values.length;
+            final int sz = evt.getSampleCount();
             if (0 < evt.getFrequency()) {
                 int msPerSample = (int) (1000 / evt.getFrequency());
                 for (int j = 0; j < sz; j++) {
                     long tm = baseTime - (sz - j) * msPerSample;
-                    float value = values[j].floatValue();
+                    float value = values[j];
 
                     if (log.isTraceEnabled())
                         log.trace(DataCollector.dateFormats.get().format(new Date(tm)) + " " + evt.getMetricId() + "=" + value);
@@ -123,9 +192,18 @@ public class SampleArrayDataCollector extends DataCollector<SampleArrayFx> {
     @SuppressWarnings("serial")
     public static class SampleArrayEvent extends DataCollector.DataSampleEvent {
 
-        private final long        time;
-        private final Number[]    value;
-        private final SampleArrayFx data;
+        private String      uniqueDeviceIdentifier;
+        private String      metricId;
+        private int         instanceId;
+        private long        time;
+        private long        frequency;
+        // grown as needed and reused; only the first count are current
+        private float[]     samples = new float[0];
+        private int         count;
+
+        SampleArrayEvent() {
+            super(UNDEFINED);
+        }
 
         public SampleArrayEvent(SampleArrayFx data) {
             this(UNDEFINED, data);
@@ -133,28 +211,83 @@ public class SampleArrayDataCollector extends DataCollector<SampleArrayFx> {
 
         public SampleArrayEvent(Patient p, SampleArrayFx v) {
             super(p);
-            data = v;
-            value = data.getValues();
-            time = data.getDevice_time().getTime();
+            set(p, v);
+        }
+
+        void set(Patient p, SampleArrayFx v) {
+            set(p, v.getUnique_device_identifier(), v.getMetric_id(), v.getInstance_id(), v.getDevice_time().getTime(), v.getFrequency());
+            Number[] values = v.getValues();
+            setSampleCount(values.length);
+            for (int i = 0; i < count; i++) {
+                samples[i] = values[i].floatValue();
+            }
+        }
+
+        void set(Patient p, String uniqueDeviceIdentifier, String metricId, int instanceId, long time, long frequency) {
+            setPatient(p);
+            this.uniqueDeviceIdentifier = uniqueDeviceIdentifier;
+            this.metricId = metricId;
+            this.instanceId = instanceId;
+            this.time = time;
+            this.frequency = frequency;
+        }
+
+        /**
+         * Makes room for count samples, to be filled in through
+         * {@link #getSamples()}
+         */
+        void setSampleCount(int count) {
+            if (samples.length < count) {
+                samples = new float[count];
+            }
+            this.count = count;
+        }
+
+        void copyFrom(SampleArrayEvent evt) {
+            set((Patient) evt.getSource(), evt.uniqueDeviceIdentifier, evt.metricId, evt.instanceId, evt.time, evt.frequency);
+            setSampleCount(evt.count);
+            System.arraycopy(evt.samples, 0, samples, 0, evt.count);
+        }
+
+        @Override
+        void dispatch(DataSampleListener l) throws Exception {
+            l.handleDataSampleEvent(this);
         }
 
         public String getUniqueDeviceIdentifier() {
-            return data.getUnique_device_identifier();
+            return uniqueDeviceIdentifier;
         }
         public String getMetricId() {
-            return data.getMetric_id();
+            return metricId;
         }
         public long getDevTime() {
             return time;
         }
         public int getInstanceId() {
-            return data.getInstance_id();
+            return instanceId;
+        }
+        /**
+         * @return the samples, of which only the first {@link #getSampleCount()}
+         *         are part of this event
+         */
+        public float[] getSamples() {
+            return samples;
         }
+        public int getSampleCount() {
+            return count;
+        }
+        /**
+         * @return a boxed copy of the samples
+         */
         public Number[] getValues() {
-            return value;
+            Number[] values = new Number[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = samples[i];
+            }
+            return values;
         }
         public long getFrequency() {
-            return data.getFrequency();
+            return frequency;
         }
     }
 
@@ -0,0 +1,372 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compresses the samples of one series over a stretch of time as described for
+ * Facebook's Gorilla: timestamps (in ms) are stored as the difference between
+ * successive deltas and values as the XOR with the previous value, so that a
+ * steady sampling rate costs a bit per timestamp and an unchanged value a bit
+ * per value.
+ *
+ * The first timestamp takes 64 bits and the first value 32; after that
+ *
+ * <pre>
+ * delta of delta         '0'                  when 0
+ *                        '10'   + 7 bits      in [-64, 63]
+ *                        '110'  + 9 bits      in [-256, 255]
+ *                        '1110' + 12 bits     in [-2048, 2047]
+ *                        '1111' + 32 bits     otherwise
+ * value XOR previous     '0'                  when 0
+ *                        '10'   + meaningful bits within the previous window, when
+ *                               that costs no more than a new window
+ *                        '11'   + 5 bits of leading zeros + 5 bits of length - 1
+ *                               + meaningful bits
+ * </pre>
+ *
+ * XOR leaves little to gain on noisy waveforms, whose low mantissa bits change
+ * from one sample to the next. A chunk with a resolution instead stores each
+ * value as the nearest multiple of the resolution, as the difference between
+ * successive deltas of those integers; this is lossy by up to half the
+ * resolution, and a waveform of ADC counts times a scale loses nothing but
+ * float rounding when the resolution is the scale. The first value is coded
+ * as a delta of delta from 0, like the rest.
+ *
+ * <pre>
+ * delta of delta         '0'                  when 0
+ *                        '10'     + 4 bits    in [-8, 7]
+ *                        '110'    + 7 bits    in [-64, 63]
+ *                        '1110'   + 12 bits   in [-2048, 2047]
+ *                        '11110'  + 35 bits   otherwise
+ * value                  '11111'  + 32 bits   of a float that is not a finite
+ *                               multiple within the range of an int; the deltas
+ *                               carry on from the sample before
+ * </pre>
+ *
+ * An encoder is reused from one chunk to the next; see {@link #reset()}.
+ */
+class TimeSeriesChunk {
+
+    // bits are written most significant first, 64 to a word
+    private long[] words = new long[64];
+    private long bits;
+
+    private int count;
+    private long startTime, endTime;
+
+    private long previousTime, previousDelta;
+    private int previousValue;
+    private int previousLeading = -1, previousTrailing;
+
+    // 0 for floats
+    private final double resolution;
+    private long previousQuantized, previousQuantizedDelta;
+
+    TimeSeriesChunk() {
+        this(0.0);
+    }
+
+    /**
+     * @param resolution of the values, or 0 to store them as floats
+     */
+    TimeSeriesChunk(double resolution) {
+        if (!(resolution >= 0.0) || Double.isInfinite(resolution)) {
+            throw new IllegalArgumentException("Invalid resolution " + resolution);
+        }
+        this.resolution = resolution;
+    }
+
+    double getResolution() {
+        return resolution;
+    }
+
+    void reset() {
+        Arrays.fill(words, 0, (int) ((bits + 63) >>> 6), 0L);
+        bits = 0L;
+        count = 0;
+        previousDelta = 0L;
+        previousLeading = -1;
+        previousQuantized = 0L;
+        previousQuantizedDelta = 0L;
+    }
+
+    boolean isEmpty() {
+        return 0 == count;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the latest timestamp in the chunk; not necessarily the last
+     */
+    long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return the encoded size in bytes
+     */
+    int size() {
+        return (int) ((bits + 7L) >>> 3);
+    }
+
+    void append(long time, float value) {
+        int v = Float.floatToRawIntBits(value);
+        if (0 == count) {
+            startTime = endTime = previousTime = time;
+            write(time, 64);
+            if (0.0 < resolution) {
+                appendQuantized(value);
+            } else {
+                previousValue = v;
+                write(v, 32);
+            }
+            count = 1;
+            return;
+        }
+        long delta = time - previousTime;
+        long dod = delta - previousDelta;
+        if (0L == dod) {
+            write(0L, 1);
+        } else if (dod >= -64L && dod <= 63L) {
+            write(0b10L, 2);
+            write(dod, 7);
+        } else if (dod >= -256L && dod <= 255L) {
+            write(0b110L, 3);
+            write(dod, 9);
+        } else if (dod >= -2048L && dod <= 2047L) {
+            write(0b1110L, 4);
+            write(dod, 12);
+        } else {
+            write(0b1111L, 4);
+            write(dod, 32);
+        }
+        previousDelta = delta;
+        previousTime = time;
+        if (time > endTime) {
+            endTime = time;
+        }
+
+        if (0.0 < resolution) {
+            appendQuantized(value);
+            count++;
+            return;
+        }
+        int xor = v ^ previousValue;
+        if (0 == xor) {
+            write(0L, 1);
+        } else {
+            int leading = Integer.numberOfLeadingZeros(xor);
+            int trailing = Integer.numberOfTrailingZeros(xor);
+            int length = 32 - leading - trailing;
+            int window = 32 - previousLeading - previousTrailing;
+            // unlike Gorilla a window that has become too wide is given up, when
+            // a new one costs less than the bits it would waste
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing && window <= length + 10) {
+                write(0b10L, 2);
+                write(xor >>> previousTrailing, window);
+            } else {
+                write(0b11L, 2);
+                write(leading, 5);
+                write(length - 1, 5);
+                write(xor >>> trailing, length);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+        previousValue = v;
+        count++;
+    }
+
+    private void appendQuantized(float value) {
+        double q = Math.rint(value / resolution);
+        if (!(q >= Integer.MIN_VALUE && q <= Integer.MAX_VALUE)) {
+            write(0b11111L, 5);
+            write(Float.floatToRawIntBits(value), 32);
+            return;
+        }
+        long quantized = (long) q;
+        long delta = quantized - previousQuantized;
+        long dod = delta - previousQuantizedDelta;
+        if (0L == dod) {
+            write(0L, 1);
+        } else if (dod >= -8L && dod <= 7L) {
+            write(0b10L, 2);
+            write(dod, 4);
+        } else if (dod >= -64L && dod <= 63L) {
+            write(0b110L, 3);
+            write(dod, 7);
+        } else if (dod >= -2048L && dod <= 2047L) {
+            write(0b1110L, 4);
+            write(dod, 12);
+        } else {
+            write(0b11110L, 5);
+            write(dod, 35);
+        }
+        previousQuantized = quantized;
+        previousQuantizedDelta = delta;
+    }
+
+    /**
+     * Writes the low n bits of value
+     */
+    private void write(long value, int n) {
+        int word = (int) (bits >>> 6);
+        if (word + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        int free = 64 - (int) (bits & 63L);
+        if (n < 64) {
+            value &= (1L << n) - 1L;
+        }
+        if (n <= free) {
+            words[word] |= value << (free - n);
+        } else {
+            words[word] |= value >>> (n - free);
+            words[word + 1] |= value << (64 - (n - free));
+        }
+        bits += n;
+    }
+
+    /**
+     * Copies the encoded chunk into dst, which must have room for {@link #size()}
+     */
+    void copyTo(ByteBuffer dst) {
+        int n = size();
+        int i = 0;
+        for (; n >= 8; n -= 8) {
+            dst.putLong(words[i++]);
+        }
+        long last = i < words.length ? words[i] : 0L;
+        for (int shift = 56; n > 0; n--, shift -= 8) {
+            dst.put((byte) (last >>> shift));
+        }
+    }
+
+    /**
+     * Decodes count samples of floats from src into times and values starting
+     * at offset.
+     */
+    static void decode(ByteBuffer src, int count, long[] times, float[] values, int offset) {
+        decode(src, 0.0, count, times, values, offset);
+    }
+
+    /**
+     * Decodes count samples from src, encoded with resolution, into times and
+     * values starting at offset.
+     */
+    static void decode(ByteBuffer src, double resolution, int count, long[] times, float[] values, int offset) {
+        BitReader in = new BitReader(src);
+        long time = in.read(64);
+        long delta = 0L;
+        int value = 0, leading = 0, trailing = 0;
+        long quantized = 0L, quantizedDelta = 0L;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                long dod;
+                if (0L == in.read(1)) {
+                    dod = 0L;
+                } else if (0L == in.read(1)) {
+                    dod = in.readSigned(7);
+                } else if (0L == in.read(1)) {
+                    dod = in.readSigned(9);
+                } else if (0L == in.read(1)) {
+                    dod = in.readSigned(12);
+                } else {
+                    dod = in.readSigned(32);
+                }
+                delta += dod;
+                time += delta;
+            }
+            times[offset + i] = time;
+
+            if (0.0 < resolution) {
+                long dod;
+                if (0L == in.read(1)) {
+                    dod = 0L;
+                } else if (0L == in.read(1)) {
+                    dod = in.readSigned(4);
+                } else if (0L == in.read(1)) {
+                    dod = in.readSigned(7);
+                } else if (0L == in.read(1)) {
+                    dod = in.readSigned(12);
+                } else if (0L == in.read(1)) {
+                    dod = in.readSigned(35);
+                } else {
+                    values[offset + i] = Float.intBitsToFloat((int) in.read(32));
+                    continue;
+                }
+                quantizedDelta += dod;
+                quantized += quantizedDelta;
+                values[offset + i] = (float) (quantized * resolution);
+                continue;
+            }
+            if (0 == i) {
+                value = (int) in.read(32);
+            } else if (0L != in.read(1)) {
+                if (0L != in.read(1)) {
+                    leading = (int) in.read(5);
+                    trailing = 32 - leading - ((int) in.read(5) + 1);
+                }
+                value ^= (int) in.read(32 - leading - trailing) << trailing;
+            }
+            values[offset + i] = Float.intBitsToFloat(value);
+        }
+    }
+
+    private static final class BitReader {
+        private final ByteBuffer src;
+        private long word;
+        private int available;
+
+        BitReader(ByteBuffer src) {
+            this.src = src;
+        }
+
+        long read(int n) {
+            long result = 0L;
+            while (n > 0) {
+                if (0 == available) {
+                    if (src.remaining() >= 8) {
+                        word = src.getLong();
+                        available = 64;
+                    } else {
+                        word = (src.get() & 0xFFL) << 56;
+                        available = 8;
+                    }
+                }
+                int take = Math.min(n, available);
+                long bits = take == 64 ? word : word >>> (64 - take);
+                result = take == 64 ? bits : (result << take) | bits;
+                word = take == 64 ? 0L : word << take;
+                available -= take;
+                n -= take;
+            }
+            return result;
+        }
+
+        long readSigned(int n) {
+            long v = read(n);
+            return (v << (64 - n)) >> (64 - n);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javafx.fxml.FXML;
+import javafx.scene.control.TextField;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps numerics and waveforms for the long haul: each (UDI, metric id,
+ * instance id) becomes a compressed series in a directory of its own for the
+ * recording; see {@link TimeSeriesStore} for the layout and
+ * {@link TimeSeriesReader} for getting ranges of it back. The samples of an
+ * array are given times the way {@link SampleArrayDataCollector.ArrayToNumeric}
+ * does.
+ *
+ * The stretch of time covered by a chunk can be set in seconds with the system
+ * property TimeSeriesPersister.chunkSeconds; what is in the chunks in progress
+ * is lost if the process dies, and a longer chunk compresses a little better.
+ *
+ * Values are kept as floats. Waveforms compress much better quantized to the
+ * resolution of the device's ADC, which is set per metric with the system
+ * property TimeSeriesPersister.resolutions, e.g.
+ * MDC_ECG_LEAD_II=0.005,MDC_PRESS_BLD_ART_ABP=0.1
+ */
+public class TimeSeriesPersister extends DataCollectorAppFactory.PersisterUIController {
+
+    private static final Logger log = LoggerFactory.getLogger(TimeSeriesPersister.class);
+
+    public static final String CHUNK_SECONDS_PROPERTY = "TimeSeriesPersister.chunkSeconds";
+    public static final String RESOLUTIONS_PROPERTY = "TimeSeriesPersister.resolutions";
+
+    static ThreadLocal<SimpleDateFormat> dateFormats = new ThreadLocal<SimpleDateFormat>()
+    {
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("'ts-'yyyy.MMddHH.mmss");
+        }
+    };
+
+    @FXML TextField filePathLabel, chunkLabel;
+
+    private final long chunkMillis = Long.getLong(CHUNK_SECONDS_PROPERTY, TimeSeriesStore.DEFAULT_CHUNK_MILLIS / 1000L) * 1000L;
+    private final Map<String, Double> resolutions = parseResolutions(System.getProperty(RESOLUTIONS_PROPERTY, ""));
+    private File baseDir = new File(".");
+    private volatile TimeSeriesStore store;
+
+    private final SampleArrayDataCollector.ArrayToNumeric.Handler sampleHandler = (evt, ms, v) ->
+        store.append(evt.getUniqueDeviceIdentifier(), evt.getMetricId(), evt.getInstanceId(), ms, (float) v);
+
+    public TimeSeriesPersister() {
+
+    }
+
+    @Override
+    public String getName() {
+        return "time series (compressed)";
+    }
+
+    @Override
+    public void setup() {
+        String f = "<" + dateFormats.get().toPattern() + ">";
+        filePathLabel.setText(new File(baseDir, f).getAbsolutePath());
+        chunkLabel.setText(chunkMillis / 1000L + "s");
+    }
+
+    /**
+     * Recordings go to directories created under baseDir; the working
+     * directory unless set
+     */
+    void setBaseDir(File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    /**
+     * Quantizes the values of metricId in recordings started from now on; see
+     * {@link TimeSeriesStore#setResolution(String, double)}
+     */
+    void setResolution(String metricId, double resolution) {
+        resolutions.put(metricId, resolution);
+    }
+
+    /**
+     * @param s metric id=resolution, comma separated
+     */
+    static Map<String, Double> parseResolutions(String s) {
+        Map<String, Double> resolutions = new HashMap<>();
+        for (String entry : s.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            double resolution = Double.NaN;
+            if (eq > 0) {
+                try {
+                    resolution = Double.parseDouble(entry.substring(eq + 1).trim());
+                } catch (NumberFormatException e) {
+                    // warned about below
+                }
+            }
+            if (resolution > 0.0 && !Double.isInfinite(resolution)) {
+                resolutions.put(entry.substring(0, eq).trim(), resolution);
+            } else {
+                log.warn("Ignoring resolution " + entry);
+            }
+        }
+        return resolutions;
+    }
+
+    TimeSeriesStore getStore() {
+        return store;
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        File f = new File(baseDir, dateFormats.get().format(new Date())).getAbsoluteFile();
+        TimeSeriesStore store = new TimeSeriesStore(f, chunkMillis);
+        for (Map.Entry<String, Double> e : resolutions.entrySet()) {
+            store.setResolution(e.getKey(), e.getValue());
+        }
+        this.store = store;
+        if (null != filePathLabel) {
+            filePathLabel.setText(f.getAbsolutePath());
+        }
+        return true;
+    }
+
+    @Override
+    public void stop() throws Exception {
+        final TimeSeriesStore store = this.store;
+        this.store = null;
+        if (null != store) {
+            store.close();
+            log.info("Wrote " + store.getSamples() + " samples of " + store.getSeriesCount() + " series in " +
+                     store.getChunks() + " chunks, " + store.getBytes() + " bytes, to " + store.getDirectory());
+        }
+    }
+
+    @Override
+    public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
+        final TimeSeriesStore store = this.store;
+        if (null != store) {
+            store.append(evt.getUniqueDeviceIdentifier(), evt.getMetricId(), evt.getInstanceId(), evt.getDevTime(), (float) evt.getValue());
+        }
+    }
+
+    @Override
+    public void handleDataSampleEvent(SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
+        if (null != store) {
+            SampleArrayDataCollector.ArrayToNumeric.convert(evt, sampleHandler);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads back what a {@link TimeSeriesStore} wrote to a directory. The index
+ * of a series is read again on every call, so a recording still in progress
+ * can be followed; samples in chunks that have not been appended yet are not
+ * visible.
+ */
+public class TimeSeriesReader {
+
+    private final List<Series> series = new ArrayList<>();
+
+    public TimeSeriesReader(File directory) throws IOException {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(directory, TimeSeriesStore.CATALOG)), StandardCharsets.UTF_8))) {
+            String line;
+            while (null != (line = r.readLine())) {
+                String[] f = line.split("\t");
+                if (4 == f.length || 5 == f.length) {
+                    series.add(new Series(directory, f[0], f[1], f[2], Integer.parseInt(f[3]),
+                                          5 == f.length ? Double.parseDouble(f[4]) : 0.0));
+                }
+            }
+        }
+    }
+
+    public List<Series> getSeries() {
+        return Collections.unmodifiableList(series);
+    }
+
+    /**
+     * @return the series or null if there is none
+     */
+    public Series getSeries(String udi, String metricId, int instanceId) {
+        for (Series s : series) {
+            if (s.instanceId == instanceId && s.metricId.equals(metricId) && s.udi.equals(udi)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The samples of a series within a range of time, ordered as they were
+     * appended
+     */
+    public static final class Range {
+        private final long[] times;
+        private final float[] values;
+
+        Range(long[] times, float[] values) {
+            this.times = times;
+            this.values = values;
+        }
+
+        public int size() {
+            return times.length;
+        }
+        public long[] getTimes() {
+            return times;
+        }
+        public float[] getValues() {
+            return values;
+        }
+    }
+
+    public static final class Series {
+        private final File data, index;
+        private final String name, udi, metricId;
+        private final int instanceId;
+        private final double resolution;
+
+        Series(File directory, String name, String udi, String metricId, int instanceId, double resolution) {
+            this.data = new File(directory, name + TimeSeriesStore.DATA_SUFFIX);
+            this.index = new File(directory, name + TimeSeriesStore.INDEX_SUFFIX);
+            this.name = name;
+            this.udi = udi;
+            this.metricId = metricId;
+            this.instanceId = instanceId;
+            this.resolution = resolution;
+        }
+
+        /**
+         * @return the name of the series' files, without the suffix
+         */
+        String getName() {
+            return name;
+        }
+        public String getUniqueDeviceIdentifier() {
+            return udi;
+        }
+        public String getMetricId() {
+            return metricId;
+        }
+        public int getInstanceId() {
+            return instanceId;
+        }
+        /**
+         * @return the resolution the values were quantized to, or 0 if they
+         *         were stored as floats
+         */
+        public double getResolution() {
+            return resolution;
+        }
+
+        private ByteBuffer readIndex() throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(index, "r")) {
+                byte[] b = new byte[(int) raf.length() / TimeSeriesStore.INDEX_ENTRY_SIZE * TimeSeriesStore.INDEX_ENTRY_SIZE];
+                raf.readFully(b);
+                return ByteBuffer.wrap(b);
+            }
+        }
+
+        /**
+         * @return the number of samples in chunks appended so far
+         */
+        public long getCount() throws IOException {
+            ByteBuffer idx = readIndex();
+            long count = 0L;
+            for (int i = 0; i < idx.limit(); i += TimeSeriesStore.INDEX_ENTRY_SIZE) {
+                count += idx.getInt(i + 28);
+            }
+            return count;
+        }
+
+        /**
+         * @return the samples with from &lt;= time &lt; to
+         */
+        public Range read(long from, long to) throws IOException {
+            ByteBuffer idx = readIndex();
+            int total = 0, max = 0;
+            for (int i = 0; i < idx.limit(); i += TimeSeriesStore.INDEX_ENTRY_SIZE) {
+                int count = idx.getInt(i + 28);
+                // the tail of an index that was not closed is zeroes
+                if (0 == count) {
+                    idx.limit(i);
+                    break;
+                }
+                if (overlaps(idx, i, from, to)) {
+                    total += count;
+                    max = Math.max(max, count);
+                }
+            }
+            long[] times = new long[total];
+            float[] values = new float[total];
+            long[] chunkTimes = new long[max];
+            float[] chunkValues = new float[max];
+            ByteBuffer chunk = ByteBuffer.allocate(0);
+            int n = 0;
+            try (RandomAccessFile raf = new RandomAccessFile(data, "r");
+                 FileChannel channel = raf.getChannel()) {
+                for (int i = 0; i < idx.limit(); i += TimeSeriesStore.INDEX_ENTRY_SIZE) {
+                    if (!overlaps(idx, i, from, to)) {
+                        continue;
+                    }
+                    int count = idx.getInt(i + 28);
+                    // read rather than mapped; a mapping would keep the store from cutting the file back on Windows
+                    long offset = idx.getLong(i + 16);
+                    int length = idx.getInt(i + 24);
+                    if (chunk.capacity() < length) {
+                        chunk = ByteBuffer.allocate(length);
+                    }
+                    chunk.clear();
+                    chunk.limit(length);
+                    while (chunk.hasRemaining()) {
+                        if (channel.read(chunk, offset + chunk.position()) < 0) {
+                            throw new EOFException(data + " ends within the chunk at " + offset);
+                        }
+                    }
+                    chunk.flip();
+                    TimeSeriesChunk.decode(chunk, resolution, count, chunkTimes, chunkValues, 0);
+                    for (int j = 0; j < count; j++) {
+                        if (chunkTimes[j] >= from && chunkTimes[j] < to) {
+                            times[n] = chunkTimes[j];
+                            values[n++] = chunkValues[j];
+                        }
+                    }
+                }
+            }
+            if (n < total) {
+                long[] t = new long[n];
+                float[] v = new float[n];
+                System.arraycopy(times, 0, t, 0, n);
+                System.arraycopy(values, 0, v, 0, n);
+                return new Range(t, v);
+            }
+            return new Range(times, values);
+        }
+
+        private static boolean overlaps(ByteBuffer idx, int i, long from, long to) {
+            return idx.getLong(i) < to && idx.getLong(i + 8) >= from;
+        }
+
+        @Override
+        public String toString() {
+            return udi + " " + metricId + " " + instanceId;
+        }
+    }
+}
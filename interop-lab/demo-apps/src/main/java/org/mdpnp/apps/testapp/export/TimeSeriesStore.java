@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes one series of (time, value) samples for each (UDI, metric id,
+ * instance id) into a directory. The samples of a series are compressed a
+ * chunk at a time (see {@link TimeSeriesChunk}), where a chunk covers a fixed,
+ * aligned stretch of time; a chunk is appended to the series' files when a
+ * sample falls outside of it or when the store is closed.
+ *
+ * <pre>
+ * series.txt    a line per series: file name, UDI, metric id, instance id and, if
+ *               the values are quantized, their resolution; tab separated
+ * name.tsd      the chunks of the series, back to back
+ * name.tsi      a 32 byte entry per chunk: start of its stretch of time, latest
+ *               sample time, offset into name.tsd (longs), length in bytes and
+ *               number of samples (ints); big endian
+ * </pre>
+ *
+ * A store opened on a directory that already has a recording appends to it,
+ * each series after its last indexed chunk.
+ *
+ * Values are stored as floats unless a resolution has been set for the metric
+ * with {@link #setResolution(String, double)}.
+ *
+ * Not thread safe; it is meant to be fed by a single persister thread. See
+ * {@link TimeSeriesReader} for reading it back.
+ */
+public class TimeSeriesStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TimeSeriesStore.class);
+
+    public static final long DEFAULT_CHUNK_MILLIS = 5L * 60L * 1000L;
+
+    static final String CATALOG = "series.txt";
+    static final String DATA_SUFFIX = ".tsd";
+    static final String INDEX_SUFFIX = ".tsi";
+    static final int INDEX_ENTRY_SIZE = 32;
+
+    private static final int DATA_WINDOW = 256 * 1024;
+    private static final int INDEX_WINDOW = 4 * 1024;
+
+    private final File directory;
+    private final long chunkMillis;
+    private final Writer catalog;
+
+    private final Map<SeriesKey, Series> series = new HashMap<>();
+    private final Map<String, Double> resolutions = new HashMap<>();
+    private final Set<String> names = new HashSet<>();
+    // series of an earlier store in the directory, until appended to
+    private final Map<SeriesKey, TimeSeriesReader.Series> existing = new HashMap<>();
+    private final SeriesKey lookup = new SeriesKey();
+    private Series last;
+
+    private ByteBuffer chunkBuffer = ByteBuffer.allocate(64 * 1024);
+    private final ByteBuffer entryBuffer = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+    private long samples, chunks, bytes;
+
+    public TimeSeriesStore(File directory) throws IOException {
+        this(directory, DEFAULT_CHUNK_MILLIS);
+    }
+
+    public TimeSeriesStore(File directory, long chunkMillis) throws IOException {
+        if (chunkMillis <= 0L || chunkMillis > 24L * 60L * 60L * 1000L) {
+            // beyond a day the delta of delta could outgrow 32 bits
+            throw new IllegalArgumentException("Chunk duration must be up to a day: " + chunkMillis);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        this.directory = directory;
+        this.chunkMillis = chunkMillis;
+        if (new File(directory, CATALOG).exists()) {
+            for (TimeSeriesReader.Series s : new TimeSeriesReader(directory).getSeries()) {
+                existing.putIfAbsent(new SeriesKey().set(s.getUniqueDeviceIdentifier(), s.getMetricId(), s.getInstanceId()), s);
+                names.add(s.getName());
+            }
+        }
+        this.catalog = new OutputStreamWriter(new FileOutputStream(new File(directory, CATALOG), true), StandardCharsets.UTF_8);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getChunkMillis() {
+        return chunkMillis;
+    }
+
+    /**
+     * Quantizes the values of metricId to multiples of resolution; see
+     * {@link TimeSeriesChunk}. Applies to series created from now on.
+     */
+    public void setResolution(String metricId, double resolution) {
+        if (!(resolution > 0.0) || Double.isInfinite(resolution)) {
+            throw new IllegalArgumentException("Invalid resolution " + resolution + " for " + metricId);
+        }
+        resolutions.put(metricId, resolution);
+    }
+
+    public int getSeriesCount() {
+        return series.size();
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return bytes appended to the data and index files
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void append(String udi, String metricId, int instanceId, long time, float value) throws IOException {
+        Series s = last;
+        if (null == s || instanceId != s.key.instanceId || !metricId.equals(s.key.metricId) || !udi.equals(s.key.udi)) {
+            s = series.get(lookup.set(udi, metricId, instanceId));
+            if (null == s) {
+                s = create(udi, metricId, instanceId);
+            }
+            last = s;
+        }
+        if (!s.chunk.isEmpty() && (time < s.chunkStart || time >= s.chunkStart + chunkMillis)) {
+            flush(s);
+        }
+        if (s.chunk.isEmpty()) {
+            s.chunkStart = Math.floorDiv(time, chunkMillis) * chunkMillis;
+        }
+        s.chunk.append(time, value);
+        samples++;
+    }
+
+    private Series create(String udi, String metricId, int instanceId) throws IOException {
+        SeriesKey key = new SeriesKey().set(udi, metricId, instanceId);
+        Double r = resolutions.get(metricId);
+        double resolution = null == r ? 0.0 : r;
+        TimeSeriesReader.Series previous = existing.remove(key);
+        if (null != previous) {
+            String name = previous.getName();
+            if (resolution != previous.getResolution()) {
+                log.warn("Series " + name + " keeps its resolution of " + previous.getResolution());
+            }
+            // an index that was not cut back ends in zeroes
+            long dataEnd = 0L, indexEnd = 0L;
+            File index = new File(directory, name + INDEX_SUFFIX);
+            if (index.exists()) {
+                ByteBuffer idx = ByteBuffer.wrap(Files.readAllBytes(index.toPath()));
+                for (int i = 0; i + INDEX_ENTRY_SIZE <= idx.limit() && 0 != idx.getInt(i + 28); i += INDEX_ENTRY_SIZE) {
+                    indexEnd = i + INDEX_ENTRY_SIZE;
+                    dataEnd = Math.max(dataEnd, idx.getLong(i + 16) + idx.getInt(i + 24));
+                }
+            }
+            Series s = new Series(key,
+                                  new MappedAppender(new File(directory, name + DATA_SUFFIX), DATA_WINDOW, dataEnd),
+                                  new MappedAppender(index, INDEX_WINDOW, indexEnd),
+                                  new TimeSeriesChunk(previous.getResolution()));
+            series.put(key, s);
+            log.debug("Appending to series " + name);
+            return s;
+        }
+
+        String base = (udi + "-" + metricId + "-" + instanceId).replaceAll("[^A-Za-z0-9_.-]", "_");
+        String name = base;
+        for (int i = 1; !names.add(name); i++) {
+            name = base + "-" + i;
+        }
+        Series s = new Series(key,
+                              new MappedAppender(new File(directory, name + DATA_SUFFIX), DATA_WINDOW),
+                              new MappedAppender(new File(directory, name + INDEX_SUFFIX), INDEX_WINDOW),
+                              new TimeSeriesChunk(resolution));
+        series.put(key, s);
+        catalog.write(name + "\t" + udi + "\t" + metricId + "\t" + instanceId +
+                      (null == r ? "" : "\t" + r) + "\n");
+        catalog.flush();
+        log.debug("New series " + name);
+        return s;
+    }
+
+    private void flush(Series s) throws IOException {
+        TimeSeriesChunk chunk = s.chunk;
+        int size = chunk.size();
+        if (chunkBuffer.capacity() < size) {
+            chunkBuffer = ByteBuffer.allocate(Integer.highestOneBit(size) << 1);
+        }
+        chunkBuffer.clear();
+        chunk.copyTo(chunkBuffer);
+        chunkBuffer.flip();
+        long offset = s.data.append(chunkBuffer);
+
+        entryBuffer.clear();
+        entryBuffer.putLong(s.chunkStart).putLong(chunk.getEndTime()).putLong(offset).putInt(size).putInt(chunk.getCount());
+        entryBuffer.flip();
+        s.index.append(entryBuffer);
+
+        chunks++;
+        bytes += size + INDEX_ENTRY_SIZE;
+        chunk.reset();
+    }
+
+    /**
+     * Appends every chunk in progress, even though it may not be complete. The
+     * next sample of a series then starts a chunk of its own.
+     */
+    public void flush() throws IOException {
+        for (Series s : series.values()) {
+            if (!s.chunk.isEmpty()) {
+                flush(s);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        try {
+            flush();
+        } catch (IOException e) {
+            failure = e;
+        }
+        for (Series s : series.values()) {
+            try {
+                s.data.close();
+                s.index.close();
+            } catch (IOException e) {
+                log.error("Failed to close " + s.key, e);
+                failure = null == failure ? e : failure;
+            }
+        }
+        series.clear();
+        last = null;
+        catalog.close();
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    private static final class Series {
+        final SeriesKey key;
+        final MappedAppender data, index;
+        final TimeSeriesChunk chunk;
+        long chunkStart;
+
+        Series(SeriesKey key, MappedAppender data, MappedAppender index, TimeSeriesChunk chunk) {
+            this.key = key;
+            this.data = data;
+            this.index = index;
+            this.chunk = chunk;
+        }
+    }
+
+    static final class SeriesKey {
+        String udi, metricId;
+        int instanceId;
+
+        SeriesKey set(String udi, String metricId, int instanceId) {
+            this.udi = udi;
+            this.metricId = metricId;
+            this.instanceId = instanceId;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return (udi.hashCode() * 31 + metricId.hashCode()) * 31 + instanceId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SeriesKey)) {
+                return false;
+            }
+            SeriesKey k = (SeriesKey) obj;
+            return instanceId == k.instanceId && metricId.equals(k.metricId) && udi.equals(k.udi);
+        }
+
+        @Override
+        public String toString() {
+            return udi + " " + metricId + " " + instanceId;
+        }
+    }
+}
@@ -5,14 +5,17 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
-import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
-import com.google.common.eventbus.Subscribe;
 import javafx.fxml.FXML;
 import javafx.scene.control.TextField;
 
@@ -40,13 +43,6 @@ public class VerilogVCDPersister extends DataCollectorAppFactory.PersisterUICont
         }
     };
 
-    static ThreadLocal<DecimalFormat> floatFormats = new ThreadLocal<DecimalFormat>()
-    {
-        protected DecimalFormat initialValue() {
-            return new DecimalFormat("#0.0000000");
-        }
-    };
-
     public static final long FZ_1MB =1000000L;
     public static final long FZ_10MB=10000000L;
 
@@ -63,12 +59,12 @@ public class VerilogVCDPersister extends DataCollectorAppFactory.PersisterUICont
         filePathLabel.setText(p);        
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
         controller.persist(evt);
     }
 
-    @Subscribe
+    @Override
     public void handleDataSampleEvent(SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
         controller.persist(evt);
     }
@@ -97,25 +93,96 @@ public class VerilogVCDPersister extends DataCollectorAppFactory.PersisterUICont
         return true;
     }
 
+    /**
+     * Writes each (device, metric, instance) to a file of its own. Samples
+     * are held per series and written out, sorted by time, when a series has
+     * FLUSH_SAMPLES pending or on a timed flush every flushMillis; either way
+     * a whole batch is formatted into one buffer and goes out in a single
+     * write. At most maxOpenFiles files are kept open; the least recently
+     * written one is closed to make room and reopened for append when its
+     * series has something to write again. The size of every file is counted
+     * as it is written.
+     *
+     * A timed flush writes every series whose file is open, but reopens at
+     * most a quarter of maxOpenFiles others, those waiting longest first, so
+     * that with more series than open files the files are not all closed and
+     * reopened each time; the rest wait for a later flush or their size.
+     *
+     * Not thread safe; samples come from the persister's pipeline thread and
+     * stop() is called once that is done.
+     */
     static class OneWavePerVCD {
 
+        public static final String MAX_OPEN_FILES_PROPERTY = "VerilogVCDPersister.maxOpenFiles";
+        public static final String FLUSH_MILLIS_PROPERTY = "VerilogVCDPersister.flushMillis";
+        public static final int DEFAULT_MAX_OPEN_FILES = 64;
+        public static final long DEFAULT_FLUSH_MILLIS = 1000L;
+
+        static final int FLUSH_SAMPLES = 4096;
+
         final File baseDir;
         final long maxFileSize;
-
-        Map<String, VCDFileHandler> cache = new HashMap<>();
+        final int maxOpenFiles;
+        final long flushMillis;
+
+        final Map<String, VCDFileHandler> cache = new HashMap<>();
+        // open files in least recently written first order
+        private final LinkedHashMap<String, VCDFileHandler> open = new LinkedHashMap<>(16, 0.75f, true);
+        private final CSVLineBuilder line = new CSVLineBuilder();
+        private final List<VCDFileHandler> waiting = new ArrayList<>();
+        private long lastFlush;
+        private long evictions;
+        private long sequence;
 
         public OneWavePerVCD(File f, long sz) {
+            this(f, sz, Integer.getInteger(MAX_OPEN_FILES_PROPERTY, DEFAULT_MAX_OPEN_FILES),
+                 Long.getLong(FLUSH_MILLIS_PROPERTY, DEFAULT_FLUSH_MILLIS));
+        }
+
+        public OneWavePerVCD(File f, long sz, int maxOpenFiles, long flushMillis) {
+            if(maxOpenFiles < 1) {
+                throw new IllegalArgumentException("maxOpenFiles must be positive " + maxOpenFiles);
+            }
             baseDir = f;
             maxFileSize = sz;
+            this.maxOpenFiles = maxOpenFiles;
+            this.flushMillis = flushMillis;
         }
 
         public boolean start() throws Exception {
+            lastFlush = currentTimeMillis();
             return true;
         }
 
+        protected long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
         public void stop() throws Exception {
-            for(VCDFileHandler swh : cache.values()) {
-                swh.stop();
+            Exception failure = null;
+            for(VCDFileHandler fileHandler : cache.values()) {
+                try {
+                    flush(fileHandler);
+                } catch (Exception ex) {
+                    log.error("Failed to write " + fileHandler.key, ex);
+                    failure = null == failure ? ex : failure;
+                }
+            }
+            for(VCDFileHandler fileHandler : open.values()) {
+                try {
+                    fileHandler.close();
+                } catch (Exception ex) {
+                    log.error("Failed to close " + fileHandler.key, ex);
+                    failure = null == failure ? ex : failure;
+                }
+            }
+            open.clear();
+            cache.clear();
+            if(evictions > 0) {
+                log.info(evictions + " files closed to stay within " + maxOpenFiles + " open files");
+            }
+            if(null != failure) {
+                throw failure;
             }
         }
 
@@ -123,35 +190,106 @@ public class VerilogVCDPersister extends DataCollectorAppFactory.PersisterUICont
 
             final VCDFileHandler fileHandler = getVcdFileHandler(evt);
 
-            if(fileHandler.getSize()<maxFileSize) {
-                long baseTime = evt.getDevTime();
-                double v =  evt.getValue();
-                fileHandler.persist(evt, baseTime, v);
+            if(fileHandler.size < maxFileSize) {
+                add(fileHandler, evt.getDevTime(), evt.getValue());
             }
+            flushIfDue();
         }
 
         public void persist(SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
 
             final VCDFileHandler fileHandler = getVcdFileHandler(evt);
 
-            if(fileHandler.getSize()<maxFileSize) {
+            if(fileHandler.size < maxFileSize) {
                 SampleArrayDataCollector.ArrayToNumeric.convert(evt, (DataCollector.DataSampleEvent meta, long ms, double v) -> {
-                    fileHandler.persist(meta, ms, v);
+                    add(fileHandler, ms, v);
                 });
             }
+            flushIfDue();
+        }
+
+        /**
+         * @return number of files currently open
+         */
+        int getOpenFiles() {
+            return open.size();
+        }
+
+        /**
+         * @return number of times a file was closed to make room for another
+         */
+        long getEvictions() {
+            return evictions;
         }
 
+        private void add(VCDFileHandler fileHandler, long ms, double v) throws IOException {
+            if(0 == fileHandler.pending) {
+                fileHandler.pendingSince = sequence++;
+            }
+            fileHandler.add(ms, (float) v);
+            if(fileHandler.pending >= FLUSH_SAMPLES) {
+                flush(fileHandler);
+            }
+        }
+
+        private void flushIfDue() throws IOException {
+            long now = currentTimeMillis();
+            if(now - lastFlush >= flushMillis) {
+                lastFlush = now;
+                waiting.clear();
+                for(VCDFileHandler fileHandler : cache.values()) {
+                    if(null != fileHandler.os) {
+                        flush(fileHandler);
+                    } else if(fileHandler.pending > 0) {
+                        waiting.add(fileHandler);
+                    }
+                }
+                if(!waiting.isEmpty()) {
+                    waiting.sort(BY_PENDING_SINCE);
+                    int reopen = Math.min(waiting.size(), Math.max(1, maxOpenFiles / 4));
+                    for(int i = 0; i < reopen; i++) {
+                        flush(waiting.get(i));
+                    }
+                    waiting.clear();
+                }
+            }
+        }
 
-        private VCDFileHandler getVcdFileHandler(DataCollector.DataSampleEvent evt) throws IOException {
+        private static final Comparator<VCDFileHandler> BY_PENDING_SINCE = (a, b) -> Long.compare(a.pendingSince, b.pendingSince);
+
+        private void flush(VCDFileHandler fileHandler) throws IOException {
+            if(0 == fileHandler.pending) {
+                return;
+            }
+            fileHandler.format(line.reset(), maxFileSize);
+            if(line.length() > 0) {
+                OutputStream os = fileHandler.os;
+                if(null == os) {
+                    while(open.size() >= maxOpenFiles) {
+                        Iterator<VCDFileHandler> itr = open.values().iterator();
+                        VCDFileHandler eldest = itr.next();
+                        itr.remove();
+                        eldest.close();
+                        evictions++;
+                    }
+                    os = fileHandler.size > 0 ? reopenStream(fileHandler.key) : makeStream(fileHandler.key);
+                    fileHandler.os = os;
+                    open.put(fileHandler.key, fileHandler);
+                } else {
+                    open.get(fileHandler.key);
+                }
+                line.writeTo(os);
+                fileHandler.size += line.length();
+            }
+        }
+
+        private VCDFileHandler getVcdFileHandler(DataCollector.DataSampleEvent evt) {
 
             String key = evt.getUniqueDeviceIdentifier() + "-" + evt.getMetricId() + "-" + evt.getInstanceId();
 
             VCDFileHandler fileHandler = cache.get(key);
             if (fileHandler == null) {
-
-                OutputStream os = makeStream(key);
-
-                fileHandler = new VCDFileHandler(os, key, evt.getDevTime());
+                fileHandler = new VCDFileHandler(key);
                 cache.put(key, fileHandler);
             }
             return fileHandler;
@@ -164,66 +302,108 @@ public class VerilogVCDPersister extends DataCollectorAppFactory.PersisterUICont
             return fos;
         }
 
+        /**
+         * Opens the file of a series that was closed to make room for another
+         */
+        protected OutputStream reopenStream(String key) throws IOException {
+            File f = new File(baseDir, key + ".vcd");
+            log.debug("Reopening File " + f.getAbsolutePath());
+            return new FileOutputStream(f, true);
+        }
+
         static class VCDFileHandler {
 
-            final OutputStream os;
-            final PrintStream  ps;
-            final long firstTimeTic;
+            final String key;
+            OutputStream os;
+            // bytes written to the file so far
+            long size;
+            // orders the series by when their pending samples began
+            long pendingSince;
+            long firstTimeTic;
 
-            VCDFileHandler(OutputStream out, String key, long t) {
+            long[] times = new long[256];
+            float[] values = new float[256];
+            int pending;
 
-                os = out;
-                ps = new PrintStream(out);
+            VCDFileHandler(String key) {
+                this.key = key;
+            }
 
-                firstTimeTic = t;
+            void add(long ms, float v) {
+                if(pending == times.length) {
+                    times = Arrays.copyOf(times, 2 * pending);
+                    values = Arrays.copyOf(values, 2 * pending);
+                }
+                times[pending] = ms;
+                values[pending] = v;
+                pending++;
+            }
 
-                ps.println("$date");
-                ps.println("\t\t" + dateFormats.get().format(new Date(firstTimeTic)));
-                ps.println("$end");
+            /**
+             * Formats the pending samples in order of time, preceded by the
+             * header if nothing has been written yet, and stops short once
+             * the file would reach maxFileSize.
+             */
+            void format(CSVLineBuilder sb, long maxFileSize) {
+                sort();
+                if(0 == size) {
+                    firstTimeTic = times[0];
+                    header(sb);
+                }
+                for(int i = 0; i < pending && size + sb.length() < maxFileSize; i++) {
+                    sb.append('#').append(times[i] - firstTimeTic).append('\n');
+                    sb.append('r').appendFixed(values[i], 7).append(" *\n");
+                }
+                pending = 0;
+            }
 
-                ps.println("$version");
-                ps.println("\t\t" + "MDPNP V0.1 2015");
-                ps.println("$end");
+            private void header(CSVLineBuilder sb) {
+                sb.append("$date\n");
+                sb.append("\t\t").append(dateFormats.get().format(new Date(firstTimeTic))).append('\n');
+                sb.append("$end\n");
 
-                ps.println("$timescale");
-                ps.println("\t\t" + "1ms");
-                ps.println("$end");
+                sb.append("$version\n");
+                sb.append("\t\t").append("MDPNP V0.1 2015").append('\n');
+                sb.append("$end\n");
 
-                ps.println("$scope module top $end");
+                sb.append("$timescale\n");
+                sb.append("\t\t").append("1ms").append('\n');
+                sb.append("$end\n");
 
-                ps.print("$var real 32 ");
-                ps.print(" *");
-                ps.print(" ");
-                ps.print(key);
-                ps.println(" $end");
-            }
+                sb.append("$scope module top $end\n");
 
-            synchronized public void stop() throws Exception {
-                ps.flush();
-                os.flush();
-                ps.close();
-                os.close();
+                sb.append("$var real 32 ").append(" *").append(' ').append(key).append(" $end\n");
             }
 
-            synchronized long getSize() throws Exception {
-                if(os instanceof FileOutputStream) {
-                    long l = ((FileOutputStream)os).getChannel().size();
-                    return l;
-                }
-                else {
-                    return 0;
+            /**
+             * Insertion sort, stable and linear when the samples are already
+             * in order, which they mostly are; out of order samples are only
+             * expected where the arrays of one series overlap.
+             */
+            private void sort() {
+                for(int i = 1; i < pending; i++) {
+                    long t = times[i];
+                    if(t >= times[i - 1]) {
+                        continue;
+                    }
+                    float v = values[i];
+                    int j = i - 1;
+                    while(j >= 0 && times[j] > t) {
+                        times[j + 1] = times[j];
+                        values[j + 1] = values[j];
+                        j--;
+                    }
+                    times[j + 1] = t;
+                    values[j + 1] = v;
                 }
             }
 
-            void persist(DataCollector.DataSampleEvent evt, long ms, double v) throws Exception {
-
-                StringBuilder sb = new StringBuilder();
-                sb.append("#").append(ms - firstTimeTic).append("\n");;
-                String s = floatFormats.get().format((float)v);
-                sb.append("r").append(s).append(" *").append("\n");
-
-                ps.print(sb.toString());
-                ps.flush();
+            void close() throws IOException {
+                if(null != os) {
+                    OutputStream out = os;
+                    os = null;
+                    out.close();
+                }
             }
         }
     }
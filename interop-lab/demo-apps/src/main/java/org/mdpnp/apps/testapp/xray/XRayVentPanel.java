@@ -47,7 +47,7 @@ import org.mdpnp.apps.fxbeans.SampleArrayFx;
 import org.mdpnp.apps.fxbeans.SampleArrayFxList;
 import org.mdpnp.apps.testapp.DeviceListModel;
 import org.mdpnp.apps.testapp.NumericFxListCell;
-import org.mdpnp.guis.waveform.SampleArrayWaveformSource;
+import org.mdpnp.guis.waveform.SampleArrayWaveformCache;
 import org.mdpnp.guis.waveform.javafx.JavaFXWaveformPane;
 import org.mdpnp.rtiapi.data.EventLoop;
 import org.slf4j.Logger;
@@ -92,16 +92,16 @@ public class XRayVentPanel {
     private ObservableList<NumericFx> startOfBreathModel, deviceNumericModel;
     private ObservableList<SampleArrayFx> deviceFlowModel;
     
-    private SampleArrayWaveformSource source;
+    private SampleArrayWaveformCache source;
     
     protected void add(SampleArrayFx data) {
-        XRayVentPanel.this.source = new SampleArrayWaveformSource(sampleArrayList.getReader(), data.getHandle());
+        XRayVentPanel.this.source = SampleArrayWaveformCache.get(sampleArrayList.getReader(), data.getHandle());
         waveformPanel.setSource(source);
         waveformPanel.start();
     }
     
     protected void remove(SampleArrayFx data) {
-        XRayVentPanel.this.source = new SampleArrayWaveformSource(sampleArrayList.getReader(), data.getHandle());
+        XRayVentPanel.this.source = SampleArrayWaveformCache.get(sampleArrayList.getReader(), data.getHandle());
         waveformPanel.setSource(null);
         waveformPanel.stop();
     }
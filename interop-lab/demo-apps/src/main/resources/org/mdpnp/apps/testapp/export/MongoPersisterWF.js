@@ -2,48 +2,81 @@ var System  = java.lang.System;
 var VitalSign = org.mdpnp.apps.testapp.vital.VitalSign;
 
 var UpdateOptions = (new com.mongodb.client.model.UpdateOptions()).upsert(true);
+var UpdateOneModel = com.mongodb.client.model.UpdateOneModel;
 
 // This is a persister script to save data in the warfighter's 'tiles' demo
 // database.
 //
 //
-// Called for each sample to be saved with the following arguments:
+// Called for each batch of documents to be saved with the following arguments:
 // 
 // 1. com.mongodb.client.MongoDatabase mongoDatabase
-// 2. org.mdpnp.apps.testapp.export.NumericsDataCollector.NumericSampleEvent value
+// 2. String collectionName
+// 3. java.util.List of org.bson.Document documents
 // 
 // See java object for the description of the APIs
 //
+// Numerics of a patient are summed up per second and vital sign; the batch is
+// written as one upsert per patient and second. Sample arrays are not kept,
+// so they are left out of 'collections' and never made into documents.
+//
 
-var persistNumeric = function(mongoDatabase, value) {
+var collections = [ "numerics" ];
 
-    var patient = value.getPatientId();
-    if(patient === null || patient === "undefined" || patient == 'UNDEFINED')
-        return { "status" : "unresolved patient"};
+var transformBatch = function(mongoDatabase, collectionName, documents) {
 
-    var collection = mongoDatabase.getCollection("datasample_second");
+    if(collectionName !== "numerics")
+        return { "status" : "OK", "documents" : [] };
 
-    var filter = new org.bson.Document();
-    var seconds = Math.floor(value.getDevTime()/1000);
-    filter.put("timeStamp", seconds);
-    filter.put("patientID", patient);
+    var updates = {};
+    var keys = [];
 
-    var vs = lookupVitalByMDC(value.getMetricId());
-    if(vs === null || vs === "undefined")
-        return { "status" : "unresolved " + value.getMetricId()};
-    
-    var values = new org.bson.Document();
-    values.put(vs + ".sum",   value.getValue());
-    values.put(vs + ".count", 1);
+    for(var i = 0; i < documents.size(); i++) {
+        var value = documents.get(i);
+
+        var patient = value.getString("patientId");
+        if(patient === null || patient === undefined || patient == 'UNDEFINED')
+            continue;
+
+        var vs = lookupVitalByMDC(value.getString("metricId"));
+        if(vs === null || vs === undefined)
+            continue;
+
+        var seconds = Math.floor(value.getLong("timeStamp")/1000);
+        var key = patient + "/" + seconds;
+        var values = updates[key];
+        if(values === undefined) {
+            values = updates[key] = { "patient" : patient, "seconds" : seconds, "inc" : {} };
+            keys.push(key);
+        }
+        var sum = vs + ".sum", count = vs + ".count";
+        values.inc[sum]   = (values.inc[sum]   || 0) + value.getDouble("numeric");
+        values.inc[count] = (values.inc[count] || 0) + 1;
+    }
+
+    var models = [];
+    for(var k = 0; k < keys.length; k++) {
+        var u = updates[keys[k]];
+
+        var filter = new org.bson.Document();
+        filter.put("timeStamp", u.seconds);
+        filter.put("patientID", u.patient);
+
+        var inc = new org.bson.Document();
+        for(var field in u.inc) {
+            inc.put(field, u.inc[field]);
+        }
 
-    var document = new org.bson.Document();
-    document.put("$inc",  values);
+        var document = new org.bson.Document();
+        document.put("$inc",  inc);
 
-    collection.updateOne(filter, document, UpdateOptions);
+        models.push(new UpdateOneModel(filter, document, UpdateOptions));
+    }
 
     var ret = {
         "status" : "OK",
-        "doc" : document
+        "collection" : "datasample_second",
+        "documents" : models
     };
 
     return ret;
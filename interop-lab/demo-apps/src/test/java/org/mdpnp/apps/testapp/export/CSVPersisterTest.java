@@ -6,9 +6,19 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
 
 public class CSVPersisterTest {
 
@@ -85,4 +95,105 @@ public class CSVPersisterTest {
 
         }
     }
+
+    @Test
+    public void testScientificFormat() throws Exception {
+
+        DecimalFormat reference = new DecimalFormat("0.000E0");
+        CSVLineBuilder sb = new CSVLineBuilder();
+        Random random = new Random(1);
+
+        double[] fixed = { 0.0, 1.0, -1.0, 9.9995, 9.9994, 10.0, 999.95, 0.001, 1e-12, 123456789.0, -0.000314 };
+        for(double v : fixed) {
+            Assert.assertEquals(reference.format(v), sb.reset().appendScientific(v).toString());
+        }
+        // exact ties go to the even digit
+        Assert.assertEquals("1.062E0", sb.reset().appendScientific(1.0625).toString());
+        Assert.assertEquals("1.408E3", sb.reset().appendScientific(1408.5).toString());
+        Assert.assertEquals("1.410E3", sb.reset().appendScientific(1409.5).toString());
+        Assert.assertEquals("-7.812E-3", sb.reset().appendScientific(-0.0078125).toString());
+        double[] ties = { 1.0625, 1.0635, 1408.5, 1409.5, 0.0078125, 9999.5, 9998.5, -0.0078125 };
+        for(double v : ties) {
+            Assert.assertEquals(reference.format(v), sb.reset().appendScientific(v).toString());
+        }
+        for(int i = 0; i < 10000; i++) {
+            float v = (float) ((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 10));
+            // DecimalFormat rounds ties of whole numbers up, so compare against the exact value
+            Assert.assertEquals(scientific(v), sb.reset().appendScientific(v).toString());
+        }
+    }
+
+    private static String scientific(double v) {
+        if(v == 0.0) {
+            return "0.000E0";
+        }
+        BigDecimal d = new BigDecimal(v).round(new MathContext(4, RoundingMode.HALF_EVEN));
+        int exponent = d.precision() - d.scale() - 1;
+        return d.movePointLeft(exponent).setScale(3).toPlainString() + "E" + exponent;
+    }
+
+    @Test
+    public void testFixedFormat() throws Exception {
+
+        NumberFormat reference = NumberFormat.getNumberInstance();
+        reference.setGroupingUsed(false);
+        reference.setMaximumFractionDigits(2);
+        reference.setMinimumFractionDigits(2);
+        CSVLineBuilder sb = new CSVLineBuilder();
+        Random random = new Random(1);
+
+        for(int i = 0; i < 10000; i++) {
+            double v = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(8) - 2);
+            // plenty of exact ties
+            if(i % 2 == 0)
+                v = Math.round(v * 1000) / 1000.0;
+            Assert.assertEquals(reference.format(v), sb.reset().appendFixed2(v).toString());
+        }
+    }
+
+    @Test
+    public void testTimestampFormat() throws Exception {
+
+        SimpleDateFormat reference = new SimpleDateFormat("yyyyMMddHHmmssZ");
+        CSVLineBuilder sb = new CSVLineBuilder(TimeZone.getDefault());
+        Random random = new Random(1);
+
+        for(int i = 0; i < 10000; i++) {
+            long ms = (long) (random.nextDouble() * 4000000000000L);
+            Assert.assertEquals(reference.format(new Date(ms)), sb.reset().appendTimestamp(ms).toString());
+            // again from the cached second
+            Assert.assertEquals(reference.format(new Date(ms)), sb.reset().appendTimestamp(ms).toString());
+        }
+    }
+
+    @Test
+    public void testRollOver() throws Exception {
+
+        File dir = Files.createTempDirectory("csv").toFile();
+        File f = new File(dir, "export.csv");
+
+        CSVWriter writer = new CSVWriter(f, 1000L, 2, 100, 4);
+        writer.start();
+        CSVLineBuilder sb = new CSVLineBuilder();
+        for(int i = 0; i < 500; i++) {
+            sb.reset().append("line").append(i);
+            Assert.assertTrue(writer.write(sb));
+        }
+        writer.stop();
+
+        Assert.assertTrue(f.length() <= 1000L);
+        Assert.assertTrue(new File(dir, "export.csv.1").exists());
+        Assert.assertTrue(new File(dir, "export.csv.2").exists());
+        Assert.assertFalse(new File(dir, "export.csv.3").exists());
+
+        List<String> last = Files.readAllLines(f.toPath());
+        Assert.assertEquals("line499", last.get(last.size()-1));
+        List<String> previous = Files.readAllLines(new File(dir, "export.csv.1").toPath());
+        Assert.assertEquals("line" + (499 - last.size()), previous.get(previous.size()-1));
+
+        for(File g : dir.listFiles()) {
+            g.delete();
+        }
+        dir.delete();
+    }
 }
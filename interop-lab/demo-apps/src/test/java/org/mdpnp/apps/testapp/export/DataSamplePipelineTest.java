@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DataSamplePipelineTest {
+
+    private static class Recorder implements DataSampleListener {
+        final List<Double> numerics = new ArrayList<>();
+        final List<float[]> arrays = new ArrayList<>();
+        final List<String> assessments = new ArrayList<>();
+
+        @Override
+        public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
+            numerics.add(evt.getValue());
+        }
+
+        @Override
+        public void handleDataSampleEvent(SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
+            float[] copy = new float[evt.getSampleCount()];
+            System.arraycopy(evt.getSamples(), 0, copy, 0, copy.length);
+            arrays.add(copy);
+        }
+
+        @Override
+        public void handleDataSampleEvent(PatientAssessmentDataCollector.PatientAssessmentEvent evt) throws Exception {
+            assessments.add(evt.getValue().getValue());
+        }
+    }
+
+    private static NumericsDataCollector.NumericSampleEvent numeric(NumericsDataCollector.NumericSampleEvent evt, double v) {
+        evt.set(DataCollector.DataSampleEvent.UNDEFINED, "DEVICE0", "METRIC0", 0, 1000L, v);
+        return evt;
+    }
+
+    @Test
+    public void testEventsAreCopied() throws Exception {
+        DataSamplePipeline pipeline = new DataSamplePipeline(64, DataSamplePipeline.WaitStrategy.BLOCKING, DataSamplePipeline.OverflowPolicy.BLOCK);
+        Recorder recorder = new Recorder();
+        DataSamplePipeline.Consumer c = pipeline.subscribe("recorder", recorder);
+
+        // one event reused for every publish, as the collectors do
+        NumericsDataCollector.NumericSampleEvent evt = new NumericsDataCollector.NumericSampleEvent();
+        for(int i = 0; i < 10000; i++) {
+            pipeline.handleDataSampleEvent(numeric(evt, i));
+        }
+        SampleArrayDataCollector.SampleArrayEvent array =
+                SampleArrayDataCollector.toEvent("DEVICE0", "METRIC1", 0, 1000L, new Double[] { 1.0, 2.0, 3.0 });
+        pipeline.handleDataSampleEvent(array);
+        array.setSampleCount(2);
+        array.getSamples()[0] = 4.0f;
+        pipeline.handleDataSampleEvent(array);
+        pipeline.handleDataSampleEvent(PatientAssessmentDataCollector.toEvent("NURSE0", 1000L, "OID0", "OBSERVATION0"));
+
+        Assert.assertSame(c, pipeline.unsubscribe(recorder));
+        Assert.assertNull(pipeline.unsubscribe(recorder));
+
+        Assert.assertEquals(10000, recorder.numerics.size());
+        for(int i = 0; i < 10000; i++) {
+            Assert.assertEquals(i, recorder.numerics.get(i), 0.0);
+        }
+        Assert.assertEquals(2, recorder.arrays.size());
+        Assert.assertArrayEquals(new float[] { 1.0f, 2.0f, 3.0f }, recorder.arrays.get(0), 0.0f);
+        Assert.assertArrayEquals(new float[] { 4.0f, 2.0f }, recorder.arrays.get(1), 0.0f);
+        Assert.assertEquals("OBSERVATION0", recorder.assessments.get(0));
+        Assert.assertEquals(10003L, c.getDelivered());
+        Assert.assertEquals(0L, c.getDropped());
+        Assert.assertEquals(0L, c.getLag());
+        Assert.assertTrue(c.getMaxLag() <= 64L);
+    }
+
+    @Test
+    public void testSlowListenerDoesNotHoldUpOthers() throws Exception {
+        DataSamplePipeline pipeline = new DataSamplePipeline(16, DataSamplePipeline.WaitStrategy.BLOCKING, DataSamplePipeline.OverflowPolicy.DROP);
+        Recorder fast = new Recorder();
+        Recorder slow = new Recorder() {
+            @Override
+            public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
+                Thread.sleep(10L);
+                super.handleDataSampleEvent(evt);
+            }
+        };
+        // room for all of them
+        DataSamplePipeline.Consumer f = pipeline.subscribe("fast", fast, 1024, DataSamplePipeline.WaitStrategy.SLEEPING, DataSamplePipeline.OverflowPolicy.BLOCK);
+        DataSamplePipeline.Consumer s = pipeline.subscribe("slow", slow);
+
+        NumericsDataCollector.NumericSampleEvent evt = new NumericsDataCollector.NumericSampleEvent();
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < 1000; i++) {
+            pipeline.handleDataSampleEvent(numeric(evt, i));
+        }
+        // the slow listener would need ten seconds for all of them
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000L);
+
+        pipeline.unsubscribe(fast);
+        pipeline.unsubscribe(slow);
+        Assert.assertEquals(1000, fast.numerics.size());
+        Assert.assertEquals(1000L, f.getDelivered());
+        Assert.assertTrue(s.getDropped() > 0L);
+        Assert.assertEquals(1000L, s.getDelivered() + s.getDropped());
+        Assert.assertEquals(s.getDelivered(), slow.numerics.size());
+        // whatever was delivered arrived in order
+        for(int i = 1; i < slow.numerics.size(); i++) {
+            Assert.assertTrue(slow.numerics.get(i) > slow.numerics.get(i - 1));
+        }
+    }
+
+    @Test
+    public void testShedWaveforms() throws Exception {
+        DataSamplePipeline pipeline = new DataSamplePipeline(8, DataSamplePipeline.WaitStrategy.BLOCKING, DataSamplePipeline.OverflowPolicy.SHED_WAVEFORMS);
+        final CountDownLatch release = new CountDownLatch(1);
+        Recorder stuck = new Recorder() {
+            @Override
+            public void handleDataSampleEvent(SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
+                release.await();
+                super.handleDataSampleEvent(evt);
+            }
+        };
+        DataSamplePipeline.Consumer c = pipeline.subscribe("stuck", stuck);
+        SampleArrayDataCollector.SampleArrayEvent array =
+                SampleArrayDataCollector.toEvent("DEVICE0", "METRIC1", 0, 1000L, new Double[] { 1.0 });
+        NumericsDataCollector.NumericSampleEvent evt = new NumericsDataCollector.NumericSampleEvent();
+
+        // sample arrays may fill three quarters of the ring
+        for(int i = 0; i < 10; i++) {
+            pipeline.handleDataSampleEvent(array);
+        }
+        Assert.assertEquals(4L, c.getDropped());
+        // numerics the rest of it
+        for(int i = 0; i < 3; i++) {
+            pipeline.handleDataSampleEvent(numeric(evt, i));
+        }
+        Assert.assertEquals(5L, c.getDropped());
+        Assert.assertEquals(8L, c.getLag());
+
+        release.countDown();
+        pipeline.unsubscribe(stuck);
+        Assert.assertEquals(6, stuck.arrays.size());
+        Assert.assertEquals(2, stuck.numerics.size());
+        Assert.assertEquals(8L, c.getDelivered());
+    }
+
+    @Test
+    public void testWaitStrategies() throws Exception {
+        for(DataSamplePipeline.WaitStrategy w : DataSamplePipeline.WaitStrategy.values()) {
+            DataSamplePipeline pipeline = new DataSamplePipeline(32, w, DataSamplePipeline.OverflowPolicy.BLOCK);
+            Recorder recorder = new Recorder();
+            DataSamplePipeline.Consumer c = pipeline.subscribe("recorder", recorder);
+            NumericsDataCollector.NumericSampleEvent evt = new NumericsDataCollector.NumericSampleEvent();
+            for(int i = 0; i < 5000; i++) {
+                pipeline.handleDataSampleEvent(numeric(evt, i));
+                if(0 == i % 1000) {
+                    // let the consumer go idle
+                    Thread.sleep(5L);
+                }
+            }
+            pipeline.unsubscribe(recorder);
+            Assert.assertEquals(w.name(), 5000L, c.getDelivered());
+            Assert.assertEquals(w.name(), 4999.0, recorder.numerics.get(4999), 0.0);
+        }
+    }
+
+    @Test
+    public void testFailuresAreCounted() throws Exception {
+        DataSamplePipeline pipeline = new DataSamplePipeline();
+        Recorder failing = new Recorder() {
+            @Override
+            public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
+                if(evt.getValue() < 2) {
+                    throw new IllegalStateException("failed " + evt.getValue());
+                }
+                super.handleDataSampleEvent(evt);
+            }
+        };
+        DataSamplePipeline.Consumer c = pipeline.subscribe("failing", failing);
+        NumericsDataCollector.NumericSampleEvent evt = new NumericsDataCollector.NumericSampleEvent();
+        for(int i = 0; i < 5; i++) {
+            pipeline.handleDataSampleEvent(numeric(evt, i));
+        }
+        pipeline.unsubscribe(failing);
+        Assert.assertEquals(2L, c.getFailures());
+        Assert.assertEquals(3L, c.getDelivered());
+        Assert.assertEquals(3, failing.numerics.size());
+
+        // nothing is handed over once unsubscribed
+        pipeline.handleDataSampleEvent(numeric(evt, 5));
+        Assert.assertEquals(3, failing.numerics.size());
+    }
+}
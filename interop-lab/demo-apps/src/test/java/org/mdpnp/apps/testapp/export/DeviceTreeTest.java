@@ -9,7 +9,6 @@ import java.util.ArrayList;
 import javax.swing.AbstractListModel;
 import javax.swing.JFrame;
 
-import com.google.common.eventbus.Subscribe;
 import org.mdpnp.apps.testapp.Device;
 import org.mdpnp.apps.testapp.DeviceListModel;
 import org.slf4j.Logger;
@@ -35,8 +34,8 @@ public class DeviceTreeTest {
         // TODO fix this
 //        nc.addListDataListener(tm);
         dc.addDataSampleListener(tm);
-        dc.addDataSampleListener(new Object() {
-             @Subscribe
+        dc.addDataSampleListener(new DataSampleListener() {
+             @Override
              public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
                  if(tm.isEnabled(evt)) {
                      log.info("Processing is enabled for " + DeviceTreeModel.toKey(evt));
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mdpnp.apps.fxbeans.PatientAssessmentFx;
+import org.mdpnp.rtiapi.data.InstanceModelImpl;
+import org.mdpnp.rtiapi.data.NumericInstanceModelImpl;
+import org.mdpnp.rtiapi.data.SampleArrayInstanceModelImpl;
+
+import com.rti.dds.publication.DataWriter;
+
+public class HeadlessDataCollectorTest {
+
+    private static class Recorder implements DataSampleListener {
+        final List<String> numerics = new ArrayList<>();
+        final List<float[]> arrays = new ArrayList<>();
+        final List<String> assessments = new ArrayList<>();
+
+        @Override
+        public void handleDataSampleEvent(NumericsDataCollector.NumericSampleEvent evt) throws Exception {
+            numerics.add(evt.getUniqueDeviceIdentifier() + "/" + evt.getMetricId() + "/" + evt.getInstanceId() + "/" +
+                         evt.getDevTime() + "=" + evt.getValue() + " " + evt.getPatientId());
+        }
+
+        @Override
+        public void handleDataSampleEvent(SampleArrayDataCollector.SampleArrayEvent evt) throws Exception {
+            Assert.assertEquals(4L, evt.getFrequency());
+            Assert.assertEquals(2000L, evt.getDevTime());
+            float[] copy = new float[evt.getSampleCount()];
+            System.arraycopy(evt.getSamples(), 0, copy, 0, copy.length);
+            arrays.add(copy);
+        }
+
+        @Override
+        public void handleDataSampleEvent(PatientAssessmentDataCollector.PatientAssessmentEvent evt) throws Exception {
+            assessments.add(evt.getUniqueDeviceIdentifier() + "/" + evt.getDevTime() + "/" +
+                            evt.getValue().getKey() + "=" + evt.getValue().getValue());
+        }
+    }
+
+    private static PatientAssessmentDataCollector newPatientAssessmentDataCollector() {
+        return new PatientAssessmentDataCollector(
+                new InstanceModelImpl<himss.PatientAssessment, himss.PatientAssessmentDataReader, DataWriter>(
+                        himss.PatientAssessmentTopic.VALUE, himss.PatientAssessment.class,
+                        himss.PatientAssessmentDataReader.class, null,
+                        himss.PatientAssessmentTypeSupport.class, himss.PatientAssessmentSeq.class));
+    }
+
+    private static final List<String> ASSESSMENTS = Arrays.asList("OPERATOR0/3500/pain=4", "OPERATOR0/3500/sedation=2");
+
+    @Test
+    public void testNumeric() throws Exception {
+        NumericsDataCollector dc = new NumericsDataCollector(new NumericInstanceModelImpl(ice.NumericTopic.VALUE));
+        Recorder recorder = new Recorder();
+        dc.addDataSampleListener(recorder);
+
+        ice.Numeric n = new ice.Numeric();
+        n.unique_device_identifier = "DEVICE0";
+        n.metric_id = "METRIC0";
+        n.instance_id = 1;
+        n.device_time.sec = 1;
+        n.device_time.nanosec = 500000000;
+        n.value = 2.5f;
+        dc.add(n);
+        n.value = 3.5f;
+        dc.add(n);
+        dc.destroy();
+
+        Assert.assertEquals(2, recorder.numerics.size());
+        Assert.assertEquals("DEVICE0/METRIC0/1/1500=2.5 UNDEFINED", recorder.numerics.get(0));
+        Assert.assertEquals("DEVICE0/METRIC0/1/1500=3.5 UNDEFINED", recorder.numerics.get(1));
+    }
+
+    @Test
+    public void testSampleArray() throws Exception {
+        SampleArrayDataCollector dc = new SampleArrayDataCollector(new SampleArrayInstanceModelImpl(ice.SampleArrayTopic.VALUE));
+        Recorder recorder = new Recorder();
+        dc.addDataSampleListener(recorder);
+
+        ice.SampleArray sa = new ice.SampleArray();
+        sa.unique_device_identifier = "DEVICE0";
+        sa.metric_id = "METRIC1";
+        sa.frequency = 4;
+        sa.device_time.sec = 2;
+        float[] values = { 1.0f, 2.0f, 3.0f, 4.0f };
+        sa.values.userData.addAllFloat(values, 0, values.length);
+        dc.add(sa);
+        // fewer samples into the same event
+        sa.values.userData.clear();
+        sa.values.userData.addAllFloat(values, 2, 2);
+        dc.add(sa);
+        dc.destroy();
+
+        Assert.assertEquals(2, recorder.arrays.size());
+        Assert.assertArrayEquals(values, recorder.arrays.get(0), 0.0f);
+        Assert.assertArrayEquals(new float[] { 3.0f, 4.0f }, recorder.arrays.get(1), 0.0f);
+    }
+
+    @Test
+    public void testPatientAssessment() throws Exception {
+        PatientAssessmentDataCollector dc = newPatientAssessmentDataCollector();
+        Recorder recorder = new Recorder();
+        dc.addDataSampleListener(recorder);
+
+        himss.PatientAssessment pa = new himss.PatientAssessment();
+        pa.operator_id = "OPERATOR0";
+        pa.date_and_time.seconds = 3;
+        pa.date_and_time.nanoseconds = 500000000;
+        for(String[] nv : new String[][] { { "pain", "4" }, { "sedation", "2" } }) {
+            himss.AssessmentEntry ae = new himss.AssessmentEntry();
+            ae.name = nv[0];
+            ae.value = nv[1];
+            pa.assessments.userData.add(ae);
+        }
+        dc.add(pa);
+        dc.destroy();
+
+        // every entry, not only the first
+        Assert.assertEquals(ASSESSMENTS, recorder.assessments);
+    }
+
+    @Test
+    public void testPatientAssessmentFx() throws Exception {
+        PatientAssessmentDataCollector dc = newPatientAssessmentDataCollector();
+        Recorder recorder = new Recorder();
+        dc.addDataSampleListener(recorder);
+
+        PatientAssessmentFx fx = new PatientAssessmentFx();
+        fx.setOperator_id("OPERATOR0");
+        fx.setDate_and_time(new Date(3500L));
+        List<Map.Entry<String,String>> l = new ArrayList<>();
+        l.add(new AbstractMap.SimpleEntry<String,String>("pain", "4"));
+        l.add(new AbstractMap.SimpleEntry<String,String>("sedation", "2"));
+        fx.setAssessments(l);
+        dc.add(fx);
+        dc.destroy();
+
+        // the same events as for the DDS sample
+        Assert.assertEquals(ASSESSMENTS, recorder.assessments);
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mdpnp.apps.testapp.export.DataCollectorAppFactory.PersisterUIController;
+
+public class HeadlessDataRecorderTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("recorder").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+        System.clearProperty(HeadlessDataRecorder.PERSISTERS_PROPERTY);
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if(null != children) {
+            for(File g : children) {
+                delete(g);
+            }
+        }
+        f.delete();
+    }
+
+    @Test
+    public void testCreatePersister() throws Exception {
+        PersisterUIController csv = HeadlessDataRecorder.createPersister(" CSV ", dir);
+        Assert.assertTrue(csv instanceof CSVPersister);
+        Assert.assertEquals(new File(dir, "openicedataexport.csv").getAbsoluteFile(), ((CSVPersister) csv).getFile());
+
+        PersisterUIController ts = HeadlessDataRecorder.createPersister("timeseries", dir);
+        Assert.assertTrue(ts instanceof TimeSeriesPersister);
+        Assert.assertTrue(ts.start());
+        try {
+            Assert.assertEquals(dir.getAbsoluteFile(), ((TimeSeriesPersister) ts).getStore().getDirectory().getParentFile());
+        } finally {
+            ts.stop();
+        }
+
+        Assert.assertNull(HeadlessDataRecorder.createPersister("nosuch", dir));
+    }
+
+    @Test
+    public void testDirectoryPerRecorder() throws Exception {
+        System.setProperty(HeadlessDataRecorder.PERSISTERS_PROPERTY, "csv,,nosuch");
+
+        HeadlessDataRecorder r0 = new HeadlessDataRecorder(null, null, new File(dir, "DEVICE0"));
+        HeadlessDataRecorder r1 = new HeadlessDataRecorder(null, null, new File(dir, "DEVICE1"));
+        r0.addPersisters();
+        r1.addPersisters();
+
+        Assert.assertTrue(r0.getDirectory().isDirectory());
+        Assert.assertTrue(r1.getDirectory().isDirectory());
+        List<PersisterUIController> p0 = r0.getPersisters();
+        List<PersisterUIController> p1 = r1.getPersisters();
+        Assert.assertEquals(1, p0.size());
+        Assert.assertEquals(1, p1.size());
+
+        File f0 = ((CSVPersister) p0.get(0)).getFile();
+        File f1 = ((CSVPersister) p1.get(0)).getFile();
+        Assert.assertEquals(r0.getDirectory(), f0.getParentFile());
+        Assert.assertEquals(r1.getDirectory(), f1.getParentFile());
+        Assert.assertNotEquals(f0, f1);
+
+        // each persister writes to its own file
+        p0.get(0).start();
+        p1.get(0).start();
+        try {
+            p0.get(0).handleDataSampleEvent(NumericsDataCollector.toEvent("DEVICE0", "METRIC0", 0, 1000L, 1.0f));
+            p1.get(0).handleDataSampleEvent(NumericsDataCollector.toEvent("DEVICE1", "METRIC0", 0, 1000L, 2.0f));
+        } finally {
+            p0.get(0).stop();
+            p1.get(0).stop();
+        }
+        List<String> l0 = Files.readAllLines(f0.toPath());
+        List<String> l1 = Files.readAllLines(f1.toPath());
+        Assert.assertEquals(1, l0.size());
+        Assert.assertEquals(1, l1.size());
+        Assert.assertTrue(l0.get(0).startsWith("1,DEVICE0,"));
+        Assert.assertTrue(l1.get(0).startsWith("1,DEVICE1,"));
+    }
+
+    @Test
+    public void testDirectoryName() {
+        String parent = System.getProperty(HeadlessDataRecorder.DIRECTORY_PROPERTY);
+        System.setProperty(HeadlessDataRecorder.DIRECTORY_PROPERTY, dir.getPath());
+        try {
+            Assert.assertEquals(new File(dir, "abc_def-1.2"), HeadlessDataRecorder.getDirectory("abc/def-1.2"));
+        } finally {
+            if(null == parent) {
+                System.clearProperty(HeadlessDataRecorder.DIRECTORY_PROPERTY);
+            } else {
+                System.setProperty(HeadlessDataRecorder.DIRECTORY_PROPERTY, parent);
+            }
+        }
+    }
+}
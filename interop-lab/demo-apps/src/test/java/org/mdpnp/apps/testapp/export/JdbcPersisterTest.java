@@ -5,6 +5,9 @@ import org.junit.Test;
 import org.mdpnp.apps.testapp.EmbeddedDB;
 
 import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.*;
 import java.util.Calendar;
 
@@ -112,6 +115,93 @@ public class JdbcPersisterTest {
         }
     }
 
+    @Test
+    public void testBatchedVitalUpdate() throws Exception {
+
+        JdbcPersister p = new JdbcPersisterExt();
+        p.setBatched(true);
+        p.setBatchSize(100);
+        p.setMaxBatchLatency(60000L);
+        p.start();
+
+        try {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 1000; i++) {
+                NumericsDataCollector.NumericSampleEvent evt = NumericsDataCollector.toEvent("DEVICE", "METRIC", 1, now + i, i);
+                p.handleDataSampleEvent(evt);
+            }
+            p.flush();
+
+            ResultSet rs = p.getConnection().createStatement().executeQuery("select count(*) from VITAL_VALUES");
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals("Database is missing records", 1000, rs.getInt(1));
+            Assert.assertEquals(1000, p.getWrittenRows());
+            Assert.assertEquals(10, p.getCommits());
+            Assert.assertEquals(0, p.getDroppedRows());
+
+        } finally {
+            p.stop();
+        }
+    }
+
+    @Test
+    public void testBatchedWriterFailure() throws Exception {
+
+        JdbcPersister p = new JdbcPersisterExt() {
+            @Override
+            Connection createConnection() throws Exception {
+                final Connection conn = super.createConnection();
+                // statements from this connection blow up with something other than an SQLException
+                return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+                    (proxy, method, args) -> {
+                        Object result = invoke(conn, method, args);
+                        if(result instanceof PreparedStatement) {
+                            final PreparedStatement ps = (PreparedStatement) result;
+                            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                                (proxy1, method1, args1) -> {
+                                    if("executeBatch".equals(method1.getName())) {
+                                        throw new IllegalStateException("executeBatch");
+                                    }
+                                    return invoke(ps, method1, args1);
+                                });
+                        }
+                        return result;
+                    });
+            }
+        };
+        p.setBatched(true);
+        p.setBatchSize(100);
+        p.setMaxBatchLatency(60000L);
+        p.start();
+
+        try {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 10; i++) {
+                p.handleDataSampleEvent(NumericsDataCollector.toEvent("DEVICE", "METRIC", 1, now + i, i));
+            }
+            // must return even though the commit fails
+            p.flush();
+            Assert.assertTrue(p.isFailed());
+            Assert.assertEquals(10, p.getDroppedRows());
+            Assert.assertEquals(0, p.getWrittenRows());
+
+            // no longer accepted
+            p.handleDataSampleEvent(NumericsDataCollector.toEvent("DEVICE", "METRIC", 1, now, 0));
+            Assert.assertEquals(11, p.getDroppedRows());
+            Assert.assertEquals(0, p.getQueuedRows());
+        } finally {
+            p.stop();
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch(InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
     class JdbcPersisterExt extends JdbcPersister {
 
         final EmbeddedDB db = new EmbeddedDB("jdbc:hsqldb:mem:test");
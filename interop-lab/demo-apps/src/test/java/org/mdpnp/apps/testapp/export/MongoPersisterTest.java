@@ -1,12 +1,26 @@
 package org.mdpnp.apps.testapp.export;
 
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import ice.Patient;
+import org.bson.Document;
 import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Test and simple driver to help debug js script w/out main app.
@@ -34,6 +48,227 @@ public class MongoPersisterTest {
         Assert.assertTrue("Should have located resource on file system", fOk2);
     }
 
+    @Test
+    public void testBatchesAreWrittenTogether() throws Exception {
+
+        InMemoryMongo db = new InMemoryMongo();
+        MongoPersister mongo = new MongoPersister(100, Long.MAX_VALUE);
+        mongo.setDatabase(db.getDatabase());
+
+        for(int n=0; n<250; n++) {
+            mongo.handleDataSampleEvent(NumericsDataCollector.toEvent("DEVICE0", "METRIC0", 1, 1000L * n, n));
+        }
+        Assert.assertEquals(2, db.getWrites());
+        mongo.stop();
+        Assert.assertEquals("The rest is written on stop", 3, db.getWrites());
+        Assert.assertEquals(3, mongo.getBatchesWritten());
+        Assert.assertEquals(250, mongo.getDocumentsWritten());
+
+        List<Document> docs = db.getDocuments(MongoPersister.DEFAULT_NUMERIC_COLLECTION);
+        Assert.assertEquals(250, docs.size());
+        for(int n=0; n<250; n++) {
+            Document d = docs.get(n);
+            Assert.assertEquals("DEVICE0", d.getString("deviceId"));
+            Assert.assertEquals("METRIC0", d.getString("metricId"));
+            Assert.assertEquals(1, (int) d.getInteger("instanceId"));
+            Assert.assertEquals(1000L * n, (long) d.getLong("timeStamp"));
+            Assert.assertEquals(n, d.getDouble("numeric"), 0.0);
+        }
+    }
+
+    @Test
+    public void testSampleArrayDocument() throws Exception {
+
+        InMemoryMongo db = new InMemoryMongo();
+        MongoPersister mongo = new MongoPersister(100, Long.MAX_VALUE);
+        mongo.setDatabase(db.getDatabase());
+
+        mongo.handleDataSampleEvent(SampleArrayDataCollector.toEvent("DEVICE0", "METRIC1", 0, 2000L, new Double[] { 1.0, 2.0, 3.0, 4.0 }));
+        mongo.stop();
+
+        List<Document> docs = db.getDocuments(MongoPersister.DEFAULT_SAMPLE_ARRAY_COLLECTION);
+        Assert.assertEquals("One document for the whole array", 1, docs.size());
+        Document d = docs.get(0);
+        Assert.assertEquals("METRIC1", d.getString("metricId"));
+        Assert.assertEquals(2000L, (long) d.getLong("timeStamp"));
+        Assert.assertEquals(4L, (long) d.getLong("frequency"));
+        Assert.assertEquals(Arrays.asList(1.0, 2.0, 3.0, 4.0), d.get("values"));
+        Assert.assertNull(db.getDocuments(MongoPersister.DEFAULT_NUMERIC_COLLECTION));
+    }
+
+    @Test
+    public void testTransformOncePerBatch() throws Exception {
+
+        InMemoryMongo db = new InMemoryMongo();
+        MongoPersister mongo = new MongoPersister(10, Long.MAX_VALUE);
+        Assert.assertTrue(mongo.initJSRuntime("MongoPersisterTest.js"));
+        mongo.setDatabase(db.getDatabase());
+
+        for(int n=0; n<20; n++) {
+            mongo.handleDataSampleEvent(NumericsDataCollector.toEvent("DEVICE0", rosetta.MDC_ECG_HEART_RATE.VALUE, 0, 1000L * n, 60 + n));
+        }
+        mongo.handleDataSampleEvent(SampleArrayDataCollector.toEvent("DEVICE0", "METRIC1", 0, 2000L, new Double[] { 1.0, 2.0 }));
+        mongo.stop();
+
+        // the script sends the numerics elsewhere and leaves the arrays alone
+        Assert.assertEquals(3, db.getWrites());
+        List<Document> docs = db.getDocuments("datasample_second");
+        Assert.assertEquals(20, docs.size());
+        for(Document d : docs) {
+            Assert.assertNotNull(d.getString("vital_sign"));
+        }
+        Assert.assertEquals(1, db.getDocuments(MongoPersister.DEFAULT_SAMPLE_ARRAY_COLLECTION).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTransformToUpdates() throws Exception {
+
+        InMemoryMongo db = new InMemoryMongo();
+        MongoPersister mongo = new MongoPersister(100, Long.MAX_VALUE);
+        Assert.assertTrue(mongo.initJSRuntime("MongoPersisterWF.js"));
+        mongo.setDatabase(db.getDatabase());
+
+        Patient p = new Patient();
+        p.mrn = "12345";
+        // two seconds worth of heart rate, the first one twice
+        long[] times = { 1000L, 1500L, 2000L };
+        for(long t : times) {
+            mongo.handleDataSampleEvent(new NumericsDataCollector.NumericSampleEvent(p,
+                    NumericsDataCollector.toValue("DEVICE0", rosetta.MDC_ECG_HEART_RATE.VALUE, 0, new java.util.Date(t), 60)));
+        }
+        // no patient, not kept
+        mongo.handleDataSampleEvent(NumericsDataCollector.toEvent("DEVICE0", rosetta.MDC_ECG_HEART_RATE.VALUE, 0, 1000L, 60));
+        mongo.handleDataSampleEvent(SampleArrayDataCollector.toEvent("DEVICE0", "METRIC1", 0, 2000L, new Double[] { 1.0, 2.0 }));
+        mongo.stop();
+
+        Assert.assertEquals(1, db.getWrites());
+        List<WriteModel<Document>> updates = db.getUpdates("datasample_second");
+        Assert.assertEquals("One upsert per second", 2, updates.size());
+        UpdateOneModel<Document> first = (UpdateOneModel<Document>) updates.get(0);
+        Document inc = (Document) ((Document) first.getUpdate()).get("$inc");
+        Assert.assertEquals(120.0, ((Number) inc.get("ECGHeartRate.sum")).doubleValue(), 0.0);
+        Assert.assertEquals(2, ((Number) inc.get("ECGHeartRate.count")).intValue());
+        Assert.assertNull(db.getDocuments(MongoPersister.DEFAULT_SAMPLE_ARRAY_COLLECTION));
+    }
+
+    @Test
+    public void testUnwantedCollectionsAreSkipped() throws Exception {
+
+        InMemoryMongo db = new InMemoryMongo();
+        MongoPersister mongo = new MongoPersister(10, Long.MAX_VALUE);
+        Assert.assertTrue(mongo.initJSRuntime("MongoPersisterWF.js"));
+        mongo.setDatabase(db.getDatabase());
+        Assert.assertTrue(mongo.wants(MongoPersister.DEFAULT_NUMERIC_COLLECTION));
+        Assert.assertFalse(mongo.wants(MongoPersister.DEFAULT_SAMPLE_ARRAY_COLLECTION));
+
+        for(int n=0; n<25; n++) {
+            mongo.handleDataSampleEvent(SampleArrayDataCollector.toEvent("DEVICE0", "METRIC1", 0, 1000L * n, new Double[] { 1.0, 2.0 }));
+        }
+        mongo.stop();
+
+        Assert.assertEquals("No batch of arrays is made, let alone handed to the script", 0, mongo.getBatchesWritten());
+        Assert.assertEquals(0, db.getWrites());
+    }
+
+    @Test
+    public void testCollectionTurnedOff() throws Exception {
+
+        System.setProperty(MongoPersister.SAMPLE_ARRAY_COLLECTION_PROPERTY, "");
+        MongoPersister mongo;
+        try {
+            mongo = new MongoPersister(10, Long.MAX_VALUE);
+        } finally {
+            System.clearProperty(MongoPersister.SAMPLE_ARRAY_COLLECTION_PROPERTY);
+        }
+        InMemoryMongo db = new InMemoryMongo();
+        mongo.setDatabase(db.getDatabase());
+
+        mongo.handleDataSampleEvent(SampleArrayDataCollector.toEvent("DEVICE0", "METRIC1", 0, 2000L, new Double[] { 1.0, 2.0 }));
+        mongo.handleDataSampleEvent(NumericsDataCollector.toEvent("DEVICE0", "METRIC0", 0, 2000L, 60));
+        mongo.stop();
+
+        Assert.assertEquals(1, db.getWrites());
+        Assert.assertEquals(1, db.getDocuments(MongoPersister.DEFAULT_NUMERIC_COLLECTION).size());
+        Assert.assertNull(db.getDocuments(MongoPersister.DEFAULT_SAMPLE_ARRAY_COLLECTION));
+    }
+
+    /**
+     * In-process stand-in for a database, good for insertMany and bulkWrite
+     * and nothing else. Inserted documents and other write models are kept
+     * per collection.
+     */
+    static class InMemoryMongo implements InvocationHandler {
+
+        private final Map<String, List<Document>> documents = new HashMap<>();
+        private final Map<String, List<WriteModel<Document>>> updates = new HashMap<>();
+        private int writes;
+
+        MongoDatabase getDatabase() {
+            return (MongoDatabase) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MongoDatabase.class }, this);
+        }
+
+        List<Document> getDocuments(String collection) {
+            return documents.get(collection);
+        }
+
+        List<WriteModel<Document>> getUpdates(String collection) {
+            return updates.get(collection);
+        }
+
+        /**
+         * @return number of insertMany and bulkWrite calls
+         */
+        int getWrites() {
+            return writes;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if("getCollection".equals(method.getName())) {
+                final String name = (String) args[0];
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MongoCollection.class }, new InvocationHandler() {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch(method.getName()) {
+                        case "insertMany":
+                            writes++;
+                            insert(name, (List<Document>) args[0]);
+                            return null;
+                        case "bulkWrite":
+                            writes++;
+                            for(WriteModel<Document> m : (List<WriteModel<Document>>) args[0]) {
+                                if(m instanceof InsertOneModel) {
+                                    insert(name, Arrays.asList(((InsertOneModel<Document>) m).getDocument()));
+                                } else {
+                                    list(updates, name).add(m);
+                                }
+                            }
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                });
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        private void insert(String collection, List<Document> docs) {
+            list(documents, collection).addAll(docs);
+        }
+
+        private static <T> List<T> list(Map<String, List<T>> m, String collection) {
+            List<T> l = m.get(collection);
+            if(null == l) {
+                l = new ArrayList<>();
+                m.put(collection, l);
+            }
+            return l;
+        }
+    }
+
     // Test disabled as it can only run with mono server present
     // @Test
     public void testDatabaseConnection() throws Exception {
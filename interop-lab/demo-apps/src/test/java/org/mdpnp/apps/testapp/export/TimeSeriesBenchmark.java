@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the bytes written by {@link TimeSeriesPersister} with the size of the
+ * CSV that {@link CSVPersister} would write for the same simulated ICU: every
+ * bed has ten numerics at 1Hz (integers, or one or two decimals, as monitors
+ * report them) and ECG at 250Hz, pleth and arterial pressure at 125Hz and
+ * respiration at 50Hz, sent five times a second as arrays of ADC counts times
+ * a scale. The figures for the simulated stretch are scaled up to a day, with
+ * the waveforms stored as floats and then quantized to their scale.
+ *
+ * The tests run a few beds for a couple of minutes and check the ratios.
+ *
+ * Usage: TimeSeriesBenchmark [beds [minutes]]     (40 beds for 10 minutes by default)
+ */
+public class TimeSeriesBenchmark {
+
+    private static final String[] NUMERICS = { "MDC_ECG_HEART_RATE", "MDC_PULS_OXIM_PULS_RATE", "MDC_PULS_OXIM_SAT_O2",
+            "MDC_TTHOR_RESP_RATE", "MDC_TEMP_BLD", "MDC_PRESS_BLD_ART_ABP_SYS", "MDC_PRESS_BLD_ART_ABP_DIA",
+            "MDC_PRESS_BLD_ART_ABP_MEAN", "MDC_AWAY_CO2_ET", "MDC_PULS_OXIM_PERF_REL" };
+    private static final float[] NUMERIC_BASE = { 72f, 72f, 97f, 16f, 37.1f, 120f, 80f, 93f, 38f, 2.5f };
+    private static final float[] NUMERIC_STEP = { 1f, 1f, 1f, 1f, 0.1f, 1f, 1f, 1f, 1f, 0.01f };
+
+    private static final String[] WAVES = { "MDC_ECG_LEAD_II", "MDC_PULS_OXIM_PLETH", "MDC_PRESS_BLD_ART_ABP", "MDC_IMPED_TTHOR" };
+    private static final int[] WAVE_HZ = { 250, 125, 125, 50 };
+    private static final float[] WAVE_SCALE = { 0.005f, 0.01f, 0.1f, 0.01f };
+    private static final int[] WAVE_COUNTS = { 200, 1500, 400, 800 };
+    private static final int ARRAYS_PER_SECOND = 5;
+
+    private static final class Result {
+        int beds, minutes;
+        long csvBytes, csvWaveBytes, samples, waveSamples, encodeNanos;
+        long tsBytes, tsWaveBytes;
+        int readSamples;
+        long readNanos;
+
+        double getRatio() {
+            return (double) csvBytes / tsBytes;
+        }
+
+        double getWaveRatio() {
+            return (double) csvWaveBytes / tsWaveBytes;
+        }
+
+        void print(String title) {
+            double day = 24.0 * 60.0 / minutes;
+            System.out.println(title + ": " + beds + " beds, " + minutes + " minutes, " + samples + " samples");
+            System.out.printf("csv         %,d bytes (%,.0f MB per day), %.2f bytes per sample%n", csvBytes, csvBytes * day / 1e6, (double) csvBytes / samples);
+            System.out.printf("time series %,d bytes (%,.0f MB per day), %.2f bytes per sample%n", tsBytes, tsBytes * day / 1e6, (double) tsBytes / samples);
+            System.out.printf("ratio       %.1f (numerics %.1f, waveforms %.1f)%n", getRatio(),
+                    (double) (csvBytes - csvWaveBytes) / (tsBytes - tsWaveBytes), getWaveRatio());
+            System.out.printf("per sample  numerics %.2f bytes, waveforms %.2f bytes%n",
+                    (double) (tsBytes - tsWaveBytes) / (samples - waveSamples), (double) tsWaveBytes / waveSamples);
+            System.out.printf("encoding    %.0f ns per sample%n", (double) encodeNanos / samples);
+            System.out.printf("read back   %,d samples of %s in %.1f ms%n", readSamples, WAVES[0], readNanos / 1e6);
+        }
+    }
+
+    /**
+     * @param quantized whether the waveforms are stored quantized to their scale
+     */
+    private static Result run(int beds, int minutes, boolean quantized) throws Exception {
+        Result r = new Result();
+        r.beds = beds;
+        r.minutes = minutes;
+
+        File dir = Files.createTempDirectory("tsbench").toFile();
+        TimeSeriesPersister persister = new TimeSeriesPersister();
+        persister.setBaseDir(dir);
+        if (quantized) {
+            for (int w = 0; w < WAVES.length; w++) {
+                persister.setResolution(WAVES[w], WAVE_SCALE[w]);
+            }
+        }
+        persister.start();
+        File recording = persister.getStore().getDirectory();
+
+        String[] udis = new String[beds];
+        int[][] numerics = new int[beds][NUMERICS.length];
+        for (int b = 0; b < beds; b++) {
+            udis[b] = UUID.randomUUID().toString();
+        }
+        Random random = new Random(1L);
+        CSVLineBuilder line = new CSVLineBuilder();
+        NumericsDataCollector.NumericSampleEvent numeric = new NumericsDataCollector.NumericSampleEvent();
+        SampleArrayDataCollector.SampleArrayEvent array = new SampleArrayDataCollector.SampleArrayEvent();
+
+        long start = 1420070400000L;
+        long end = start + minutes * 60000L;
+        for (long t = start; t < end; t += 1000L / ARRAYS_PER_SECOND) {
+            for (int b = 0; b < beds; b++) {
+                for (int w = 0; w < WAVES.length; w++) {
+                    int n = WAVE_HZ[w] / ARRAYS_PER_SECOND;
+                    array.set(DataCollector.DataSampleEvent.UNDEFINED, udis[b], WAVES[w], 0, t, WAVE_HZ[w]);
+                    array.setSampleCount(n);
+                    float[] v = array.getSamples();
+                    for (int i = 0; i < n; i++) {
+                        double phase = 2.0 * Math.PI * ((t + i * 1000L / WAVE_HZ[w]) % (w == 3 ? 4000L : 830L)) / (w == 3 ? 4000.0 : 830.0);
+                        double shape = 0 == w ? Math.pow(Math.sin(phase), 15) : Math.sin(phase);
+                        v[i] = Math.round(shape * WAVE_COUNTS[w] + random.nextGaussian() * 2.0) * WAVE_SCALE[w];
+                    }
+                    long s = System.nanoTime();
+                    persister.handleDataSampleEvent(array);
+                    r.encodeNanos += System.nanoTime() - s;
+                    CSVPersister.toCSVLine(array, line.reset());
+                    r.csvBytes += line.length() + 1;
+                    r.csvWaveBytes += line.length() + 1;
+                    r.samples += n;
+                    r.waveSamples += n;
+                }
+                if (0L == t % 1000L) {
+                    for (int m = 0; m < NUMERICS.length; m++) {
+                        if (random.nextInt(10) == 0) {
+                            numerics[b][m] += random.nextInt(3) - 1;
+                        }
+                        double value = NUMERIC_BASE[m] + numerics[b][m] * NUMERIC_STEP[m];
+                        numeric.set(DataCollector.DataSampleEvent.UNDEFINED, udis[b], NUMERICS[m], 0, t, (float) value);
+                        long s = System.nanoTime();
+                        persister.handleDataSampleEvent(numeric);
+                        r.encodeNanos += System.nanoTime() - s;
+                        CSVPersister.toCSVLine(numeric, line.reset());
+                        r.csvBytes += line.length() + 1;
+                        r.samples++;
+                    }
+                }
+            }
+        }
+        long s = System.nanoTime();
+        persister.stop();
+        r.encodeNanos += System.nanoTime() - s;
+
+        for (File f : recording.listFiles()) {
+            r.tsBytes += f.length();
+            for (String w : WAVES) {
+                if (f.getName().contains("-" + w + "-")) {
+                    r.tsWaveBytes += f.length();
+                }
+            }
+        }
+
+        TimeSeriesReader reader = new TimeSeriesReader(recording);
+        s = System.nanoTime();
+        TimeSeriesReader.Range range = reader.getSeries(udis[0], WAVES[0], 0).read(start, end);
+        r.readNanos = System.nanoTime() - s;
+        r.readSamples = range.size();
+
+        for (File f : recording.listFiles()) {
+            f.delete();
+        }
+        recording.delete();
+        dir.delete();
+        return r;
+    }
+
+    @Test
+    public void testRatio() throws Exception {
+        Result r = run(4, 2, false);
+        // the first array of each wave falls before the start
+        Assert.assertEquals((2 * 60 * ARRAYS_PER_SECOND - 1) * WAVE_HZ[0] / ARRAYS_PER_SECOND, r.readSamples);
+        Assert.assertTrue("ratio " + r.getRatio(), r.getRatio() >= 3.5);
+    }
+
+    @Test
+    public void testQuantizedRatio() throws Exception {
+        Result r = run(4, 2, true);
+        // CSV keeps four significant digits; the scale loses nothing of the counts
+        Assert.assertTrue("ratio " + r.getRatio(), r.getRatio() >= 10.0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int beds = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int minutes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        run(beds, minutes, false).print("floats");
+        run(beds, minutes, true).print("quantized");
+    }
+}
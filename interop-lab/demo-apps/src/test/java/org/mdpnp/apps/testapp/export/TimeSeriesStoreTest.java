@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.apps.testapp.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimeSeriesStoreTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tsstore").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (null != files) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testChunkRoundTrip() {
+        Random random = new Random(42L);
+        TimeSeriesChunk chunk = new TimeSeriesChunk();
+        long[] times = new long[5000];
+        float[] values = new float[times.length];
+        long t = 1420000000000L;
+        for (int round = 0; round < 2; round++) {
+            chunk.reset();
+            for (int i = 0; i < times.length; i++) {
+                switch (i % 7) {
+                case 0:
+                    // out of order and far apart
+                    t += random.nextInt(200000) - 100000;
+                    break;
+                case 1:
+                    t += random.nextInt(5);
+                    break;
+                default:
+                    t += 4;
+                }
+                times[i] = t;
+                values[i] = i % 3 == 0 ? values[Math.max(0, i - 1)] : (float) random.nextGaussian() * (1 << random.nextInt(20));
+                if (i == 100) {
+                    values[i] = Float.NaN;
+                }
+                chunk.append(times[i], values[i]);
+            }
+            Assert.assertEquals(times.length, chunk.getCount());
+            ByteBuffer b = ByteBuffer.allocate(chunk.size());
+            chunk.copyTo(b);
+            Assert.assertFalse(b.hasRemaining());
+            b.flip();
+
+            long[] decodedTimes = new long[times.length + 1];
+            float[] decodedValues = new float[times.length + 1];
+            TimeSeriesChunk.decode(b, times.length, decodedTimes, decodedValues, 1);
+            for (int i = 0; i < times.length; i++) {
+                Assert.assertEquals(times[i], decodedTimes[i + 1]);
+                Assert.assertEquals(Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(decodedValues[i + 1]));
+            }
+        }
+    }
+
+    @Test
+    public void testSteadySignalIsSmall() {
+        TimeSeriesChunk chunk = new TimeSeriesChunk();
+        for (int i = 0; i < 10000; i++) {
+            chunk.append(1000L * i, 72.0f);
+        }
+        // a bit for the time and a bit for the value
+        Assert.assertTrue(chunk.size() < 10000 / 4 + 16);
+    }
+
+    @Test
+    public void testQuantizedChunkRoundTrip() {
+        Random random = new Random(42L);
+        double resolution = 0.005;
+        TimeSeriesChunk chunk = new TimeSeriesChunk(resolution);
+        long[] times = new long[5000];
+        float[] values = new float[times.length];
+        for (int round = 0; round < 2; round++) {
+            chunk.reset();
+            for (int i = 0; i < times.length; i++) {
+                times[i] = 1420000000000L + 4L * i;
+                switch (i % 500) {
+                case 100:
+                    values[i] = Float.NaN;
+                    break;
+                case 200:
+                    values[i] = Float.NEGATIVE_INFINITY;
+                    break;
+                case 300:
+                    // beyond an int of resolutions
+                    values[i] = 1e8f;
+                    break;
+                case 400:
+                    // the largest step there is
+                    values[i] = (float) (Integer.MAX_VALUE * resolution);
+                    break;
+                case 401:
+                    values[i] = (float) (Integer.MIN_VALUE * resolution);
+                    break;
+                default:
+                    values[i] = (float) (Math.sin(i / 20.0) * 10.0 + random.nextGaussian() * (1 << random.nextInt(8)) * resolution);
+                }
+                chunk.append(times[i], values[i]);
+            }
+            ByteBuffer b = ByteBuffer.allocate(chunk.size());
+            chunk.copyTo(b);
+            b.flip();
+
+            long[] decodedTimes = new long[times.length + 1];
+            float[] decodedValues = new float[times.length + 1];
+            TimeSeriesChunk.decode(b, resolution, times.length, decodedTimes, decodedValues, 1);
+            for (int i = 0; i < times.length; i++) {
+                Assert.assertEquals(times[i], decodedTimes[i + 1]);
+                if (Float.isNaN(values[i]) || Float.isInfinite(values[i]) || 1e8f == values[i]) {
+                    Assert.assertEquals(Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(decodedValues[i + 1]));
+                } else {
+                    Assert.assertEquals(values[i], decodedValues[i + 1], Math.ulp(values[i]) + resolution / 2.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testQuantizedIsSmaller() {
+        Random random = new Random(42L);
+        TimeSeriesChunk floats = new TimeSeriesChunk();
+        TimeSeriesChunk quantized = new TimeSeriesChunk(0.01);
+        for (int i = 0; i < 10000; i++) {
+            // ADC counts times a scale
+            float v = Math.round(Math.sin(i / 20.0) * 1000.0 + random.nextGaussian() * 2.0) * 0.01f;
+            floats.append(4L * i, v);
+            quantized.append(4L * i, v);
+        }
+        // a bit for the time and a few for the value
+        Assert.assertTrue(quantized.size() < 10000);
+        Assert.assertTrue(quantized.size() * 2 < floats.size());
+    }
+
+    @Test
+    public void testRanges() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(dir, 1000L);
+        for (int i = 0; i < 10000; i++) {
+            store.append("DEVICE0", "WAVE0", 0, 4L * i, i);
+            if (0 == i % 250) {
+                store.append("DEVICE0", "NUMERIC0", 0, 4L * i, i / 250);
+                store.append("DEVICE1", "NUMERIC0", 1, 4L * i, -i);
+            }
+        }
+        Assert.assertEquals(3, store.getSeriesCount());
+        Assert.assertEquals(10080L, store.getSamples());
+        // a second's worth of wave per chunk
+        Assert.assertEquals(40L * 3L, store.getChunks() + 3L);
+
+        // what was appended so far can be read while recording
+        store.flush();
+        TimeSeriesReader reader = new TimeSeriesReader(dir);
+        Assert.assertEquals(10000L, reader.getSeries("DEVICE0", "WAVE0", 0).getCount());
+        store.append("DEVICE0", "WAVE0", 0, 40000L, 10000);
+        store.close();
+
+        reader = new TimeSeriesReader(dir);
+        Assert.assertEquals(3, reader.getSeries().size());
+        Assert.assertNull(reader.getSeries("DEVICE0", "WAVE0", 1));
+
+        TimeSeriesReader.Range all = reader.getSeries("DEVICE0", "WAVE0", 0).read(Long.MIN_VALUE, Long.MAX_VALUE);
+        Assert.assertEquals(10001, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            Assert.assertEquals(4L * i, all.getTimes()[i]);
+            Assert.assertEquals(i, all.getValues()[i], 0.0f);
+        }
+
+        // across a chunk boundary
+        TimeSeriesReader.Range some = reader.getSeries("DEVICE0", "WAVE0", 0).read(998L, 1010L);
+        Assert.assertArrayEquals(new long[] { 1000L, 1004L, 1008L }, some.getTimes());
+        Assert.assertArrayEquals(new float[] { 250f, 251f, 252f }, some.getValues(), 0.0f);
+
+        TimeSeriesReader.Range numerics = reader.getSeries("DEVICE1", "NUMERIC0", 1).read(1000L, 3000L);
+        Assert.assertArrayEquals(new long[] { 1000L, 2000L }, numerics.getTimes());
+        Assert.assertArrayEquals(new float[] { -250f, -500f }, numerics.getValues(), 0.0f);
+
+        Assert.assertEquals(0, reader.getSeries("DEVICE1", "NUMERIC0", 1).read(50000L, 60000L).size());
+    }
+
+    @Test
+    public void testQuantizedSeries() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(dir, 1000L);
+        store.setResolution("WAVE0", 0.25);
+        for (int i = 0; i < 1000; i++) {
+            store.append("DEVICE0", "WAVE0", 0, 4L * i, i * 0.3f);
+            store.append("DEVICE0", "WAVE1", 0, 4L * i, i * 0.3f);
+        }
+        store.close();
+
+        TimeSeriesReader reader = new TimeSeriesReader(dir);
+        TimeSeriesReader.Series wave0 = reader.getSeries("DEVICE0", "WAVE0", 0);
+        TimeSeriesReader.Series wave1 = reader.getSeries("DEVICE0", "WAVE1", 0);
+        Assert.assertEquals(0.25, wave0.getResolution(), 0.0);
+        Assert.assertEquals(0.0, wave1.getResolution(), 0.0);
+
+        TimeSeriesReader.Range quantized = wave0.read(0L, Long.MAX_VALUE);
+        TimeSeriesReader.Range floats = wave1.read(0L, Long.MAX_VALUE);
+        Assert.assertEquals(1000, quantized.size());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(4L * i, quantized.getTimes()[i]);
+            Assert.assertEquals(Math.rint(i * 0.3f / 0.25) * 0.25, quantized.getValues()[i], 0.0);
+            Assert.assertEquals(i * 0.3f, floats.getValues()[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(dir, 1000L);
+        store.setResolution("WAVE0", 0.5);
+        for (int i = 0; i < 1000; i++) {
+            store.append("DEVICE0", "WAVE0", 0, 4L * i, i);
+        }
+        store.close();
+
+        // cut back to what was written
+        File data = new File(dir, "DEVICE0-WAVE0-0" + TimeSeriesStore.DATA_SUFFIX);
+        File index = new File(dir, "DEVICE0-WAVE0-0" + TimeSeriesStore.INDEX_SUFFIX);
+        Assert.assertEquals(store.getChunks() * TimeSeriesStore.INDEX_ENTRY_SIZE, index.length());
+        Assert.assertEquals(store.getBytes() - index.length(), data.length());
+
+        // as a store that could not cut them back leaves them
+        try (RandomAccessFile raf = new RandomAccessFile(data, "rw")) {
+            raf.setLength(raf.length() + 1000L);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.setLength(raf.length() + 10L * TimeSeriesStore.INDEX_ENTRY_SIZE);
+        }
+
+        store = new TimeSeriesStore(dir, 1000L);
+        for (int i = 1000; i < 2000; i++) {
+            store.append("DEVICE0", "WAVE0", 0, 4L * i, i);
+            store.append("DEVICE0", "WAVE1", 0, 4L * i, i);
+        }
+        store.close();
+
+        TimeSeriesReader reader = new TimeSeriesReader(dir);
+        Assert.assertEquals(2, reader.getSeries().size());
+        TimeSeriesReader.Series wave0 = reader.getSeries("DEVICE0", "WAVE0", 0);
+        Assert.assertEquals(0.5, wave0.getResolution(), 0.0);
+        TimeSeriesReader.Range all = wave0.read(Long.MIN_VALUE, Long.MAX_VALUE);
+        Assert.assertEquals(2000, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            Assert.assertEquals(4L * i, all.getTimes()[i]);
+            Assert.assertEquals(i, all.getValues()[i], 0.0f);
+        }
+        Assert.assertEquals(1000L, reader.getSeries("DEVICE0", "WAVE1", 0).getCount());
+        Assert.assertEquals(0L, index.length() % TimeSeriesStore.INDEX_ENTRY_SIZE);
+        Assert.assertEquals(wave0.getCount() / 250L * TimeSeriesStore.INDEX_ENTRY_SIZE, index.length());
+    }
+
+    @Test
+    public void testParseResolutions() {
+        Map<String, Double> resolutions = TimeSeriesPersister.parseResolutions(" MDC_ECG_LEAD_II=0.005, ,MDC_PRESS_BLD_ART_ABP = 0.1,X=0,Y=abc,Z");
+        Assert.assertEquals(2, resolutions.size());
+        Assert.assertEquals(0.005, resolutions.get("MDC_ECG_LEAD_II"), 0.0);
+        Assert.assertEquals(0.1, resolutions.get("MDC_PRESS_BLD_ART_ABP"), 0.0);
+    }
+
+    @Test
+    public void testPersister() throws Exception {
+        TimeSeriesPersister persister = new TimeSeriesPersister();
+        persister.setBaseDir(dir);
+        Assert.assertTrue(persister.start());
+        File recording = persister.getStore().getDirectory();
+
+        persister.handleDataSampleEvent(NumericsDataCollector.toEvent("DEVICE0", "METRIC0", 0, 1000L, 98.0));
+        persister.handleDataSampleEvent(NumericsDataCollector.toEvent("DEVICE0", "METRIC0", 0, 2000L, 97.0));
+        persister.handleDataSampleEvent(SampleArrayDataCollector.toEvent("DEVICE0", "METRIC1", 0, 1000L, new Double[] { 1.0, 2.0, 3.0, 4.0 }));
+        persister.handleDataSampleEvent(SampleArrayDataCollector.toEvent("DEVICE0", "METRIC1", 0, 2000L, new Double[] { 5.0, 6.0, 7.0, 8.0 }));
+        persister.stop();
+
+        TimeSeriesReader reader = new TimeSeriesReader(recording);
+        TimeSeriesReader.Range numerics = reader.getSeries("DEVICE0", "METRIC0", 0).read(0L, Long.MAX_VALUE);
+        Assert.assertArrayEquals(new long[] { 1000L, 2000L }, numerics.getTimes());
+        Assert.assertArrayEquals(new float[] { 98f, 97f }, numerics.getValues(), 0.0f);
+
+        // four samples a second, the last a quarter second before the array's time
+        TimeSeriesReader.Range samples = reader.getSeries("DEVICE0", "METRIC1", 0).read(0L, Long.MAX_VALUE);
+        Assert.assertArrayEquals(new long[] { 0L, 250L, 500L, 750L, 1000L, 1250L, 1500L, 1750L }, samples.getTimes());
+        Assert.assertArrayEquals(new float[] { 1f, 2f, 3f, 4f, 5f, 6f, 7f, 8f }, samples.getValues(), 0.0f);
+
+        for (File f : recording.listFiles()) {
+            f.delete();
+        }
+        recording.delete();
+    }
+}
@@ -139,6 +139,147 @@ public class VerilogVCDPersisterTest {
         }
     }
 
+    @Test
+    public void testOpenFilesAreCapped() throws Exception {
+
+        File root = File.createTempFile("VCD-", "-TEST");
+        root.delete();
+        root.mkdirs();
+
+        try {
+            // flush on every event so that each one needs its file
+            VerilogVCDPersister.OneWavePerVCD p = new VerilogVCDPersister.OneWavePerVCD(root, VerilogVCDPersister.FZ_1MB, 2, 0L);
+            p.start();
+
+            long now = System.currentTimeMillis();
+            for (int n = 0; n < 30; n++) {
+                for (int m = 0; m < 5; m++) {
+                    p.persist(NumericsDataCollector.toEvent("DEVICE0", "METRIC" + m, 0, now + n * 1000L, m * 100 + n));
+                    Assert.assertTrue(p.getOpenFiles() <= 2);
+                }
+            }
+            Assert.assertTrue(p.getEvictions() > 0);
+            p.stop();
+
+            for (int m = 0; m < 5; m++) {
+                BufferedReader r = new BufferedReader(new FileReader(new File(root, "DEVICE0-METRIC" + m + "-0.vcd")));
+                try {
+                    // the header once, then every sample in the order it came
+                    String line;
+                    while (!(line = r.readLine()).endsWith("$end") || !line.startsWith("$var")) {
+                        Assert.assertFalse(line.startsWith("#"));
+                    }
+                    for (int n = 0; n < 30; n++) {
+                        Assert.assertEquals("#" + n * 1000, r.readLine());
+                        Assert.assertEquals("r" + (m * 100 + n) + ".0000000 *", r.readLine());
+                    }
+                    Assert.assertNull(r.readLine());
+                } finally {
+                    r.close();
+                }
+            }
+        }
+        finally {
+            File files[] = root.listFiles();
+            for (File f : files) {
+                f.delete();
+            }
+            root.delete();
+        }
+    }
+
+    @Test
+    public void testTimedFlushBoundsEvictions() throws Exception {
+
+        File root = File.createTempFile("VCD-", "-TEST");
+        root.delete();
+        root.mkdirs();
+
+        final long[] clock = { 0L };
+        try {
+            // a unit's worth of series and a cap of 8 files; a quarter of the cap is reopened per flush
+            VerilogVCDPersister.OneWavePerVCD p = new VerilogVCDPersister.OneWavePerVCD(root, VerilogVCDPersister.FZ_1MB, 8, 1000L) {
+                @Override
+                protected long currentTimeMillis() {
+                    return clock[0];
+                }
+            };
+            p.start();
+
+            int seconds = 60, series = 100;
+            for (int n = 0; n < seconds; n++) {
+                for (int m = 0; m < series; m++) {
+                    p.persist(NumericsDataCollector.toEvent("DEVICE0", "METRIC" + m, 0, n * 1000L, m * 100 + n));
+                    Assert.assertTrue(p.getOpenFiles() <= 8);
+                }
+                clock[0] += 1000L;
+            }
+            // flushing them all every second would close nearly every file every time
+            Assert.assertTrue("" + p.getEvictions(), p.getEvictions() <= seconds * 2);
+            p.stop();
+
+            for (int m = 0; m < series; m++) {
+                BufferedReader r = new BufferedReader(new FileReader(new File(root, "DEVICE0-METRIC" + m + "-0.vcd")));
+                try {
+                    int samples = 0;
+                    String line;
+                    while (null != (line = r.readLine())) {
+                        if (line.startsWith("#")) {
+                            Assert.assertEquals("#" + samples * 1000, line);
+                            samples++;
+                        }
+                    }
+                    Assert.assertEquals(seconds, samples);
+                } finally {
+                    r.close();
+                }
+            }
+        }
+        finally {
+            File files[] = root.listFiles();
+            for (File f : files) {
+                f.delete();
+            }
+            root.delete();
+        }
+    }
+
+    @Test
+    public void testSamplesAreSortedWithinFlush() throws Exception {
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        VerilogVCDPersister.OneWavePerVCD p = new VerilogVCDPersister.OneWavePerVCD(null, VerilogVCDPersister.FZ_1MB, 1, Long.MAX_VALUE) {
+            @Override
+            protected OutputStream makeStream(String key) {
+                return bos;
+            }
+        };
+        p.start();
+
+        // the second array overlaps the first by two samples
+        p.persist(SampleArrayDataCollector.toEvent("DEVICE0", "METRIC0", 0, 2000L, new Double[] { 1.0, 2.0, 3.0, 4.0 }));
+        p.persist(SampleArrayDataCollector.toEvent("DEVICE0", "METRIC0", 0, 2500L, new Double[] { 5.0, 6.0, 7.0, 8.0 }));
+        Assert.assertEquals("Nothing is written before the window is flushed", 0, bos.size());
+        p.stop();
+
+        String[] lines = bos.toString("US-ASCII").split("\n");
+        Assert.assertEquals("\t\t" + VerilogVCDPersister.dateFormats.get().format(new Date(1000L)), lines[1]);
+        long last = Long.MIN_VALUE;
+        int samples = 0;
+        for (String line : lines) {
+            if (line.startsWith("#")) {
+                long t = Long.parseLong(line.substring(1));
+                Assert.assertTrue("Out of order " + t, t >= last);
+                last = t;
+                samples++;
+            }
+        }
+        Assert.assertEquals(8, samples);
+        // times are counted from the earliest sample, a second before the first array's time
+        Assert.assertEquals(1250L, last);
+    }
+
     private static double mockData(int n)
     {
         double v = Math.sin(Math.toRadians(n))*10;
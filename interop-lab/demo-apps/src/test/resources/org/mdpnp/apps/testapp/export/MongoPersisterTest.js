@@ -1,37 +1,30 @@
 var System  = java.lang.System;
 var VitalSign = org.mdpnp.apps.testapp.vital.VitalSign;
 
-// Called for each sample to be saved with the following arguments:
+// Called for each batch of documents to be saved with the following arguments:
 // 
 // 1. com.mongodb.client.MongoDatabase mongoDatabase
-// 2. org.mdpnp.apps.testapp.export.NumericsDataCollector.NumericSampleEvent value
+// 2. String collectionName
+// 3. java.util.List of org.bson.Document documents
 // 
 // See java object for the description of the APIs
 //
-var persistNumeric = function(mongoDatabase, value) {
+var transformBatch = function(mongoDatabase, collectionName, documents) {
 
-    var collection = mongoDatabase.getCollection("datasample_second");
-    var document = new org.bson.Document();
+    if(collectionName !== "numerics")
+        return { "status" : "OK" };
 
-    var vital = VitalSign.lookupByMetricId(value.getMetricId());
-    if(vital !== null && vital !== "undefined")
-        document.put("vital_sign",  vital.name());
+    for(var i = 0; i < documents.size(); i++) {
+        var document = documents.get(i);
+        var vital = VitalSign.lookupByMetricId(document.getString("metricId"));
+        if(vital !== null && vital !== undefined)
+            document.put("vital_sign",  vital.name());
+    }
 
-    var patient = value.getPatientId();
-    if(patient !== null && patient !== "undefined")
-        document.put("patientId",  patient);
-
-    document.put("deviceId",  value.getUniqueDeviceIdentifier());
-    document.put("metricId",  value.getMetricId());
-    document.put("timeStamp", value.getDevTime());
-    document.put("numeric",   value.getValue());
-
-    collection.insertOne(document);
-    
     var ret = {
         "status" : "OK",
-        "doc" : document
+        "collection" : "datasample_second"
     };
 
     return ret;
-};
\ No newline at end of file
+};
@@ -47,6 +47,7 @@ import org.springframework.jmx.export.annotation.ManagedResource;
 
 import com.rti.dds.domain.DomainParticipant;
 import com.rti.dds.infrastructure.Condition;
+import com.rti.dds.infrastructure.FloatSeq;
 import com.rti.dds.infrastructure.InstanceHandle_t;
 import com.rti.dds.infrastructure.RETCODE_NO_DATA;
 import com.rti.dds.infrastructure.ResourceLimitsQosPolicy;
@@ -565,6 +566,79 @@ public abstract class AbstractDevice {
         return holder;
     }
 
+    protected InstanceHolder<ice.SampleArray> sampleArraySample(InstanceHolder<ice.SampleArray> holder,
+                                                                float[] newValues, int offset, int length,
+                                                                String metric_id, String vendor_metric_id, int instance_id, String unit_id, int frequency,
+                                                                DeviceClock.Reading timestamp) {
+        holder = prepareSampleArrayInstance(holder, null != newValues, metric_id, vendor_metric_id, instance_id, unit_id, frequency);
+        if (null != newValues) {
+            fillPrimitive(holder, newValues, offset, length);
+            publish(holder, timestamp.refineResolutionForFrequency(frequency, length));
+        }
+        return holder;
+    }
+
+    protected InstanceHolder<ice.SampleArray> sampleArraySample(InstanceHolder<ice.SampleArray> holder,
+                                                                short[] newValues, int offset, int length,
+                                                                String metric_id, String vendor_metric_id, int instance_id, String unit_id, int frequency,
+                                                                DeviceClock.Reading timestamp) {
+        holder = prepareSampleArrayInstance(holder, null != newValues, metric_id, vendor_metric_id, instance_id, unit_id, frequency);
+        if (null != newValues) {
+            fillPrimitive(holder, newValues, offset, length);
+            publish(holder, timestamp.refineResolutionForFrequency(frequency, length));
+        }
+        return holder;
+    }
+
+    protected InstanceHolder<ice.SampleArray> sampleArraySample(InstanceHolder<ice.SampleArray> holder,
+                                                                int[] newValues, int offset, int length,
+                                                                String metric_id, String vendor_metric_id, int instance_id, String unit_id, int frequency,
+                                                                DeviceClock.Reading timestamp) {
+        holder = prepareSampleArrayInstance(holder, null != newValues, metric_id, vendor_metric_id, instance_id, unit_id, frequency);
+        if (null != newValues) {
+            fillPrimitive(holder, newValues, offset, length);
+            publish(holder, timestamp.refineResolutionForFrequency(frequency, length));
+        }
+        return holder;
+    }
+
+    /**
+     * Shared by the primitive overloads; makes sure there is an instance
+     * matching the metadata when there are values to publish, or unregisters
+     * it when there are none.
+     */
+    private InstanceHolder<SampleArray> prepareSampleArrayInstance(InstanceHolder<SampleArray> holder, boolean hasValues,
+                                                                   String metric_id, String vendor_metric_id, int instance_id,
+                                                                   String unit_id, int frequency) {
+
+        holder = ensureHolderConsistency(holder, metric_id, vendor_metric_id, instance_id, unit_id, frequency);
+
+        if (hasValues) {
+            if (null == holder) {
+                holder = createSampleArrayInstance(metric_id, vendor_metric_id, instance_id, unit_id, frequency);
+            }
+        } else if (holder != null) {
+            unregisterSampleArrayInstance(holder);
+            holder = null;
+        }
+        return holder;
+    }
+
+    protected void sampleArraySample(InstanceHolder<SampleArray> holder, float[] newValues, int offset, int length, DeviceClock.Reading timestamp) {
+        fillPrimitive(holder, newValues, offset, length);
+        publish(holder, timestamp);
+    }
+
+    protected void sampleArraySample(InstanceHolder<SampleArray> holder, short[] newValues, int offset, int length, DeviceClock.Reading timestamp) {
+        fillPrimitive(holder, newValues, offset, length);
+        publish(holder, timestamp);
+    }
+
+    protected void sampleArraySample(InstanceHolder<SampleArray> holder, int[] newValues, int offset, int length, DeviceClock.Reading timestamp) {
+        fillPrimitive(holder, newValues, offset, length);
+        publish(holder, timestamp);
+    }
+
     protected void sampleArraySample(InstanceHolder<SampleArray> holder, Number[] newValues, DeviceClock.Reading timestamp) {
         sampleArraySample(holder, new ArrayContainer<>(newValues), timestamp);
     }
@@ -589,6 +663,28 @@ public abstract class AbstractDevice {
         }
     }
 
+    static void fillPrimitive(InstanceHolder<SampleArray> holder, float[] newValues, int offset, int length) {
+        FloatSeq userData = holder.data.values.userData;
+        userData.clear();
+        userData.addAllFloat(newValues, offset, length);
+    }
+
+    static void fillPrimitive(InstanceHolder<SampleArray> holder, short[] newValues, int offset, int length) {
+        FloatSeq userData = holder.data.values.userData;
+        userData.clear();
+        for (int i = offset; i < offset + length; i++) {
+            userData.addFloat(newValues[i]);
+        }
+    }
+
+    static void fillPrimitive(InstanceHolder<SampleArray> holder, int[] newValues, int offset, int length) {
+        FloatSeq userData = holder.data.values.userData;
+        userData.clear();
+        for (int i = offset; i < offset + length; i++) {
+            userData.addFloat(newValues[i]);
+        }
+    }
+
     private void publish(InstanceHolder<ice.SampleArray> holder, DeviceClock.Reading deviceTimestamp) {
 
         if (deviceTimestamp.hasDeviceTime()) {
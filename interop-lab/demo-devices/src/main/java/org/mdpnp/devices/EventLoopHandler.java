@@ -26,12 +26,12 @@ import com.rti.dds.infrastructure.GuardCondition;
  * @author Jeff Plourde
  *
  */
-public class EventLoopHandler implements Runnable, ConditionHandler {
+public class EventLoopHandler implements ConditionHandler {
 
     private final EventLoop eventLoop;
-    private final GuardCondition exitCondition = new GuardCondition();
-    private boolean keepGoing = true;
-    private final Thread thread;
+    private final GuardCondition[] exitConditions;
+    private volatile boolean keepGoing = true;
+    private final Thread[] threads;
 
     private static final Logger log = LoggerFactory.getLogger(EventLoopHandler.class);
 
@@ -42,32 +42,45 @@ public class EventLoopHandler implements Runnable, ConditionHandler {
     public EventLoopHandler(EventLoop eventLoop, ThreadGroup group) {
         this.eventLoop = eventLoop;
 
-        thread = new Thread(this, "EventLoopHandler");
-        thread.setDaemon(true);
-        thread.start();
-        // Add this only after service thread is in place
-        eventLoop.addHandler(exitCondition, this);
+        int lanes = eventLoop.getLaneCount();
+        threads = new Thread[lanes];
+        exitConditions = new GuardCondition[lanes];
+        for (int i = 0; i < lanes; i++) {
+            final int lane = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    EventLoopHandler.this.run(lane);
+                }
+            }, 1 == lanes ? "EventLoopHandler" : ("EventLoopHandler-" + i));
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        for (int i = 0; i < lanes; i++) {
+            // Add this only after service thread is in place
+            exitConditions[i] = new GuardCondition();
+            eventLoop.addHandler(i, exitConditions[i], this);
+        }
     }
 
-    @Override
-    public void run() {
+    private void run(int lane) {
         ConditionSeq condSeq = new ConditionSeq();
         Duration_t dur = new Duration_t(Duration_t.DURATION_INFINITY_SEC, Duration_t.DURATION_INFINITY_NSEC);
 
         try {
-            log.debug("EventLoopHandler begins");
+            log.debug("EventLoopHandler begins for lane " + lane);
             while (keepGoing) {
                 try {
-                    eventLoop.waitAndHandle(condSeq, dur);
+                    eventLoop.waitAndHandle(lane, condSeq, dur);
                 } catch (Throwable t) {
                     log.error("Unexpected in ConditionHandler", t);
                 }
             }
         } finally {
             if (keepGoing) {
-                log.error("EventLoopHandler ends prematurely");
+                log.error("EventLoopHandler ends prematurely for lane " + lane);
             } else {
-                log.debug("EventLoopHandler ends");
+                log.debug("EventLoopHandler ends for lane " + lane);
             }
         }
     }
@@ -75,8 +88,12 @@ public class EventLoopHandler implements Runnable, ConditionHandler {
     public void shutdown() throws InterruptedException {
         log.debug("shutdown invoked");
         keepGoing = false;
-        exitCondition.set_trigger_value(true);
-        thread.join();
+        for (GuardCondition exitCondition : exitConditions) {
+            exitCondition.set_trigger_value(true);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
         log.debug("shutdown complete");
     }
 
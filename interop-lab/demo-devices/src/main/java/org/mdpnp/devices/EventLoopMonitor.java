@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.mdpnp.rtiapi.data.EventLoop;
+import org.mdpnp.rtiapi.data.Histogram;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Publishes the dispatch statistics of an {@link EventLoop} over JMX. Per
+ * handler and per topic figures are reported busiest first so the handler or
+ * topic saturating the loop is at the top of the list.
+ */
+@ManagedResource(description="DDS EventLoop dispatch statistics")
+public class EventLoopMonitor {
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    private final EventLoop eventLoop;
+
+    public EventLoopMonitor(EventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    @ManagedAttribute(description="Number of WaitSet lanes.")
+    public int getLaneCount() {
+        return eventLoop.getLaneCount();
+    }
+
+    @ManagedAttribute(description="Number of handlers attached to each lane, the control lane first.")
+    public int[] getHandlersPerLane() {
+        int[] handlers = new int[eventLoop.getLaneCount()];
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i] = eventLoop.getHandlerCount(i);
+        }
+        return handlers;
+    }
+
+    @ManagedAttribute(description="Runnables waiting to be run.")
+    public int getQueuedRunnables() {
+        return eventLoop.getQueuedRunnableCount();
+    }
+
+    @ManagedAttribute(description="Age in microseconds of the oldest queued runnable.")
+    public long getQueuedRunnablesAge() {
+        return eventLoop.getQueuedRunnableAge() / NANOS_PER_MICRO;
+    }
+
+    @ManagedAttribute(description="Queue time in microseconds of deferred runnables (count/p50/p99/max).")
+    public String getRunnableQueueTime() {
+        return micros(eventLoop.getStatistics().getRunnableQueueTime());
+    }
+
+    @ManagedAttribute(description="Handler additions and removals waiting to be applied.")
+    public int getQueuedMutations() {
+        return eventLoop.getQueuedMutationCount();
+    }
+
+    @ManagedAttribute(description="Age in microseconds of the oldest queued handler mutation.")
+    public long getQueuedMutationsAge() {
+        return eventLoop.getQueuedMutationAge() / NANOS_PER_MICRO;
+    }
+
+    @ManagedAttribute(description="Queue time in microseconds of handler mutations (count/p50/p99/max).")
+    public String getMutationQueueTime() {
+        return micros(eventLoop.getStatistics().getMutationQueueTime());
+    }
+
+    @ManagedAttribute(description="Conditions triggered per wait (count/p50/p99/max).")
+    public String getConditionsPerWait() {
+        return eventLoop.getStatistics().getConditionsPerWait().toString();
+    }
+
+    @ManagedAttribute(description="Service time in microseconds per handler, busiest first.")
+    public String[] getHandlerServiceTimes() {
+        return report(eventLoop.getStatistics().getServiceTimes(), true);
+    }
+
+    @ManagedAttribute(description="Samples returned per read_w_condition by topic, busiest first.")
+    public String[] getSamplesPerRead() {
+        return report(eventLoop.getStatistics().getSamplesPerRead(), false);
+    }
+
+    @ManagedOperation(description="Reset all dispatch statistics.")
+    public void reset() {
+        eventLoop.getStatistics().reset();
+    }
+
+    private static String micros(Histogram h) {
+        return "count=" + h.getCount() + " p50=" + h.getPercentile(50.0) / NANOS_PER_MICRO + " p99=" + h.getPercentile(99.0) / NANOS_PER_MICRO
+                + " max=" + h.getMax() / NANOS_PER_MICRO;
+    }
+
+    private static String[] report(Map<String, Histogram> histograms, final boolean nanos) {
+        List<Map.Entry<String, Histogram>> entries = new ArrayList<Map.Entry<String, Histogram>>(histograms.entrySet());
+        // busiest first; total work is roughly count times mean
+        Collections.sort(entries, new Comparator<Map.Entry<String, Histogram>>() {
+            @Override
+            public int compare(Map.Entry<String, Histogram> o1, Map.Entry<String, Histogram> o2) {
+                return Long.compare(o2.getValue().getCount() * o2.getValue().getMean(), o1.getValue().getCount() * o1.getValue().getMean());
+            }
+        });
+        String[] lines = new String[entries.size()];
+        for (int i = 0; i < lines.length; i++) {
+            Map.Entry<String, Histogram> e = entries.get(i);
+            lines[i] = e.getKey() + " " + (nanos ? micros(e.getValue()) : e.getValue().toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices;
+
+import org.mdpnp.devices.net.NetworkLoop;
+import org.mdpnp.devices.net.NetworkLoopGroup;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Publishes the load on each loop of a {@link NetworkLoopGroup} over JMX, one
+ * array element per loop, so that a saturated loop stands out.
+ */
+@ManagedResource(description="NetworkLoopGroup load statistics")
+public class NetworkLoopGroupMonitor {
+    private final NetworkLoopGroup group;
+
+    public NetworkLoopGroupMonitor(NetworkLoopGroup group) {
+        this.group = group;
+    }
+
+    @ManagedAttribute(description="Number of NetworkLoop threads.")
+    public int getLoopCount() {
+        return group.size();
+    }
+
+    @ManagedAttribute(description="Channels registered with each loop.")
+    public int[] getConnections() {
+        int[] connections = new int[group.size()];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = group.get(i).getConnectionCount();
+        }
+        return connections;
+    }
+
+    @ManagedAttribute(description="Fraction of the time each loop has been busy since it started.")
+    public double[] getUtilization() {
+        double[] utilization = new double[group.size()];
+        for (int i = 0; i < utilization.length; i++) {
+            utilization[i] = group.get(i).getUtilization();
+        }
+        return utilization;
+    }
+
+    @ManagedAttribute(description="Returns from select of each loop.")
+    public long[] getSelects() {
+        long[] selects = new long[group.size()];
+        for (int i = 0; i < selects.length; i++) {
+            selects[i] = group.get(i).getSelects();
+        }
+        return selects;
+    }
+
+    @ManagedAttribute(description="Ready keys handled by each loop.")
+    public long[] getReadyKeys() {
+        long[] readyKeys = new long[group.size()];
+        for (int i = 0; i < readyKeys.length; i++) {
+            readyKeys[i] = group.get(i).getReadyKeys();
+        }
+        return readyKeys;
+    }
+
+    @ManagedAttribute(description="Registrations and unregistrations waiting for each loop thread.")
+    public int[] getPendingRegistrations() {
+        int[] pending = new int[group.size()];
+        for (int i = 0; i < pending.length; i++) {
+            NetworkLoop loop = group.get(i);
+            pending[i] = loop.getPendingRegistrations() + loop.getPendingUnregistrations();
+        }
+        return pending;
+    }
+
+    @ManagedAttribute(description="Timers scheduled on each loop.")
+    public int[] getTimers() {
+        int[] timers = new int[group.size()];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = group.get(i).getTaskQueue().size();
+        }
+        return timers;
+    }
+
+    @ManagedAttribute(description="Mean lateness in milliseconds of the timers run by each loop.")
+    public double[] getMeanLateness() {
+        double[] lateness = new double[group.size()];
+        for (int i = 0; i < lateness.length; i++) {
+            lateness[i] = group.get(i).getTaskQueue().getMeanLateness();
+        }
+        return lateness;
+    }
+
+    @ManagedAttribute(description="Maximum lateness in milliseconds of the timers run by each loop.")
+    public long[] getMaxLateness() {
+        long[] lateness = new long[group.size()];
+        for (int i = 0; i < lateness.length; i++) {
+            lateness[i] = group.get(i).getTaskQueue().getMaxLateness();
+        }
+        return lateness;
+    }
+}
@@ -23,11 +23,11 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -107,13 +107,15 @@ public abstract class AbstractDraegerVent extends AbstractDelegatingSerialDevice
     private static final int BUFFER_SAMPLES = 25;
 
     // Theoretical maximum 16 streams, practical limit seems to be 3
-    // Buffering ten points is for testing, size of this buffer might be
-    // a function of the sampling rate
-    @SuppressWarnings("unchecked")
-    private final List<Number>[] realtimeBuffer = new List[16];
+    private final RealtimeBuffer[] realtimeBuffer = new RealtimeBuffer[16];
+    // samples kept per stream; plenty for the publisher to copy a window from
+    // without being lapped
+    private static final int REALTIME_CAPACITY = 256;
     private final RTMedibus.RTDataConfig[] realtimeConfig = new RTMedibus.RTDataConfig[16];
     private final int[] realtimeUpsample = new int[16];
     private final int[] realtimeFrequency = new int[16];
+    // whether the EmitFastData for each stream's frequency has been started
+    private final boolean[] realtimeEmitting = new boolean[16];
     private long lastRealtime;
     private static final int MAX_UPSAMPLE = 10;
 
@@ -139,10 +141,26 @@ public abstract class AbstractDraegerVent extends AbstractDelegatingSerialDevice
             }
             realtimeFrequency[streamIndex] = 1000000 / (config.interval*multiplier/realtimeUpsample[streamIndex]);
         }
-        for(int i = 0; i < realtimeUpsample[streamIndex]; i++) {
-            realtimeBuffer[streamIndex].add(value);
+        realtimeBuffer[streamIndex].add((float) value, realtimeUpsample[streamIndex]);
+        if (!realtimeEmitting[streamIndex]) {
+            startEmitFastData(realtimeFrequency[streamIndex]);
+            realtimeEmitting[streamIndex] = true;
         }
-        startEmitFastData(realtimeFrequency[streamIndex]);
+    }
+
+    /**
+     * @return the publishing statistics of each realtime stream received so
+     *         far, keyed by the realtime data code
+     */
+    public Map<String, RealtimeBuffer> getRealtimeBuffers() {
+        Map<String, RealtimeBuffer> buffers = new TreeMap<String, RealtimeBuffer>();
+        for (int i = 0; i < realtimeBuffer.length; i++) {
+            RTMedibus.RTDataConfig config = realtimeConfig[i];
+            if (null != config) {
+                buffers.put(codeToString(config.realtimeData), realtimeBuffer[i]);
+            }
+        }
+        return buffers;
     }
 
     private static final String codeToString(Object code) {
@@ -489,13 +507,9 @@ public abstract class AbstractDraegerVent extends AbstractDelegatingSerialDevice
                             // In this implementation we're not changing the
                             // requested realtime data; so we
                             // expedite here using the same preregistered instance
-                            synchronized (realtimeBuffer[i]) {
-                                if (realtimeBuffer[i].size() >= BUFFER_SAMPLES) {
-                                    if (realtimeBuffer[i].size() > BUFFER_SAMPLES) {
-                                        realtimeBuffer[i].subList(0, realtimeBuffer[i].size() - BUFFER_SAMPLES).clear();
-                                    }
-                                    sampleArraySample(sa, realtimeBuffer[i], deviceClock.instant());
-                                }
+                            float[] samples = realtimeBuffer[i].window(BUFFER_SAMPLES);
+                            if (null != samples) {
+                                sampleArraySample(sa, samples, 0, BUFFER_SAMPLES, deviceClock.instant());
                             }
                         } else {
     
@@ -515,14 +529,10 @@ public abstract class AbstractDraegerVent extends AbstractDelegatingSerialDevice
                             // realtimeConfig[i].multiplier);
     
                             metric_id = metricOrCode(metric_id, code, "RT");
-                            synchronized (realtimeBuffer[i]) {
-                                if (realtimeBuffer[i].size() >= BUFFER_SAMPLES) {
-                                    if (realtimeBuffer[i].size() > BUFFER_SAMPLES) {
-                                        realtimeBuffer[i].subList(0, realtimeBuffer[i].size() - BUFFER_SAMPLES).clear();
-                                    }
-                                    sampleArrayUpdates.put(code,
-                                            sampleArraySample(sa, realtimeBuffer[i], metric_id, codeToString(code), 0, units(code), realtimeFrequency[i], deviceClock.instant()));
-                                }
+                            float[] samples = realtimeBuffer[i].window(BUFFER_SAMPLES);
+                            if (null != samples) {
+                                sampleArrayUpdates.put(code,
+                                        sampleArraySample(sa, samples, 0, BUFFER_SAMPLES, metric_id, codeToString(code), 0, units(code), realtimeFrequency[i], deviceClock.instant()));
                             }
                         }
     
@@ -710,6 +720,7 @@ public abstract class AbstractDraegerVent extends AbstractDelegatingSerialDevice
             emitFastDataByFrequency.get(frequency).cancel(false);
         }
         emitFastDataByFrequency.clear();
+        Arrays.fill(realtimeEmitting, false);
     }
 
     private synchronized void startRequestSlowData() {
@@ -751,7 +762,7 @@ public abstract class AbstractDraegerVent extends AbstractDelegatingSerialDevice
     public AbstractDraegerVent(final Subscriber subscriber, final Publisher publisher, EventLoop eventLoop) {
         super(subscriber, publisher, eventLoop, RTMedibus.class);
         for (int i = 0; i < realtimeBuffer.length; i++) {
-            realtimeBuffer[i] = Collections.synchronizedList(new ArrayList<Number>());
+            realtimeBuffer[i] = new RealtimeBuffer(BUFFER_SAMPLES, REALTIME_CAPACITY);
         }
         loadMap(numerics, waveforms);
     }
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.draeger.medibus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The most recent samples of one Medibus realtime stream. The thread
+ * receiving from the device appends each value (repeated to upsample it to a
+ * whole number of Hertz) and the thread publishing SampleArrays copies out the
+ * latest window of samples, without either taking a lock or allocating.
+ * There must be exactly one thread calling {@link #add(float, int)} and one
+ * calling {@link #window(int)}.
+ *
+ * A publish that finds fewer new samples than the window holds (an underrun)
+ * still publishes the latest window, part of which was published before.
+ */
+public final class RealtimeBuffer {
+    private final float[] ring;
+    private final int mask;
+    // owned by the consumer
+    private final float[] window;
+
+    // total samples ever added
+    private volatile long written;
+    // written as of the previous window
+    private long windowed;
+
+    private volatile int upsample = 1;
+    // nanoTime of the first and most recent add
+    private volatile long firstAdd, lastAdd;
+
+    private final AtomicLong publishes = new AtomicLong();
+    private final AtomicLong underruns = new AtomicLong();
+
+    /**
+     * @param windowSize
+     *            the number of samples in each window
+     * @param capacity
+     *            the minimum number of samples to keep; rounded up to a power
+     *            of two that is at least twice windowSize
+     */
+    public RealtimeBuffer(int windowSize, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2 * windowSize, capacity) - 1) << 1;
+        ring = new float[size];
+        mask = size - 1;
+        window = new float[windowSize];
+    }
+
+    /**
+     * Called by the producer; appends value count times.
+     */
+    public void add(float value, int count) {
+        final long w = written;
+        upsample = count;
+        for (int i = 0; i < count; i++) {
+            ring[(int) ((w + i) & mask)] = value;
+        }
+        long now = System.nanoTime();
+        if (0L == w) {
+            firstAdd = now;
+        }
+        lastAdd = now;
+        // publishes the samples to the consumer
+        written = w + count;
+    }
+
+    /**
+     * Called by the consumer.
+     *
+     * @return the most recent n samples, oldest first, in an array reused by
+     *         the next call; or null if fewer than n samples have ever been
+     *         added
+     */
+    public float[] window(int n) {
+        if (n != window.length) {
+            throw new IllegalArgumentException("window size is " + window.length + " not " + n);
+        }
+        long w;
+        do {
+            w = written;
+            if (w < n) {
+                return null;
+            }
+            final int start = (int) ((w - n) & mask);
+            final int first = Math.min(n, ring.length - start);
+            System.arraycopy(ring, start, window, 0, first);
+            System.arraycopy(ring, 0, window, first, n - first);
+            // the producer, including an add in progress, lapped us while we
+            // copied; take the newer window
+        } while (written + upsample - w > ring.length - n);
+        if (w - windowed < n) {
+            underruns.incrementAndGet();
+        }
+        windowed = w;
+        publishes.incrementAndGet();
+        return window;
+    }
+
+    /**
+     * @return the number of samples ever added, counting repeats
+     */
+    public long getSamples() {
+        return written;
+    }
+
+    /**
+     * @return the rate at which samples, counting repeats, have been added
+     */
+    public double getSamplesPerSecond() {
+        long w = written;
+        long elapsed = lastAdd - firstAdd;
+        return w < 2L || elapsed <= 0L ? 0.0 : (w - 1) * 1e9 / elapsed;
+    }
+
+    /**
+     * @return the number of times each received value is repeated
+     */
+    public int getUpsample() {
+        return upsample;
+    }
+
+    public long getPublishes() {
+        return publishes.get();
+    }
+
+    /**
+     * @return the number of windows that included samples already published
+     */
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[samplesPerSecond=" + String.format("%.1f", getSamplesPerSecond()) + ",upsample=" + upsample + ",publishes=" + publishes.get()
+                + ",underruns=" + underruns.get() + "]";
+    }
+}
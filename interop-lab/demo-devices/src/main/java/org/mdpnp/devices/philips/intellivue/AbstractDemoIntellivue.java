@@ -23,21 +23,19 @@ import java.net.*;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.text.Normalizer;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.mdpnp.devices.AbstractDevice;
 import org.mdpnp.devices.DeviceClock;
 import org.mdpnp.devices.connected.AbstractConnectedDevice;
+import org.mdpnp.devices.io.CaptureWriter;
 import org.mdpnp.devices.io.util.StateMachine;
 import org.mdpnp.devices.net.NetworkLoop;
 import org.mdpnp.devices.net.TaskQueue;
@@ -79,6 +77,7 @@ import org.mdpnp.devices.philips.intellivue.data.ProductionSpecificationType;
 import org.mdpnp.devices.philips.intellivue.data.ProtocolSupport.ProtocolSupportEntry;
 import org.mdpnp.devices.philips.intellivue.data.RelativeTime;
 import org.mdpnp.devices.philips.intellivue.data.SampleArrayCompoundObservedValue;
+import org.mdpnp.devices.philips.intellivue.data.SampleArrayDecoder;
 import org.mdpnp.devices.philips.intellivue.data.SampleArrayObservedValue;
 import org.mdpnp.devices.philips.intellivue.data.SampleArraySpecification;
 import org.mdpnp.devices.philips.intellivue.data.ScaleAndRangeSpecification;
@@ -177,6 +176,8 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
             DisconnectState.Initial, "");
     
     private static final long PERIOD = 2000L;
+    private static final int SAMPLE_RING_PERIODS = 4;
+    private static final int MIN_SAMPLE_RING_CAPACITY = 1024;
     private ScheduledFuture<?> emitFastData;
 
     private synchronized void startEmitFastData() {
@@ -679,7 +680,6 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
 
 
         protected void handle(int handle, DeviceClock.Reading time, SampleArrayObservedValue v, long now) {
-            short[] bytes = v.getValue();
             ObservedValue ov = ObservedValue.valueOf(v.getPhysioId().getType());
             if (null == ov) {
                 log.warn("No ObservedValue for " + v.getPhysioId().getType());
@@ -695,56 +695,57 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
                     if (null == sas || null == rt || null == sar || null == unitCode) {
                         log.warn("No SampleArraySpecification or RelativeTime for handle=" + handle + " rt=" + rt + " sas=" + sas + " sar="+sar+ " unitCode="+unitCode);
                     } else {
-                        int cnt = sas.getArraySize();
-                        // TODO these were once cached, no?
-                        MySampleArray w = new MySampleArray();
-                        
-                        w.setSampleArraySpecification(sas);
-                        w.setScaleAndRangeSpecification(sar);
-                        
-                        int cnt_sa = v.getLength() / (sas.getSampleSize() / Byte.SIZE);
+                        SampleArrayDecoder decoder = sampleArrayDecoder(handle);
+                        int cnt = decoder.getArraySize();
+                        int cnt_sa = decoder.count(v);
 
                         if (cnt_sa < cnt) {
                             log.warn("Ignoring insufficient data (" + cnt_sa + ") in the samplearray observation when " + cnt + " expected for " + ov
                                     + " " + handle + " v.getLength()=" + v.getLength() + " sampleSize=" + sas.getSampleSize());
                             return;
                         } else {
-                            if (cnt < cnt_sa) {
-//                                log.info("Expanding to accomodate " + cnt_sa + " samples where only " + cnt + " were expected");
-                                w.setArraySize(cnt_sa);
-                                cnt = cnt_sa;
-                            }
-                            if (w.getArraySize() < cnt) {
-//                                log.info("Expanding to accomodate " + cnt + " samples where " + w.getArraySize() + " were expected");
-                                w.setArraySize(cnt);
-                            }
-                            
-                            // 
-                            for (int i = 0; i < cnt; i++) {
-                                w.applyValue(i, bytes);
-                            }
+                            // straight out of the message buffer into the decoder's reused array
+                            cnt_sa = decoder.decode(v);
                             
-                            Map<Integer, SampleCache> handleToSampleCache = sampleArrayCache.get(ov);
-                            if(null == handleToSampleCache) {
-                                handleToSampleCache = Collections.synchronizedMap( new HashMap<Integer, SampleCache>() );
-                                sampleArrayCache.put(ov, handleToSampleCache);
+                            Map<Integer, SampleRing> handleToSampleRing = sampleArrayCache.get(ov);
+                            if(null == handleToSampleRing) {
+                                handleToSampleRing = new ConcurrentHashMap<Integer, SampleRing>();
+                                sampleArrayCache.put(ov, handleToSampleRing);
                             }
-                            SampleCache sampleCache = handleToSampleCache.get(handle);
-                            if(null == sampleCache) {
-                                sampleCache = new SampleCache();
-                                handleToSampleCache.put(handle, sampleCache);
+                            SampleRing sampleRing = handleToSampleRing.get(handle);
+                            if(null == sampleRing) {
+                                // room for a few emission periods worth of samples
+                                sampleRing = new SampleRing((int) Math.max(MIN_SAMPLE_RING_CAPACITY, SAMPLE_RING_PERIODS * PERIOD / Math.max(1L, rt.toMilliseconds())));
+                                handleToSampleRing.put(handle, sampleRing);
                             }
                             
-                            sampleCache.addNewSamples(w.getNumbers());
+                            int accepted = sampleRing.add(decoder.getSamples(), 0, cnt_sa);
+                            if (accepted < cnt_sa) {
+                                long overruns = sampleRing.getOverruns();
+                                // log as the total passes 1, 2, 4, 8... to avoid flooding the log
+                                if (Long.highestOneBit(overruns) != Long.highestOneBit(overruns - (cnt_sa - accepted))) {
+                                    log.warn(metricId + " " + handle + " overran its sample ring, " + overruns + " samples discarded so far");
+                                }
+                            }
                         }
                     }
                 }
             }
         }
 
+        private SampleArrayDecoder sampleArrayDecoder(int handle) {
+            SampleArrayDecoder decoder = handleToSampleArrayDecoder.get(handle);
+            if (null == decoder) {
+                decoder = new SampleArrayDecoder();
+                handleToSampleArrayDecoder.put(handle, decoder);
+            }
+            return decoder;
+        }
+
 
         protected void handle(int handle, ScaleAndRangeSpecification sar) {
             handleToScaleAndRangeSpecification.put(handle, sar.clone());
+            sampleArrayDecoder(handle).setScaleAndRangeSpecification(sar);
             if(log.isTraceEnabled()) {
                 log.trace("Received a ScaleAndRangeSpecification for " + handle + " " + sar);
             }
@@ -759,6 +760,7 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
         
         protected void handle(int handle, SampleArraySpecification spec) {
             handleToSampleArraySpecification.put(handle, spec.clone());
+            sampleArrayDecoder(handle).setSampleArraySpecification(spec);
             if(log.isTraceEnabled()) {
                 log.trace("Received a SampleArraySpecification for " + handle + " " + spec);
             }
@@ -791,41 +793,37 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
                     if(null == ov) {
                         break;
                     }
-                    Map<Integer, SampleCache> sampleCacheByHandle = sampleArrayCache.get(ov);
-                    handles = sampleCacheByHandle.keySet().toArray(handles);
+                    Map<Integer, SampleRing> sampleRingByHandle = sampleArrayCache.get(ov);
+                    handles = sampleRingByHandle.keySet().toArray(handles);
                     for(Integer handle : handles) {
                         if(null == handle) {
                             break;
                         }
-                        SampleCache sampleCache = sampleCacheByHandle.get(handle);
+                        SampleRing sampleRing = sampleRingByHandle.get(handle);
                         InstanceHolder<ice.SampleArray> sa = getSampleArrayUpdate(ov, handle);
                         RelativeTime rt = handleToUpdatePeriod.get(handle);
-                        if (null == rt || null == sampleCache || null == unitCode) {
-                            log.warn("No RelativeTime for handle=" + handle + " rt=" + rt + " sampleCache=" + sampleCache + " unitCode="+unitCode);
+                        if (null == rt || null == sampleRing || null == unitCode) {
+                            log.warn("No RelativeTime for handle=" + handle + " rt=" + rt + " sampleRing=" + sampleRing + " unitCode="+unitCode);
                             continue;
                         }
                         int samples = (int) (PERIOD / rt.toMilliseconds());
 
                         if(null != sa) {
-                            synchronized(sampleCache) {
-                                Collection<Number> c = sampleCache.emitSamples(samples, sa.data.metric_id+" "+sa.data.instance_id);
-                                if(null == c) {
-                                    putSampleArrayUpdate(ov, handle, null);
-                                } else {
-                                    sampleArraySample(sa, c, fakeSampleTime);
-                                }
+                            float[] c = drain(sampleRing, samples, ov, handle);
+                            if(null == c) {
+                                putSampleArrayUpdate(ov, handle, null);
+                            } else {
+                                sampleArraySample(sa, c, 0, samples, fakeSampleTime);
                             }
                         } else {
                             String metric_id = sampleArrayMetricIds.get(ov);
                             UnitCode unitCode = handleToUnitCode.get(handle);
-                            synchronized(sampleCache) {
-                                putSampleArrayUpdate(
-                                        ov, handle,
-                                        sampleArraySample(getSampleArrayUpdate(ov, handle), sampleCache.emitSamples(samples, metric_id+" "+handle),
-                                        metric_id, ov.toString(), handle, 
-                                        RosettaUnits.units(unitCode),
-                                        (int)(1000L / rt.toMilliseconds()), fakeSampleTime));
-                            }
+                            putSampleArrayUpdate(
+                                    ov, handle,
+                                    sampleArraySample(getSampleArrayUpdate(ov, handle), drain(sampleRing, samples, ov, handle), 0, samples,
+                                    metric_id, ov.toString(), handle, 
+                                    RosettaUnits.units(unitCode),
+                                    (int)(1000L / rt.toMilliseconds()), fakeSampleTime));
                         }
                     }
                 }
@@ -835,6 +833,17 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
             }
         }
 
+        private float[] drain(SampleRing sampleRing, int samples, ObservedValue ov, int handle) {
+            long before = sampleRing.getUnderruns();
+            float[] c = sampleRing.drain(samples);
+            long underruns = sampleRing.getUnderruns();
+            // log at 1, 2, 4, 8... to avoid flooding the log
+            if (underruns != before && Long.bitCount(underruns) == 1) {
+                log.warn(sampleArrayMetricIds.get(ov) + " " + handle + " had too few new samples to emit " + samples + " " + sampleRing);
+            }
+            return c;
+        }
+
     }
 
     @Override
@@ -857,50 +866,26 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
     protected final Map<ObservedValue, Label> sampleArrayLabels = new HashMap<ObservedValue, Label>();
 
     
-    private static final class SampleCache {
-        private final List<Number> newSamples = Collections.synchronizedList(new ArrayList<Number>());
-        private final List<Number> oldSamples = Collections.synchronizedList(new ArrayList<Number>());
-        
-        public void addNewSamples(Collection<Number> coll) {
-            newSamples.addAll(coll);
-        }
-        
-        public Collection<Number> emitSamples(int n, String s) {
-            synchronized(newSamples) {
-                if(newSamples.isEmpty()) {
-                    log.warn(s+" no new samples to emit");
-                    return null;
-                }
-                
-                if(newSamples.size() < n) {
-                    log.warn(s+" will repeat " + (n - newSamples.size()) + " old samples to make up a shortfall");
-                }
-                // Move up to n samples from the old list to the new
-                List<Number> oldestNewSamples = newSamples.subList(0, n > newSamples.size() ? newSamples.size() : n);
-                
-                oldSamples.addAll(oldestNewSamples);
-                oldestNewSamples.clear();
-            }
-            synchronized(oldSamples) {
-                // If we have insufficient oldSamples (shouldn't happen except maybe at initialization) fill in values
-                if(oldSamples.size() < n) {
-                    log.warn(s+" filling in " + (n - oldSamples.size()) + " zeros; this should not continue happening");
-                    while(oldSamples.size() < n) {
-                        oldSamples.add(0, 0);
-                    }
-                }
-                // If we have extra oldSamples then remove them
-                if(oldSamples.size() > n) {
-                    oldSamples.subList(0, oldSamples.size()-n).clear();
-                }
+    protected final Map<ObservedValue, Map<Integer, InstanceHolder<ice.Numeric>>> numericUpdates = new HashMap<ObservedValue, Map<Integer, InstanceHolder<ice.Numeric>>>();
+    protected final Map<ObservedValue, Map<Integer, InstanceHolder<ice.SampleArray>>> sampleArrayUpdates = new HashMap<ObservedValue, Map<Integer, InstanceHolder<ice.SampleArray>>>();
+    // written by the thread reading the monitor, drained by EmitFastData
+    protected final Map<ObservedValue, Map<Integer, SampleRing>> sampleArrayCache = new ConcurrentHashMap<ObservedValue, Map<Integer, SampleRing>>();
+
+    /**
+     * @return the ring buffering each sample array between the monitor and
+     *         its publication keyed by metric id and object handle, for
+     *         checking their underrun and overrun counts
+     */
+    public Map<String, SampleRing> getSampleRings() {
+        Map<String, SampleRing> rings = new TreeMap<String, SampleRing>();
+        for (Map.Entry<ObservedValue, Map<Integer, SampleRing>> byObservedValue : sampleArrayCache.entrySet()) {
+            String metricId = sampleArrayMetricIds.get(byObservedValue.getKey());
+            for (Map.Entry<Integer, SampleRing> byHandle : byObservedValue.getValue().entrySet()) {
+                rings.put(metricId + " " + byHandle.getKey(), byHandle.getValue());
             }
-            return oldSamples;
         }
+        return rings;
     }
-    
-    protected final Map<ObservedValue, Map<Integer, InstanceHolder<ice.Numeric>>> numericUpdates = new HashMap<ObservedValue, Map<Integer, InstanceHolder<ice.Numeric>>>();
-    protected final Map<ObservedValue, Map<Integer, InstanceHolder<ice.SampleArray>>> sampleArrayUpdates = new HashMap<ObservedValue, Map<Integer, InstanceHolder<ice.SampleArray>>>();
-    protected final Map<ObservedValue, Map<Integer, SampleCache>> sampleArrayCache = Collections.synchronizedMap(new HashMap<ObservedValue, Map<Integer, SampleCache>>());
 
     static void loadMap(Map<ObservedValue, String> numericMetricIds,
                         Map<ObservedValue, Label> numericLabels,
@@ -1001,6 +986,8 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
         }
 
         myIntellivue = new IntellivueExt(getClockProvider());
+        // only when capture is enabled with CaptureWriter.DIRECTORY_PROPERTY
+        myIntellivue.setCapture(CaptureWriter.open(getClass().getSimpleName()));
 
         watchdogTask = new TaskQueue.TaskImpl<Object>() {
             @Override
@@ -1024,144 +1011,6 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
         }
     }
     
-    protected static class MySampleArray {
-        private short sampleSize, significantBits;
-        private double lowerAbsoluteValue, upperAbsoluteValue;
-        private int lowerScaledValue, upperScaledValue;
-        private final List<Number> numbers = new ArrayList<Number>();
-
-        public MySampleArray() {
-
-        }
-
-        public List<Number> getNumbers() {
-            return numbers;
-        }
-
-        private int[] mask = new int[0];
-        private int[] shift = new int[0];
-
-        public void applyValue(int sampleNumber, short[] values) {
-            int value = 0;
-            for (int i = 0; i < sampleSize; i++) {
-                int idx = sampleNumber * sampleSize + i;
-                if (idx >= values.length) {
-                    log.warn("Cannot locate index " + idx + " where values.length=" + values.length + " sampleSize=" + sampleSize + " sampleNumber="
-                            + sampleNumber + " i=" + i);
-                } else {
-                    if (i >= mask.length) {
-                        log.warn("Cannot access i=" + i + " where mask.length=" + mask.length);
-                    } else {
-                        if (i >= shift.length) {
-                            log.warn("Cannot access i=" + i + " where shift.length=" + shift.length);
-                        } else {
-                            value |= (mask[i] & values[idx]) << shift[i];
-                        }
-                    }
-                }
-            }
-            if (sampleNumber >= numbers.size()) {
-                log.warn("Received sampleNumber=" + sampleNumber + " where expected size was " + numbers.size());
-            } else {
-                // Scale and range the value
-                
-                if(!Double.isNaN(lowerAbsoluteValue) && !Double.isNaN(upperAbsoluteValue)) {
-                    if(upperScaledValue == lowerScaledValue) {
-                        log.error("Not scaling " + value + " between scaled " + lowerScaledValue + " and " + upperScaledValue);
-                    } else {
-                        double prop = 1.0 * (value - lowerScaledValue) / (upperScaledValue - lowerScaledValue);
-                        if(lowerAbsoluteValue == upperAbsoluteValue) {
-                            log.error("Not scaling " + value + " (proportionally " + prop+ ") between " + lowerAbsoluteValue + " and " + upperScaledValue);
-                        } else {
-                            prop = lowerAbsoluteValue + prop * (upperAbsoluteValue - lowerAbsoluteValue);
-                            numbers.set(sampleNumber, prop);
-                        }
-                    } 
-                } else {
-                    numbers.set(sampleNumber, value);
-                }
-            }
-        }
-
-        public static final int createMask(int prefix) {
-            int mask = 0;
-
-            for (int i = 0; i < prefix; i++) {
-                mask |= (1 << i);
-            }
-            return mask;
-        }
-
-        private void buildMaskAndShift() {
-            if (this.shift.length < sampleSize) {
-                this.shift = new int[sampleSize];
-            }
-            if (this.mask.length < sampleSize) {
-                this.mask = new int[sampleSize];
-            }
-            int significantBits = this.significantBits;
-            for (int i = sampleSize - 1; i >= 0; i--) {
-                shift[i] = (sampleSize - i - 1) * Byte.SIZE;
-                mask[i] = significantBits >= Byte.SIZE ? 0xFF : createMask(significantBits);
-                significantBits -= Byte.SIZE;
-            }
-            log.debug("Mask:" + Arrays.toString(mask) + " Shift:" + Arrays.toString(shift) + " sampleSize=" + sampleSize + " sigBits="
-                    + this.significantBits);
-        }
-
-        public short getSampleSize() {
-            return sampleSize;
-        }
-
-        public short getSignificantBits() {
-            return significantBits;
-        }
-
-        public void setSampleSize(short s) {
-            s /= Byte.SIZE;
-            if (sampleSize != s) {
-                this.sampleSize = s;
-                buildMaskAndShift();
-            }
-        }
-
-        public void setSignificantBits(short s) {
-            if (significantBits != s) {
-                this.significantBits = s;
-                buildMaskAndShift();
-            }
-        }
-
-        public int getArraySize() {
-            return numbers.size();
-        }
-
-        public void setArraySize(int size) {
-            if (size != numbers.size()) {
-                while (numbers.size() < size) {
-                    numbers.add(0);
-                }
-                while (numbers.size() > size) {
-                    numbers.remove(0);
-                }
-            }
-        }
-
-        public void setSampleArraySpecification(SampleArraySpecification sas) {
-            setSampleSize(sas.getSampleSize());
-            setSignificantBits(sas.getSignificantBits());
-            setArraySize(sas.getArraySize());
-            buildMaskAndShift();
-        }
-        
-        public void setScaleAndRangeSpecification(ScaleAndRangeSpecification sar) {
-            this.lowerAbsoluteValue = sar.getLowerAbsoluteValue().doubleValue();
-            this.upperAbsoluteValue = sar.getUpperAbsoluteValue().doubleValue();
-            this.lowerScaledValue = sar.getLowerScaledValue();
-            this.upperScaledValue = sar.getUpperScaledValue();
-        }
-    }
-
     protected final void state(ice.ConnectionState state, String connectionInfo) {
         // So actually the state transition will emit the connection info
         if (!stateMachine.transitionWhenLegal(state, 5000L, connectionInfo)) {
@@ -1178,6 +1027,7 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
     protected final Map<Integer, SampleArraySpecification> handleToSampleArraySpecification = new HashMap<Integer, SampleArraySpecification>();
     protected final Map<Integer, ScaleAndRangeSpecification> handleToScaleAndRangeSpecification = new HashMap<Integer, ScaleAndRangeSpecification>();
     protected final Map<Integer, UnitCode> handleToUnitCode = new HashMap<Integer, UnitCode>();
+    protected final Map<Integer, SampleArrayDecoder> handleToSampleArrayDecoder = new HashMap<Integer, SampleArrayDecoder>();
 
     
 
@@ -1304,16 +1154,26 @@ public abstract class AbstractDemoIntellivue extends AbstractConnectedDevice {
 
     @Override
     public void shutdown() {
-        networkLoop.clearTasks();
-        networkLoop.cancelThread();
         if (null != networkLoopThread) {
+            networkLoop.clearTasks();
+            networkLoop.cancelThread();
             try {
                 networkLoopThread.join();
             } catch (InterruptedException e) {
                 log.error("Interrupted", e);
             }
+        } else {
+            // the loop is shared with other devices; just take our channels
+            // and our task off it
+            unregisterAll();
+            watchdogTask.setInterval(0L);
+            networkLoop.remove(watchdogTask);
+        }
+        CaptureWriter capture = myIntellivue.getCapture();
+        if (null != capture) {
+            myIntellivue.setCapture(null);
+            capture.close();
         }
-
 
         super.shutdown();
     }
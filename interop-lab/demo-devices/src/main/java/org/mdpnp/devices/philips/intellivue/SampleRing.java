@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.philips.intellivue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands decoded samples of one sample array from the thread reading the
+ * monitor to the thread publishing them, without either taking a lock.
+ * There must be exactly one producer calling {@link #add(float[], int, int)}
+ * and one consumer calling {@link #drain(int)}.
+ *
+ * The consumer takes exactly n samples at a time. When fewer than n new
+ * samples have arrived (an underrun) the most recently drained samples are
+ * repeated to make up the difference. When the consumer falls so far behind
+ * that the ring is full (an overrun) further samples are discarded until it
+ * catches up.
+ */
+public final class SampleRing {
+    private final float[] ring;
+    private final int mask;
+
+    // total samples ever written by the producer and read by the consumer
+    private volatile long tail, head;
+
+    // owned by the consumer; the most recent emission, oldest first
+    private float[] last = new float[0];
+
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            the minimum number of samples the ring can hold; rounded up
+     *            to a power of two
+     */
+    public SampleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        ring = new float[size];
+        mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * @return the number of samples waiting to be drained
+     */
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return the number of drains that had to repeat samples (or had none at
+     *         all) because too few new samples had arrived
+     */
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    /**
+     * @return the number of samples discarded because the ring was full
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * Called by the producer.
+     *
+     * @return the number of samples accepted; the rest overran the ring
+     */
+    public int add(float[] samples, int offset, int length) {
+        final long t = tail;
+        final int accepted = (int) Math.min(length, ring.length - (t - head));
+        if (accepted < length) {
+            overruns.addAndGet(length - accepted);
+        }
+        final int start = (int) (t & mask);
+        final int first = Math.min(accepted, ring.length - start);
+        System.arraycopy(samples, offset, ring, start, first);
+        System.arraycopy(samples, offset + first, ring, 0, accepted - first);
+        // publishes the samples to the consumer
+        tail = t + accepted;
+        return accepted;
+    }
+
+    /**
+     * Called by the consumer. Takes up to n of the oldest new samples and
+     * returns the n most recent samples taken, oldest first. Until n samples
+     * have ever been taken the shortfall is zero filled.
+     *
+     * @return an array of exactly n samples which is reused by the next call,
+     *         or null if no new samples have arrived at all
+     */
+    public float[] drain(int n) {
+        final long h = head;
+        final int taken = (int) Math.min(n, tail - h);
+        if (taken < n) {
+            underruns.incrementAndGet();
+        }
+        if (0 == taken) {
+            return null;
+        }
+        if (last.length != n) {
+            float[] resized = new float[n];
+            int keep = Math.min(n, last.length);
+            System.arraycopy(last, last.length - keep, resized, n - keep, keep);
+            last = resized;
+        }
+        // repeat the newest n - taken samples of the previous emission
+        System.arraycopy(last, taken, last, 0, n - taken);
+        final int start = (int) (h & mask);
+        final int first = Math.min(taken, ring.length - start);
+        System.arraycopy(ring, start, last, n - taken, first);
+        System.arraycopy(ring, 0, last, n - taken + first, taken - first);
+        // hands the slots back to the producer
+        head = h + taken;
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return "[size=" + size() + ",capacity=" + ring.length + ",underruns=" + underruns.get() + ",overruns=" + overruns.get() + "]";
+    }
+}
@@ -8,7 +8,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -42,17 +41,17 @@ public class DemoPB840 extends AbstractDelegatingSerialDevice<PB840> {
         }
 
         @Override
-        public void receiveBreath(Collection<Number> flow, Collection<Number> pressure) {
+        public void receiveBreath(float[] flow, float[] pressure, int count) {
             DeviceClock.Reading sampleTime = deviceClock.instant();
 
             flowSampleArray =
-                    sampleArraySample(flowSampleArray, flow,
+                    sampleArraySample(flowSampleArray, flow, 0, count,
                                       rosetta.MDC_FLOW_AWAY.VALUE,
                                       rosetta.MDC_FLOW_AWAY.VALUE, 0,
                                       rosetta.MDC_DIM_L_PER_MIN.VALUE, 50,
                                       sampleTime);
             pressureSampleArray =
-                    sampleArraySample(pressureSampleArray, pressure,
+                    sampleArraySample(pressureSampleArray, pressure, 0, count,
                                       rosetta.MDC_PRESS_AWAY.VALUE,
                                       rosetta.MDC_PRESS_AWAY.VALUE, 0,
                                       rosetta.MDC_DIM_CM_H2O.VALUE, 50,
@@ -87,19 +86,6 @@ public class DemoPB840 extends AbstractDelegatingSerialDevice<PB840> {
         super.unregisterAllNumericInstances();
     }
 
-    
-    protected static Float parseFloat(String s) throws NumberFormatException {
-        return parseFloat(s, null);
-    }
-
-    protected static Float parseFloat(String s, Float ifNull) throws NumberFormatException {
-        if (s == null || s.isEmpty() || "OFF".equals(s)) {
-            return ifNull;
-        } else {
-            return Float.parseFloat(s);
-        }
-    }
-
     protected static final void loadUnits(Map<PB840.Units, String> map) {
         try {
             BufferedReader br = new BufferedReader(new InputStreamReader(PB840Parameters.class.getResourceAsStream("units")));
@@ -156,49 +142,38 @@ public class DemoPB840 extends AbstractDelegatingSerialDevice<PB840> {
         }
 
         @Override
-        public void receiveSetting(String name, Units units, String value) {
+        public void receiveSetting(String name, Units units, float value) {
             // TODO settings might not always be on the same topic as numerics
             receiveNumeric(name, units, value);
         }
         
         @Override
-        public void receiveNumeric(String name, Units units, String value) {
+        public void receiveNumeric(String name, Units units, float value) {
             String canonicalName = terms.get(name);
             canonicalName = null == canonicalName ? name : canonicalName;
-            try {
-                DeviceClock.Reading sampleTime = deviceClock.instant();
-                numericInstances.put(name,
-                        numericSample(numericInstances.get(name),
-                                      parseFloat(value),
-                                      canonicalName, name,
-                                      unitsMap.get(units),
-                                      sampleTime));
-            } catch (NumberFormatException nfe) {
-                log.warn("Poorly formatted numeric " + name + " " + value);
-                throw nfe;
-            }
+            DeviceClock.Reading sampleTime = deviceClock.instant();
+            numericInstances.put(name,
+                    numericSample(numericInstances.get(name),
+                                  Float.isNaN(value) ? null : value,
+                                  canonicalName, name,
+                                  unitsMap.get(units),
+                                  sampleTime));
         }
         
         @Override 
-        public void receiveAlarmLimit(String metricName, PB840.Units unitID, String value, String limitType) {
-            try {
-                // TODO using FLOAT_MIN, FLOAT_MAX as reserved values because
-                // otherwise cannot publish AlarmSettings (now limits)
-                // with only one boundary condition
-            	ice.LimitType limit = limitType.equals(ice.LimitType.low_limit.toString())? ice.LimitType.low_limit:ice.LimitType.high_limit;
-            	//XXX possible values of Alarm settings PB_LIMIT_TOTAL_RESPIRATORY_RATE & PB_LIMIT_INSPIRED_TIDAL_VOLUME: numeric or OFF
-            	Float f = value.equals("OFF")?null:parseFloat(value, null);
-            	alarmLimitInstances.put(
-                		metricName+ "_" + limitType,//metric_id
-                        alarmLimitSample(alarmLimitInstances.get(metricName+ "_" + limitType), unitID.toString(),
-                                f ,//parseFloat(value, null),
-                                metricName,
-                                limit));
-            } catch (NumberFormatException nfe) {
-                log.warn("Poorly formatted alarm setting " + metricName + " value " + value 
-                		+ " limit " + limitType);
-                throw nfe;
-            }
+        public void receiveAlarmLimit(String metricName, PB840.Units unitID, float value, String limitType) {
+            // TODO using FLOAT_MIN, FLOAT_MAX as reserved values because
+            // otherwise cannot publish AlarmSettings (now limits)
+            // with only one boundary condition
+        	ice.LimitType limit = limitType.equals(ice.LimitType.low_limit.toString())? ice.LimitType.low_limit:ice.LimitType.high_limit;
+        	//XXX possible values of Alarm settings PB_LIMIT_TOTAL_RESPIRATORY_RATE & PB_LIMIT_INSPIRED_TIDAL_VOLUME: numeric or OFF
+        	Float f = Float.isNaN(value) ? null : value;
+        	alarmLimitInstances.put(
+            		metricName+ "_" + limitType,//metric_id
+                    alarmLimitSample(alarmLimitInstances.get(metricName+ "_" + limitType), unitID.toString(),
+                            f ,
+                            metricName,
+                            limit));
         }
         
         @Override
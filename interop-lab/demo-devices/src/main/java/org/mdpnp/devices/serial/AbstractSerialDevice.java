@@ -21,6 +21,9 @@ import java.util.concurrent.TimeUnit;
 
 import org.mdpnp.devices.connected.AbstractConnectedDevice;
 import org.mdpnp.devices.connected.TimeAwareInputStream;
+import org.mdpnp.devices.io.CaptureWriter;
+import org.mdpnp.devices.io.TeeInputStream;
+import org.mdpnp.devices.io.TeeOutputStream;
 import org.mdpnp.rtiapi.data.EventLoop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -70,6 +73,9 @@ public abstract class AbstractSerialDevice extends AbstractConnectedDevice {
 
     protected SerialProvider[] serialProvider;
 
+    // records the traffic of every port when CaptureWriter.DIRECTORY_PROPERTY is set
+    private final CaptureWriter capture;
+
     private static final Logger log = LoggerFactory.getLogger(AbstractSerialDevice.class);
 
     private class Watchdog implements Runnable {
@@ -100,6 +106,7 @@ public abstract class AbstractSerialDevice extends AbstractConnectedDevice {
         this.portIdentifier = new String[countSerialPorts];
         this.previousAttempt = new long[countSerialPorts];
         this.lastIssueInitCommands = new long[countSerialPorts];
+        this.capture = CaptureWriter.open(getClass().getSimpleName());
         
         Set<String> serialPorts = new HashSet<String>();
         for(int idx = 0; idx < countSerialPorts; idx++) {
@@ -315,7 +322,14 @@ public abstract class AbstractSerialDevice extends AbstractConnectedDevice {
                 }
                 AbstractSerialDevice.this.socket[idx] = socket;
     
-                process(idx, timeAwareInputStream[idx] = new TimeAwareInputStream(socket.getInputStream()), socket.getOutputStream());
+                InputStream inputStream = socket.getInputStream();
+                OutputStream outputStream = socket.getOutputStream();
+                if (null != capture) {
+                    // the capture stream of each port is its index
+                    inputStream = new TeeInputStream(inputStream, capture.tee(idx, true));
+                    outputStream = new TeeOutputStream(outputStream, capture.tee(idx, false));
+                }
+                process(idx, timeAwareInputStream[idx] = new TimeAwareInputStream(inputStream), outputStream);
             } catch (IOException e) {
                 // Let this thread die, it will be replaced
                 log.error("processing thread ends with IOException", e);
@@ -398,9 +412,20 @@ public abstract class AbstractSerialDevice extends AbstractConnectedDevice {
     @Override
     public void shutdown() {
         close();
+        if (null != capture) {
+            capture.close();
+        }
         super.shutdown();
     }
 
+    /**
+     * @return the capture of the traffic on every port or null if capture is
+     *         not enabled
+     */
+    public CaptureWriter getCapture() {
+        return capture;
+    }
+
     /**
      * milliseconds to wait between connect attempts
      * 
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.serial;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mdpnp.devices.io.CaptureReader;
+import org.mdpnp.devices.serial.SerialSocket.DataBits;
+import org.mdpnp.devices.serial.SerialSocket.FlowControl;
+import org.mdpnp.devices.serial.SerialSocket.Parity;
+import org.mdpnp.devices.serial.SerialSocket.StopBits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serial ports that replay the inbound bytes of a capture recorded by
+ * {@link AbstractSerialDevice} (see {@link org.mdpnp.devices.io.CaptureWriter})
+ * so that drivers can be exercised without the device. A port is named by
+ * the capture file and optionally the index of the recorded port,
+ * path/to/file.capture#1 for instance; the default is port 0. Every connect
+ * starts its own replay from the beginning of the capture so any number of
+ * drivers can replay the same file at once. What the driver writes is
+ * counted and discarded. At the end of the capture the port reaches end of
+ * stream and the driver reconnects as it would to a device, starting the
+ * replay over.
+ *
+ * Replays run at the recorded speed unless
+ * -Dorg.mdpnp.devices.serial.ReplaySerialProvider.speed names a multiple of
+ * it; 0 replays as fast as the driver reads.
+ *
+ * Select it with
+ * -Dorg.mdpnp.data.serial.SerialProviderFactory.defaultProvider=org.mdpnp.devices.serial.ReplaySerialProvider
+ */
+public class ReplaySerialProvider implements SerialProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplaySerialProvider.class);
+
+    public static final String SPEED_PROPERTY = "org.mdpnp.devices.serial.ReplaySerialProvider.speed";
+
+    private final double speed;
+
+    // shared by duplicates
+    private final AtomicLong bytesReplayed, bytesDiscarded;
+
+    public ReplaySerialProvider() {
+        this(Double.parseDouble(System.getProperty(SPEED_PROPERTY, "1.0")));
+    }
+
+    /**
+     * @param speed
+     *            multiple of the recorded speed or 0 for as fast as possible
+     */
+    public ReplaySerialProvider(double speed) {
+        this(speed, new AtomicLong(), new AtomicLong());
+    }
+
+    private ReplaySerialProvider(double speed, AtomicLong bytesReplayed, AtomicLong bytesDiscarded) {
+        this.speed = speed;
+        this.bytesReplayed = bytesReplayed;
+        this.bytesDiscarded = bytesDiscarded;
+    }
+
+    private static class ReplaySerialSocket implements SerialSocket {
+        private final String portIdentifier;
+        private final CaptureReader reader;
+        private final int stream;
+        private final AtomicLong bytesReplayed, bytesDiscarded;
+
+        private final InputStream inputStream = new InputStream() {
+            // drivers read a byte at a time; a stream has one reader
+            private final byte[] single = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return read(single, 0, 1) < 0 ? -1 : 0xFF & single[0];
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return ReplaySerialSocket.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() throws IOException {
+                return reader.remaining();
+            }
+
+            @Override
+            public void close() throws IOException {
+                ReplaySerialSocket.this.close();
+            }
+        };
+
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (reader.isClosed()) {
+                    throw new IOException("Replay of " + portIdentifier + " is closed");
+                }
+                bytesDiscarded.addAndGet(len);
+            }
+        };
+
+        ReplaySerialSocket(String portIdentifier, CaptureReader reader, int stream, AtomicLong bytesReplayed, AtomicLong bytesDiscarded) {
+            this.portIdentifier = portIdentifier;
+            this.reader = reader;
+            this.stream = stream;
+            this.bytesReplayed = bytesReplayed;
+            this.bytesDiscarded = bytesDiscarded;
+        }
+
+        /**
+         * Blocks until the next inbound record of the stream is due
+         */
+        private synchronized int read(byte[] b, int off, int len) {
+            if (0 == len) {
+                return 0;
+            }
+            while (0 == reader.remaining()) {
+                if (!reader.next()) {
+                    return -1;
+                }
+                if (!reader.isInbound() || reader.getStream() != stream) {
+                    reader.skip();
+                } else if (!reader.awaitDue()) {
+                    return -1;
+                }
+            }
+            int n = reader.read(b, off, len);
+            bytesReplayed.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public String getPortIdentifier() {
+            return portIdentifier;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return outputStream;
+        }
+
+        @Override
+        public void setSerialParams(int baud, DataBits dataBits, Parity parity, StopBits stopBits, FlowControl flowControl) {
+        }
+
+        @Override
+        public String toString() {
+            return portIdentifier + " " + reader;
+        }
+    }
+
+    /**
+     * @return the captures in the working directory
+     */
+    @Override
+    public List<String> getPortNames() {
+        List<String> names = new ArrayList<String>();
+        String[] files = new File(".").list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".capture");
+            }
+        });
+        if (null != files) {
+            for (String file : files) {
+                names.add(file);
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public SerialSocket connect(String portIdentifier, long timeout) throws IOException {
+        String path = portIdentifier;
+        int stream = 0;
+        int hash = portIdentifier.lastIndexOf('#');
+        if (hash >= 0) {
+            path = portIdentifier.substring(0, hash);
+            stream = Integer.parseInt(portIdentifier.substring(hash + 1));
+        }
+        CaptureReader reader = new CaptureReader(new File(path), speed);
+        log.info("Replaying " + path + " port " + stream + " at " + (speed > 0.0 ? (speed + "x") : "full speed"));
+        return new ReplaySerialSocket(portIdentifier, reader, stream, bytesReplayed, bytesDiscarded);
+    }
+
+    @Override
+    public void cancelConnect() {
+        // connecting does not block
+    }
+
+    @Override
+    public void setDefaultSerialSettings(int baudrate, DataBits dataBits, Parity parity, StopBits stopBits) {
+    }
+
+    @Override
+    public void setDefaultSerialSettings(int baudrate, DataBits dataBits, Parity parity, StopBits stopBits, FlowControl flowControl) {
+    }
+
+    @Override
+    public SerialProvider duplicate() {
+        return new ReplaySerialProvider(speed, bytesReplayed, bytesDiscarded);
+    }
+
+    /**
+     * @return inbound bytes handed to drivers by every socket of this
+     *         provider and its duplicates
+     */
+    public long getBytesReplayed() {
+        return bytesReplayed.get();
+    }
+
+    /**
+     * @return bytes written by drivers to every socket of this provider and
+     *         its duplicates
+     */
+    public long getBytesDiscarded() {
+        return bytesDiscarded.get();
+    }
+}
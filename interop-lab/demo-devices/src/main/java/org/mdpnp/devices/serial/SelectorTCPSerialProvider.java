@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mdpnp.devices.net.NetworkConnection;
+import org.mdpnp.devices.net.NetworkLoop;
+import org.mdpnp.devices.serial.SerialSocket.DataBits;
+import org.mdpnp.devices.serial.SerialSocket.FlowControl;
+import org.mdpnp.devices.serial.SerialSocket.Parity;
+import org.mdpnp.devices.serial.SerialSocket.StopBits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serial ports exposed as host:port by a terminal server, like
+ * {@link TCPSerialProvider}, but with every socket read by one shared
+ * {@link NetworkLoop} instead of a thread blocked in each socket. The loop
+ * reads whatever has arrived into a buffer per socket from which the
+ * driver's {@link AbstractSerialDevice#process(int, InputStream, OutputStream)}
+ * consumes it through an ordinary InputStream, so the
+ * {@link org.mdpnp.devices.connected.TimeAwareInputStream} quiet time
+ * watchdog works as before. When a driver falls a whole buffer behind the
+ * loop stops reading its socket until it catches up, leaving the terminal
+ * server and TCP to apply back pressure.
+ *
+ * Connecting is bounded by the timeout passed to
+ * {@link #connect(String, long)} and {@link #cancelConnect()} aborts a
+ * connect in progress, which then returns null.
+ *
+ * Select it with
+ * -Dorg.mdpnp.data.serial.SerialProviderFactory.defaultProvider=org.mdpnp.devices.serial.SelectorTCPSerialProvider
+ */
+public class SelectorTCPSerialProvider implements SerialProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(SelectorTCPSerialProvider.class);
+
+    public static final long DEFAULT_CONNECT_TIMEOUT = 5000L;
+    // per socket; a power of two
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static NetworkLoop sharedLoop;
+
+    /**
+     * @return the loop shared by every provider constructed without one of
+     *         its own, started on first use
+     */
+    static synchronized NetworkLoop sharedLoop() {
+        if (null == sharedLoop) {
+            try {
+                sharedLoop = new NetworkLoop();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open a Selector", e);
+            }
+            Thread t = new Thread(sharedLoop, "TCP Serial Network Loop");
+            t.setDaemon(true);
+            t.start();
+        }
+        return sharedLoop;
+    }
+
+    private final NetworkLoop networkLoop;
+
+    // the channel of the connect in progress
+    private volatile SocketChannel connecting;
+    private volatile boolean canceled;
+
+    public SelectorTCPSerialProvider() {
+        this(null);
+    }
+
+    /**
+     * @param networkLoop
+     *            a running loop to read the sockets on or null for the
+     *            shared loop
+     */
+    public SelectorTCPSerialProvider(NetworkLoop networkLoop) {
+        this.networkLoop = networkLoop;
+    }
+
+    private NetworkLoop networkLoop() {
+        return null == networkLoop ? sharedLoop() : networkLoop;
+    }
+
+    private static class ChannelSerialSocket implements SerialSocket, NetworkConnection {
+        private final NetworkLoop networkLoop;
+        private final SocketChannel channel;
+        private final String portIdentifier;
+
+        // bytes read by the loop and not yet consumed; guarded by this
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private final ByteBuffer view = ByteBuffer.wrap(buffer);
+        private int head, count;
+        private boolean eof, closed, readPaused, writePending;
+        private SelectionKey key;
+
+        // serializes writers
+        private final Object writeLock = new Object();
+
+        private final InputStream inputStream = new InputStream() {
+            // drivers read a byte at a time; a stream has one reader
+            private final byte[] single = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return read(single, 0, 1) < 0 ? -1 : 0xFF & single[0];
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return ChannelSerialSocket.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() throws IOException {
+                synchronized (ChannelSerialSocket.this) {
+                    return count;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                ChannelSerialSocket.this.close();
+            }
+        };
+
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ChannelSerialSocket.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                ChannelSerialSocket.this.close();
+            }
+        };
+
+        ChannelSerialSocket(NetworkLoop networkLoop, SocketChannel channel, String portIdentifier) {
+            this.networkLoop = networkLoop;
+            this.channel = channel;
+            this.portIdentifier = portIdentifier;
+        }
+
+        @Override
+        public String getPortIdentifier() {
+            return portIdentifier;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return outputStream;
+        }
+
+        @Override
+        public void setSerialParams(int baud, DataBits dataBits, Parity parity, StopBits stopBits, FlowControl flowControl) {
+            // the terminal server owns the serial settings
+        }
+
+        @Override
+        public void close() throws IOException {
+            SelectionKey key;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                key = this.key;
+                this.notifyAll();
+            }
+            if (null != key) {
+                networkLoop.unregister(key, this);
+            }
+            channel.close();
+        }
+
+        private int read(byte[] b, int off, int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
+            synchronized (this) {
+                try {
+                    while (0 == count && !eof && !closed) {
+                        this.wait();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted awaiting data from " + portIdentifier);
+                }
+                if (closed) {
+                    throw new IOException("Socket closed");
+                }
+                if (0 == count) {
+                    return -1;
+                }
+                final int n = Math.min(len, count);
+                final int first = Math.min(n, buffer.length - head);
+                System.arraycopy(buffer, head, b, off, first);
+                System.arraycopy(buffer, 0, b, off + first, n - first);
+                head = (head + n) & (buffer.length - 1);
+                count -= n;
+                if (readPaused && count <= buffer.length / 2) {
+                    readPaused = false;
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    networkLoop.wakeup();
+                }
+                return n;
+            }
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            synchronized (writeLock) {
+                ByteBuffer src = ByteBuffer.wrap(b, off, len);
+                while (src.hasRemaining()) {
+                    if (0 == channel.write(src)) {
+                        awaitWritable();
+                    }
+                }
+            }
+        }
+
+        private synchronized void awaitWritable() throws IOException {
+            writePending = true;
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            networkLoop.wakeup();
+            try {
+                while (writePending && !closed) {
+                    this.wait();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted awaiting room to write to " + portIdentifier);
+            }
+            if (closed) {
+                throw new IOException("Socket closed");
+            }
+        }
+
+        /**
+         * Called on the loop thread.
+         */
+        @Override
+        public synchronized void read(SelectionKey sk) throws IOException {
+            while (!closed) {
+                final int tail = (head + count) & (buffer.length - 1);
+                final int free = Math.min(buffer.length - count, buffer.length - tail);
+                if (0 == free) {
+                    // the driver is a whole buffer behind; let TCP hold the rest
+                    sk.interestOps(sk.interestOps() & ~SelectionKey.OP_READ);
+                    readPaused = true;
+                    break;
+                }
+                view.limit(tail + free).position(tail);
+                final int n = channel.read(view);
+                if (n < 0) {
+                    eof = true;
+                    networkLoop.unregister(sk, this);
+                    break;
+                }
+                count += n;
+                if (n < free) {
+                    break;
+                }
+                // filled up to the end of the buffer; there may be more
+            }
+            this.notifyAll();
+        }
+
+        /**
+         * Called on the loop thread once a stalled write may proceed.
+         */
+        @Override
+        public synchronized void write(SelectionKey sk) throws IOException {
+            sk.interestOps(sk.interestOps() & ~SelectionKey.OP_WRITE);
+            writePending = false;
+            this.notifyAll();
+        }
+
+        @Override
+        public synchronized void registered(NetworkLoop networkLoop, SelectionKey sk) {
+            this.key = sk;
+        }
+
+        @Override
+        public void unregistered(NetworkLoop networkLoop, SelectionKey sk) {
+        }
+    }
+
+    @Override
+    public List<String> getPortNames() {
+        return new ArrayList<String>();
+    }
+
+    @Override
+    public SerialSocket connect(String portIdentifier, long timeout) throws IOException {
+        String[] parts = portIdentifier.split("\\:");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Expected host:port rather than " + portIdentifier);
+        }
+        InetSocketAddress address = new InetSocketAddress(parts[0], Integer.parseInt(parts[1]));
+        if (address.isUnresolved()) {
+            throw new UnknownHostException(parts[0]);
+        }
+        canceled = false;
+        SocketChannel channel = SocketChannel.open();
+        connecting = channel;
+        try {
+            channel.socket().setTcpNoDelay(true);
+            // closed by cancelConnect to abort
+            channel.socket().connect(address, (int) Math.min(Integer.MAX_VALUE, timeout > 0L ? timeout : DEFAULT_CONNECT_TIMEOUT));
+            channel.configureBlocking(false);
+            ChannelSerialSocket socket = new ChannelSerialSocket(networkLoop(), channel, channel.socket().getRemoteSocketAddress().toString());
+            networkLoop().register(socket, channel);
+            channel = null;
+            return socket;
+        } catch (IOException e) {
+            if (canceled) {
+                log.debug("connect to " + portIdentifier + " canceled");
+                return null;
+            }
+            throw e;
+        } finally {
+            connecting = null;
+            if (null != channel) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close " + portIdentifier, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true while a connect is in progress
+     */
+    boolean isConnecting() {
+        return null != connecting;
+    }
+
+    @Override
+    public void cancelConnect() {
+        canceled = true;
+        SocketChannel channel = connecting;
+        if (null != channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to cancel a connect", e);
+            }
+        }
+    }
+
+    @Override
+    public void setDefaultSerialSettings(int baudrate, DataBits dataBits, Parity parity, StopBits stopBits) {
+
+    }
+
+    @Override
+    public void setDefaultSerialSettings(int baudrate, DataBits dataBits, Parity parity, StopBits stopBits, FlowControl flowControl) {
+
+    }
+
+    @Override
+    public SerialProvider duplicate() {
+        return new SelectorTCPSerialProvider(networkLoop);
+    }
+}
@@ -54,7 +54,7 @@ public class SimElectroCardioGram extends AbstractSimulatedConnectedDevice {
         }
 
         @Override
-        protected void receiveECG(DeviceClock.Reading sampleTime, Number[] iValues, Number[] iiValues, Number[] iiiValues,
+        protected void receiveECG(DeviceClock.Reading sampleTime, float[] iValues, float[] iiValues, float[] iiiValues,
                                   int heartRateValue, int respiratoryRateValue, int frequency) {
             // ecgCache[0][ecgCount] = copy(iValues, ecgCache[0][ecgCount]);
             // ecgCache[1][ecgCount] = copy(iiValues, ecgCache[1][ecgCount]);
@@ -76,11 +76,11 @@ public class SimElectroCardioGram extends AbstractSimulatedConnectedDevice {
 
             try {
                 // TODO should get better data that's actually in millivolts
-                SimElectroCardioGram.this.i = sampleArraySample(SimElectroCardioGram.this.i, iValues, ice.MDC_ECG_LEAD_I.VALUE, "", 0,
+                SimElectroCardioGram.this.i = sampleArraySample(SimElectroCardioGram.this.i, iValues, 0, iValues.length, ice.MDC_ECG_LEAD_I.VALUE, "", 0,
                         rosetta.MDC_DIM_DIMLESS.VALUE, frequency, sampleTime);
-                SimElectroCardioGram.this.ii = sampleArraySample(SimElectroCardioGram.this.ii, iiValues, ice.MDC_ECG_LEAD_II.VALUE, "", 0, 
+                SimElectroCardioGram.this.ii = sampleArraySample(SimElectroCardioGram.this.ii, iiValues, 0, iiValues.length, ice.MDC_ECG_LEAD_II.VALUE, "", 0, 
                         rosetta.MDC_DIM_DIMLESS.VALUE, frequency, sampleTime);
-                SimElectroCardioGram.this.iii = sampleArraySample(SimElectroCardioGram.this.iii, iiiValues, ice.MDC_ECG_LEAD_III.VALUE, "", 0, 
+                SimElectroCardioGram.this.iii = sampleArraySample(SimElectroCardioGram.this.iii, iiiValues, 0, iiiValues.length, ice.MDC_ECG_LEAD_III.VALUE, "", 0, 
                         rosetta.MDC_DIM_DIMLESS.VALUE, frequency, sampleTime);
 
                 numericSample(heartRate, (float) heartRateValue, sampleTime);
@@ -41,10 +41,10 @@ public class SimInvasivePressure extends AbstractSimulatedConnectedDevice {
         }
 
         @Override
-        protected void receivePressure(DeviceClock.Reading sampleTime, int systolic, int diastolic, Number[] waveValues, int frequency) {
+        protected void receivePressure(DeviceClock.Reading sampleTime, int systolic, int diastolic, float[] waveValues, int frequency) {
             numericSample(SimInvasivePressure.this.systolic, systolic, sampleTime);
             numericSample(SimInvasivePressure.this.diastolic, diastolic, sampleTime);
-            wave = sampleArraySample(wave, waveValues, rosetta.MDC_PRESS_BLD.VALUE, "", 0, 
+            wave = sampleArraySample(wave, waveValues, 0, waveValues.length, rosetta.MDC_PRESS_BLD.VALUE, "", 0, 
                     rosetta.MDC_DIM_DIMLESS.VALUE, frequency, sampleTime);
         }
     }
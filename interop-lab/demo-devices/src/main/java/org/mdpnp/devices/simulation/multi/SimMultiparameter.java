@@ -47,11 +47,11 @@ public class SimMultiparameter extends AbstractSimulatedConnectedDevice {
         }
 
         @Override
-        protected void receivePulseOx(DeviceClock.Reading sampleTime, int heartRate, int SpO2, Number[] plethValues, int frequency) {
+        protected void receivePulseOx(DeviceClock.Reading sampleTime, int heartRate, int SpO2, float[] plethValues, int frequency) {
 
             numericSample(pulse, heartRate, sampleTime);
             numericSample(SimMultiparameter.this.SpO2, SpO2, sampleTime);
-            pleth = sampleArraySample(pleth, plethValues, rosetta.MDC_PULS_OXIM_PLETH.VALUE, "", 0, 
+            pleth = sampleArraySample(pleth, plethValues, 0, plethValues.length, rosetta.MDC_PULS_OXIM_PLETH.VALUE, "", 0, 
                     rosetta.MDC_DIM_DIMLESS.VALUE, frequency, sampleTime);
         }
     }
@@ -62,10 +62,10 @@ public class SimMultiparameter extends AbstractSimulatedConnectedDevice {
         }
         
         @Override
-        protected void receivePressure(Reading sampleTime, int systolic, int diastolic, Number[] waveValues, int frequency) {
+        protected void receivePressure(Reading sampleTime, int systolic, int diastolic, float[] waveValues, int frequency) {
             numericSample(SimMultiparameter.this.systolic, systolic, sampleTime);
             numericSample(SimMultiparameter.this.diastolic, diastolic, sampleTime);
-            pressure = sampleArraySample(pressure, waveValues, rosetta.MDC_PRESS_BLD_ART_ABP.VALUE, "", 0,
+            pressure = sampleArraySample(pressure, waveValues, 0, waveValues.length, rosetta.MDC_PRESS_BLD_ART_ABP.VALUE, "", 0,
                     rosetta.MDC_DIM_DIMLESS.VALUE, frequency, sampleTime);
         }
         
@@ -78,9 +78,9 @@ public class SimMultiparameter extends AbstractSimulatedConnectedDevice {
         }
 
         @Override
-        protected void receiveCO2(DeviceClock.Reading sampleTime, Number[] co2Values, int respiratoryRateValue, int etCO2Value, int frequency) {
+        protected void receiveCO2(DeviceClock.Reading sampleTime, float[] co2Values, int respiratoryRateValue, int etCO2Value, int frequency) {
 
-            co2 = sampleArraySample(co2, co2Values, rosetta.MDC_AWAY_CO2.VALUE, "", 0, 
+            co2 = sampleArraySample(co2, co2Values, 0, co2Values.length, rosetta.MDC_AWAY_CO2.VALUE, "", 0, 
                     rosetta.MDC_DIM_MMHG.VALUE, frequency, sampleTime);
             numericSample(respiratoryRate, respiratoryRateValue, sampleTime);
             numericSample(etCO2, etCO2Value, sampleTime);
@@ -95,16 +95,16 @@ public class SimMultiparameter extends AbstractSimulatedConnectedDevice {
         }
 
         @Override
-        protected void receiveECG(DeviceClock.Reading sampleTime, Number[] iValues, Number[] iiValues, Number[] iiiValues,
+        protected void receiveECG(DeviceClock.Reading sampleTime, float[] iValues, float[] iiValues, float[] iiiValues,
                                   int heartRateValue, int respiratoryRateValue, int frequency) {
 
             try {
                 // TODO get better numbers in actual millivolts
-                i = sampleArraySample(i, iValues, ice.MDC_ECG_LEAD_I.VALUE, "", 0, 
+                i = sampleArraySample(i, iValues, 0, iValues.length, ice.MDC_ECG_LEAD_I.VALUE, "", 0, 
                         rosetta.MDC_DIM_DIMLESS.VALUE, frequency, sampleTime);
-                ii = sampleArraySample(ii, iiValues, ice.MDC_ECG_LEAD_II.VALUE, "", 0, 
+                ii = sampleArraySample(ii, iiValues, 0, iiValues.length, ice.MDC_ECG_LEAD_II.VALUE, "", 0, 
                         rosetta.MDC_DIM_DIMLESS.VALUE, frequency, sampleTime);
-                iii = sampleArraySample(iii, iiiValues, ice.MDC_ECG_LEAD_III.VALUE, "", 0, 
+                iii = sampleArraySample(iii, iiiValues, 0, iiiValues.length, ice.MDC_ECG_LEAD_III.VALUE, "", 0, 
                         rosetta.MDC_DIM_DIMLESS.VALUE, frequency, sampleTime);
 
                 numericSample(heartRate, (float) heartRateValue, sampleTime);
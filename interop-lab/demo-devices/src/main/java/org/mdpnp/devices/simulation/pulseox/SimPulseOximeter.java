@@ -41,10 +41,10 @@ public class SimPulseOximeter extends AbstractSimulatedConnectedDevice {
         }
 
         @Override
-        protected void receivePulseOx(DeviceClock.Reading sampleTime, int heartRate, int SpO2, Number[] plethValues, int frequency) {
+        protected void receivePulseOx(DeviceClock.Reading sampleTime, int heartRate, int SpO2, float[] plethValues, int frequency) {
             numericSample(pulse, heartRate, sampleTime);
             numericSample(SimPulseOximeter.this.SpO2, SpO2, sampleTime);
-            pleth = sampleArraySample(pleth, plethValues, rosetta.MDC_PULS_OXIM_PLETH.VALUE, "", 0, 
+            pleth = sampleArraySample(pleth, plethValues, 0, plethValues.length, rosetta.MDC_PULS_OXIM_PLETH.VALUE, "", 0, 
                     rosetta.MDC_DIM_DIMLESS.VALUE, frequency, sampleTime);
         }
     }
@@ -61,4 +61,23 @@ public class AbstractDeviceTest {
         }
         Assert.assertEquals(n, 5);
     }
+
+    @Test
+    public void testFillPrimitive() throws Exception {
+
+        AbstractDevice.InstanceHolder<ice.SampleArray> holder = new AbstractDevice.InstanceHolder<>(new ice.SampleArray(), null);
+
+        AbstractDevice.fillPrimitive(holder, new float[] { 1.0f, 2.0f, 3.0f, 4.0f, 5.0f }, 1, 3);
+        Assert.assertEquals(3, holder.data.values.userData.size());
+        Assert.assertEquals(2.0f, holder.data.values.userData.getFloat(0), 0.0f);
+        Assert.assertEquals(4.0f, holder.data.values.userData.getFloat(2), 0.0f);
+
+        AbstractDevice.fillPrimitive(holder, new short[] { 10, 20 }, 0, 2);
+        Assert.assertEquals(2, holder.data.values.userData.size());
+        Assert.assertEquals(20.0f, holder.data.values.userData.getFloat(1), 0.0f);
+
+        AbstractDevice.fillPrimitive(holder, new int[] { 100, 200, 300 }, 2, 1);
+        Assert.assertEquals(1, holder.data.values.userData.size());
+        Assert.assertEquals(300.0f, holder.data.values.userData.getFloat(0), 0.0f);
+    }
 }
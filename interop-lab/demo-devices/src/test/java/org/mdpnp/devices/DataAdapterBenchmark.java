@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices;
+
+import java.lang.reflect.Method;
+
+import org.mdpnp.rtiapi.data.DataAdapters;
+import org.mdpnp.rtiapi.data.DataReaderAdapter;
+import org.mdpnp.rtiapi.data.TopicUtil;
+import org.mdpnp.rtiapi.qos.IceQos;
+
+import com.rti.dds.domain.DomainParticipant;
+import com.rti.dds.infrastructure.Copyable;
+import com.rti.dds.infrastructure.InstanceHandle_t;
+import com.rti.dds.infrastructure.StatusKind;
+import com.rti.dds.publication.Publisher;
+import com.rti.dds.subscription.DataReader;
+import com.rti.dds.subscription.InstanceStateKind;
+import com.rti.dds.subscription.ReadCondition;
+import com.rti.dds.subscription.SampleInfoSeq;
+import com.rti.dds.subscription.SampleStateKind;
+import com.rti.dds.subscription.Subscriber;
+import com.rti.dds.subscription.ViewStateKind;
+import com.rti.dds.topic.Topic;
+import com.rti.dds.util.Sequence;
+
+/**
+ * Compares the per call cost of read_w_condition + return_loan when driven
+ * through java.lang.reflect.Method (as InstanceModelImpl and AbstractFxList
+ * used to), through a MethodHandle adapter and through a hand written
+ * {@link DataReaderAdapter}. Each read is limited to a single sample so the
+ * numbers are dominated by dispatch rather than by copying sample data.
+ *
+ * Usage: DataAdapterBenchmark [domainId]
+ */
+public class DataAdapterBenchmark {
+    private static final int INSTANCES = 100;
+    private static final int READS = 200000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        IceQos.loadAndSetIceQos();
+        DomainParticipantFactory dpf = new DomainParticipantFactory(args.length > 0 ? Integer.parseInt(args[0]) : 0);
+        DomainParticipant participant = dpf.getObject();
+        try {
+            Publisher publisher = participant.create_publisher(DomainParticipant.PUBLISHER_QOS_DEFAULT, null, StatusKind.STATUS_MASK_NONE);
+            Subscriber subscriber = participant.create_subscriber(DomainParticipant.SUBSCRIBER_QOS_DEFAULT, null, StatusKind.STATUS_MASK_NONE);
+
+            Topic numericTopic = TopicUtil.findOrCreateTopic(participant, ice.NumericTopic.VALUE, ice.NumericTypeSupport.class);
+            ice.NumericDataReader numericReader = (ice.NumericDataReader) subscriber.create_datareader(numericTopic,
+                    Subscriber.DATAREADER_QOS_DEFAULT, null, StatusKind.STATUS_MASK_NONE);
+            ice.NumericDataWriter numericWriter = (ice.NumericDataWriter) publisher.create_datawriter(numericTopic,
+                    Publisher.DATAWRITER_QOS_DEFAULT, null, StatusKind.STATUS_MASK_NONE);
+            ice.Numeric n = new ice.Numeric();
+            for (int i = 0; i < INSTANCES; i++) {
+                n.unique_device_identifier = "benchmark";
+                n.metric_id = "MDC_BENCHMARK";
+                n.instance_id = i;
+                n.value = i;
+                numericWriter.write(n, InstanceHandle_t.HANDLE_NIL);
+            }
+
+            Topic sampleArrayTopic = TopicUtil.findOrCreateTopic(participant, ice.SampleArrayTopic.VALUE, ice.SampleArrayTypeSupport.class);
+            ice.SampleArrayDataReader sampleArrayReader = (ice.SampleArrayDataReader) subscriber.create_datareader(sampleArrayTopic,
+                    Subscriber.DATAREADER_QOS_DEFAULT, null, StatusKind.STATUS_MASK_NONE);
+            ice.SampleArrayDataWriter sampleArrayWriter = (ice.SampleArrayDataWriter) publisher.create_datawriter(sampleArrayTopic,
+                    Publisher.DATAWRITER_QOS_DEFAULT, null, StatusKind.STATUS_MASK_NONE);
+            ice.SampleArray sa = new ice.SampleArray();
+            float[] values = new float[250];
+            for (int i = 0; i < INSTANCES; i++) {
+                sa.unique_device_identifier = "benchmark";
+                sa.metric_id = "MDC_BENCHMARK";
+                sa.instance_id = i;
+                sa.values.userData.clear();
+                sa.values.userData.addAllFloat(values, 0, values.length);
+                sampleArrayWriter.write(sa, InstanceHandle_t.HANDLE_NIL);
+            }
+
+            // allow the local reader to receive everything
+            Thread.sleep(2000L);
+
+            run("Numeric", numericReader, ice.Numeric.class, ice.NumericDataReader.class, ice.NumericSeq.class);
+            run("SampleArray", sampleArrayReader, ice.SampleArray.class, ice.SampleArrayDataReader.class, ice.SampleArraySeq.class);
+        } finally {
+            participant.delete_contained_entities();
+            dpf.destroy();
+        }
+    }
+
+    private static <D extends Copyable, R extends DataReader> void run(String name, R reader, Class<D> dataClass, Class<R> readerClass,
+            Class<? extends Sequence> sequenceClass) throws Exception {
+        ReadCondition condition = reader.create_readcondition(SampleStateKind.ANY_SAMPLE_STATE, ViewStateKind.ANY_VIEW_STATE,
+                InstanceStateKind.ANY_INSTANCE_STATE);
+        Sequence dataSeq = sequenceClass.newInstance();
+        SampleInfoSeq infoSeq = new SampleInfoSeq();
+
+        Method readWCondition = readerClass.getMethod("read_w_condition", sequenceClass, SampleInfoSeq.class, int.class, ReadCondition.class);
+        Method returnLoan = readerClass.getMethod("return_loan", sequenceClass, SampleInfoSeq.class);
+        DataReaderAdapter<D, R> methodHandles = DataAdapters.methodHandleReader(dataClass, readerClass, sequenceClass);
+        DataReaderAdapter<D, R> typed = DataAdapters.reader(dataClass, readerClass, sequenceClass);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                readWCondition.invoke(reader, dataSeq, infoSeq, 1, condition);
+                returnLoan.invoke(reader, dataSeq, infoSeq);
+            }
+            long reflection = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                methodHandles.read_w_condition(reader, dataSeq, infoSeq, 1, condition);
+                methodHandles.return_loan(reader, dataSeq, infoSeq);
+            }
+            long handles = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                typed.read_w_condition(reader, dataSeq, infoSeq, 1, condition);
+                typed.return_loan(reader, dataSeq, infoSeq);
+            }
+            long direct = System.nanoTime() - start;
+
+            System.out.println(name + " round " + round + ": reflection=" + reflection / READS + "ns methodHandle=" + handles / READS + "ns typed="
+                    + direct / READS + "ns");
+        }
+        reader.delete_readcondition(condition);
+    }
+}
@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mdpnp.rtiapi.data.EventLoop;
+import org.mdpnp.rtiapi.data.Histogram;
+
+import com.rti.dds.infrastructure.Condition;
+import com.rti.dds.infrastructure.GuardCondition;
+
+public class EventLoopHandlerTest {
+
+    private EventLoop eventLoop;
+    private EventLoopHandler eventLoopHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        eventLoop = new EventLoop(3);
+        eventLoopHandler = new EventLoopHandler(eventLoop);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        eventLoopHandler.shutdown();
+    }
+
+    @Test
+    public void testSlowHandlerDoesNotStallOtherLane() throws Exception {
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch releaseSlow = new CountDownLatch(1);
+        final CountDownLatch fastHandled = new CountDownLatch(1);
+
+        GuardCondition slow = new GuardCondition();
+        GuardCondition fast = new GuardCondition();
+
+        eventLoop.addHandler(0, slow, new EventLoop.ConditionHandler() {
+            @Override
+            public void conditionChanged(Condition condition) {
+                ((GuardCondition) condition).set_trigger_value(false);
+                slowStarted.countDown();
+                try {
+                    releaseSlow.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        eventLoop.addHandler(1, fast, new EventLoop.ConditionHandler() {
+            @Override
+            public void conditionChanged(Condition condition) {
+                ((GuardCondition) condition).set_trigger_value(false);
+                fastHandled.countDown();
+            }
+        });
+
+        slow.set_trigger_value(true);
+        Assert.assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+        fast.set_trigger_value(true);
+        Assert.assertTrue("fast lane blocked behind slow lane", fastHandled.await(1, TimeUnit.SECONDS));
+        releaseSlow.countDown();
+
+        eventLoop.removeHandler(slow);
+        eventLoop.removeHandler(fast);
+    }
+
+    @Test
+    public void testConditionsSpreadAcrossLanes() throws Exception {
+        final Thread[] servicedBy = new Thread[2];
+        final CountDownLatch done = new CountDownLatch(2);
+        GuardCondition[] conditions = new GuardCondition[] { new GuardCondition(), new GuardCondition() };
+
+        for (int i = 0; i < conditions.length; i++) {
+            final int idx = i;
+            eventLoop.addParallelHandler(conditions[i], new EventLoop.ConditionHandler() {
+                @Override
+                public void conditionChanged(Condition condition) {
+                    ((GuardCondition) condition).set_trigger_value(false);
+                    servicedBy[idx] = Thread.currentThread();
+                    done.countDown();
+                }
+            });
+        }
+        for (GuardCondition condition : conditions) {
+            condition.set_trigger_value(true);
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertNotSame(servicedBy[0], servicedBy[1]);
+        // neither on the control lane
+        Assert.assertEquals(1, eventLoop.getHandlerCount(1) - 1);
+        Assert.assertEquals(1, eventLoop.getHandlerCount(2) - 1);
+
+        for (GuardCondition condition : conditions) {
+            eventLoop.removeHandler(condition);
+        }
+    }
+
+    @Test
+    public void testDoNowFromAnyLane() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        final Thread[] threads = new Thread[2];
+        final boolean[] serviceThread = new boolean[2];
+        GuardCondition control = new GuardCondition();
+        GuardCondition condition = new GuardCondition();
+        eventLoop.addHandler(control, new EventLoop.ConditionHandler() {
+            @Override
+            public void conditionChanged(Condition condition) {
+                ((GuardCondition) condition).set_trigger_value(false);
+                threads[0] = Thread.currentThread();
+            }
+        });
+        eventLoop.addHandler(1, condition, new EventLoop.ConditionHandler() {
+            @Override
+            public void conditionChanged(Condition condition) {
+                ((GuardCondition) condition).set_trigger_value(false);
+                serviceThread[0] = eventLoop.isCurrentServiceThread();
+                eventLoop.doNow(new Runnable() {
+                    @Override
+                    public void run() {
+                        threads[1] = Thread.currentThread();
+                        serviceThread[1] = eventLoop.isCurrentServiceThread();
+                        ran.countDown();
+                    }
+                });
+            }
+        });
+        control.set_trigger_value(true);
+        condition.set_trigger_value(true);
+        Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+        // only the control lane counts, and runnables run there
+        Assert.assertFalse(serviceThread[0]);
+        Assert.assertTrue(serviceThread[1]);
+        Assert.assertSame(threads[0], threads[1]);
+        Assert.assertFalse(eventLoop.isCurrentServiceThread());
+        eventLoop.removeHandler(control);
+        eventLoop.removeHandler(condition);
+    }
+
+    @Test
+    public void testLanesCrossRegisterHandlers() throws Exception {
+        final int rounds = 50;
+        final CyclicBarrier together = new CyclicBarrier(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        final Throwable[] failure = new Throwable[1];
+        final GuardCondition[] triggers = new GuardCondition[] { new GuardCondition(), new GuardCondition() };
+
+        for (int i = 0; i < 2; i++) {
+            final int lane = 1 + i;
+            final int otherLane = 2 - i;
+            eventLoop.addHandler(lane, triggers[i], new EventLoop.ConditionHandler() {
+                @Override
+                public void conditionChanged(Condition condition) {
+                    ((GuardCondition) condition).set_trigger_value(false);
+                    try {
+                        // both lanes change the other's handlers at once,
+                        // and ask the control lane to run something
+                        together.await(5, TimeUnit.SECONDS);
+                        for (int n = 0; n < rounds; n++) {
+                            GuardCondition c = new GuardCondition();
+                            eventLoop.addHandler(otherLane, c, new EventLoop.ConditionHandler() {
+                                @Override
+                                public void conditionChanged(Condition condition) {
+                                }
+                            });
+                            eventLoop.doNow(new Runnable() {
+                                @Override
+                                public void run() {
+                                }
+                            });
+                            eventLoop.removeHandler(c);
+                        }
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        int[] before = new int[] { eventLoop.getHandlerCount(1), eventLoop.getHandlerCount(2) };
+
+        triggers[0].set_trigger_value(true);
+        triggers[1].set_trigger_value(true);
+        Assert.assertTrue("lanes deadlocked", done.await(10, TimeUnit.SECONDS));
+        Assert.assertNull(failure[0]);
+        Assert.assertEquals(before[0], eventLoop.getHandlerCount(1));
+        Assert.assertEquals(before[1], eventLoop.getHandlerCount(2));
+        Assert.assertEquals(0, eventLoop.getQueuedMutationCount());
+
+        eventLoop.removeHandler(triggers[0]);
+        eventLoop.removeHandler(triggers[1]);
+    }
+
+    @Test
+    public void testReaddWhileRemovalQueued() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        GuardCondition slow = new GuardCondition();
+        eventLoop.addHandler(1, slow, new EventLoop.ConditionHandler() {
+            @Override
+            public void conditionChanged(Condition condition) {
+                ((GuardCondition) condition).set_trigger_value(false);
+                blocked.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        final GuardCondition condition = new GuardCondition();
+        final EventLoop.ConditionHandler nothing = new EventLoop.ConditionHandler() {
+            @Override
+            public void conditionChanged(Condition condition) {
+            }
+        };
+        eventLoop.addHandler(1, condition, nothing);
+        int before = eventLoop.getHandlerCount(1);
+
+        // lane 1 is busy so the removal queues up behind it, and the
+        // condition is added again before the removal has been applied
+        slow.set_trigger_value(true);
+        Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        Thread remover = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                eventLoop.removeHandler(condition);
+            }
+        });
+        remover.start();
+        while (eventLoop.getQueuedMutationCount() < 1) {
+            Thread.sleep(1L);
+        }
+        Thread adder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                eventLoop.addHandler(1, condition, nothing);
+            }
+        });
+        adder.start();
+        while (eventLoop.getQueuedMutationCount() < 2) {
+            Thread.sleep(1L);
+        }
+        release.countDown();
+        remover.join(5000L);
+        adder.join(5000L);
+        Assert.assertFalse(remover.isAlive() || adder.isAlive());
+
+        Assert.assertEquals(before, eventLoop.getHandlerCount(1));
+        eventLoop.removeHandler(condition);
+        Assert.assertEquals(before - 1, eventLoop.getHandlerCount(1));
+        eventLoop.removeHandler(slow);
+    }
+
+    @Test
+    public void testServiceTimeRecorded() throws Exception {
+        final CountDownLatch handled = new CountDownLatch(1);
+        GuardCondition condition = new GuardCondition();
+        eventLoop.addHandler(condition, new EventLoop.ConditionHandler() {
+            @Override
+            public void conditionChanged(Condition condition) {
+                ((GuardCondition) condition).set_trigger_value(false);
+                try {
+                    Thread.sleep(5L);
+                } catch (InterruptedException e) {
+                }
+                handled.countDown();
+            }
+
+            @Override
+            public String toString() {
+                return "sleepy";
+            }
+        });
+        condition.set_trigger_value(true);
+        Assert.assertTrue(handled.await(5, TimeUnit.SECONDS));
+        eventLoop.removeHandler(condition);
+
+        Histogram serviceTime = eventLoop.getStatistics().getServiceTimes().get("sleepy");
+        Assert.assertNotNull(serviceTime);
+        Assert.assertEquals(1L, serviceTime.getCount());
+        Assert.assertTrue(serviceTime.getMax() >= TimeUnit.MILLISECONDS.toNanos(5L));
+        Assert.assertTrue(serviceTime.getPercentile(99.0) <= serviceTime.getMax());
+        Assert.assertTrue(eventLoop.getStatistics().getConditionsPerWait().getCount() > 0L);
+        Assert.assertTrue(eventLoop.getStatistics().getMutationQueueTime().getCount() > 0L);
+        Assert.assertEquals(0, eventLoop.getQueuedMutationCount());
+    }
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.draeger.medibus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class RealtimeBufferTest {
+
+    @Test
+    public void testUpsampledWindows() {
+        RealtimeBuffer buffer = new RealtimeBuffer(4, 8);
+        buffer.add(1f, 2);
+        // not yet a whole window
+        assertNull(buffer.window(4));
+        buffer.add(2f, 2);
+        float[] window = buffer.window(4);
+        assertArrayEquals(new float[] { 1f, 1f, 2f, 2f }, window, 0f);
+        assertEquals(2, buffer.getUpsample());
+        assertEquals(4L, buffer.getSamples());
+        assertEquals(0L, buffer.getUnderruns());
+
+        // wraps around the ring
+        for (int i = 3; i <= 6; i++) {
+            buffer.add(i, 2);
+        }
+        assertSame(window, buffer.window(4));
+        assertArrayEquals(new float[] { 5f, 5f, 6f, 6f }, window, 0f);
+        assertEquals(0L, buffer.getUnderruns());
+        assertEquals(2L, buffer.getPublishes());
+    }
+
+    @Test
+    public void testUnderrun() {
+        RealtimeBuffer buffer = new RealtimeBuffer(3, 16);
+        for (int i = 1; i <= 3; i++) {
+            buffer.add(i, 1);
+        }
+        buffer.window(3);
+        buffer.add(4f, 1);
+        // the latest window again, shifted by the one new sample
+        assertArrayEquals(new float[] { 2f, 3f, 4f }, buffer.window(3), 0f);
+        assertEquals(1L, buffer.getUnderruns());
+        assertArrayEquals(new float[] { 2f, 3f, 4f }, buffer.window(3), 0f);
+        assertEquals(2L, buffer.getUnderruns());
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final RealtimeBuffer buffer = new RealtimeBuffer(25, 256);
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < 1000000; i++) {
+                    buffer.add(i, 1);
+                }
+            }
+        });
+        producer.start();
+        while (producer.isAlive()) {
+            float[] window = buffer.window(25);
+            if (null != window) {
+                // always consecutive samples
+                for (int i = 1; i < window.length; i++) {
+                    assertEquals(window[i - 1] + 1f, window[i], 0f);
+                }
+            }
+        }
+        producer.join();
+        assertEquals(1000000L, buffer.getSamples());
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.philips.intellivue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SampleRingTest {
+
+    private static float[] range(int from, int to) {
+        float[] f = new float[to - from];
+        for (int i = from; i < to; i++) {
+            f[i - from] = i;
+        }
+        return f;
+    }
+
+    @Test
+    public void testDrainExactly() {
+        SampleRing ring = new SampleRing(16);
+        assertEquals(16, ring.getCapacity());
+        assertNull(ring.drain(4));
+        assertEquals(1L, ring.getUnderruns());
+
+        assertEquals(6, ring.add(range(1, 7), 0, 6));
+        assertArrayEquals(range(1, 5), ring.drain(4), 0f);
+        assertEquals(2, ring.size());
+        assertEquals(1L, ring.getUnderruns());
+    }
+
+    @Test
+    public void testRepeatOnUnderrun() {
+        SampleRing ring = new SampleRing(16);
+        // nothing drained before so the shortfall is zero filled
+        ring.add(range(1, 3), 0, 2);
+        assertArrayEquals(new float[] { 0f, 0f, 1f, 2f }, ring.drain(4), 0f);
+        assertEquals(1L, ring.getUnderruns());
+
+        ring.add(range(3, 4), 0, 1);
+        assertArrayEquals(new float[] { 0f, 1f, 2f, 3f }, ring.drain(4), 0f);
+        assertEquals(2L, ring.getUnderruns());
+
+        ring.add(range(4, 8), 0, 4);
+        assertArrayEquals(range(4, 8), ring.drain(4), 0f);
+        assertEquals(2L, ring.getUnderruns());
+    }
+
+    @Test
+    public void testOverrunAndWrap() {
+        SampleRing ring = new SampleRing(8);
+        assertEquals(8, ring.add(range(0, 10), 0, 10));
+        assertEquals(2L, ring.getOverruns());
+        assertArrayEquals(range(0, 5), ring.drain(5), 0f);
+        // wraps around the end of the ring
+        assertEquals(5, ring.add(range(10, 15), 0, 5));
+        assertArrayEquals(new float[] { 5f, 6f, 7f, 10f, 11f }, ring.drain(5), 0f);
+        assertArrayEquals(range(12, 15), ring.drain(3), 0f);
+        assertEquals(0L, ring.getUnderruns());
+        assertEquals(2L, ring.getOverruns());
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final SampleRing ring = new SampleRing(64);
+        final int total = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] batch = new float[7];
+                int next = 0;
+                while (next < total) {
+                    int n = Math.min(batch.length, total - next);
+                    for (int i = 0; i < n; i++) {
+                        batch[i] = next + i;
+                    }
+                    int accepted = 0;
+                    while (accepted < n) {
+                        accepted += ring.add(batch, accepted, n - accepted);
+                    }
+                    next += n;
+                }
+            }
+        });
+        producer.start();
+        float expected = 0f;
+        while (expected < total) {
+            if (ring.size() >= 5) {
+                float[] c = ring.drain(5);
+                for (int i = 0; i < 5; i++) {
+                    assertEquals(expected++, c[i], 0f);
+                }
+            } else if (!producer.isAlive() && ring.size() < 5) {
+                break;
+            }
+        }
+        producer.join();
+        assertEquals(total, expected, 0f);
+    }
+}
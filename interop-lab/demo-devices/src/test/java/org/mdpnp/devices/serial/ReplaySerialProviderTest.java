@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+import org.mdpnp.devices.io.CaptureWriter;
+
+/**
+ * A capture of two serial ports replayed as one of them.
+ */
+public class ReplaySerialProviderTest {
+
+    @Test
+    public void testReplay() throws Exception {
+        File file = File.createTempFile("ReplaySerialProviderTest", ".capture");
+        try {
+            CaptureWriter writer = new CaptureWriter(file);
+            writer.record(1, false, new byte[] { 9 }, 0, 1);
+            writer.record(1, true, new byte[] { 1, 2, 3 }, 0, 3);
+            writer.record(0, true, new byte[] { 7, 7 }, 0, 2);
+            Thread.sleep(100L);
+            writer.record(1, true, new byte[] { 4, 5 }, 0, 2);
+            writer.close();
+
+            ReplaySerialProvider provider = new ReplaySerialProvider(1.0);
+            SerialSocket socket = provider.connect(file.getPath() + "#1", 1000L);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[] { 9, 9 });
+
+            long start = System.currentTimeMillis();
+            byte[] b = new byte[8];
+            assertEquals(3, in.read(b, 0, b.length));
+            assertEquals(3, b[2]);
+            assertEquals(4, in.read());
+            assertTrue(System.currentTimeMillis() - start >= 90L);
+            assertEquals(5, in.read());
+            assertEquals(-1, in.read());
+            socket.close();
+
+            assertEquals(5L, provider.getBytesReplayed());
+            assertEquals(2L, provider.getBytesDiscarded());
+
+            // full speed replay of the other port
+            socket = new ReplaySerialProvider(0.0).connect(file.getPath(), 1000L);
+            in = socket.getInputStream();
+            start = System.currentTimeMillis();
+            assertEquals(2, in.read(b, 0, b.length));
+            assertEquals(-1, in.read(b, 0, b.length));
+            assertTrue(System.currentTimeMillis() - start < 90L);
+            socket.close();
+        } finally {
+            file.delete();
+        }
+    }
+}
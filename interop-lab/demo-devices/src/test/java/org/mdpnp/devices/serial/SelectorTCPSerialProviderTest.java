@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.devices.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mdpnp.devices.connected.TimeAwareInputStream;
+
+/**
+ * A local TCP echo server stands in for a terminal server.
+ */
+public class SelectorTCPSerialProviderTest {
+
+    private static ServerSocket echoServer() throws IOException {
+        final ServerSocket server = new ServerSocket(0);
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket s = server.accept();
+                        Thread echo = new Thread(new Runnable() {
+                            public void run() {
+                                try {
+                                    InputStream in = s.getInputStream();
+                                    OutputStream out = s.getOutputStream();
+                                    byte[] b = new byte[1024];
+                                    int n;
+                                    while ((n = in.read(b)) >= 0) {
+                                        out.write(b, 0, n);
+                                    }
+                                    s.close();
+                                } catch (IOException e) {
+                                }
+                            }
+                        }, "Echo");
+                        echo.setDaemon(true);
+                        echo.start();
+                    }
+                } catch (IOException e) {
+                }
+            }
+        }, "Echo Server");
+        t.setDaemon(true);
+        t.start();
+        return server;
+    }
+
+    private static void readFully(InputStream in, byte[] b) throws IOException {
+        int off = 0;
+        while (off < b.length) {
+            int n = in.read(b, off, b.length - off);
+            assertTrue(n > 0);
+            off += n;
+        }
+    }
+
+    @Test
+    public void testEcho() throws Exception {
+        ServerSocket server = echoServer();
+        SerialProvider provider = new SelectorTCPSerialProvider().duplicate();
+        SerialSocket socket = provider.connect("localhost:" + server.getLocalPort(), 1000L);
+        assertNotNull(socket);
+
+        TimeAwareInputStream in = new TimeAwareInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        // more than a whole buffer exercises pausing and resuming reads
+        byte[] sent = new byte[200 * 1024];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = (byte) i;
+        }
+        long before = System.currentTimeMillis();
+        out.write(sent, 0, 1000);
+        byte[] received = new byte[1000];
+        readFully(in, received);
+        for (int i = 0; i < received.length; i++) {
+            assertEquals(sent[i], received[i]);
+        }
+        assertTrue(in.getLastReadTime() >= before);
+
+        Thread.sleep(100L);
+        out.write(sent);
+        received = new byte[sent.length];
+        readFully(in, received);
+        for (int i = 0; i < received.length; i++) {
+            assertEquals(sent[i], received[i]);
+        }
+        assertEquals(0, in.available());
+
+        socket.close();
+        server.close();
+    }
+
+    @Test
+    public void testEndOfStream() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        SerialSocket socket = new SelectorTCPSerialProvider().connect("localhost:" + server.getLocalPort(), 1000L);
+        Socket accepted = server.accept();
+        accepted.getOutputStream().write(new byte[] { 1, 2, 3 });
+        accepted.close();
+        InputStream in = socket.getInputStream();
+        byte[] b = new byte[3];
+        readFully(in, b);
+        assertEquals(3, b[2]);
+        assertEquals(-1, in.read());
+        socket.close();
+        server.close();
+    }
+
+    /**
+     * Cancels a connect to portIdentifier from another thread once it is
+     * under way and expects the connect to return null promptly.
+     *
+     * @return false if the connect was over before it could be canceled
+     */
+    private static boolean cancelConnect(String portIdentifier) throws Exception {
+        final SelectorTCPSerialProvider provider = new SelectorTCPSerialProvider();
+        final Object[] result = new Object[1];
+        final CountDownLatch returned = new CountDownLatch(1);
+        final long[] returnedAt = new long[1];
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    result[0] = provider.connect(portIdentifier, 30000L);
+                } catch (Throwable e) {
+                    result[0] = e;
+                } finally {
+                    returnedAt[0] = System.currentTimeMillis();
+                    returned.countDown();
+                }
+            }
+        }, "Connect");
+        t.setDaemon(true);
+        t.start();
+        while (!provider.isConnecting() && returned.getCount() > 0) {
+            Thread.sleep(1L);
+        }
+        Thread.sleep(200L);
+        if (!provider.isConnecting()) {
+            returned.await();
+            if (result[0] instanceof SerialSocket) {
+                ((SerialSocket) result[0]).close();
+            }
+            return false;
+        }
+        long canceledAt = System.currentTimeMillis();
+        provider.cancelConnect();
+        assertTrue("connect did not return once canceled", returned.await(5000L, TimeUnit.MILLISECONDS));
+        assertTrue(returnedAt[0] - canceledAt < 1000L);
+        assertNull("a canceled connect returns null rather than " + result[0], result[0]);
+        assertFalse(provider.isConnecting());
+        return true;
+    }
+
+    @Test
+    public void testCancelConnect() throws Exception {
+        // not routable, so nothing answers; unless a transparent proxy does
+        // or there is no route at all
+        assumeTrue(cancelConnect("10.255.255.1:9"));
+    }
+
+    @Test
+    public void testCancelUnansweredConnect() throws Exception {
+        // with its backlog full a listener ignores further SYNs, like an
+        // unroutable address
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        List<Socket> queued = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < 16; i++) {
+                Socket s = new Socket();
+                try {
+                    s.connect(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()), 200);
+                    queued.add(s);
+                } catch (SocketTimeoutException e) {
+                    s.close();
+                    break;
+                }
+            }
+            assertTrue(cancelConnect("127.0.0.1:" + server.getLocalPort()));
+        } finally {
+            for (Socket s : queued) {
+                s.close();
+            }
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.rtiapi.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mdpnp.devices.DomainParticipantFactory;
+import org.mdpnp.devices.DomainParticipantFactoryFactory;
+import org.mdpnp.devices.EventLoopHandler;
+import org.mdpnp.devices.PublisherFactory;
+import org.mdpnp.devices.SubscriberFactory;
+import org.mdpnp.rtiapi.qos.IceQos;
+
+import com.rti.dds.infrastructure.InstanceHandle_t;
+import com.rti.dds.subscription.SampleInfo;
+
+/**
+ * Drives a {@link NumericInstanceModelImpl} through a writer in the same
+ * participant and checks the element events and the ordered view against
+ * each other as instances come, change and go.
+ */
+public class InstanceModelImplTest {
+    private static final long TIMEOUT = 10000L;
+    private static final String PARTITION = "InstanceModelImplTest";
+
+    private DomainParticipantFactoryFactory ff;
+    private DomainParticipantFactory dpf;
+    private SubscriberFactory s;
+    private PublisherFactory p;
+    private EventLoop eventLoop;
+    private EventLoopHandler eventLoopHandler;
+    private NumericInstanceModelImpl model;
+
+    // guarded by events
+    private final List<String> events = new ArrayList<String>();
+
+    private final NumericInstanceModelListener listener = new NumericInstanceModelListener() {
+        // element events follow the sample (or key holder) they are about
+        private String lastMetric;
+
+        @Override
+        public void instanceAlive(ReaderInstanceModel<ice.Numeric, ice.NumericDataReader> model, ice.NumericDataReader reader, ice.Numeric data,
+                SampleInfo sampleInfo) {
+        }
+
+        @Override
+        public void instanceNotAlive(ReaderInstanceModel<ice.Numeric, ice.NumericDataReader> model, ice.NumericDataReader reader, ice.Numeric keyHolder,
+                SampleInfo sampleInfo) {
+            lastMetric = keyHolder.metric_id;
+        }
+
+        @Override
+        public void instanceSample(ReaderInstanceModel<ice.Numeric, ice.NumericDataReader> model, ice.NumericDataReader reader, ice.Numeric data,
+                SampleInfo sampleInfo) {
+            lastMetric = data.metric_id;
+        }
+
+        @Override
+        public void elementInserted(ReaderInstanceModel<ice.Numeric, ice.NumericDataReader> model, int index, InstanceHandle_t handle) {
+            record("inserted " + index + " " + lastMetric);
+        }
+
+        @Override
+        public void elementRemoved(ReaderInstanceModel<ice.Numeric, ice.NumericDataReader> model, int index, InstanceHandle_t handle) {
+            record("removed " + index + " " + lastMetric);
+        }
+
+        @Override
+        public void elementUpdated(ReaderInstanceModel<ice.Numeric, ice.NumericDataReader> model, int index, InstanceHandle_t handle) {
+            record("updated " + index + " " + lastMetric);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        IceQos.loadAndSetIceQos();
+
+        eventLoop = new EventLoop();
+        eventLoopHandler = new EventLoopHandler(eventLoop);
+
+        ff = new DomainParticipantFactoryFactory();
+        ff.getObject();
+        dpf = new DomainParticipantFactory(0);
+        s = new SubscriberFactory(dpf.getObject(), PARTITION);
+        p = new PublisherFactory(dpf.getObject(), PARTITION);
+
+        model = new NumericInstanceModelImpl(ice.NumericTopic.VALUE);
+        model.addListener(listener);
+        model.startWriter(p.getObject(), QosProfiles.ice_library, QosProfiles.state);
+        model.startReader(s.getObject(), eventLoop, QosProfiles.ice_library, QosProfiles.state);
+
+        // the state profile is durable so A is delivered once the reader
+        // matches the writer however long discovery takes
+        write("A");
+        awaitEvent("inserted 0 A");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        model.stopReader();
+        model.stopWriter();
+        model.removeListener(listener);
+        p.destroy();
+        s.destroy();
+        dpf.destroy();
+        eventLoopHandler.shutdown();
+        ff.destroy();
+    }
+
+    @Test
+    public void testInsertAndUpdate() throws Exception {
+        write("B");
+        write("C");
+        awaitEvent("inserted 2 C");
+        assertEquals(3, model.size());
+        assertMetrics("A", "B", "C");
+
+        write("B");
+        awaitEvent("updated 1 B");
+        assertEquals(3, model.size());
+        assertNull(model.getElementAt(3));
+    }
+
+    @Test
+    public void testDisposeRemovesAndShifts() throws Exception {
+        write("B");
+        write("C");
+        awaitEvent("inserted 2 C");
+
+        model.getWriter().dispose(numeric("B"), InstanceHandle_t.HANDLE_NIL);
+        awaitEvent("removed 1 B");
+        assertEquals(2, model.size());
+        assertMetrics("A", "C");
+
+        // C moved down to B's slot and B comes back at the end
+        write("C");
+        awaitEvent("updated 1 C");
+        write("B");
+        awaitEvent("inserted 2 B");
+        assertMetrics("A", "C", "B");
+    }
+
+    @Test
+    public void testUnregisterRemoves() throws Exception {
+        write("B");
+        awaitEvent("inserted 1 B");
+
+        model.getWriter().unregister_instance(numeric("A"), InstanceHandle_t.HANDLE_NIL);
+        awaitEvent("removed 0 A");
+        assertEquals(1, model.size());
+        assertMetrics("B");
+
+        write("B");
+        awaitEvent("updated 0 B");
+    }
+
+    @Test
+    public void testIndexConsistentAfterRemoval() throws Exception {
+        InstanceIndex index = new InstanceIndex();
+        InstanceHandle_t[] handles = new InstanceHandle_t[5];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = model.getWriter().register_instance(numeric("M" + i));
+            assertEquals(i, index.add(handles[i]));
+        }
+        // adding again is a lookup
+        assertEquals(3, index.add(handles[3]));
+        assertEquals(handles.length, index.size());
+
+        assertEquals(1, index.remove(handles[1]));
+        assertEquals(-1, index.remove(handles[1]));
+        assertEquals(-1, index.indexOf(handles[1]));
+        assertEquals(3, index.remove(new InstanceHandle_t(handles[4])));
+
+        InstanceHandle_t[] remaining = new InstanceHandle_t[] { handles[0], handles[2], handles[3] };
+        assertEquals(remaining.length, index.size());
+        for (int i = 0; i < remaining.length; i++) {
+            assertEquals(i, index.indexOf(remaining[i]));
+            assertEquals(remaining[i], index.get(i));
+            assertEquals(remaining[i], index.toArray()[i]);
+        }
+        assertNull(index.get(remaining.length));
+        assertNull(index.get(-1));
+
+        // the index keeps its own copy of a handle
+        assertEquals(3, index.add(handles[1]));
+        assertTrue(handles[1] != index.get(3));
+    }
+
+    private static ice.Numeric numeric(String metric) {
+        ice.Numeric n = new ice.Numeric();
+        n.unique_device_identifier = "InstanceModelImplTest";
+        n.metric_id = metric;
+        n.vendor_metric_id = "";
+        n.unit_id = "";
+        return n;
+    }
+
+    private void write(String metric) {
+        model.write(numeric(metric));
+    }
+
+    private void record(String event) {
+        synchronized (events) {
+            events.add(event);
+            events.notifyAll();
+        }
+    }
+
+    private void awaitEvent(String event) throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + TIMEOUT;
+        synchronized (events) {
+            while (!events.contains(event)) {
+                long remaining = giveUp - System.currentTimeMillis();
+                assertTrue("timed out waiting for " + event + " in " + events, remaining > 0);
+                events.wait(remaining);
+            }
+        }
+    }
+
+    private void assertMetrics(String... metrics) {
+        assertEquals(metrics.length, model.size());
+        for (int i = 0; i < metrics.length; i++) {
+            assertEquals(metrics[i], model.getElementAt(i).metric_id);
+        }
+    }
+}
@@ -33,6 +33,7 @@ public class JavaFXWaveformPane extends BorderPane implements WaveformPanel {
         super(new ResizableCanvas());
         canvas = (ResizableCanvas) getCenter();
         waveformCanvas = new JavaFXWaveformCanvas(this);
+        renderer.setDecimate(true);
 
         setOnMouseClicked(new EventHandler<MouseEvent>() {
 
@@ -69,6 +69,7 @@ public class SwingWaveformPanel extends JComponent implements WaveformPanel, Swi
     private JFrame cacheFrame;
     
     protected JCheckBoxMenuItem overwriteMode = new JCheckBoxMenuItem("Overwrite", true);
+    protected JCheckBoxMenuItem decimateMode = new JCheckBoxMenuItem("Decimate", true);
     
     @Override
     protected void finalize() throws Throwable {
@@ -88,6 +89,16 @@ public class SwingWaveformPanel extends JComponent implements WaveformPanel, Swi
                 renderer.setOverwrite(overwriteMode.isSelected());
             }
             
+        });
+        renderer.setDecimate(decimateMode.isSelected());
+        popup.add(decimateMode);
+        decimateMode.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                renderer.setDecimate(decimateMode.isSelected());
+            }
+            
         });
         final JMenuItem cacheItem = new JMenuItem("Set Time Domain");
         cacheItem.addActionListener(new ActionListener() {
@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.guis.waveform;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rti.dds.infrastructure.InstanceHandle_t;
+import com.rti.dds.infrastructure.RETCODE_NO_DATA;
+import com.rti.dds.infrastructure.ResourceLimitsQosPolicy;
+import com.rti.dds.subscription.InstanceStateKind;
+import com.rti.dds.subscription.SampleInfo;
+import com.rti.dds.subscription.SampleInfoSeq;
+import com.rti.dds.subscription.SampleStateKind;
+import com.rti.dds.subscription.ViewStateKind;
+
+/**
+ * A {@link WaveformSource} for one SampleArray instance that keeps the most
+ * recent time window of samples in primitive ring buffers. The window widens
+ * to the earliest time any iterator asks for (see
+ * {@link WaveformSource.WaveformIterator#getEarliestTime()}), up to
+ * {@link #MAX_WINDOW}, so it follows the longest panel showing the instance
+ * and may reach further back than the history the DataReader keeps.
+ *
+ * The history of the instance is read from the DataReader once, when the cache
+ * is created. Reading marks samples READ for every consumer of the reader, so
+ * readers whose owner already reads each new sample register with
+ * {@link #feed(ice.SampleArrayDataReader)} and pass those samples to
+ * {@link #offer(ice.SampleArrayDataReader, ice.SampleArray, SampleInfo)};
+ * their caches never read the DataReader again. Caches of any other reader
+ * read the samples not yet read at most once per refresh interval.
+ *
+ * Obtain instances through {@link #get(ice.SampleArrayDataReader, InstanceHandle_t)}
+ * so that every panel showing the same instance shares a single cache.
+ */
+public class SampleArrayWaveformCache extends AbstractDdsWaveformSource<ice.SampleArrayDataReader, ice.SampleArray, ice.SampleArraySeq> implements WaveformSource {
+    private static final Logger log = LoggerFactory.getLogger(SampleArrayWaveformCache.class);
+
+    public static final long DEFAULT_WINDOW = 15000L;
+    public static final long MAX_WINDOW = 300000L;
+    public static final long DEFAULT_REFRESH_INTERVAL = 20L;
+
+    // guarded by caches
+    private static final Map<ice.SampleArrayDataReader, Map<InstanceHandle_t, WeakReference<SampleArrayWaveformCache>>> caches = new IdentityHashMap<ice.SampleArrayDataReader, Map<InstanceHandle_t, WeakReference<SampleArrayWaveformCache>>>();
+    private static final Set<ice.SampleArrayDataReader> fedReaders = Collections.newSetFromMap(new IdentityHashMap<ice.SampleArrayDataReader, Boolean>());
+
+    public static SampleArrayWaveformCache get(ice.SampleArrayDataReader reader, InstanceHandle_t instanceHandle) {
+        return get(reader, instanceHandle, DEFAULT_WINDOW);
+    }
+
+    public static SampleArrayWaveformCache get(ice.SampleArrayDataReader reader, ice.SampleArray keyHolder) {
+        return get(reader, reader.lookup_instance_untyped(keyHolder), DEFAULT_WINDOW);
+    }
+
+    /**
+     * @return the cache shared by everyone looking at instanceHandle through
+     *         reader, widened to cover window milliseconds if necessary
+     */
+    public static SampleArrayWaveformCache get(ice.SampleArrayDataReader reader, InstanceHandle_t instanceHandle, long window) {
+        SampleArrayWaveformCache cache;
+        synchronized (caches) {
+            cache = lookup(reader, instanceHandle);
+            if (null == cache) {
+                purge();
+                cache = new SampleArrayWaveformCache(reader, new InstanceHandle_t(instanceHandle));
+                cache.fed = fedReaders.contains(reader);
+                cache.ensureWindow(window);
+                // read the history before the cache can be found by offer so
+                // that no sample falls between the two
+                cache.seed();
+                Map<InstanceHandle_t, WeakReference<SampleArrayWaveformCache>> instances = caches.get(reader);
+                if (null == instances) {
+                    instances = new HashMap<InstanceHandle_t, WeakReference<SampleArrayWaveformCache>>();
+                    caches.put(reader, instances);
+                }
+                instances.put(cache.instanceHandle, new WeakReference<SampleArrayWaveformCache>(cache));
+            }
+        }
+        cache.ensureWindow(window);
+        return cache;
+    }
+
+    /**
+     * Declares that the owner of reader passes every live sample it reads to
+     * {@link #offer(ice.SampleArrayDataReader, ice.SampleArray, SampleInfo)}
+     * so caches of reader need not read it beyond its history.
+     */
+    public static void feed(ice.SampleArrayDataReader reader) {
+        synchronized (caches) {
+            fedReaders.add(reader);
+            markFed(reader);
+        }
+    }
+
+    /**
+     * Called by the owner of a fed reader before deleting it. Caches of reader
+     * keep what they hold but are no longer shared or updated.
+     */
+    public static void unfeed(ice.SampleArrayDataReader reader) {
+        synchronized (caches) {
+            fedReaders.remove(reader);
+            caches.remove(reader);
+        }
+    }
+
+    /**
+     * Passes a SampleArray just read from reader to the cache of its instance,
+     * if there is one. May be called on any thread.
+     */
+    public static void offer(ice.SampleArrayDataReader reader, ice.SampleArray sampleArray, SampleInfo sampleInfo) {
+        if (!sampleInfo.valid_data) {
+            return;
+        }
+        SampleArrayWaveformCache cache;
+        synchronized (caches) {
+            cache = lookup(reader, sampleInfo.instance_handle);
+        }
+        if (null != cache) {
+            cache.received(sampleArray);
+        }
+    }
+
+    private static SampleArrayWaveformCache lookup(ice.SampleArrayDataReader reader, InstanceHandle_t instanceHandle) {
+        Map<InstanceHandle_t, WeakReference<SampleArrayWaveformCache>> instances = caches.get(reader);
+        WeakReference<SampleArrayWaveformCache> ref = null == instances ? null : instances.get(instanceHandle);
+        return null == ref ? null : ref.get();
+    }
+
+    private static void markFed(ice.SampleArrayDataReader reader) {
+        Map<InstanceHandle_t, WeakReference<SampleArrayWaveformCache>> instances = caches.get(reader);
+        if (null != instances) {
+            for (WeakReference<SampleArrayWaveformCache> ref : instances.values()) {
+                SampleArrayWaveformCache cache = ref.get();
+                if (null != cache) {
+                    cache.fed = true;
+                }
+            }
+        }
+    }
+
+    // drop entries for caches no panel refers to anymore
+    private static void purge() {
+        Iterator<Map<InstanceHandle_t, WeakReference<SampleArrayWaveformCache>>> readers = caches.values().iterator();
+        while (readers.hasNext()) {
+            Map<InstanceHandle_t, WeakReference<SampleArrayWaveformCache>> instances = readers.next();
+            Iterator<WeakReference<SampleArrayWaveformCache>> itr = instances.values().iterator();
+            while (itr.hasNext()) {
+                if (null == itr.next().get()) {
+                    itr.remove();
+                }
+            }
+            if (instances.isEmpty()) {
+                readers.remove();
+            }
+        }
+    }
+
+    // guarded by this
+    private final WaveformWindow samples = new WaveformWindow();
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+    private long lastRefresh;
+    // presentation time of the newest SampleArray unpacked so far
+    private long newestPresentationTime = Long.MIN_VALUE;
+    // whether new samples arrive through offer
+    private volatile boolean fed;
+
+    protected SampleArrayWaveformCache(ice.SampleArrayDataReader reader, InstanceHandle_t instanceHandle) {
+        super(reader, instanceHandle, ice.SampleArray.class, ice.SampleArraySeq.class);
+    }
+
+    public synchronized long getWindow() {
+        return samples.getWindow();
+    }
+
+    public synchronized void ensureWindow(long window) {
+        samples.ensureWindow(Math.min(window, MAX_WINDOW));
+    }
+
+    /**
+     * @param refreshInterval
+     *            minimum milliseconds between reads of a DataReader that is
+     *            not fed
+     */
+    public synchronized void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    public synchronized long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * @return number of samples currently held
+     */
+    public synchronized int size() {
+        return samples.size();
+    }
+
+    @Override
+    public synchronized void iterate(final WaveformIterator itr) {
+        try {
+            itr.begin();
+
+            if (null == instanceHandle || instanceHandle.is_nil()) {
+                log.warn("Tried to iterate a null or nil instance ");
+                return;
+            }
+
+            long now = System.nanoTime();
+            if (!fed && (now - lastRefresh) >= refreshInterval * 1000000L) {
+                read(SampleStateKind.NOT_READ_SAMPLE_STATE);
+                lastRefresh = now;
+            }
+
+            long earliest = itr.getEarliestTime();
+            long newest = samples.getNewestTime();
+            if (Long.MAX_VALUE != earliest && Long.MIN_VALUE != newest && earliest < newest) {
+                samples.ensureWindow(newest - Math.max(earliest, newest - MAX_WINDOW));
+            }
+
+            samples.iterate(itr);
+        } finally {
+            itr.end();
+        }
+    }
+
+    private static long presentationTime(ice.SampleArray sampleArray) {
+        ice.Time_t t = sampleArray.presentation_time;
+        return t.sec * 1000L + t.nanosec / 1000000L;
+    }
+
+    private synchronized void seed() {
+        read(SampleStateKind.ANY_SAMPLE_STATE);
+        lastRefresh = System.nanoTime();
+    }
+
+    private synchronized void received(ice.SampleArray sampleArray) {
+        long presentationTime = presentationTime(sampleArray);
+        if (presentationTime < newestPresentationTime) {
+            log.debug("Presentation time went backwards for " + getIdentifier() + ", discarding cached samples");
+            clear();
+        } else if (presentationTime == newestPresentationTime) {
+            // already read with the history
+            return;
+        }
+        append(sampleArray);
+    }
+
+    /**
+     * Unpacks the SampleArrays in the given sample states presented after the
+     * newest one already cached. DDS returns the samples of an instance oldest
+     * first so the new ones are found by walking back from the end.
+     */
+    private void read(int sampleStates) {
+        if (null == instanceHandle || instanceHandle.is_nil()) {
+            return;
+        }
+        SampleInfoSeq sample_info_seq = this.sample_info_seq.get();
+        ice.SampleArraySeq sample_array_seq = this.data_seq.get();
+        try {
+            reader.read_instance(sample_array_seq, sample_info_seq, ResourceLimitsQosPolicy.LENGTH_UNLIMITED, instanceHandle,
+                    sampleStates, ViewStateKind.ANY_VIEW_STATE, InstanceStateKind.ANY_INSTANCE_STATE);
+            final int n = sample_info_seq.size();
+            int first = n;
+            boolean newest = true;
+            for (int i = n - 1; i >= 0; i--) {
+                if (!((SampleInfo) sample_info_seq.get(i)).valid_data) {
+                    continue;
+                }
+                long presentationTime = presentationTime((ice.SampleArray) sample_array_seq.get(i));
+                if (presentationTime <= newestPresentationTime) {
+                    if (newest && presentationTime < newestPresentationTime) {
+                        // the source clock went backwards; start over
+                        log.debug("Presentation time went backwards for " + getIdentifier() + ", discarding cached samples");
+                        clear();
+                        first = i;
+                    }
+                    break;
+                }
+                newest = false;
+                first = i;
+            }
+            for (int i = first; i < n; i++) {
+                if (((SampleInfo) sample_info_seq.get(i)).valid_data) {
+                    append((ice.SampleArray) sample_array_seq.get(i));
+                }
+            }
+        } catch (RETCODE_NO_DATA noData) {
+
+        } finally {
+            reader.return_loan(sample_array_seq, sample_info_seq);
+        }
+    }
+
+    private void clear() {
+        samples.clear();
+        newestPresentationTime = Long.MIN_VALUE;
+    }
+
+    private void append(ice.SampleArray sampleArray) {
+        long baseTime = presentationTime(sampleArray);
+        newestPresentationTime = baseTime;
+        if (0 >= sampleArray.frequency) {
+            log.warn("Invalid frequency " + sampleArray.frequency + " for " + sampleArray.unique_device_identifier + " " + sampleArray.metric_id + " "
+                    + sampleArray.instance_id);
+            return;
+        }
+        final int sz = sampleArray.values.userData.size();
+        if (0 == sz) {
+            return;
+        }
+        samples.reserve(sampleArray.frequency, sz);
+        int msPerSample = 1000 / sampleArray.frequency;
+        for (int j = 0; j < sz; j++) {
+            samples.add(baseTime - (sz - j) * msPerSample, sampleArray.values.userData.getFloat(j));
+        }
+    }
+
+    @Override
+    public String getIdentifier() {
+        return keyHolder.instance_id + "-" + keyHolder.metric_id + "-" + keyHolder.unique_device_identifier;
+    }
+}
@@ -33,8 +33,15 @@ public class WaveformRenderer implements WaveformSource.WaveformIterator {
     private boolean continuousRescale = false;
     private boolean overwrite = true;
     private double gapSize = 0.02;
+    private boolean decimate = false;
+    private double columnWidth = 1.0;
     boolean aged_segment = true;
     boolean rendering = false;
+    
+    // the pixel column being accumulated when decimating
+    private boolean column_open = false;
+    private long column;
+    private double column_x, column_first_y, column_last_y, column_min_y, column_max_y;
 
     public void setOverwrite(boolean overwrite) {
         this.overwrite = overwrite;
@@ -52,6 +59,32 @@ public class WaveformRenderer implements WaveformSource.WaveformIterator {
         return overwrite;
     }
     
+    /**
+     * When decimating, samples falling in the same pixel column are reduced
+     * to a vertical min/max line plus the segment connecting it to the
+     * previous column, so at most two lines are drawn per column however high
+     * the sample rate.
+     */
+    public void setDecimate(boolean decimate) {
+        this.decimate = decimate;
+    }
+    
+    public boolean getDecimate() {
+        return decimate;
+    }
+    
+    /**
+     * @param columnWidth width in canvas units of the columns samples are
+     * bucketed into when decimating; one pixel by default
+     */
+    public void setColumnWidth(double columnWidth) {
+        this.columnWidth = columnWidth;
+    }
+    
+    public double getColumnWidth() {
+        return columnWidth;
+    }
+    
     public void setContinuousRescale(boolean continuousRescale) {
         this.continuousRescale = continuousRescale;
     }
@@ -82,6 +115,7 @@ public class WaveformRenderer implements WaveformSource.WaveformIterator {
             if(time >= t0 && time < t2) {
                 // the newer data (left)
                 if(aged_segment) {
+                    flushColumn();
                     last_x = -1;
                     last_y = -1;
                     aged_segment = false;
@@ -110,6 +144,10 @@ public class WaveformRenderer implements WaveformSource.WaveformIterator {
         double y = extent.getMinY() + y_prop * (extent.getMaxY()-extent.getMinY());
         
         if(x_prop>=0.0&&x_prop<1.0&&y_prop>=0.0&&y_prop<1.0) {
+            if(decimate) {
+                accumulate(x, y);
+                return;
+            }
             if(last_x>=0.0||last_y>=0.0&&x>last_x) {
                 count++;
                 canvas.drawLine(last_x, last_y, x, y);
@@ -124,6 +162,38 @@ public class WaveformRenderer implements WaveformSource.WaveformIterator {
         
     }
     
+    private void accumulate(double x, double y) {
+        long column = (long) Math.floor(x / columnWidth);
+        if(column_open && column == this.column) {
+            column_min_y = Math.min(y, column_min_y);
+            column_max_y = Math.max(y, column_max_y);
+            column_last_y = y;
+        } else {
+            flushColumn();
+            column_open = true;
+            this.column = column;
+            column_x = x;
+            column_first_y = column_last_y = column_min_y = column_max_y = y;
+        }
+    }
+    
+    private void flushColumn() {
+        if(!column_open) {
+            return;
+        }
+        column_open = false;
+        if(last_x>=0.0||last_y>=0.0&&column_x>last_x) {
+            count++;
+            canvas.drawLine(last_x, last_y, column_x, column_first_y);
+        }
+        if(column_max_y > column_min_y) {
+            count++;
+            canvas.drawLine(column_x, column_min_y, column_x, column_max_y);
+        }
+        last_x = column_x;
+        last_y = column_last_y;
+    }
+    
     public void render(WaveformSource source, WaveformCanvas canvas, long t1, long t2) {
         synchronized(this) {
             this.rendering = true;
@@ -161,6 +231,7 @@ public class WaveformRenderer implements WaveformSource.WaveformIterator {
     
             this.last_x = -1;
             this.last_y = -1;
+            this.column_open = false;
             
             source.iterate(this);
         } finally {
@@ -182,6 +253,12 @@ public class WaveformRenderer implements WaveformSource.WaveformIterator {
     }
     
     private int count = 0;
+
+    @Override
+    public long getEarliestTime() {
+        return t1;
+    }
+
     @Override
     public void begin() {
         count = 0;
@@ -191,6 +268,7 @@ public class WaveformRenderer implements WaveformSource.WaveformIterator {
 
     @Override
     public void end() {
+        flushColumn();
 //        System.err.println(count + " points");
 //        System.err.println(count + " points rendered most recent " + new Date(mostRecent));
     }
@@ -21,6 +21,14 @@ public interface WaveformSource {
         void begin();
         void sample(long time, float value);
         void end();
+        /**
+         * @return the earliest sample time this iterator makes use of, so that
+         *         sources keeping a window of history can keep enough of it;
+         *         Long.MAX_VALUE (the default) asks for nothing in particular
+         */
+        default long getEarliestTime() {
+            return Long.MAX_VALUE;
+        }
     }
     void iterate(WaveformIterator itr);
     String getIdentifier();
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.guis.waveform;
+
+/**
+ * The most recent time window of one waveform in primitive ring buffers. The
+ * buffers grow when the window is widened or the sample rate calls for more
+ * room; once full the oldest samples are overwritten. Samples are expected in
+ * time order. Not thread safe.
+ */
+final class WaveformWindow {
+    private long window;
+    private long[] times = new long[0];
+    private float[] values = new float[0];
+    // index of the oldest sample and the number of samples held
+    private int head, count;
+
+    long getWindow() {
+        return window;
+    }
+
+    /**
+     * Widens the window to at least window milliseconds; the window is never
+     * narrowed.
+     */
+    void ensureWindow(long window) {
+        this.window = Math.max(this.window, window);
+    }
+
+    int size() {
+        return count;
+    }
+
+    int capacity() {
+        return times.length;
+    }
+
+    void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * @return time of the newest sample or Long.MIN_VALUE if there is none
+     */
+    long getNewestTime() {
+        return 0 == count ? Long.MIN_VALUE : times[(head + count - 1) % times.length];
+    }
+
+    /**
+     * Makes room for the window at frequency Hz plus n samples about to be
+     * added, keeping the samples already held.
+     */
+    void reserve(int frequency, int n) {
+        int capacity = (int) (window * frequency / 1000L) + n;
+        if (capacity <= times.length) {
+            return;
+        }
+        long[] times = new long[capacity];
+        float[] values = new float[capacity];
+        for (int i = 0; i < count; i++) {
+            int idx = (head + i) % this.times.length;
+            times[i] = this.times[idx];
+            values[i] = this.values[idx];
+        }
+        this.times = times;
+        this.values = values;
+        head = 0;
+    }
+
+    void add(long time, float value) {
+        final int capacity = times.length;
+        if (0 == capacity) {
+            return;
+        }
+        int tail = (head + count) % capacity;
+        times[tail] = time;
+        values[tail] = value;
+        if (count < capacity) {
+            count++;
+        } else {
+            // overwrote the oldest
+            head = head + 1 == capacity ? 0 : head + 1;
+        }
+    }
+
+    /**
+     * Passes the samples no older than the window before the newest sample to
+     * itr, oldest first. Does not call begin or end.
+     */
+    void iterate(WaveformSource.WaveformIterator itr) {
+        if (0 == count) {
+            return;
+        }
+        long oldest = getNewestTime() - window;
+        for (int i = 0, idx = head; i < count; i++, idx = idx + 1 == times.length ? 0 : idx + 1) {
+            if (times[idx] >= oldest) {
+                itr.sample(times[idx], values[idx]);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.guis.waveform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mdpnp.rtiapi.data.QosProfiles;
+import org.mdpnp.rtiapi.data.TopicUtil;
+import org.mdpnp.rtiapi.qos.IceQos;
+
+import com.rti.dds.domain.DomainParticipant;
+import com.rti.dds.domain.DomainParticipantFactory;
+import com.rti.dds.infrastructure.ConditionSeq;
+import com.rti.dds.infrastructure.Duration_t;
+import com.rti.dds.infrastructure.InstanceHandle_t;
+import com.rti.dds.infrastructure.RETCODE_NO_DATA;
+import com.rti.dds.infrastructure.ResourceLimitsQosPolicy;
+import com.rti.dds.infrastructure.StatusKind;
+import com.rti.dds.infrastructure.WaitSet;
+import com.rti.dds.publication.Publisher;
+import com.rti.dds.subscription.InstanceStateKind;
+import com.rti.dds.subscription.ReadCondition;
+import com.rti.dds.subscription.SampleInfo;
+import com.rti.dds.subscription.SampleInfoSeq;
+import com.rti.dds.subscription.SampleStateKind;
+import com.rti.dds.subscription.Subscriber;
+import com.rti.dds.subscription.ViewStateKind;
+import com.rti.dds.topic.Topic;
+
+/**
+ * Publishes SampleArrays of 5 samples at 10Hz to a reader in the same
+ * participant and looks at them through {@link SampleArrayWaveformCache}.
+ */
+public class SampleArrayWaveformCacheTest {
+    private static final String UDI = "SampleArrayWaveformCacheTest";
+
+    private DomainParticipant participant;
+    private ice.SampleArrayDataReader reader;
+    private ice.SampleArrayDataWriter writer;
+    private ReadCondition notRead;
+    private WaitSet waitSet;
+    private long now;
+
+    @Before
+    public void setUp() throws Exception {
+        IceQos.loadAndSetIceQos();
+        participant = DomainParticipantFactory.get_instance().create_participant(0, DomainParticipantFactory.PARTICIPANT_QOS_DEFAULT, null,
+                StatusKind.STATUS_MASK_NONE);
+        Topic topic = TopicUtil.findOrCreateTopic(participant, ice.SampleArrayTopic.VALUE, ice.SampleArrayTypeSupport.class);
+        Subscriber subscriber = participant.create_subscriber(DomainParticipant.SUBSCRIBER_QOS_DEFAULT, null, StatusKind.STATUS_MASK_NONE);
+        Publisher publisher = participant.create_publisher(DomainParticipant.PUBLISHER_QOS_DEFAULT, null, StatusKind.STATUS_MASK_NONE);
+        reader = (ice.SampleArrayDataReader) subscriber.create_datareader_with_profile(topic, QosProfiles.ice_library, QosProfiles.waveform_data,
+                null, StatusKind.STATUS_MASK_NONE);
+        writer = (ice.SampleArrayDataWriter) publisher.create_datawriter_with_profile(topic, QosProfiles.ice_library, QosProfiles.waveform_data,
+                null, StatusKind.STATUS_MASK_NONE);
+
+        // used to wait for delivery without reading, which would mark samples READ
+        notRead = reader.create_readcondition(SampleStateKind.NOT_READ_SAMPLE_STATE, ViewStateKind.ANY_VIEW_STATE,
+                InstanceStateKind.ANY_INSTANCE_STATE);
+        waitSet = new WaitSet();
+        waitSet.attach_condition(notRead);
+
+        now = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SampleArrayWaveformCache.unfeed(reader);
+        waitSet.detach_condition(notRead);
+        waitSet.delete();
+        reader.delete_readcondition(notRead);
+        participant.delete_contained_entities();
+        DomainParticipantFactory.get_instance().delete_participant(participant);
+    }
+
+    private static ice.SampleArray keyHolder(String metric) {
+        ice.SampleArray sa = new ice.SampleArray();
+        sa.unique_device_identifier = UDI;
+        sa.metric_id = metric;
+        return sa;
+    }
+
+    /**
+     * Writes 5 samples presented at time and waits until they arrive.
+     */
+    private InstanceHandle_t write(String metric, long time) {
+        ice.SampleArray sa = keyHolder(metric);
+        sa.frequency = 10;
+        sa.presentation_time.sec = (int) (time / 1000L);
+        sa.presentation_time.nanosec = (int) (time % 1000L * 1000000L);
+        sa.values.userData.addAllFloat(new float[] { 1f, 2f, 3f, 4f, 5f });
+        writer.write(sa, InstanceHandle_t.HANDLE_NIL);
+        waitSet.wait(new ConditionSeq(), new Duration_t(10, 0));
+        return reader.lookup_instance(keyHolder(metric));
+    }
+
+    /**
+     * Reads what is new and offers it, as the owner of a fed reader does.
+     */
+    private void deliver() {
+        ice.SampleArraySeq data = new ice.SampleArraySeq();
+        SampleInfoSeq info = new SampleInfoSeq();
+        try {
+            reader.read(data, info, ResourceLimitsQosPolicy.LENGTH_UNLIMITED, SampleStateKind.NOT_READ_SAMPLE_STATE,
+                    ViewStateKind.ANY_VIEW_STATE, InstanceStateKind.ANY_INSTANCE_STATE);
+            for (int i = 0; i < info.size(); i++) {
+                SampleArrayWaveformCache.offer(reader, (ice.SampleArray) data.get(i), (SampleInfo) info.get(i));
+            }
+        } catch (RETCODE_NO_DATA noData) {
+
+        } finally {
+            reader.return_loan(data, info);
+        }
+    }
+
+    private static int count(WaveformSource source, final long earliestTime) {
+        final int[] n = new int[1];
+        source.iterate(new WaveformSource.WaveformIterator() {
+            @Override
+            public void begin() {
+            }
+
+            @Override
+            public void sample(long time, float value) {
+                n[0]++;
+            }
+
+            @Override
+            public void end() {
+            }
+
+            @Override
+            public long getEarliestTime() {
+                return earliestTime;
+            }
+        });
+        return n[0];
+    }
+
+    @Test
+    public void testPanelsShareOneCache() {
+        InstanceHandle_t handle = write("A", now);
+        SampleArrayWaveformCache cache = SampleArrayWaveformCache.get(reader, handle);
+        assertEquals(5, cache.size());
+        assertEquals(SampleArrayWaveformCache.DEFAULT_WINDOW, cache.getWindow());
+
+        assertSame(cache, SampleArrayWaveformCache.get(reader, keyHolder("A")));
+        assertSame(cache, SampleArrayWaveformCache.get(reader, new InstanceHandle_t(handle), 30000L));
+        assertEquals(30000L, cache.getWindow());
+
+        assertNotSame(cache, SampleArrayWaveformCache.get(reader, write("B", now)));
+    }
+
+    @Test
+    public void testWindowFollowsLongestPanel() {
+        SampleArrayWaveformCache cache = SampleArrayWaveformCache.get(reader, write("A", now));
+        // the newest sample is one sample period before the presentation time
+        count(cache, now - 100L - 60000L);
+        assertEquals(60000L, cache.getWindow());
+        count(cache, now - 100L - 20000L);
+        assertEquals(60000L, cache.getWindow());
+        count(cache, Long.MIN_VALUE);
+        assertEquals(SampleArrayWaveformCache.MAX_WINDOW, cache.getWindow());
+    }
+
+    @Test
+    public void testReadsOnlyNewSamples() {
+        SampleArrayWaveformCache cache = SampleArrayWaveformCache.get(reader, write("A", now));
+        cache.setRefreshInterval(0L);
+        write("A", now + 500L);
+        assertEquals(10, count(cache, Long.MAX_VALUE));
+        assertEquals(10, count(cache, Long.MAX_VALUE));
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testFedCacheTakesOfferedSamples() {
+        SampleArrayWaveformCache.feed(reader);
+        SampleArrayWaveformCache cache = SampleArrayWaveformCache.get(reader, write("A", now));
+        cache.setRefreshInterval(0L);
+        assertEquals(5, cache.size());
+
+        // a fed cache leaves new samples to the owner of the reader
+        write("A", now + 500L);
+        assertEquals(5, count(cache, Long.MAX_VALUE));
+        deliver();
+        assertEquals(10, count(cache, Long.MAX_VALUE));
+        deliver();
+        assertEquals(10, cache.size());
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.guis.waveform;
+
+/**
+ * Renders many synthetic 500Hz traces onto a headless {@link WaveformCanvas}
+ * that only counts and accumulates line endpoints, comparing one line per
+ * sample against min/max per pixel column decimation.
+ *
+ * Usage: WaveformRendererBenchmark [traces] [frames]
+ */
+public class WaveformRendererBenchmark {
+    private static final int FREQUENCY = 500;
+    private static final long WINDOW_MS = 10000L;
+    private static final int WIDTH = 800, HEIGHT = 100;
+
+    private static class HeadlessCanvas implements WaveformCanvas {
+        private final Extent extent = new ExtentImpl(0, WIDTH, 0, HEIGHT);
+        long lines;
+        double checksum;
+
+        @Override
+        public void drawLine(double x0, double y0, double x1, double y1) {
+            lines++;
+            checksum += x0 + y0 + x1 + y1;
+        }
+
+        @Override
+        public void clearRect(double x, double y, double width, double height) {
+        }
+
+        @Override
+        public void drawString(String str, double x, double y) {
+        }
+
+        @Override
+        public Extent getExtent() {
+            return extent;
+        }
+    }
+
+    private static class SyntheticSource implements WaveformSource {
+        private final long[] times;
+        private final float[] values;
+
+        SyntheticSource(long end, double phase) {
+            int n = (int) (FREQUENCY * WINDOW_MS / 1000L);
+            times = new long[n];
+            values = new float[n];
+            for (int i = 0; i < n; i++) {
+                times[i] = end - WINDOW_MS + i * 1000L / FREQUENCY;
+                double t = i / (double) FREQUENCY + phase;
+                // a sharp spike once per second on a slow baseline wander
+                double beat = t % 1.0;
+                values[i] = (float) (Math.sin(2 * Math.PI * 0.2 * t) * 0.1 + (beat < 0.04 ? 1.0 - Math.abs(beat - 0.02) * 50.0 : 0.0));
+            }
+        }
+
+        @Override
+        public void iterate(WaveformIterator itr) {
+            itr.begin();
+            for (int i = 0; i < times.length; i++) {
+                itr.sample(times[i], values[i]);
+            }
+            itr.end();
+        }
+
+        @Override
+        public String getIdentifier() {
+            return "synthetic";
+        }
+
+        @Override
+        public boolean loadingHistoricalData() {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) {
+        int traces = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        long end = System.currentTimeMillis();
+        SyntheticSource[] sources = new SyntheticSource[traces];
+        for (int i = 0; i < traces; i++) {
+            sources[i] = new SyntheticSource(end, i * 0.13);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            run("per-sample", false, sources, frames, end);
+            run("decimated ", true, sources, frames, end);
+        }
+    }
+
+    private static void run(String name, boolean decimate, SyntheticSource[] sources, int frames, long end) {
+        WaveformRenderer[] renderers = new WaveformRenderer[sources.length];
+        for (int i = 0; i < renderers.length; i++) {
+            renderers[i] = new WaveformRenderer();
+            renderers[i].setDecimate(decimate);
+        }
+        HeadlessCanvas canvas = new HeadlessCanvas();
+        long start = System.nanoTime();
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < sources.length; i++) {
+                renderers[i].render(sources[i], canvas, end - WINDOW_MS, end);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(name + ": " + sources.length + " traces " + (canvas.lines / frames) + " lines/frame " + (elapsed / frames / 1000L)
+                + "us/frame (checksum " + (long) canvas.checksum + ")");
+    }
+}
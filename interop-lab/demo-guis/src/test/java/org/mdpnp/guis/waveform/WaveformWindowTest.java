@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2014, MD PnP Program
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.mdpnp.guis.waveform;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WaveformWindowTest {
+    private static class Collector implements WaveformSource.WaveformIterator {
+        final List<Long> times = new ArrayList<Long>();
+        final List<Float> values = new ArrayList<Float>();
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void sample(long time, float value) {
+            times.add(time);
+            values.add(value);
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
+    private WaveformWindow window;
+
+    @Before
+    public void setUp() {
+        window = new WaveformWindow();
+    }
+
+    // adds samples 100ms apart at 10Hz with the sample number as the value
+    private void add(int from, int to) {
+        for (int i = from; i < to; i++) {
+            window.add(i * 100L, i);
+        }
+    }
+
+    private void assertSamples(int from, int to) {
+        Collector c = new Collector();
+        window.iterate(c);
+        assertEquals(to - from, c.times.size());
+        for (int i = from; i < to; i++) {
+            assertEquals(i * 100L, (long) c.times.get(i - from));
+            assertEquals(i, c.values.get(i - from), 0f);
+        }
+    }
+
+    @Test
+    public void testRingWraps() {
+        window.ensureWindow(1000L);
+        window.reserve(10, 5);
+        assertEquals(15, window.capacity());
+
+        add(0, 40);
+        assertEquals(15, window.size());
+        assertEquals(3900L, window.getNewestTime());
+        // the 15 newest are held but only a second's worth is in the window
+        assertSamples(29, 40);
+    }
+
+    @Test
+    public void testWindowTrims() {
+        window.ensureWindow(500L);
+        window.reserve(10, 10);
+        add(0, 15);
+        assertEquals(15, window.size());
+        assertSamples(9, 15);
+
+        window.ensureWindow(200L);
+        assertEquals(500L, window.getWindow());
+        assertSamples(9, 15);
+    }
+
+    @Test
+    public void testWidenKeepsWrappedSamples() {
+        window.ensureWindow(500L);
+        window.reserve(10, 1);
+        assertEquals(6, window.capacity());
+        add(0, 9);
+        assertSamples(3, 9);
+
+        window.ensureWindow(1000L);
+        window.reserve(10, 1);
+        assertEquals(11, window.capacity());
+        assertSamples(3, 9);
+
+        add(9, 12);
+        assertEquals(9, window.size());
+        assertSamples(3, 12);
+    }
+
+    @Test
+    public void testClear() {
+        window.ensureWindow(1000L);
+        window.reserve(10, 0);
+        add(0, 5);
+        window.clear();
+        assertEquals(0, window.size());
+        assertEquals(Long.MIN_VALUE, window.getNewestTime());
+        assertSamples(0, 0);
+        add(5, 7);
+        assertSamples(5, 7);
+    }
+}